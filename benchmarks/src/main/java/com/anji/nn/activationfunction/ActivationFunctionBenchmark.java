@@ -0,0 +1,79 @@
+package com.anji.nn.activationfunction;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the boxed ({@link ActivationFunction#apply(double)}), primitive
+ * ({@link ActivationFunction#evaluate(double)}) and array-at-a-time
+ * ({@link ActivationFunction#applyInPlace(double[], int, int)}) evaluation paths of each activation function. The
+ * function parameter defaults to every {@link ActivationFunction}; a subset can be selected with, for example,
+ * <code>java -jar target/benchmarks.jar -p function=SigmoidActivationFunction,TanhActivationFunction</code>.
+ *
+ * @author Oliver Coleman
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActivationFunctionBenchmark {
+
+    private static final int SIZE = 4096;
+
+    @Param
+    public ActivationFunction function;
+
+    private double[] input;
+    private double[] values;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        input = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            input[i] = random.nextDouble() * 4 - 2;
+        }
+        values = new double[SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void boxedApply(Blackhole bh) {
+        for (int i = 0; i < SIZE; i++) {
+            Double v = function.apply(input[i]);
+            bh.consume(v);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void primitiveEvaluate(Blackhole bh) {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(function.evaluate(input[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public double[] applyInPlace() {
+        System.arraycopy(input, 0, values, 0, SIZE);
+        function.applyInPlace(values, 0, SIZE);
+        return values;
+    }
+}
@@ -64,6 +64,23 @@ public interface Activator extends XmlPersistable {
 	 */
 	public double[][][] nextSequence(double[][][] stimuli);
 
+	/**
+	 * Retrieve the output for a sequence of input vectors stored in a single flat array, storing the outputs in a
+	 * caller-owned flat array. This is equivalent to calling {@link #next(double[])} (or {@link #next(double[][])}
+	 * with row-packed values for networks with 2D input and output layers, see
+	 * {@link com.ojcoleman.ahni.util.ArrayUtil#pack(double[][])}) for each input vector in turn, but implementations
+	 * should avoid allocating memory, making it suitable for evaluating many patterns per network.
+	 * 
+	 * @param stimuli The input vectors; vector <code>i</code> occupies the {@link #getInputCount()} values starting at
+	 *            <code>i * stimuliStride</code>.
+	 * @param stimuliStride The distance between the starts of consecutive input vectors in <code>stimuli</code>.
+	 * @param responses The array to store the output vectors in; the output for vector <code>i</code> is stored in
+	 *            the {@link #getOutputCount()} values starting at <code>i * responseStride</code>.
+	 * @param responseStride The distance between the starts of consecutive output vectors in <code>responses</code>.
+	 * @param count The number of input vectors.
+	 */
+	public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count);
+
 	/**
 	 * @return String XML representation of object.
 	 */
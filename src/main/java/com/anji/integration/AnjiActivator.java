@@ -23,6 +23,7 @@ import java.awt.Graphics2D;
 import java.util.Arrays;
 
 import com.anji.nn.AnjiNet;
+import com.anji.nn.AnjiNetBlockEvaluator;
 import com.anji.nn.Neuron;
 import com.anji.nn.Pattern;
 import com.ojcoleman.ahni.util.ArrayUtil;
@@ -40,6 +41,9 @@ public class AnjiActivator implements Activator {
     private final int outputDimension;
     private final double minResponseValue;
     private final double maxResponseValue;
+    private AnjiNetBlockEvaluator blockEvaluator;
+    private boolean blockEvaluatorChecked = false;
+    private double[] batchInput;
 
     /**
      * @param aNet ANN
@@ -84,6 +88,18 @@ public class AnjiActivator implements Activator {
             inputPattern.setValues(newInputValues);
         }
 
+        double[] result = new double[outputDimension];
+        activate(result, 0);
+
+        //assert !Double.isNaN(ArrayUtil.sum(result)) : "result array contains NaN: " + Arrays.toString(result);
+        return result;
+    }
+
+    /**
+     * Activate the network with the current input pattern values, storing
+     * the output values in the given array starting at the given index.
+     */
+    private void activate(double[] result, int resultIndex) {
         // step through network activations for recurrent network
         for (int cycle = 0; cycle < numCycles - 1; ++cycle) {
             net.step();
@@ -96,17 +112,13 @@ public class AnjiActivator implements Activator {
 
         // last step, get results
         net.step();
-        double[] result = new double[outputDimension];
         for (int idx = 0; idx < outputDimension; ++idx) {
             Neuron n = net.getOutputNeuron(idx);
-            result[idx] = n.getValue();
+            result[resultIndex + idx] = n.getValue();
         }
         if (net.isRecurrent()) {
             net.fullyActivate();
         }
-
-        //assert !Double.isNaN(ArrayUtil.sum(result)) : "result array contains NaN: " + Arrays.toString(result);
-        return result;
     }
 
     @Override
@@ -128,6 +140,68 @@ public class AnjiActivator implements Activator {
         throw new IllegalArgumentException("AnjiActivator can only accept one dimensional input patterns");
     }
 
+    /**
+     * {@inheritDoc} The input values are copied into an array owned by this
+     * activator, which replaces any input array previously given to
+     * {@link #next(double[])}.
+     */
+    @Override
+    public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+        double[] input = getBatchInput();
+        inputPattern.setValues(input);
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(stimuli, i * stimuliStride, input, 0, input.length);
+            activate(responses, i * responseStride);
+        }
+    }
+
+    /**
+     * @return a reusable array to copy input values into for
+     * {@link #nextBatch(double[], int, double[], int, int)}.
+     */
+    protected double[] getBatchInput() {
+        if (batchInput == null) {
+            batchInput = new double[getInputCount()];
+        }
+        return batchInput;
+    }
+
+    /**
+     * @return true iff this activator supports evaluating blocks of input
+     * vectors via {@link #nextBlock(double[][], int, double[][])}. This is the
+     * case for feed-forward networks, see
+     * {@link AnjiNetBlockEvaluator#canEvaluate(AnjiNet)}.
+     */
+    public boolean supportsBlockActivation() {
+        if (!blockEvaluatorChecked) {
+            blockEvaluatorChecked = true;
+            if (AnjiNetBlockEvaluator.canEvaluate(net)) {
+                blockEvaluator = new AnjiNetBlockEvaluator(net);
+            }
+        }
+        return blockEvaluator != null;
+    }
+
+    /**
+     * Activate the network for a block of input vectors. The results are
+     * identical to calling {@link #reset()} and then {@link #next(double[])}
+     * for each input vector. Only supported if
+     * {@link #supportsBlockActivation()} returns true.
+     *
+     * @param inputs The input values, indexed by [input index][block index].
+     * @param count The number of input vectors in the block.
+     * @param outputs Array to store the output values in, indexed by [output
+     * index][block index].
+     * @throws IllegalStateException if block activation is not supported for
+     * this network.
+     */
+    public void nextBlock(double[][] inputs, int count, double[][] outputs) {
+        if (!supportsBlockActivation()) {
+            throw new IllegalStateException("Block activation is only supported for feed-forward networks.");
+        }
+        blockEvaluator.evaluate(inputs, count, outputs);
+    }
+
     /**
      * @param array glue between double arrays and neuron connections.
      */
@@ -180,6 +254,14 @@ public class AnjiActivator implements Activator {
         numCycles = aNumCycles;
     }
 
+    /**
+     * @return number of times input pattern is "shown" to network before a
+     * result is returned
+     */
+    public int getNumCycles() {
+        return numCycles;
+    }
+
     /**
      * @return dimension of input pattern
      */
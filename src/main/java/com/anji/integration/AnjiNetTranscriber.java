@@ -39,6 +39,7 @@ import com.anji.neat.NeuronAllele;
 import com.anji.neat.NeuronType;
 import com.anji.nn.AnjiNet;
 import com.anji.nn.CacheNeuronConnection;
+import com.anji.nn.CompiledAnjiNet;
 import com.anji.nn.Neuron;
 import com.anji.nn.NeuronConnection;
 import com.anji.nn.RecurrencyPolicy;
@@ -47,6 +48,7 @@ import com.anji.util.Configurable;
 import com.anji.util.Properties;
 import java.util.SortedSet;
 import org.jgapcustomised.Allele;
+import org.jgapcustomised.PackedAlleles;
 
 /**
  * The purpose of this class is to construct a neural net object
@@ -66,8 +68,22 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
      */
     public final static String RECURRENT_CYCLES_KEY = "recurrent.cycles";
 
+    /**
+     * Whether to use a {@link CompiledAnjiActivator} for networks that can be
+     * compiled (see {@link CompiledAnjiNet#canCompile(AnjiNet)}); these
+     * produce identical outputs to {@link AnjiActivator} but are considerably
+     * faster. Applies to all networks transcribed to an {@link AnjiNet}, not
+     * only recurrent ones. Note that a {@link CompiledAnjiActivator} does not
+     * update the state of the neurons in the underlying {@link AnjiNet}, so
+     * this should only be enabled if {@link com.anji.nn.Neuron#getValue()} is
+     * not inspected after activation. Default is false.
+     */
+    public final static String COMPILED_KEY = "ann.compiled";
+
     private int recurrentCycles;
 
+    private boolean compiled = true;
+
     private final static Logger logger = Logger.getLogger(AnjiNetTranscriber.class);
 
     private RecurrencyPolicy recurrencyPolicy = RecurrencyPolicy.BEST_GUESS;
@@ -94,6 +110,7 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
     public void init(Properties props) {
         recurrencyPolicy = RecurrencyPolicy.load(props);
         recurrentCycles = props.getIntProperty(RECURRENT_CYCLES_KEY, 1);
+        compiled = props.getBooleanProperty(COMPILED_KEY, false);
     }
 
     /**
@@ -102,7 +119,7 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
      */
     @Override
     public AnjiActivator transcribe(Chromosome genotype) throws TranscriberException {
-        return new AnjiActivator(newAnjiNet(genotype), recurrentCycles);
+        return newActivator(newAnjiNet(genotype));
     }
 
     /**
@@ -113,7 +130,14 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
      */
     @Override
     public AnjiActivator transcribe(Chromosome genotype, AnjiActivator substrate) throws TranscriberException {
-        return new AnjiActivator(newAnjiNet(genotype), recurrentCycles);
+        return newActivator(newAnjiNet(genotype));
+    }
+
+    private AnjiActivator newActivator(AnjiNet net) {
+        if (compiled && CompiledAnjiNet.canCompile(net)) {
+            return new CompiledAnjiActivator(net, recurrentCycles);
+        }
+        return new AnjiActivator(net, recurrentCycles);
     }
 
         /**
@@ -128,7 +152,14 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
             throw new IllegalArgumentException("Genotype has no alleles...");
         }
         
-        return newAnjiNet(genotype.getAlleles(), genotype.getId().toString());
+        // The material of a Chromosome is never modified, so its packed snapshot can be used.
+        PackedAlleles alleles = genotype.getPackedAlleles();
+        return newAnjiNet(
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.INPUT),
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.OUTPUT),
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.HIDDEN),
+                NeatChromosomeUtility.getConnectionList(alleles),
+                genotype.getId().toString());
     }
     
     /**
@@ -141,12 +172,36 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
      */
     public AnjiNet newAnjiNet(SortedSet<Allele> alleles, String id) 
             throws TranscriberException 
+    {
+        return newAnjiNet(
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.INPUT),
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.OUTPUT),
+                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.HIDDEN),
+                NeatChromosomeUtility.getConnectionList(alleles),
+                id);
+    }
+
+    /**
+     * create new <code>AnjiNet</code> from the neuron and connection alleles
+     * of a genotype
+     *
+     * @param inNeuronAlleles input neuron alleles by innovation ID
+     * @param outNeuronAlleles output neuron alleles by innovation ID
+     * @param hiddenNeuronAlleles hidden neuron alleles by innovation ID
+     * @param remainingConnAlleles connection alleles; this list is consumed
+     * @param id
+     * @return phenotype
+     * @throws TranscriberException
+     */
+    private AnjiNet newAnjiNet(SortedMap<Long, NeuronAllele> inNeuronAlleles,
+            SortedMap<Long, NeuronAllele> outNeuronAlleles,
+            SortedMap<Long, NeuronAllele> hiddenNeuronAlleles,
+            List<ConnectionAllele> remainingConnAlleles, String id)
+            throws TranscriberException
     {
         Map<Long, Neuron> allNeurons = new HashMap<>();
 
         // input neurons
-        SortedMap<Long, NeuronAllele> inNeuronAlleles = 
-                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.INPUT);
         if (inNeuronAlleles.isEmpty()) {
             throw new IllegalArgumentException("An AnjiNet must have at least one input neuron.");
         }
@@ -159,8 +214,6 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
         });
 
         // output neurons
-        SortedMap<Long, NeuronAllele> outNeuronAlleles = 
-                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.OUTPUT);
         if (outNeuronAlleles.isEmpty()) {
             throw new IllegalArgumentException("An AnjiNet must have at least one output neuron.");
         }
@@ -173,8 +226,6 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
         }
 
         // hidden neurons
-        SortedMap<Long, NeuronAllele> hiddenNeuronAlleles = 
-                NeatChromosomeUtility.getNeuronMap(alleles, NeuronType.HIDDEN);
         for (NeuronAllele neuronAllele : hiddenNeuronAlleles.values()) {
             Neuron n = new Neuron(ActivationFunctionFactory.valueOf(neuronAllele.getActivationType()), neuronAllele.getBias());
             n.setId(neuronAllele.getInnovationId());
@@ -196,8 +247,6 @@ public class AnjiNetTranscriber implements Transcriber<AnjiActivator>, Configura
         // RecurrencyPolicy.BEST_GUESS - any connection where the source neuron is in the same or
         // later (i.e., nearer output layer) as the destination is a CacheNeuronConnection
         List<CacheNeuronConnection> recurrentConns = new ArrayList<>();
-        List<ConnectionAllele> remainingConnAlleles = 
-                NeatChromosomeUtility.getConnectionList(alleles);
         Set<Long> currentNeuronInnovationIds = new HashSet<>(outNeuronAlleles.keySet());
         Set<Long> traversedNeuronInnovationIds = new HashSet<>(currentNeuronInnovationIds);
         Set<Long> nextNeuronInnovationIds = new HashSet<>();
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2004 Derek James and Philip Tucker
+ *
+ * This file is part of ANJI (Another NEAT Java Implementation).
+ *
+ * ANJI is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See
+ * the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA
+ * 02111-1307 USA
+ */
+package com.anji.integration;
+
+import java.util.Arrays;
+
+import com.anji.nn.AnjiNet;
+import com.anji.nn.CompiledAnjiNet;
+import com.ojcoleman.ahni.util.ArrayUtil;
+
+/**
+ * An {@link AnjiActivator} that activates a {@link CompiledAnjiNet} compiled from the given network rather than
+ * walking the object graph of the network. The outputs produced are identical to those produced by
+ * {@link AnjiActivator}. Note that the state of the neurons in the underlying {@link AnjiNet} (as returned by
+ * {@link #getAnjiNet()}) is not updated when this activator is activated, so {@link com.anji.nn.Neuron#getValue()}
+ * returns stale values; callers that inspect neuron values should use an {@link AnjiActivator} instead (see
+ * {@link AnjiNetTranscriber#COMPILED_KEY}).
+ *
+ * @author Oliver Coleman
+ */
+public class CompiledAnjiActivator extends AnjiActivator {
+
+    private final CompiledAnjiNet compiledNet;
+
+    /**
+     * @param aNet ANN
+     * @param aNumCycles number of times input pattern is "shown" to network
+     * before a result is returned; this allows for recurrent connections to
+     * take effect
+     * @throws IllegalArgumentException if the network can not be compiled, see
+     * {@link CompiledAnjiNet#canCompile(AnjiNet)}.
+     */
+    public CompiledAnjiActivator(AnjiNet aNet, int aNumCycles) throws IllegalArgumentException {
+        super(aNet, aNumCycles);
+        compiledNet = new CompiledAnjiNet(aNet);
+    }
+
+    @Override
+    public double[] next(double[] newInputValues) {
+        double[] result = new double[compiledNet.getOutputCount()];
+        next(newInputValues, result);
+        return result;
+    }
+
+    /**
+     * Activate the network with the given input values, storing the output
+     * values in the given array. This does not allocate any memory.
+     *
+     * @param newInputValues the input values, or null to reuse the previous
+     * input values. The array is used directly rather than copied, so it should
+     * not be modified during subsequent calls with a null argument.
+     * @param result array to store the output values in.
+     */
+    public void next(double[] newInputValues, double[] result) {
+        assert !Double.isNaN(ArrayUtil.sum(newInputValues)) : "input array contains NaN: " + Arrays.toString(newInputValues);
+
+        if (newInputValues != null) {
+            compiledNet.setInputs(newInputValues);
+        }
+        // The outputs of a feed-forward network are the same for every cycle.
+        int cycles = compiledNet.isRecurrent() ? getNumCycles() : 1;
+        for (int cycle = 0; cycle < cycles; ++cycle) {
+            compiledNet.step();
+        }
+        compiledNet.getOutputs(result);
+    }
+
+    @Override
+    public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+        double[] input = getBatchInput();
+        compiledNet.setInputs(input);
+        int cycles = compiledNet.isRecurrent() ? getNumCycles() : 1;
+        int outputCount = compiledNet.getOutputCount();
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(stimuli, i * stimuliStride, input, 0, input.length);
+            for (int cycle = 0; cycle < cycles; ++cycle) {
+                compiledNet.step();
+            }
+            int r = i * responseStride;
+            for (int o = 0; o < outputCount; o++) {
+                responses[r + o] = compiledNet.getOutput(o);
+            }
+        }
+    }
+
+    /**
+     * clear all memory in network, including neurons and recurrent connections
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        compiledNet.reset();
+    }
+
+    /**
+     * Return the compiled form of the underlying AnjiNet.
+     */
+    public CompiledAnjiNet getCompiledNet() {
+        return compiledNet;
+    }
+}
@@ -22,6 +22,7 @@ package com.anji.integration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Priority;
@@ -35,9 +36,12 @@ import com.anji.neat.NeatConfiguration;
 import com.anji.persistence.Persistence;
 import com.anji.run.Run;
 import com.anji.util.Properties;
+import com.ojcoleman.ahni.util.AsyncWriter;
 
 /**
- * Writes genetic algorithm data, including chromosomes and run, to persistent storage.
+ * Writes genetic algorithm data, including chromosomes and run, to persistent storage. By default the data for each
+ * generation is snapshotted and written on a background thread, see {@link #PERSIST_QUEUE_SIZE_KEY}; all pending
+ * writes are completed when <code>GeneticEvent.RUN_COMPLETED_EVENT</code> is received.
  * 
  * @author Philip Tucker
  */
@@ -60,6 +64,13 @@ public class PersistenceEventListener implements GeneticEventListener {
 	 */
 	public final static String PERSIST_LAST_GEN_KEY = "persist.last";
 
+	/**
+	 * properties key, the maximum number of generations waiting to be written to persistent storage by the background
+	 * writer thread before evolution is blocked until the writer catches up. If 0 then generations are written on the
+	 * thread performing evolution. Default is 2.
+	 */
+	public final static String PERSIST_QUEUE_SIZE_KEY = "persist.queue.size";
+
 	private boolean persistAllChroms = false;
 
 	private boolean persistChamps = false;
@@ -76,6 +87,8 @@ public class PersistenceEventListener implements GeneticEventListener {
 
 	private Run run;
 
+	private AsyncWriter writer;
+
 	/**
 	 * ctor
 	 * 
@@ -97,12 +110,14 @@ public class PersistenceEventListener implements GeneticEventListener {
 		persistAllChroms = props.getBooleanProperty(PERSIST_ALL_CHROMOSOMES_KEY);
 		persistChamps = props.getBooleanProperty(PERSIST_CHAMPIONS_KEY);
 		persistLastGen = props.getBooleanProperty(PERSIST_LAST_GEN_KEY);
+		writer = new AsyncWriter(PersistenceEventListener.class.getSimpleName(), props.getIntProperty(PERSIST_QUEUE_SIZE_KEY, 2));
 	}
 
 	/**
 	 * @param event <code>GeneticEvent.GENOTYPE_EVALUATED_EVENT</code> writes chromosomes and updates run;
 	 *            <code>GeneticEvent.GENOTYPE_START_GENETIC_OPERATORS_EVENT</code> loads config;
-	 *            <code>GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVEN</code> stores config
+	 *            <code>GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVEN</code> stores config;
+	 *            <code>GeneticEvent.RUN_COMPLETED_EVENT</code> waits for pending writes to complete
 	 */
 	public void geneticEventFired(GeneticEvent event) {
 		Genotype genotype = (Genotype) event.getSource();
@@ -113,6 +128,8 @@ public class PersistenceEventListener implements GeneticEventListener {
 			genotypeFinishGeneticOperatorsEvent();
 		} else if (GeneticEvent.GENOTYPE_EVALUATED_EVENT.equals(event.getEventName())) {
 			genotypeEvaluatedEvent(genotype);
+		} else if (GeneticEvent.RUN_COMPLETED_EVENT.equals(event.getEventName())) {
+			writer.close();
 		}
 	}
 
@@ -136,45 +153,63 @@ public class PersistenceEventListener implements GeneticEventListener {
 	private void genotypeEvaluatedEvent(Genotype genotype) {
 		Collection currentGeneration = genotype.getChromosomes();
 
-		// persist generation
+		// Snapshot everything to be written, as the genotype and run will have moved on by the time the writer
+		// thread gets to it.
+		final List<Chromosome> toStore = new ArrayList<Chromosome>();
 		if (persistAllChroms || persistLastGen) {
 			Iterator iter = currentGeneration.iterator();
 			while (iter.hasNext())
-				storeChromosome((Chromosome) iter.next());
+				toStore.add(((Chromosome) iter.next()).snapshot());
 		}
 
-		// persist champ
 		Chromosome c = genotype.getFittestChromosome();
 		champs.add(c);
 		if (persistChamps) {
-			storeChromosome(c);
+			toStore.add(c.snapshot());
 		}
 
-		// persist run
-		try {
-			db.store(run);
-		} catch (Exception e) {
-			logger.error("PersistenceEventListener: error storing run", e);
-		}
+		final Run runSnapshot = run.snapshot();
 
-		// delete chromosomes we don't want to persist
+		final List<String> toDelete = new ArrayList<String>();
 		if (!persistAllChroms) {
 			previousGeneration.removeAll(currentGeneration);
 			if (persistChamps)
 				previousGeneration.removeAll(champs);
 			Iterator it = previousGeneration.iterator();
-			while (it.hasNext()) {
-				c = (Chromosome) it.next();
-				try {
-					db.deleteChromosome(c.getId().toString());
-				} catch (Exception e) {
-					logger.error("error storing chromosome " + c, e);
-				}
-			}
+			while (it.hasNext())
+				toDelete.add(((Chromosome) it.next()).getId().toString());
 		}
 
 		previousGeneration.clear();
 		previousGeneration.addAll(currentGeneration);
+
+		writer.submit(new AsyncWriter.Task() {
+			public void run() {
+				storeGeneration(toStore, runSnapshot, toDelete);
+			}
+		});
+	}
+
+	private void storeGeneration(List<Chromosome> toStore, Run runSnapshot, List<String> toDelete) {
+		// persist generation and champ
+		for (Chromosome c : toStore)
+			storeChromosome(c);
+
+		// persist run
+		try {
+			db.store(runSnapshot);
+		} catch (Exception e) {
+			logger.error("PersistenceEventListener: error storing run", e);
+		}
+
+		// delete chromosomes we don't want to persist
+		for (String id : toDelete) {
+			try {
+				db.deleteChromosome(id);
+			} catch (Exception e) {
+				logger.error("error storing chromosome " + id, e);
+			}
+		}
 	}
 
 	/**
@@ -99,6 +99,13 @@ public class XmlPersistableRun implements XmlPersistable {
 		cachedRunXml = null;
 	}
 
+	/**
+	 * @return the search parameters section of the run XML.
+	 */
+	public String getSearchParametersXml() {
+		return params.toString();
+	}
+
 	/**
 	 * @param includeDtd include DTD tag if true
 	 * @param result representation of run
@@ -176,6 +176,7 @@ public class Evolver implements Configurable {
             config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_START_GENETIC_OPERATORS_EVENT, dbListener);
             config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVENT, dbListener);
             config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_EVALUATED_EVENT, dbListener);
+            config.getEventManager().addEventListener(GeneticEvent.RUN_COMPLETED_EVENT, dbListener);
         }
         // else {
         // config.load();
@@ -32,6 +32,7 @@ import java.util.TreeMap;
 import org.apache.log4j.Logger;
 import org.jgapcustomised.Allele;
 import org.jgapcustomised.ChromosomeMaterial;
+import org.jgapcustomised.PackedAlleles;
 
 import com.anji.nn.RecurrencyPolicy;
 
@@ -244,6 +245,30 @@ public class NeatChromosomeUtility {
         return result;
     }
 
+    /**
+     * if type == null, returns all neurons in <code>alleles</code>; otherwise,
+     * returns only neurons of <code>type</code>. Packed alleles contain no
+     * duplicates, so unlike {@link #getNeuronMap(Collection, NeuronType)} no
+     * sanity check is performed.
+     *
+     * @param alleles packed alleles
+     * @param type
+     * @return SortedMap contains key Long innovation id, value NeuronGene
+     * objects
+     */
+    public static SortedMap<Long, NeuronAllele> getNeuronMap(PackedAlleles alleles, NeuronType type) {
+        TreeMap<Long, NeuronAllele> result = new TreeMap<>();
+        for (int i = 0; i < alleles.size(); i++) {
+            if (alleles.getKind(i) == PackedAlleles.KIND_NEURON) {
+                NeuronAllele neuronAllele = (NeuronAllele) alleles.getAllele(i);
+                if ((type == null) || neuronAllele.isType(type)) {
+                    result.put(alleles.getInnovationId(i), neuronAllele);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * if type == null, returns all neuron genes in <code>genes</code>;
      * otherwise, returns only neuron genes of type
@@ -271,6 +296,30 @@ public class NeatChromosomeUtility {
         return result;
     }
 
+    /**
+     * if type == null, returns all neuron alleles in <code>alleles</code>;
+     * otherwise, returns only neuron alleles of type. Packed alleles contain no
+     * duplicates, so unlike {@link #getNeuronList(Collection, NeuronType)}
+     * this takes time linear in the number of alleles.
+     *
+     * @param alleles packed alleles
+     * @param type
+     * @return <code>List</code> contains <code>NeuronAllele</code> objects,
+     * sorted by innovation ID
+     */
+    public static List<NeuronAllele> getNeuronList(PackedAlleles alleles, NeuronType type) {
+        List<NeuronAllele> result = new ArrayList<>(alleles.getNeuronCount());
+        for (int i = 0; i < alleles.size(); i++) {
+            if (alleles.getKind(i) == PackedAlleles.KIND_NEURON) {
+                NeuronAllele nAllele = (NeuronAllele) alleles.getAllele(i);
+                if ((type == null) || nAllele.isType(type)) {
+                    result.add(nAllele);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * if type == null, returns all neuron genes in <code>genes</code>;
      * otherwise, returns only neuron genes of type
@@ -348,6 +397,26 @@ public class NeatChromosomeUtility {
         return result;
     }
 
+    /**
+     * returns all connection alleles in <code>alleles</code> as
+     * <code>List</code>. Packed alleles contain no duplicates, so unlike
+     * {@link #getConnectionList(Collection)} this takes time linear in the
+     * number of alleles.
+     *
+     * @param alleles packed alleles
+     * @return <code>List</code> containing <code>ConnectionAllele</code>
+     * objects, sorted by innovation ID
+     */
+    public static List<ConnectionAllele> getConnectionList(PackedAlleles alleles) {
+        List<ConnectionAllele> result = new ArrayList<>(alleles.getConnectionCount());
+        for (int i = 0; i < alleles.size(); i++) {
+            if (alleles.getKind(i) == PackedAlleles.KIND_CONNECTION) {
+                result.add((ConnectionAllele) alleles.getAllele(i));
+            }
+        }
+        return result;
+    }
+
     /**
      * non-recursive starting point for recursive search
      *
@@ -19,6 +19,8 @@
  */
 package com.anji.neat;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -38,6 +40,7 @@ import com.anji.nn.RecurrencyPolicy;
 import com.anji.util.Configurable;
 import com.anji.util.Properties;
 import com.anji.util.Randomizer;
+import com.ojcoleman.ahni.hyperneat.Checkpointable;
 import com.ojcoleman.ahni.util.ArrayUtil;
 
 /**
@@ -45,7 +48,7 @@ import com.ojcoleman.ahni.util.ArrayUtil;
  *
  * @author Philip Tucker
  */
-public class NeatConfiguration extends Configuration implements Configurable {
+public class NeatConfiguration extends Configuration implements Configurable, Checkpointable {
 
     private static final Logger logger = Logger.getLogger(NeatConfiguration.class);
     protected static final String PERSIST_ENABLE_KEY = "persist.enable";
@@ -675,6 +678,32 @@ public class NeatConfiguration extends Configuration implements Configurable {
         }
     }
 
+    /**
+     * Writes the chromosome/innovation ID counter and the NEAT ID mappings.
+     *
+     * @see Checkpointable#writeCheckpoint(DataOutputStream)
+     */
+    @Override
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        try {
+            load();
+        } catch (InvalidConfigurationException e) {
+            throw new IOException(e);
+        }
+        out.writeLong(getIdFactory().nextNoIncrement());
+        neatIdMap.writeCheckpoint(out);
+    }
+
+    /**
+     * @see Checkpointable#readCheckpoint(DataInputStream)
+     */
+    @Override
+    public void readCheckpoint(DataInputStream in) throws IOException {
+        getIdFactory().resetID(in.readLong());
+        neatIdMap = new NeatIdMap(props);
+        neatIdMap.readCheckpoint(in);
+    }
+
     /**
      * log stats for id maps
      *
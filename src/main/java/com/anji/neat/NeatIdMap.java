@@ -21,6 +21,8 @@
  */
 package com.anji.neat;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -221,6 +223,52 @@ public class NeatIdMap {
         return false;
     }
 
+    /**
+     * Write the NEAT ID mappings to a checkpoint in binary form.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(connectionToNeuronId.size());
+        for (Object o : connectionToNeuronId.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            out.writeLong((Long) entry.getKey());
+            out.writeLong((Long) entry.getValue());
+        }
+        out.writeInt(connectionToConnectionId.size());
+        for (Object o : connectionToConnectionId.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            List<?> key = (List<?>) entry.getKey();
+            out.writeLong((Long) key.get(0));
+            out.writeLong((Long) key.get(1));
+            out.writeLong((Long) entry.getValue());
+        }
+    }
+
+    /**
+     * Replace the NEAT ID mappings with those written by
+     * {@link #writeCheckpoint(DataOutputStream)}.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readCheckpoint(DataInputStream in) throws IOException {
+        connectionToNeuronId.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Long connId = in.readLong();
+            putNeuronId(connId, in.readLong());
+        }
+        connectionToConnectionId.clear();
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Long srcNeuronId = in.readLong();
+            Long destNeuronId = in.readLong();
+            putConnectionId(srcNeuronId, destNeuronId, in.readLong());
+        }
+    }
+
     /**
      * Convert NEAT ID mappings (enables re-use of innovation IDs) to XML
      * string.
@@ -0,0 +1,238 @@
+package com.anji.neat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+import org.jgapcustomised.SpeciationParms;
+import org.jgapcustomised.Species;
+
+import com.ojcoleman.ahni.util.Parallel;
+import com.ojcoleman.ahni.util.Parallel.Operation;
+
+/**
+ * Computes compatibility distances between genomes and species representatives (or centroids) for a
+ * {@link org.jgapcustomised.SpeciationStrategy}. Distances are computed in parallel blocks on the shared
+ * {@link Parallel} thread pool, and are cached for each pair of genome material and representative material so that
+ * the distance between a genome and a representative that are both unchanged since the distance was last computed,
+ * for example a genome that survived from the previous generation and a species representative that has not been
+ * replaced, is not computed again. Genetic material and representatives are identified by reference: both are treated
+ * as immutable once speciation begins ({@link Species#setRepresentative(ChromosomeMaterial)} stores a copy). The time
+ * spent in each phase of a speciation is also recorded.
+ *
+ * A speciation should be bracketed by calls to {@link #beginSpeciation(List, SpeciationParms)} and
+ * {@link #endSpeciation(List)}; the former discards cached distances for genomes no longer in the population, the
+ * latter discards cached distances to representatives no longer in use.
+ */
+public class SpeciationDistances {
+    private static Logger logger = Logger.getLogger(SpeciationDistances.class);
+
+    /**
+     * Whether to cache compatibility distances between genomes and species representatives for genomes and
+     * representatives that are unchanged between (or during) speciations. Default is true.
+     */
+    public static final String DISTANCE_CACHE_KEY = "speciation.distance.cache";
+
+    private final boolean parallel;
+    private final boolean caching;
+    private SpeciationParms speciationParms;
+    private double[] speciationParmsValues;
+
+    // Map from genome material to cached distances from that material to representative materials.
+    private volatile Map<ChromosomeMaterial, Map<ChromosomeMaterial, Double>> cache = new IdentityHashMap<ChromosomeMaterial, Map<ChromosomeMaterial, Double>>();
+    private final AtomicLong computedCount = new AtomicLong();
+    private final AtomicLong cachedCount = new AtomicLong();
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+    private long speciationStart;
+
+    /**
+     * @param parallel Whether to compute distances using multiple threads.
+     * @param caching Whether to cache distances between genomes and representatives.
+     */
+    public SpeciationDistances(boolean parallel, boolean caching) {
+        this.parallel = parallel;
+        this.caching = caching;
+    }
+
+    /**
+     * Prepare for a speciation of the given genomes. Cached distances for genomes not in the given list are discarded,
+     * as are all cached distances if the distance coefficients in the given parameters have changed.
+     */
+    public synchronized void beginSpeciation(List<Chromosome> genomeList, SpeciationParms parms) {
+        speciationStart = System.nanoTime();
+        phaseTimes.clear();
+        computedCount.set(0);
+        cachedCount.set(0);
+
+        double[] parmsValues = new double[] { parms.getSpecieCompatExcessCoeff(), parms.getSpecieCompatDisjointCoeff(), parms.getSpecieCompatCommonCoeff(), parms.specieCompatNormalise() ? 1 : 0, parms.specieCompatMismatchUseValues() ? 1 : 0 };
+        if (parms != speciationParms || !Arrays.equals(parmsValues, speciationParmsValues)) {
+            cache.clear();
+            speciationParms = parms;
+            speciationParmsValues = parmsValues;
+        }
+
+        if (caching) {
+            Map<ChromosomeMaterial, Map<ChromosomeMaterial, Double>> newCache = new IdentityHashMap<ChromosomeMaterial, Map<ChromosomeMaterial, Double>>(genomeList.size() * 2);
+            for (Chromosome genome : genomeList) {
+                Map<ChromosomeMaterial, Double> row = cache.get(genome.getMaterial());
+                newCache.put(genome.getMaterial(), row != null ? row : new IdentityHashMap<ChromosomeMaterial, Double>());
+            }
+            cache = newCache;
+        }
+    }
+
+    /**
+     * Finish a speciation into the given species. Cached distances to representatives of species not in the given
+     * list, or that have since been replaced, are discarded. The phase times are logged at debug level.
+     */
+    public synchronized void endSpeciation(List<Species> speciesList) {
+        if (caching) {
+            Set<ChromosomeMaterial> representatives = Collections.newSetFromMap(new IdentityHashMap<ChromosomeMaterial, Boolean>());
+            for (Species species : speciesList) {
+                representatives.add(species.getRepresentative());
+            }
+            for (Map<ChromosomeMaterial, Double> row : cache.values()) {
+                synchronized (row) {
+                    row.keySet().retainAll(representatives);
+                }
+            }
+        }
+        phaseTimes.put("total", System.nanoTime() - speciationStart);
+        if (logger.isDebugEnabled()) {
+            logger.debug(toString());
+        }
+    }
+
+    /**
+     * Returns the compatibility distance between the given genome and representative material.
+     */
+    public double distance(Chromosome genome, ChromosomeMaterial representative) {
+        Map<ChromosomeMaterial, Double> row = caching ? cache.get(genome.getMaterial()) : null;
+        if (row != null) {
+            synchronized (row) {
+                Double distance = row.get(representative);
+                if (distance != null) {
+                    cachedCount.incrementAndGet();
+                    return distance;
+                }
+            }
+        }
+        double distance = genome.getMaterial().distance(representative, speciationParms);
+        computedCount.incrementAndGet();
+        if (row != null) {
+            synchronized (row) {
+                row.put(representative, distance);
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the compatibility distances between each of the given genomes and the representative of each of the
+     * given species, such that <code>result[g][s]</code> is the distance between <code>genomeList.get(g)</code> and
+     * <code>speciesList.get(s)</code>.
+     */
+    public double[][] distances(final List<Chromosome> genomeList, final List<Species> speciesList) {
+        final ChromosomeMaterial[] representatives = new ChromosomeMaterial[speciesList.size()];
+        for (int s = 0; s < representatives.length; s++) {
+            representatives[s] = speciesList.get(s).getRepresentative();
+        }
+        final double[][] distances = new double[genomeList.size()][representatives.length];
+        forEachIndex(genomeList.size(), new IndexOperation() {
+            @Override
+            public void perform(int g) {
+                Chromosome genome = genomeList.get(g);
+                for (int s = 0; s < representatives.length; s++) {
+                    distances[g][s] = distance(genome, representatives[s]);
+                }
+            }
+        });
+        return distances;
+    }
+
+    /**
+     * Performs the given operation for each index in [0, count), in parallel blocks of contiguous indices if this
+     * service is multi-threaded. Returns when all indices have been processed.
+     */
+    public void forEachIndex(final int count, final IndexOperation operation) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (!parallel || threads == 1 || count < 2) {
+            for (int i = 0; i < count; i++) {
+                operation.perform(i);
+            }
+            return;
+        }
+        // Use a few blocks per thread to balance load, as genomes vary in size.
+        int blockSize = Math.max(1, (int) Math.ceil((double) count / (threads * 4)));
+        List<int[]> blocks = new ArrayList<int[]>();
+        for (int start = 0; start < count; start += blockSize) {
+            blocks.add(new int[] { start, Math.min(count, start + blockSize) });
+        }
+        Parallel.foreach(blocks, 0, new Operation<int[]>() {
+            @Override
+            public void perform(int[] block) {
+                for (int i = block[0]; i < block[1]; i++) {
+                    operation.perform(i);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add the time elapsed since the given start time (as given by {@link System#nanoTime()}) to the time recorded
+     * for the given phase of the current speciation.
+     */
+    public synchronized void recordPhase(String phase, long start) {
+        long elapsed = System.nanoTime() - start;
+        Long previous = phaseTimes.get(phase);
+        phaseTimes.put(phase, previous == null ? elapsed : previous + elapsed);
+    }
+
+    /**
+     * Returns the time, in nanoseconds, spent in each phase of the most recent (or current) speciation, in the order
+     * the phases were first recorded. The "total" entry gives the time for the whole speciation.
+     */
+    public synchronized Map<String, Long> getPhaseTimes() {
+        return new LinkedHashMap<String, Long>(phaseTimes);
+    }
+
+    /**
+     * Returns the number of distances computed in the most recent (or current) speciation.
+     */
+    public long getComputedCount() {
+        return computedCount.get();
+    }
+
+    /**
+     * Returns the number of distances retrieved from the cache in the most recent (or current) speciation.
+     */
+    public long getCachedCount() {
+        return cachedCount.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Speciation times (ms):");
+        for (Map.Entry<String, Long> phase : phaseTimes.entrySet()) {
+            sb.append(" ").append(phase.getKey()).append("=").append(Math.round(phase.getValue() / 1e4) / 100.0);
+        }
+        sb.append("; distances computed: ").append(getComputedCount()).append(", cached: ").append(getCachedCount());
+        return sb.toString();
+    }
+
+    /**
+     * An operation performed for an index by {@link SpeciationDistances#forEachIndex(int, IndexOperation)}.
+     */
+    public interface IndexOperation {
+        void perform(int index);
+    }
+}
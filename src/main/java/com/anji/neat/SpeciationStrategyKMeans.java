@@ -48,9 +48,20 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 	
 	private boolean multiThreaded = true;
 	
+	private SpeciationDistances distances = new SpeciationDistances(true, true);
+	
 	@Override
 	public void init(Properties props) throws Exception {
 		multiThreaded = props.getBooleanProperty(MULTI_THREADED, true);
+		distances = new SpeciationDistances(multiThreaded, props.getBooleanProperty(SpeciationDistances.DISTANCE_CACHE_KEY, true));
+	}
+	
+	/**
+	 * Returns the service used to compute distances between genomes and species centroids, which also records the
+	 * time spent in each phase of the most recent speciation.
+	 */
+	public SpeciationDistances getDistances() {
+		return distances;
 	}
 	
 	@Override
@@ -87,29 +98,38 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 			return;
 		}
 		
+		distances.beginSpeciation(genomeList, specParms);
+		
 		// Update the centroid of each species. If we're adding offspring this means that old genomes
 		// have been removed from the population and therefore the centroids are out-of-date.
+		long start = System.nanoTime();
 		calculateSpecieCentroids(speciesList);
+		distances.recordPhase("centroids", start);
 		
 		// Allocate each genome to the species it is closest to.
-		Parallel.foreach(genomeList, 0, new Operation<Chromosome>() {
-			@Override
-			public void perform(Chromosome genome) {
-				Species closestSpecies = findClosestSpecies(genome, speciesList, specParms);
-				closestSpecies.addOrMoveFromCurrentSpecies(genome);
-			}
-		});
+		start = System.nanoTime();
+		Species[] closestSpecies = findClosestSpecies(genomeList, speciesList);
+		distances.recordPhase("distances", start);
+		start = System.nanoTime();
+		for (int g = 0; g < closestSpecies.length; g++) {
+			closestSpecies[g].addOrMoveFromCurrentSpecies(genomeList.get(g));
+		}
+		distances.recordPhase("allocation", start);
 		
 		assert testSpeciationIntegrity(genomeList, speciesList);
 		
 		// Recalculate each species centroid now that they contain additional genomes.
+		start = System.nanoTime();
 		calculateSpecieCentroids(speciesList);
+		distances.recordPhase("centroids", start);
 		
 		//double initialDistance = calculateAverageDistance(genomeList, specParms);
 		
 		// Perform the main k-means loop until convergence.
 		speciateUntilConvergence(genomeList, speciesList, specParms);
 		
+		distances.endSpeciation(speciesList);
+		
 		//System.err.println(initialDistance + "  ->  " + calculateAverageDistance(genomeList, specParms)); 
 	}
 
@@ -143,22 +163,25 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 			assert testSpeciationIntegrity(genomeList, speciesList);
 
 			// Loop over genomes. For each one find the species it is closest to; if it is not the species
-			// it is currently in then reallocate it.
-			Parallel.foreach(genomeList, 0, new Operation<Chromosome>() {
-				@Override
-				public void perform(Chromosome genome) {
-					Species closestSpecies = findClosestSpecies(genome, speciesList, speciationParms);
-					if (!genome.getSpecie().equals(closestSpecies)) {
-						// Track which species have been modified.
-						speciesMod.add(genome.getSpecie());
-						speciesMod.add(closestSpecies);
+			// it is currently in then reallocate it. Distances to centroids that have not changed since the
+			// previous loop are retrieved from the distance cache.
+			long start = System.nanoTime();
+			Species[] closestSpecies = findClosestSpecies(genomeList, speciesList);
+			distances.recordPhase("distances", start);
+			start = System.nanoTime();
+			for (int g = 0; g < closestSpecies.length; g++) {
+				Chromosome genome = genomeList.get(g);
+				if (!genome.getSpecie().equals(closestSpecies[g])) {
+					// Track which species have been modified.
+					speciesMod.add(genome.getSpecie());
+					speciesMod.add(closestSpecies[g]);
 
-						closestSpecies.moveFromCurrentSpecies(genome); // This removes the genome from its previous species.
-						
-						//assert testSpeciationIntegrity(genomeList, speciesList);
-					}
+					closestSpecies[g].moveFromCurrentSpecies(genome); // This removes the genome from its previous species.
+					
+					//assert testSpeciationIntegrity(genomeList, speciesList);
 				}
-			});
+			}
+			distances.recordPhase("allocation", start);
 			
 			assert testSpeciationIntegrity(genomeList, speciesList);
 
@@ -171,7 +194,9 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 			}
 			
 			// Recalculate centroid for all affected species.
+			start = System.nanoTime();
 			calculateSpecieCentroids(speciesMod);
+			distances.recordPhase("centroids", start);
 			
 			assert testSpeciationIntegrity(genomeList, speciesList);
 			
@@ -186,7 +211,9 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 				// centroid - we call these outlier genomes. We then move these genomes into the empty species to
 				// act as the sole member and centroid of those species; These act as species seeds for the next k-means
 				// loop.
+				start = System.nanoTime();
 				Chromosome[] genomesByDistance = getChromosomesByDistanceFromSpecies(genomeList, speciesList, speciationParms);
+				distances.recordPhase("outliers", start);
 				
 				assert testSpeciationIntegrity(genomeList, speciesList);
 				
@@ -217,7 +244,9 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 				}
 				
 				// Recalculate centroid for all affected species.
+				start = System.nanoTime();
 				calculateSpecieCentroids(speciesMod);
+				distances.recordPhase("centroids", start);
 				
 				assert testSpeciationIntegrity(genomeList, speciesList);
 				
@@ -367,14 +396,17 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 	/**
 	 * Gets an array of GenomeDistancePairs ordered by their distance from their current species.
 	 */
-	private GenomeDistancePair[] getGenomeDistancePairs(List<Chromosome> genomeList, List<Species> speciesList, SpeciationParms speciationParms) {
+	private GenomeDistancePair[] getGenomeDistancePairs(final List<Chromosome> genomeList, List<Species> speciesList, SpeciationParms speciationParms) {
 		// Build a list of all genomes paired with their distance from their centroid.
-		GenomeDistancePair[] genomeDistanceArr = new GenomeDistancePair[genomeList.size()];
-		for (int i = 0; i < genomeList.size(); i++) {
-			Chromosome genome = genomeList.get(i);
-			double distance = genome.getMaterial().distance(genome.getSpecie().getRepresentative(), speciationParms);
-			genomeDistanceArr[i] = new GenomeDistancePair(distance, genome);
-		}
+		final GenomeDistancePair[] genomeDistanceArr = new GenomeDistancePair[genomeList.size()];
+		distances.forEachIndex(genomeList.size(), new SpeciationDistances.IndexOperation() {
+			@Override
+			public void perform(int i) {
+				Chromosome genome = genomeList.get(i);
+				double distance = distances.distance(genome, genome.getSpecie().getRepresentative());
+				genomeDistanceArr[i] = new GenomeDistancePair(distance, genome);
+			}
+		});
 
 		// Sort list. Longest distance first.
 		Arrays.sort(genomeDistanceArr);
@@ -383,22 +415,26 @@ public class SpeciationStrategyKMeans implements SpeciationStrategy, Configurabl
 	}
 
 	/**
-	 * Find the species that a genome is closest to.
+	 * Find the species that each genome is closest to.
 	 */
-	private Species findClosestSpecies(Chromosome genome, List<Species> speciesList, SpeciationParms speciationParms) {
-		Species closestSpecies = null;
-		double closestDistance = Double.MAX_VALUE;
-
-		// Find closest species.
-		for (Species species : speciesList) {
-			double distance = genome.getMaterial().distance(species.getRepresentative(), speciationParms);
-			// All else being equal keep genome in same species. 
-			if (distance < closestDistance || (distance == closestDistance && genome.getSpecie() != null && genome.getSpecie().equals(species))) {
-				closestDistance = distance;
-				closestSpecies = species;
+	private Species[] findClosestSpecies(List<Chromosome> genomeList, List<Species> speciesList) {
+		double[][] genomeSpeciesDistances = distances.distances(genomeList, speciesList);
+		Species[] closest = new Species[genomeList.size()];
+		for (int g = 0; g < closest.length; g++) {
+			Chromosome genome = genomeList.get(g);
+			double closestDistance = Double.MAX_VALUE;
+			// Find closest species.
+			for (int s = 0; s < speciesList.size(); s++) {
+				Species species = speciesList.get(s);
+				double distance = genomeSpeciesDistances[g][s];
+				// All else being equal keep genome in same species. 
+				if (distance < closestDistance || (distance == closestDistance && genome.getSpecie() != null && genome.getSpecie().equals(species))) {
+					closestDistance = distance;
+					closest[g] = species;
+				}
 			}
 		}
-		return closestSpecies;
+		return closest;
 	}
 	
 	private double calculateAverageDistance(List<Chromosome> genomeList, SpeciationParms speciationParms) {
@@ -1,5 +1,6 @@
 package com.anji.neat;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -7,12 +8,14 @@ import java.util.List;
 import org.apache.log4j.Logger;
 import org.jgapcustomised.Chromosome;
 import org.jgapcustomised.ChromosomeFitnessComparator;
-import org.jgapcustomised.ChromosomeMaterial;
 import org.jgapcustomised.Genotype;
 import org.jgapcustomised.SpeciationParms;
 import org.jgapcustomised.SpeciationStrategy;
 import org.jgapcustomised.Species;
 
+import com.anji.util.Configurable;
+import com.anji.util.Properties;
+
 /**
  * <p>
  * Implements the original speciation strategy for NEAT as described in:<br />
@@ -22,12 +25,27 @@ import org.jgapcustomised.Species;
  * Evolutionary Computation 10(2):99-127, 2002.
  * </p>
  */
-public class SpeciationStrategyOriginal implements SpeciationStrategy {
+public class SpeciationStrategyOriginal implements SpeciationStrategy, Configurable {
 
     private static Logger logger = Logger.getLogger(SpeciationStrategyOriginal.class);
 
     protected int lastGenChangedSpeciesCompatThreshold = 0;
 
+    private SpeciationDistances distances = new SpeciationDistances(true, true);
+
+    @Override
+    public void init(Properties props) throws Exception {
+        distances = new SpeciationDistances(true, props.getBooleanProperty(SpeciationDistances.DISTANCE_CACHE_KEY, true));
+    }
+
+    /**
+     * Returns the service used to compute distances between genomes and species representatives, which also records
+     * the time spent in each phase of the most recent speciation.
+     */
+    public SpeciationDistances getDistances() {
+        return distances;
+    }
+
     @Override
     public void respeciate(List<Chromosome> genomeList, List<Species> speciesList, Genotype genotype) {
         speciesList.clear();
@@ -39,32 +57,68 @@ public class SpeciationStrategyOriginal implements SpeciationStrategy {
 
     @Override
     public void speciate(List<Chromosome> genomeList, List<Species> speciesList, Genotype genotype) {
-        SpeciationParms specParms = genotype.getConfiguration().getSpeciationParms();
+        final SpeciationParms specParms = genotype.getConfiguration().getSpeciationParms();
+        distances.beginSpeciation(genomeList, specParms);
 
         // sort so fittest are first as it's probably best to use the fittest as the representative 
         // of a species in case of creating new species.
+        long start = System.nanoTime();
         Collections.sort(genomeList, new ChromosomeFitnessComparator(false, false));
         //Collections.shuffle(genomeList, m_activeConfiguration.getRandomGenerator());
+        distances.recordPhase("sort", start);
 
         // First determine new species for each chromosome (but don't assign yet).
+        // The first matching existing species for each unassigned chromosome doesn't depend on the other
+        // chromosomes, so find these in parallel.
+        start = System.nanoTime();
+        final List<Chromosome> unassigned = new ArrayList<Chromosome>();
         for (Chromosome chrom : genomeList) {
             if (chrom.getSpecie() == null) {
-                boolean added = false;
-                for (Species species : speciesList) {
-                    if (match(species, chrom.getMaterial(), specParms)) {
-                        chrom.setSpecie(species);
-                        added = true;
+                unassigned.add(chrom);
+            }
+        }
+        final List<Species> existingSpecies = new ArrayList<Species>(speciesList);
+        final Species[] existingMatch = new Species[unassigned.size()];
+        distances.forEachIndex(unassigned.size(), new SpeciationDistances.IndexOperation() {
+            @Override
+            public void perform(int i) {
+                for (Species species : existingSpecies) {
+                    if (match(species, unassigned.get(i), specParms)) {
+                        existingMatch[i] = species;
                         break;
                     }
                 }
-                if (!added) {
-                    // this also sets the species of chrom to the new species.
-                    Species species = new Species(specParms, chrom);
-                    speciesList.add(species);
-                    // System.out.println("Added new species");
+            }
+        });
+        distances.recordPhase("match existing", start);
+
+        // Chromosomes that don't match an existing species are checked against the species created for the
+        // chromosomes before them, in order of fitness.
+        start = System.nanoTime();
+        for (int i = 0; i < unassigned.size(); i++) {
+            Chromosome chrom = unassigned.get(i);
+            if (existingMatch[i] != null) {
+                chrom.setSpecie(existingMatch[i]);
+                continue;
+            }
+            boolean added = false;
+            for (Species species : speciesList.subList(existingSpecies.size(), speciesList.size())) {
+                if (match(species, chrom, specParms)) {
+                    chrom.setSpecie(species);
+                    added = true;
+                    break;
                 }
             }
+            if (!added) {
+                // this also sets the species of chrom to the new species.
+                Species species = new Species(specParms, chrom);
+                speciesList.add(species);
+                // System.out.println("Added new species");
+            }
         }
+        distances.recordPhase("match new", start);
+
+        start = System.nanoTime();
 
         // remove chromosomes from all species and record previous fittest
         for (Species species : speciesList) {
@@ -105,6 +159,9 @@ public class SpeciationStrategyOriginal implements SpeciationStrategy {
             specParms.setSpeciationThreshold(newSpecThresh);
             lastGenChangedSpeciesCompatThreshold = genotype.getGeneration();
         }
+        distances.recordPhase("assignment", start);
+
+        distances.endSpeciation(speciesList);
     }
 
     /**
@@ -112,7 +169,7 @@ public class SpeciationStrategyOriginal implements SpeciationStrategy {
      * @return boolean true iff compatibility difference between <code>aChromosome</code? and representative is less
      *         than speciation threshold
      */
-    private boolean match(Species species, ChromosomeMaterial chromosome, SpeciationParms speciationParms) {
-        return (species.getRepresentative().distance(chromosome, speciationParms) < speciationParms.getSpeciationThreshold());
+    private boolean match(Species species, Chromosome chromosome, SpeciationParms speciationParms) {
+        return (distances.distance(chromosome, species.getRepresentative()) < speciationParms.getSpeciationThreshold());
     }
 }
@@ -0,0 +1,242 @@
+package com.anji.nn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.anji.nn.activationfunction.ActivationFunction;
+
+/**
+ * Evaluates a feed-forward {@link AnjiNet} over a block of input vectors at once. The neurons required to compute the
+ * outputs of the network are flattened into topologically ordered arrays when the evaluator is created, and each
+ * neuron is then computed for every input vector in the block before moving on to the next neuron. This avoids the
+ * per-vector overhead of walking the object graph of the network, which dominates when a network (for example a CPPN)
+ * is queried a very large number of times with different inputs.
+ *
+ * Input and output blocks are in structure-of-arrays layout: <code>inputs[i][b]</code> is the value of input i for the
+ * b'th input vector in the block, and similarly for outputs. The output values produced are identical to those
+ * produced by activating the network for each input vector separately via {@link AnjiNet#step()}.
+ *
+ * Only networks without recurrent connections and whose connections are all {@link NeuronConnection}s, input
+ * {@link Pattern} connections or {@link BiasConnection}s are supported, see {@link #canEvaluate(AnjiNet)}.
+ *
+ * @author Oliver Coleman
+ */
+public class AnjiNetBlockEvaluator {
+	// Values in sourceIndex for connections that don't come from a neuron.
+	private static final int SOURCE_BIAS = -1;
+
+	private final int inputCount;
+	private final int outputCount;
+	// Neurons that contribute to the outputs, in topological order.
+	private final int neuronCount;
+	private final ActivationFunction[] function;
+	private final boolean[] nonIntegrating;
+	private final double[] bias;
+	// Incoming connections for each neuron in CSR format: the connections for neuron n are at
+	// [connectionStart[n], connectionStart[n+1]). A non-negative source index refers to a neuron, SOURCE_BIAS
+	// to a bias connection, and any other negative value to input (-sourceIndex - 2).
+	private final int[] connectionStart;
+	private final int[] sourceIndex;
+	private final double[] weight;
+	private final int[] outputNeuronIndex;
+
+	// Neuron values for the current block, indexed by [neuron][block index].
+	private double[][] values;
+	private int capacity;
+
+	/**
+	 * Create an evaluator for the given network.
+	 *
+	 * @param net The network to evaluate. The input neurons must already be connected to a {@link Pattern}, as done by
+	 *            {@link com.anji.integration.AnjiActivator}.
+	 * @throws IllegalArgumentException If the network is not supported, see {@link #canEvaluate(AnjiNet)}.
+	 */
+	public AnjiNetBlockEvaluator(AnjiNet net) throws IllegalArgumentException {
+		if (!canEvaluate(net)) {
+			throw new IllegalArgumentException("AnjiNetBlockEvaluator only supports feed-forward networks with neuron, input and bias connections.");
+		}
+		inputCount = net.getInputDimension();
+		outputCount = net.getOutputDimension();
+
+		// Determine evaluation order: a post-order traversal from the output neurons only visits neurons that
+		// contribute to the outputs and visits every neuron after all of its source neurons.
+		Map<Neuron, Integer> index = new IdentityHashMap<>();
+		List<Neuron> order = new ArrayList<>();
+		for (Neuron n : net.getOutputNeurons()) {
+			addInTopologicalOrder(n, index, order, new IdentityHashMap<Neuron, Boolean>());
+		}
+
+		neuronCount = order.size();
+		function = new ActivationFunction[neuronCount];
+		nonIntegrating = new boolean[neuronCount];
+		bias = new double[neuronCount];
+		connectionStart = new int[neuronCount + 1];
+		int connectionCount = 0;
+		for (Neuron n : order) {
+			connectionCount += n.getIncomingConns().size();
+		}
+		sourceIndex = new int[connectionCount];
+		weight = new double[connectionCount];
+
+		int c = 0;
+		for (int ni = 0; ni < neuronCount; ni++) {
+			Neuron n = order.get(ni);
+			function[ni] = n.getFunc();
+			nonIntegrating[ni] = n.getFunc().isNonIntegrating();
+			bias[ni] = n.getBias();
+			connectionStart[ni] = c;
+			for (Connection conn : n.getIncomingConns()) {
+				if (conn instanceof NeuronConnection) {
+					sourceIndex[c] = index.get(((NeuronConnection) conn).getIncomingNode());
+					weight[c] = ((NeuronConnection) conn).getWeight();
+				} else if (conn instanceof Pattern.PatternConnection) {
+					sourceIndex[c] = -((Pattern.PatternConnection) conn).getIdx() - 2;
+					weight[c] = 1;
+				} else {
+					sourceIndex[c] = SOURCE_BIAS;
+					weight[c] = 1;
+				}
+				c++;
+			}
+		}
+		connectionStart[neuronCount] = c;
+
+		outputNeuronIndex = new int[outputCount];
+		for (int o = 0; o < outputCount; o++) {
+			outputNeuronIndex[o] = index.get(net.getOutputNeuron(o));
+		}
+
+		values = new double[neuronCount][0];
+	}
+
+	private static void addInTopologicalOrder(Neuron n, Map<Neuron, Integer> index, List<Neuron> order, Map<Neuron, Boolean> visiting) {
+		if (index.containsKey(n)) {
+			return;
+		}
+		if (visiting.put(n, Boolean.TRUE) != null) {
+			throw new IllegalArgumentException("AnjiNetBlockEvaluator only supports feed-forward networks, found a cycle involving neuron " + n.getId());
+		}
+		for (Connection conn : n.getIncomingConns()) {
+			if (conn instanceof NeuronConnection) {
+				addInTopologicalOrder(((NeuronConnection) conn).getIncomingNode(), index, order, visiting);
+			}
+		}
+		visiting.remove(n);
+		index.put(n, order.size());
+		order.add(n);
+	}
+
+	/**
+	 * Returns true iff the given network can be evaluated by an AnjiNetBlockEvaluator. This requires that the network
+	 * has no recurrent connections and that all connections are {@link NeuronConnection}s, input {@link Pattern}
+	 * connections or {@link BiasConnection}s.
+	 */
+	public static boolean canEvaluate(AnjiNet net) {
+		if (net.isRecurrent()) {
+			return false;
+		}
+		for (Neuron n : net.getAllNeurons()) {
+			for (Connection conn : n.getIncomingConns()) {
+				if (conn instanceof CacheNeuronConnection) {
+					return false;
+				}
+				if (!(conn instanceof NeuronConnection || conn instanceof Pattern.PatternConnection || conn instanceof BiasConnection)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluate the network for a block of input vectors.
+	 *
+	 * @param inputs The input values, indexed by [input index][block index]. Each array must have length at least
+	 *            <code>count</code>.
+	 * @param count The number of input vectors in the block.
+	 * @param outputs Array to store the output values in, indexed by [output index][block index]. Each array must have
+	 *            length at least <code>count</code>.
+	 */
+	public void evaluate(double[][] inputs, int count, double[][] outputs) {
+		if (inputs.length < inputCount) {
+			throw new IllegalArgumentException("Expected " + inputCount + " input arrays but was given " + inputs.length);
+		}
+		if (count > capacity) {
+			capacity = Math.max(count, capacity * 2);
+			for (int ni = 0; ni < neuronCount; ni++) {
+				values[ni] = new double[capacity];
+			}
+		}
+
+		for (int ni = 0; ni < neuronCount; ni++) {
+			double[] v = values[ni];
+			int start = connectionStart[ni];
+			int end = connectionStart[ni + 1];
+			if (nonIntegrating[ni]) {
+				double[] in = new double[end - start];
+				for (int b = 0; b < count; b++) {
+					for (int c = start; c < end; c++) {
+						in[c - start] = read(c, inputs, b);
+					}
+					v[b] = function[ni].evaluate(in, bias[ni]);
+				}
+				continue;
+			}
+
+			// Sum the inputs to this neuron in the same order as Neuron.getValue() so that results are identical.
+			Arrays.fill(v, 0, count, bias[ni]);
+			for (int c = start; c < end; c++) {
+				int s = sourceIndex[c];
+				if (s >= 0) {
+					double[] sv = values[s];
+					double w = weight[c];
+					for (int b = 0; b < count; b++) {
+						v[b] += w * sv[b];
+					}
+				} else if (s == SOURCE_BIAS) {
+					for (int b = 0; b < count; b++) {
+						v[b] += 1;
+					}
+				} else {
+					double[] in = inputs[-s - 2];
+					for (int b = 0; b < count; b++) {
+						v[b] += in[b];
+					}
+				}
+			}
+			function[ni].applyInPlace(v, 0, count);
+		}
+
+		for (int o = 0; o < outputCount; o++) {
+			System.arraycopy(values[outputNeuronIndex[o]], 0, outputs[o], 0, count);
+		}
+	}
+
+	private double read(int c, double[][] inputs, int b) {
+		int s = sourceIndex[c];
+		if (s >= 0) {
+			return weight[c] * values[s][b];
+		}
+		if (s == SOURCE_BIAS) {
+			return 1;
+		}
+		return inputs[-s - 2][b];
+	}
+
+	/**
+	 * @return The number of inputs to the network.
+	 */
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	/**
+	 * @return The number of outputs from the network.
+	 */
+	public int getOutputCount() {
+		return outputCount;
+	}
+}
@@ -0,0 +1,367 @@
+package com.anji.nn;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.anji.nn.activationfunction.ActivationFunction;
+
+/**
+ * A "compiled" form of an {@link AnjiNet} in which the network structure is flattened into arrays: neurons are
+ * identified by index, the incoming connections of each neuron are stored in CSR format (a row pointer array into flat
+ * source, type and weight arrays), and the neurons are evaluated in a precomputed topological order (with respect to
+ * the non-recurrent connections). Stepping the network does not allocate any objects or make any virtual calls other
+ * than to the neuron activation functions.
+ *
+ * The values produced are identical to those produced by the AnjiNet the CompiledAnjiNet was created from, including
+ * the handling of recurrent connections on the first step after a reset (where {@link CacheNeuronConnection#step()}
+ * lazily evaluates the source neuron with the current inputs).
+ *
+ * Only networks whose connections are all {@link NeuronConnection}s (including {@link CacheNeuronConnection}s), input
+ * {@link Pattern} connections or {@link BiasConnection}s are supported, see {@link #canCompile(AnjiNet)}.
+ *
+ * @author Oliver Coleman
+ */
+public class CompiledAnjiNet {
+	// Connection types.
+	private static final byte NEURON = 0, CACHE = 1, INPUT = 2, BIAS = 3;
+
+	private final int neuronCount;
+	private final int inputCount;
+	private final int outputCount;
+	private final boolean recurrent;
+
+	private final ActivationFunction[] function;
+	private final boolean[] nonIntegrating;
+	// Storage for the input values to non-integrating neurons, null for integrating neurons.
+	private final double[][] nonIntegratingInput;
+	private final double[] bias;
+
+	// Incoming connections for each neuron in CSR format: the connections for neuron n are at
+	// [connectionStart[n], connectionStart[n+1]). For NEURON connections the source is a neuron index, for CACHE
+	// connections it is an index into the cache arrays, and for INPUT connections it is an index into the input array.
+	private final int[] connectionStart;
+	private final byte[] connectionType;
+	private final int[] connectionSource;
+	private final double[] connectionWeight;
+
+	// Recurrent (cached) connections. The first steppedCacheCount are the network's recurrent connections in the
+	// order they are stepped by AnjiNet.step(); any others are never stepped and so always read 0.
+	private final int steppedCacheCount;
+	private final int[] cacheSource;
+	private final double[] cacheWeight;
+	private final double[] cacheValue;
+
+	// Neurons to evaluate each step, in topological order.
+	private final int[] evaluationOrder;
+	private final int[] outputNeuron;
+
+	private final double[] value;
+	// Only used when stepping the network for the first time after a reset.
+	private final boolean[] dirty;
+	private boolean resetPending;
+	private double[] input;
+
+	/**
+	 * Compile the given network.
+	 *
+	 * @param net The network to compile. The input neurons must already be connected to a {@link Pattern}, as done by
+	 *            {@link com.anji.integration.AnjiActivator}.
+	 * @throws IllegalArgumentException If the network is not supported, see {@link #canCompile(AnjiNet)}.
+	 */
+	public CompiledAnjiNet(AnjiNet net) throws IllegalArgumentException {
+		if (!canCompile(net)) {
+			throw new IllegalArgumentException("CompiledAnjiNet only supports networks with neuron, input and bias connections.");
+		}
+		List<Neuron> neurons = net.getAllNeurons();
+		neuronCount = neurons.size();
+		inputCount = net.getInputDimension();
+		outputCount = net.getOutputDimension();
+		recurrent = net.isRecurrent();
+
+		Map<Neuron, Integer> neuronIndex = new IdentityHashMap<>();
+		for (int n = 0; n < neuronCount; n++) {
+			neuronIndex.put(neurons.get(n), n);
+		}
+
+		Map<Connection, Integer> cacheIndex = new IdentityHashMap<>();
+		List<CacheNeuronConnection> caches = new ArrayList<>(net.getRecurrentConns());
+		for (int c = 0; c < caches.size(); c++) {
+			cacheIndex.put(caches.get(c), c);
+		}
+		steppedCacheCount = caches.size();
+
+		function = new ActivationFunction[neuronCount];
+		nonIntegrating = new boolean[neuronCount];
+		nonIntegratingInput = new double[neuronCount][];
+		bias = new double[neuronCount];
+		connectionStart = new int[neuronCount + 1];
+		int connectionCount = 0;
+		for (Neuron n : neurons) {
+			connectionCount += n.getIncomingConns().size();
+		}
+		connectionType = new byte[connectionCount];
+		connectionSource = new int[connectionCount];
+		connectionWeight = new double[connectionCount];
+
+		int c = 0;
+		for (int n = 0; n < neuronCount; n++) {
+			Neuron neuron = neurons.get(n);
+			function[n] = neuron.getFunc();
+			nonIntegrating[n] = neuron.getFunc().isNonIntegrating();
+			if (nonIntegrating[n]) {
+				nonIntegratingInput[n] = new double[neuron.getIncomingConns().size()];
+			}
+			bias[n] = neuron.getBias();
+			connectionStart[n] = c;
+			for (Connection conn : neuron.getIncomingConns()) {
+				if (conn instanceof CacheNeuronConnection) {
+					Integer ci = cacheIndex.get(conn);
+					if (ci == null) {
+						ci = caches.size();
+						caches.add((CacheNeuronConnection) conn);
+						cacheIndex.put(conn, ci);
+					}
+					connectionType[c] = CACHE;
+					connectionSource[c] = ci;
+				} else if (conn instanceof NeuronConnection) {
+					connectionType[c] = NEURON;
+					connectionSource[c] = neuronIndex.get(((NeuronConnection) conn).getIncomingNode());
+					connectionWeight[c] = ((NeuronConnection) conn).getWeight();
+				} else if (conn instanceof Pattern.PatternConnection) {
+					connectionType[c] = INPUT;
+					connectionSource[c] = ((Pattern.PatternConnection) conn).getIdx();
+				} else {
+					connectionType[c] = BIAS;
+				}
+				c++;
+			}
+		}
+		connectionStart[neuronCount] = c;
+
+		cacheSource = new int[caches.size()];
+		cacheWeight = new double[caches.size()];
+		cacheValue = new double[caches.size()];
+		for (int ci = 0; ci < caches.size(); ci++) {
+			cacheSource[ci] = neuronIndex.get(caches.get(ci).getIncomingNode());
+			cacheWeight[ci] = caches.get(ci).getWeight();
+		}
+
+		outputNeuron = new int[outputCount];
+		for (int o = 0; o < outputCount; o++) {
+			outputNeuron[o] = neuronIndex.get(net.getOutputNeuron(o));
+		}
+
+		// For recurrent networks all neurons are evaluated every step (as AnjiActivator calls AnjiNet.fullyActivate()),
+		// otherwise only those neurons that contribute to the outputs are evaluated.
+		boolean[] visited = new boolean[neuronCount];
+		boolean[] visiting = new boolean[neuronCount];
+		int[] order = new int[neuronCount];
+		int orderSize = 0;
+		if (recurrent) {
+			for (int n = 0; n < neuronCount; n++) {
+				orderSize = addInTopologicalOrder(n, visited, visiting, order, orderSize);
+			}
+		} else {
+			for (int o = 0; o < outputCount; o++) {
+				orderSize = addInTopologicalOrder(outputNeuron[o], visited, visiting, order, orderSize);
+			}
+		}
+		evaluationOrder = new int[orderSize];
+		System.arraycopy(order, 0, evaluationOrder, 0, orderSize);
+
+		value = new double[neuronCount];
+		dirty = new boolean[neuronCount];
+		input = new double[inputCount];
+		reset();
+	}
+
+	private int addInTopologicalOrder(int n, boolean[] visited, boolean[] visiting, int[] order, int orderSize) {
+		if (visited[n]) {
+			return orderSize;
+		}
+		if (visiting[n]) {
+			throw new IllegalArgumentException("Found a cycle of non-recurrent connections involving neuron " + n);
+		}
+		visiting[n] = true;
+		for (int c = connectionStart[n]; c < connectionStart[n + 1]; c++) {
+			if (connectionType[c] == NEURON) {
+				orderSize = addInTopologicalOrder(connectionSource[c], visited, visiting, order, orderSize);
+			}
+		}
+		visiting[n] = false;
+		visited[n] = true;
+		order[orderSize] = n;
+		return orderSize + 1;
+	}
+
+	/**
+	 * Returns true iff the given network can be compiled. This requires that all connections are
+	 * {@link NeuronConnection}s (including {@link CacheNeuronConnection}s), input {@link Pattern} connections or
+	 * {@link BiasConnection}s.
+	 */
+	public static boolean canCompile(AnjiNet net) {
+		for (Neuron n : net.getAllNeurons()) {
+			for (Connection conn : n.getIncomingConns()) {
+				if (!(conn instanceof NeuronConnection || conn instanceof Pattern.PatternConnection || conn instanceof BiasConnection)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Set the input values. The given array is used directly (not copied), as for {@link Pattern#setValues(double[])}.
+	 */
+	public void setInputs(double[] inputs) {
+		if (inputs.length != inputCount) {
+			throw new IllegalArgumentException("can not change array dimension");
+		}
+		input = inputs;
+	}
+
+	/**
+	 * Step the network: update the values carried by recurrent connections and then evaluate all neurons. Equivalent
+	 * to {@link AnjiNet#step()} followed by {@link AnjiNet#fullyActivate()}.
+	 */
+	public void step() {
+		if (resetPending) {
+			// The first step after a reset: CacheNeuronConnection.step() lazily evaluates the (dirty) source neurons
+			// using the cached values as updated so far.
+			for (int ci = 0; ci < steppedCacheCount; ci++) {
+				cacheValue[ci] = Math.min(Math.max(cacheWeight[ci] * lazyValue(cacheSource[ci]), -Float.MAX_VALUE), Float.MAX_VALUE);
+			}
+			resetPending = false;
+		} else {
+			for (int ci = 0; ci < steppedCacheCount; ci++) {
+				cacheValue[ci] = Math.min(Math.max(cacheWeight[ci] * value[cacheSource[ci]], -Float.MAX_VALUE), Float.MAX_VALUE);
+			}
+		}
+
+		for (int i = 0; i < evaluationOrder.length; i++) {
+			int n = evaluationOrder[i];
+			int end = connectionStart[n + 1];
+			if (nonIntegrating[n]) {
+				double[] in = nonIntegratingInput[n];
+				for (int c = connectionStart[n], ii = 0; c < end; c++, ii++) {
+					in[ii] = read(c);
+				}
+				value[n] = function[n].evaluate(in, bias[n]);
+			} else {
+				double sum = bias[n];
+				for (int c = connectionStart[n]; c < end; c++) {
+					switch (connectionType[c]) {
+					case NEURON:
+						sum += connectionWeight[c] * value[connectionSource[c]];
+						break;
+					case CACHE:
+						sum += cacheValue[connectionSource[c]];
+						break;
+					case INPUT:
+						sum += input[connectionSource[c]];
+						break;
+					default:
+						sum += 1;
+					}
+				}
+				value[n] = function[n].evaluate(sum);
+			}
+		}
+	}
+
+	private double read(int c) {
+		switch (connectionType[c]) {
+		case NEURON:
+			return connectionWeight[c] * value[connectionSource[c]];
+		case CACHE:
+			return cacheValue[connectionSource[c]];
+		case INPUT:
+			return input[connectionSource[c]];
+		default:
+			return 1;
+		}
+	}
+
+	// Mirrors Neuron.getValue() for a neuron that may not have been evaluated yet this step.
+	private double lazyValue(int n) {
+		if (dirty[n]) {
+			int end = connectionStart[n + 1];
+			if (nonIntegrating[n]) {
+				// Allocate a new array as the shared one may be in use further up the call stack.
+				double[] in = new double[end - connectionStart[n]];
+				for (int c = connectionStart[n], ii = 0; c < end; c++, ii++) {
+					in[ii] = lazyRead(c);
+				}
+				value[n] = function[n].evaluate(in, bias[n]);
+			} else {
+				double sum = bias[n];
+				for (int c = connectionStart[n]; c < end; c++) {
+					sum += lazyRead(c);
+				}
+				value[n] = function[n].evaluate(sum);
+			}
+			dirty[n] = false;
+		}
+		return value[n];
+	}
+
+	private double lazyRead(int c) {
+		if (connectionType[c] == NEURON) {
+			return connectionWeight[c] * lazyValue(connectionSource[c]);
+		}
+		return read(c);
+	}
+
+	/**
+	 * @return the current value of the output neuron with the given index.
+	 */
+	public double getOutput(int index) {
+		return value[outputNeuron[index]];
+	}
+
+	/**
+	 * Copy the current output values into the given array.
+	 */
+	public void getOutputs(double[] outputs) {
+		for (int o = 0; o < outputCount; o++) {
+			outputs[o] = value[outputNeuron[o]];
+		}
+	}
+
+	/**
+	 * Clear all memory in the network, including neuron values and recurrent connections.
+	 */
+	public void reset() {
+		for (int n = 0; n < neuronCount; n++) {
+			value[n] = 0;
+			dirty[n] = true;
+		}
+		for (int ci = 0; ci < cacheValue.length; ci++) {
+			cacheValue[ci] = 0;
+		}
+		resetPending = true;
+	}
+
+	/**
+	 * @return true iff the network contains recurrent connections.
+	 */
+	public boolean isRecurrent() {
+		return recurrent;
+	}
+
+	/**
+	 * @return the number of inputs.
+	 */
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	/**
+	 * @return the number of outputs.
+	 */
+	public int getOutputCount() {
+		return outputCount;
+	}
+}
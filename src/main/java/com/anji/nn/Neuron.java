@@ -34,7 +34,6 @@ import java.util.TreeMap;
 
 import com.anji.neat.NeuronType;
 import com.anji.nn.activationfunction.ActivationFunction;
-import com.anji.nn.activationfunction.ActivationFunctionNonIntegrating;
 import com.anji.util.XmlPersistable;
 
 /**
@@ -221,7 +220,7 @@ public class Neuron implements XmlPersistable {
         }
         func = aFunc;
         this.bias = bias;
-        nonIntegrating = func instanceof ActivationFunctionNonIntegrating;
+        nonIntegrating = func.isNonIntegrating();
         reset();
     }
 
@@ -262,19 +261,18 @@ public class Neuron implements XmlPersistable {
     public double getValue() {
         if (dirty) {
             if (nonIntegrating) {
-                ActivationFunctionNonIntegrating func2 = (ActivationFunctionNonIntegrating) func;
                 double[] input = new double[incomingConns.size()];
                 for (int i = 0; i < incomingConns.size(); i++) {
                     input[i] = incomingConns.get(i).read();
                 }
-                value = func2.apply(input, bias);
+                value = func.evaluate(input, bias);
             } else {
                 this.sum = bias;
                 for (var conn : incomingConns) {
                     double r = conn.read();
                     sum += r;
                 }
-                value = func.apply(sum);
+                value = func.evaluate(sum);
             }
             dirty = false;
         }
@@ -79,14 +79,14 @@ public enum ActivationFunction {
         /**
          * Return absolute value of <code>input</code>, clamped to range [0, 1].
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return Math.abs(input);
         }
 
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x < 0.) {
                 return -1.;
             } else {
@@ -163,12 +163,12 @@ public enum ActivationFunction {
          * Returns cosine(input).
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return Math.cos(input);
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return -Math.sin(x);
         }
 
@@ -224,7 +224,7 @@ public enum ActivationFunction {
          * Not used, returns 0.
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 0.;
         }
 
@@ -236,7 +236,7 @@ public enum ActivationFunction {
          * @return
          */
         @Override
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             if (input.length > 0) {
                 if (input.length < 2) {
                     return input[0];
@@ -244,7 +244,7 @@ public enum ActivationFunction {
                 double v = input[0] / input[1];
                 if (Double.isNaN(v) || Double.isInfinite(v)) {
                     boolean pos = Math.signum(input[0]) == Math.signum(input[1]);
-                    return Double.valueOf(pos ? Float.MAX_VALUE : -Float.MAX_VALUE);
+                    return pos ? Float.MAX_VALUE : -Float.MAX_VALUE;
                 }
                 return Math.max(-Float.MAX_VALUE, Math.min(Float.MAX_VALUE, v));
             }
@@ -332,10 +332,10 @@ public enum ActivationFunction {
         /**
          * Approximation of classic sigmoid.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input <= -SEP) {
                 return 0.;
             } else if (input <= 0) {
@@ -350,7 +350,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x <= -SEP) {
                 return 0.;
             } else if (x <= 0) {
@@ -412,7 +412,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input < 0) {
                 return alpha * (Math.exp(input) - 1);
             } else {
@@ -421,7 +421,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x < 0) {
                 return alpha * Math.exp(x);
             } else {
@@ -497,15 +497,15 @@ public enum ActivationFunction {
         /**
          * Return <code>input</code> with Gaussian function transformation.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return Math.exp(-(input * input * SLOPE));
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return -2 * Math.exp(-SLOPE * x * x) * SLOPE * x;
         }
 
@@ -588,15 +588,15 @@ public enum ActivationFunction {
         /**
          * Inverse absolute value.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 1 / (SLOPE * Math.abs(input) + 1);
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             // As given by Wolfram Alpha
             return -(SLOPE * x) / (Math.abs(x) * Math.pow(1 + SLOPE * Math.abs(x), 2));
         }
@@ -678,15 +678,15 @@ public enum ActivationFunction {
         /**
          * Return <code>input</code> with no transformation.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return input;
         }
 
         @Override
-        public Double applyDiff(double input) {
+        public double evaluateDiff(double input) {
             return 1.;
         }
 
@@ -746,6 +746,16 @@ public enum ActivationFunction {
 //		LogicAndActivationFunction() {
 //		}
 
+        /**
+         * Applied to the sum of the inputs when used as an integrating
+         * function: the result of the logic operation over a single input,
+         * which is 1 if the input is greater than or equal to 0.5, otherwise 0.
+         */
+        @Override
+        public double evaluate(double input) {
+            return input >= 0.5 ? 1 : 0;
+        }
+
         /**
          * Returns the result of a logical AND over all inputs, where an input value
          * greater than or equal to 0.5 is considered logical true, and less than
@@ -756,12 +766,12 @@ public enum ActivationFunction {
          * @return 1 or 0 depending on result of logic operation.
          */
         @Override
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             boolean result = false;
             for (int i = 0; i < input.length; i++) {
                 result &= input[i] >= 0.5;
             }
-            return Double.valueOf(result ? 1 : 0);
+            return result ? 1 : 0;
         }
 
         @Override
@@ -807,6 +817,16 @@ public enum ActivationFunction {
 //		LogicOrActivationFunction() {
 //		}
 
+        /**
+         * Applied to the sum of the inputs when used as an integrating
+         * function: the result of the logic operation over a single input,
+         * which is 1 if the input is greater than or equal to 0.5, otherwise 0.
+         */
+        @Override
+        public double evaluate(double input) {
+            return input >= 0.5 ? 1 : 0;
+        }
+
         /**
          * Returns the result of a logical OR over all inputs, where an input value
          * greater than or equal to 0.5 is considered logical true, and less than
@@ -814,12 +834,12 @@ public enum ActivationFunction {
          *
          * @return 1 or 0 depending on result of logic operation.
          */
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             boolean result = false;
             for (int i = 0; i < input.length; i++) {
                 result |= input[i] >= 0.5;
             }
-            return Double.valueOf(result ? 1 : 0);
+            return result ? 1 : 0;
         }
 
         @Override
@@ -880,6 +900,16 @@ public enum ActivationFunction {
 //        LogicXORActivationFunction() {
 //        }
 
+        /**
+         * Applied to the sum of the inputs when used as an integrating
+         * function: the result of the logic operation over a single input,
+         * which is 1 if the input is greater than or equal to 0.5, otherwise 0.
+         */
+        @Override
+        public double evaluate(double input) {
+            return input >= 0.5 ? 1 : 0;
+        }
+
         /**
          * Returns the result of a logical XOR over all inputs, where an input value
          * greater than or equal to 0.5 is considered logical true, and less than
@@ -887,12 +917,12 @@ public enum ActivationFunction {
          *
          * @return 1 or 0 depending on result of logic operation.
          */
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             boolean result = false;
             for (int i = 0; i < input.length; i++) {
                 result ^= input[i] >= 0.5;
             }
-            return Double.valueOf(result ? 1 : 0);
+            return result ? 1 : 0;
         }
     },
 
@@ -927,14 +957,14 @@ public enum ActivationFunction {
          * Not used, use {@link #apply(double[], double)} as this is a
          * non-integrating function.
          */
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 0.;
         }
 
         /**
          * Return result of inputs multiplied together.
          */
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             if (input.length == 0) {
                 return 0.;
             }
@@ -998,15 +1028,15 @@ public enum ActivationFunction {
         /**
          * Return <code>input</code> with opposite sign.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return -input;
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return -1.;
         }
 
@@ -1068,7 +1098,7 @@ public enum ActivationFunction {
          * Not used, returns 0.
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 0.;
         }
 
@@ -1077,7 +1107,7 @@ public enum ActivationFunction {
          * second input (or just first input if no second input).
          */
         @Override
-        public Double apply(double[] input, double bias) {
+        public double evaluate(double[] input, double bias) {
             if (input.length < 2) {
                 return input[0];
             }
@@ -1144,10 +1174,10 @@ public enum ActivationFunction {
 //		}
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             double val = 1 / input;
             if (Double.isNaN(val)) {
                 return input < 0 ? getMinValue() : getMaxValue();
@@ -1161,7 +1191,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             double val = -1 / (x * x);
             if (Double.isNaN(val)) {
                 return getMinValue();
@@ -1244,15 +1274,15 @@ public enum ActivationFunction {
         /**
          * Returns 0 if the input <= 0, otherwise the input value.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double x) {
+        public double evaluate(double x) {
             return Math.max(0, x);
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x < 0) {
                 return 0.;
             } else {
@@ -1333,13 +1363,13 @@ public enum ActivationFunction {
 //        SigmoidActivationFunction() {
 //        }
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 1.0 / (1.0 + Math.exp(-input));
         }
 
         @Override
-        public Double applyDiff(double input) {
-            double fn = apply(input);
+        public double evaluateDiff(double input) {
+            double fn = evaluate(input);
             return fn * (1 - fn);
         }
 
@@ -1409,10 +1439,10 @@ public enum ActivationFunction {
         }
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input <= -1.0) {
                 return -1.;
             } else if (input >= 1.0) {
@@ -1423,7 +1453,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x <= 1.0 || x >= 1.0) {
                 return 0.;
             } else {
@@ -1511,12 +1541,12 @@ public enum ActivationFunction {
          * ji.nn.activationfunction.ActivationFunction#apply(double)
          */
         @Override
-        public Double apply(double input) {
-            return Double.valueOf((input <= 0) ? -1 : 1);
+        public double evaluate(double input) {
+            return (input <= 0) ? -1 : 1;
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return 0.;
         }
 
@@ -1598,12 +1628,12 @@ public enum ActivationFunction {
          * Returns sine(input).
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return Math.sin(input);
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return Math.cos(x);
         }
 
@@ -1663,10 +1693,10 @@ public enum ActivationFunction {
 //        }
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input > 0) {
                 return Math.sqrt(input);
             }
@@ -1677,7 +1707,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x > 0) {
                 return 1 / 2 * Math.sqrt(x);
             } else if (x < 0) {
@@ -1741,10 +1771,10 @@ public enum ActivationFunction {
 //        }
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input >= -1 && input <= 1) {
                 return input;
             }
@@ -1756,7 +1786,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x >= -1 && x <= 1) {
                 return 1.;
             }
@@ -1837,12 +1867,12 @@ public enum ActivationFunction {
 //        SteepSigmoidActivationFunction() {
 //        }
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 1.0 / (1.0 + Math.exp(-(input * SLOPE)));
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return (SLOPE * Math.exp(-SLOPE * x)) / Math.pow(1 + Math.exp(-SLOPE * x), 2);
         }
 
@@ -1923,12 +1953,12 @@ public enum ActivationFunction {
          * ji.nn.activationfunction.ActivationFunction#apply(double)
          */
         @Override
-        public Double apply(double input) {
-            return Double.valueOf((input <= 0) ? 0 : 1);
+        public double evaluate(double input) {
+            return (input <= 0) ? 0 : 1;
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return 0.;
         }
 
@@ -2006,15 +2036,15 @@ public enum ActivationFunction {
          * Hyperbolic tangent.
          *
          * @param x
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double x) {
+        public double evaluate(double x) {
             return -1 + (2 / (1 + Math.exp(-2 * (x))));
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             return 0.5 * Math.log((1 + x) / (1 - x));
         }
 
@@ -2096,15 +2126,15 @@ public enum ActivationFunction {
          * Hyperbolic tangent of cubic.
          *
          * @param x
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double x) {
+        public double evaluate(double x) {
             return -1 + (2 / (1 + Math.exp(Math.pow(-x, 3))));
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             // As given by Wolfram Alpha
             return (6 * Math.exp(-Math.pow(x, 3)) * Math.pow(x, 2)) /
                     Math.pow(1 + Math.exp(Math.pow(-x, 3)), 2);
@@ -2189,14 +2219,14 @@ public enum ActivationFunction {
         /**
          * Modified classic sigmoid.
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return 2.0 / (1.0 + Math.exp(-(input * SLOPE))) - 1.0;
         }
 
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             // As given by Wolfram Alpha
             return (2.0 * Math.exp(-SLOPE * x) * SLOPE) / Math.pow(1 + Math.exp(-SLOPE * x), 2);
         }
@@ -2272,15 +2302,15 @@ public enum ActivationFunction {
         /**
          * Return absolute value of <code>input</code>, clamped to range [0, 1].
          *
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             return Math.min(Math.abs(input), 1);
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x < 0) {
                 if (x >= -1) {
                     return -1.;
@@ -2361,10 +2391,10 @@ public enum ActivationFunction {
         }
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input <= 0) {
                 return 0.;
             } else if (input >= 1) {
@@ -2375,7 +2405,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x <= 0 || x >= 1) {
                 return 0.;
             } else {
@@ -2430,10 +2460,10 @@ public enum ActivationFunction {
         }
 
         /**
-         * @see com.anji.nn.activationfunction.ActivationFunction#apply(double)
+         * @see com.anji.nn.activationfunction.ActivationFunction#evaluate(double)
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double input) {
             if (input <= 0) {
                 input = 0;
             } else if (input >= 1) {
@@ -2443,7 +2473,7 @@ public enum ActivationFunction {
         }
 
         @Override
-        public Double applyDiff(double x) {
+        public double evaluateDiff(double x) {
             if (x <= 0 || x >= 1) {
                 return 0.;
             } else {
@@ -2479,10 +2509,19 @@ public enum ActivationFunction {
         /**
          * Not used as this is a non-integrating function, returns 0.
          *
-         * @see #apply(double[], double)
+         * @see #evaluate(double[], double)
+         */
+        @Override
+        public double evaluate(double input) {
+            return 0.;
+        }
+
+        /**
+         * Base for the logic functions, which implement the logic operation;
+         * returns 0.
          */
         @Override
-        public Double apply(double input) {
+        public double evaluate(double[] input, double bias) {
             return 0.;
         }
 
@@ -2519,21 +2558,93 @@ public enum ActivationFunction {
     }
 
     /**
-     * Apply activation function to input.
+     * Apply activation function to input. Prefer {@link #evaluate(double)},
+     * which does not box the result.
      *
      * @param input
      * @return double result of applying activation function to <code>input</code>
      */
     public Double apply(double input) {
-        return null;
+        return evaluate(input);
     }
 
+    /**
+     * Apply non-integrating activation function to inputs. Prefer
+     * {@link #evaluate(double[], double)}, which does not box the result.
+     */
     public Double apply(double[] input, double bias) {
-        return null;
+        return evaluate(input, bias);
+    }
+
+    /**
+     * Apply activation function to input.
+     *
+     * @param input
+     * @return double result of applying activation function to <code>input</code>
+     * @throws UnsupportedOperationException if this is a non-integrating
+     * function that does not support being applied to the sum of its inputs.
+     */
+    public double evaluate(double input) {
+        throw new UnsupportedOperationException(getName() + " is non-integrating, use evaluate(double[], double)");
+    }
+
+    /**
+     * Apply non-integrating activation function to the individual input
+     * values.
+     *
+     * @param input
+     * @param bias
+     * @return double result of applying activation function to <code>input</code>
+     * @throws UnsupportedOperationException if this is not a non-integrating
+     * function, see {@link #isNonIntegrating()}.
+     */
+    public double evaluate(double[] input, double bias) {
+        throw new UnsupportedOperationException(getName() + " is not non-integrating, use evaluate(double)");
+    }
+
+    /**
+     * Apply activation function to each of the values in
+     * <code>values[from]</code> to <code>values[to - 1]</code>, replacing each
+     * value with the result.
+     *
+     * @param values
+     * @param from index of first value to apply the function to, inclusive
+     * @param to index of last value to apply the function to, exclusive
+     */
+    public void applyInPlace(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            values[i] = evaluate(values[i]);
+        }
+    }
+
+    /**
+     * @return true iff this is a non-integrating function, which should be
+     * applied to the individual input values via
+     * {@link #apply(double[], double)} rather than to their sum. This is the
+     * case iff the function implements {@link ActivationFunctionNonIntegrating};
+     * none of the functions currently do (the declarations are commented out),
+     * so all functions are applied to the sum of their inputs.
+     */
+    public boolean isNonIntegrating() {
+        return ((Object) this) instanceof ActivationFunctionNonIntegrating;
     }
 
+    /**
+     * Apply derivative of activation function to input. Prefer
+     * {@link #evaluateDiff(double)}, which does not box the result.
+     */
     public Double applyDiff(double x) {
-        return apply(x);
+        return evaluateDiff(x);
+    }
+
+    /**
+     * Apply derivative of activation function to input.
+     *
+     * @param x
+     * @return double result of applying derivative of activation function to <code>x</code>
+     */
+    public double evaluateDiff(double x) {
+        return evaluate(x);
     }
 
     /**
@@ -4,4 +4,9 @@ public interface ActivationFunctionNonIntegrating {
 
     public Double apply(double[] input, double bias);
 
+    /**
+     * As for {@link #apply(double[], double)} but does not box the result.
+     */
+    public double evaluate(double[] input, double bias);
+
 }
@@ -0,0 +1,221 @@
+package com.anji.persistence;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+
+import com.anji.neat.ConnectionAllele;
+import com.anji.neat.ConnectionGene;
+import com.anji.neat.NeuronAllele;
+import com.anji.neat.NeuronGene;
+import com.anji.neat.NeuronType;
+
+/**
+ * Compact binary encoding of {@link Chromosome}s and {@link ChromosomeMaterial}, used by {@link JournalPersistence}
+ * and {@link com.ojcoleman.ahni.hyperneat.Checkpoint}s. A Chromosome is encoded with its ID, the ID of its species,
+ * whether it is an elite, its fitness and performance values and its material; the material is encoded with its
+ * parent IDs and alleles. As for the XML format, only {@link NeuronAllele} and {@link ConnectionAllele} alleles are
+ * stored.
+ */
+public final class ChromosomeCodec {
+
+    private final static byte ALLELE_NEURON = 1;
+
+    private final static byte ALLELE_CONNECTION = 2;
+
+    /**
+     * Value used to encode a null ID.
+     */
+    public final static long NO_ID = Long.MIN_VALUE;
+
+    private ChromosomeCodec() {
+    }
+
+    /**
+     * Write the given chromosome.
+     */
+    public static void write(DataOutput out, Chromosome c) throws IOException {
+        out.writeLong(c.getId());
+        out.writeLong(c.getSpecie() == null ? NO_ID : c.getSpecie().getID());
+        out.writeBoolean(c.isElite);
+        out.writeDouble(c.getFitnessValue());
+        double[] fitnessValues = c.getFitnessValues();
+        out.writeInt(fitnessValues.length);
+        for (double f : fitnessValues) {
+            out.writeDouble(f);
+        }
+        Map<String, Double> performanceValues = c.getAllPerformanceValues();
+        out.writeInt(performanceValues.size());
+        for (Map.Entry<String, Double> p : performanceValues.entrySet()) {
+            writeString(out, p.getKey());
+            out.writeDouble(p.getValue());
+        }
+        writeMaterial(out, c.getMaterial());
+    }
+
+    /**
+     * Read a chromosome written by {@link #write(DataOutput, Chromosome)}. The fitness values are restored if the
+     * number of objectives matches the given objective count. The species of the returned chromosome is not set.
+     */
+    public static Chromosome read(DataInput in, int objectiveCount, int noveltyObjectiveCount) throws IOException {
+        Long id = in.readLong();
+        in.readLong(); // species ID
+        boolean isElite = in.readBoolean();
+        double fitness = in.readDouble();
+        double[] fitnessValues = new double[in.readInt()];
+        for (int i = 0; i < fitnessValues.length; i++) {
+            fitnessValues[i] = in.readDouble();
+        }
+        int performanceCount = in.readInt();
+        Map<String, Double> performanceValues = new TreeMap<String, Double>();
+        for (int i = 0; i < performanceCount; i++) {
+            String key = readString(in);
+            performanceValues.put(key, in.readDouble());
+        }
+        ChromosomeMaterial material = readMaterial(in);
+
+        Chromosome c = new Chromosome(material, id, objectiveCount, noveltyObjectiveCount);
+        c.isElite = isElite;
+        if (fitnessValues.length == objectiveCount) {
+            c.setFitnessValues(fitnessValues);
+            c.setFitnessValue(fitness);
+        }
+        if (!performanceValues.isEmpty()) {
+            c.setPerformanceValues(performanceValues);
+        }
+        return c;
+    }
+
+    /**
+     * @return the ID of the species of the chromosome at the current position of the given buffer, as written by
+     *         {@link #write(DataOutput, Chromosome)}, or {@link #NO_ID}. The position of the buffer is not changed.
+     */
+    public static long peekSpeciesId(ByteBuffer buf) {
+        return buf.getLong(buf.position() + 8);
+    }
+
+    /**
+     * Write the given chromosome material.
+     */
+    public static void writeMaterial(DataOutput out, ChromosomeMaterial material) throws IOException {
+        out.writeLong(material.getPrimaryParentId() == null ? NO_ID : material.getPrimaryParentId());
+        out.writeLong(material.getSecondaryParentId() == null ? NO_ID : material.getSecondaryParentId());
+
+        int alleleCount = 0;
+        for (Allele allele : material.getAlleles()) {
+            if (allele instanceof NeuronAllele || allele instanceof ConnectionAllele) {
+                alleleCount++;
+            }
+        }
+        out.writeInt(alleleCount);
+        for (Allele allele : material.getAlleles()) {
+            if (allele instanceof NeuronAllele) {
+                NeuronAllele n = (NeuronAllele) allele;
+                out.writeByte(ALLELE_NEURON);
+                out.writeLong(n.getInnovationId());
+                writeString(out, n.getType().name());
+                writeString(out, n.getActivationType());
+                out.writeDouble(n.getBias());
+            } else if (allele instanceof ConnectionAllele) {
+                ConnectionAllele conn = (ConnectionAllele) allele;
+                out.writeByte(ALLELE_CONNECTION);
+                out.writeLong(conn.getInnovationId());
+                out.writeLong(conn.getSrcNeuronId());
+                out.writeLong(conn.getDestNeuronId());
+                out.writeDouble(conn.getWeight());
+            }
+        }
+    }
+
+    /**
+     * Read chromosome material written by {@link #writeMaterial(DataOutput, ChromosomeMaterial)}.
+     */
+    public static ChromosomeMaterial readMaterial(DataInput in) throws IOException {
+        Long primaryParentId = toId(in.readLong());
+        Long secondaryParentId = toId(in.readLong());
+        int alleleCount = in.readInt();
+        List<Allele> alleles = new ArrayList<Allele>(alleleCount);
+        for (int i = 0; i < alleleCount; i++) {
+            byte kind = in.readByte();
+            Long innovationId = in.readLong();
+            if (kind == ALLELE_NEURON) {
+                NeuronType type = NeuronType.valueOf(readString(in));
+                String activationType = readString(in);
+                double bias = in.readDouble();
+                alleles.add(new NeuronAllele(new NeuronGene(type, innovationId, activationType), bias));
+            } else if (kind == ALLELE_CONNECTION) {
+                Long srcId = in.readLong();
+                Long destId = in.readLong();
+                ConnectionAllele allele = new ConnectionAllele(new ConnectionGene(innovationId, srcId, destId));
+                allele.setWeight(in.readDouble());
+                alleles.add(allele);
+            } else {
+                throw new IOException("Unknown allele type " + kind + " in encoded chromosome material.");
+            }
+        }
+        return new ChromosomeMaterial(alleles, primaryParentId, secondaryParentId);
+    }
+
+    /**
+     * @return the given encoded ID, or null if it is {@link #NO_ID}.
+     */
+    public static Long toId(long id) {
+        return id == NO_ID ? null : id;
+    }
+
+    /**
+     * Write a UTF-8 string prefixed by its length in bytes. Unlike {@link DataOutput#writeUTF(String)} the length is
+     * not limited to 64K and null is written as the empty string.
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     */
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a DataInputStream that reads from the given buffer, starting at its current position.
+     */
+    public static DataInputStream asDataInput(final ByteBuffer buf) {
+        return new DataInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!buf.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, buf.remaining());
+                buf.get(b, off, len);
+                return len;
+            }
+        });
+    }
+}
@@ -81,6 +81,25 @@ public class FilePersistence implements Persistence {
 
     private String runId = null;
 
+    /**
+     * Create a FilePersistence; {@link #init(Properties)} must be called
+     * before use.
+     */
+    public FilePersistence() {
+    }
+
+    /**
+     * Create a FilePersistence that stores files in the given directory,
+     * without requiring {@link #init(Properties)}. This is used to export
+     * data from other persistence implementations to the XML format.
+     *
+     * @param baseDir the base directory, created if it doesn't exist.
+     */
+    public FilePersistence(File baseDir) {
+        this.baseDir = baseDir;
+        baseDir.mkdirs();
+    }
+
     /**
      * See <a href=" {@docRoot} /params.htm" target="anji_params">Parameter
      * Details </a> for specific property settings.
@@ -116,7 +135,7 @@ public class FilePersistence implements Persistence {
         return new FileInputStream(fullPath(type, key));
     }
 
-    private void storeXml(XmlPersistable xp) throws IOException {
+    void storeXml(XmlPersistable xp) throws IOException {
         try (FileOutputStream out = new FileOutputStream(
                 fullPath(xp.getXmlRootTag(), xp.getXmld()))) 
         {
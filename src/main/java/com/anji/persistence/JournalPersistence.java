@@ -0,0 +1,889 @@
+package com.anji.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.Configuration;
+import org.jgapcustomised.Genotype;
+
+import com.anji.integration.Activator;
+import com.anji.integration.Generation;
+import com.anji.integration.XmlPersistableRun;
+import com.anji.run.Run;
+import com.anji.util.Properties;
+import com.anji.util.XmlPersistable;
+
+/**
+ * Journal-based implementation of the persistence layer. Rather than writing
+ * one file per chromosome and rewriting the whole run file every generation
+ * (see {@link FilePersistence}), each generation is appended to a journal as
+ * a single binary record containing the stored chromosomes (including their
+ * species and fitness and performance values) and the generation summary that
+ * would be written to the run XML. Any generation or chromosome can be read
+ * back through a memory-mapped view of the journal, and the journal can be
+ * exported to the {@link FilePersistence} XML format with
+ * {@link Journal#exportXml(File)} or from the command line, see
+ * {@link #main(String[])}.
+ * <p>
+ * The journal for a run is stored in the directory
+ * <code>baseDir</code>/journal/<code>runId</code> as a sequence of segment
+ * files. Each record is prefixed by its length and CRC32 checksum. Each
+ * segment ends with an index footer listing the generation records it
+ * contains; the footer is overwritten by the next record appended to the
+ * segment. If a segment has no valid footer (eg because the process was
+ * killed while writing to it) it is scanned instead, and any partial record at
+ * the end is discarded.
+ * </p>
+ * <p>
+ * Chromosomes passed to {@link #store(Chromosome)} are buffered and written
+ * together when {@link #store(Run)} is called, as
+ * {@link com.anji.integration.PersistenceEventListener} does after storing the
+ * chromosomes for each generation. The journal is append-only, so
+ * {@link #deleteChromosome(String)} only hides a chromosome from subsequent
+ * loads; the deletion is recorded with the next generation. Chromosomes are
+ * encoded with {@link ChromosomeCodec}.
+ * </p>
+ */
+public class JournalPersistence implements Persistence {
+
+    private final static Logger logger = Logger.getLogger(JournalPersistence.class);
+
+    /**
+     * properties key, the size in megabytes after which a new journal segment
+     * file is started. Default is 64.
+     */
+    public final static String SEGMENT_SIZE_KEY = "persistence.journal.segment.size";
+
+    /**
+     * properties key, whether to force each generation record to be written to
+     * the storage device before continuing. Default is false.
+     */
+    public final static String SYNC_KEY = "persistence.journal.sync";
+
+    private final static String JOURNAL_DIR = "journal";
+
+    private final static String SEGMENT_SUFFIX = ".journal";
+
+    private final static int SEGMENT_MAGIC = 0x414a4e4c;
+
+    private final static int FOOTER_MAGIC = 0x414a4958;
+
+    private final static int VERSION = 1;
+
+    private final static int SEGMENT_HEADER_SIZE = 8;
+
+    private final static int RECORD_HEADER_SIZE = 8;
+
+    private final static int FOOTER_ENTRY_SIZE = 20;
+
+    private final static int FOOTER_TRAILER_SIZE = 12;
+
+    private final static byte RECORD_RUN = 1;
+
+    private final static byte RECORD_GENERATION = 2;
+
+    private Properties props;
+
+    private File baseDir = null;
+
+    private FilePersistence xmlPersistence;
+
+    private long segmentSize = 64L << 20;
+
+    private boolean sync = false;
+
+    private String runId = null;
+
+    private Journal journal;
+
+    private final Map<Long, Chromosome> pendingChromosomes = new LinkedHashMap<Long, Chromosome>();
+
+    private final List<Long> pendingDeletes = new ArrayList<Long>();
+
+    /**
+     * See <a href=" {@docRoot} /params.htm" target="anji_params">Parameter
+     * Details </a> for specific property settings.
+     *
+     * @param props configuration parameters
+     */
+    @Override
+    public void init(Properties props) {
+        this.props = props;
+        xmlPersistence = new FilePersistence();
+        xmlPersistence.init(props);
+        segmentSize = props.getLongProperty(SEGMENT_SIZE_KEY, 64) << 20;
+        sync = props.getBooleanProperty(SYNC_KEY, false);
+        if (props.containsKey(FilePersistence.BASE_DIR_KEY)) {
+            baseDir = new File(props.getProperty(FilePersistence.BASE_DIR_KEY));
+        }
+    }
+
+    /**
+     * @see com.anji.persistence.Persistence#startRun(java.lang.String)
+     */
+    @Override
+    public synchronized void startRun(String aRunId) {
+        closeJournal();
+        runId = aRunId;
+    }
+
+    /**
+     * Returns the journal for the current run, opening it if necessary.
+     *
+     * @throws IllegalStateException if no run has been started or persistence
+     * is not enabled.
+     */
+    public synchronized Journal getJournal() throws IOException {
+        if (journal == null) {
+            if (baseDir == null || runId == null) {
+                throw new IllegalStateException("Journal persistence requires " + FilePersistence.BASE_DIR_KEY + " to be set and a run to be started.");
+            }
+            journal = new Journal(journalDir(), segmentSize, sync);
+        }
+        return journal;
+    }
+
+    private File journalDir() {
+        return new File(new File(baseDir, JOURNAL_DIR), runId);
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Error closing journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * @see com.anji.persistence.Persistence#reset()
+     */
+    @Override
+    public synchronized void reset() {
+        if (baseDir == null || runId == null) {
+            logger.warn("Reset not possible as persistance is not enabled or no run has been started");
+            return;
+        }
+        closeJournal();
+        pendingChromosomes.clear();
+        pendingDeletes.clear();
+        File[] files = journalDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SEGMENT_SUFFIX) && !file.delete()) {
+                    logger.warn("Error deleting journal segment " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers the chromosome, it is written with the next generation record.
+     *
+     * @see
+     * com.anji.persistence.Persistence#store(org.jgapcustomised.Chromosome)
+     */
+    @Override
+    public synchronized void store(Chromosome c) throws Exception {
+        pendingChromosomes.put(c.getId(), c);
+    }
+
+    /**
+     * Activators are stored as XML files, as for {@link FilePersistence}.
+     *
+     * @see
+     * com.anji.persistence.Persistence#store(com.anji.integration.Activator)
+     */
+    @Override
+    public void store(Activator a) throws Exception {
+        xmlPersistence.store(a);
+    }
+
+    /**
+     * Appends a record for the latest generation in the given run, containing
+     * all chromosomes stored since the previous call.
+     *
+     * @see com.anji.persistence.Persistence#store(com.anji.run.Run)
+     */
+    @Override
+    public synchronized void store(Run r) throws Exception {
+        Journal j = getJournal();
+        if (!j.hasRunRecord()) {
+            j.appendRunRecord(r.getName(), r.getStartTime().getTimeInMillis(), new XmlPersistableRun(r).getSearchParametersXml());
+        }
+        List<Generation> generations = r.getGenerations();
+        String generationXml = generations.isEmpty() ? "" : generations.get(generations.size() - 1).toXml();
+        j.appendGeneration(generationXml, pendingChromosomes.values(), pendingDeletes);
+        pendingChromosomes.clear();
+        pendingDeletes.clear();
+    }
+
+    /**
+     * @see com.anji.persistence.Persistence#deleteChromosome(java.lang.String)
+     */
+    @Override
+    public synchronized void deleteChromosome(String id) throws Exception {
+        Long chromId = Long.valueOf(id);
+        pendingChromosomes.remove(chromId);
+        pendingDeletes.add(chromId);
+        getJournal().markDeleted(chromId);
+    }
+
+    /**
+     * @see com.anji.persistence.Persistence#loadChromosome(java.lang.String,
+     * org.jgapcustomised.Configuration)
+     */
+    @Override
+    public synchronized Chromosome loadChromosome(String id, Configuration config) {
+        Long chromId = Long.valueOf(id);
+        Chromosome c = pendingChromosomes.get(chromId);
+        if (c != null) {
+            return c;
+        }
+        try {
+            return getJournal().readChromosome(chromId, config.getObjectiveCount());
+        } catch (IOException e) {
+            String msg = "error loading chromosome " + id;
+            logger.error(msg, e);
+            throw new IllegalStateException(msg + ": " + e);
+        }
+    }
+
+    /**
+     * Loads the chromosomes stored with the last generation in the journal.
+     *
+     * @see
+     * com.anji.persistence.Persistence#loadGenotype(org.jgapcustomised.Configuration)
+     */
+    @Override
+    public synchronized Genotype loadGenotype(Configuration config) {
+        try {
+            Journal j = getJournal();
+            if (j.getGenerationCount() == 0) {
+                return null;
+            }
+            List<Chromosome> chroms = j.readGeneration(j.getGenerationCount() - 1, config.getObjectiveCount());
+            // don't return empty genotype
+            if (chroms.isEmpty()) {
+                return null;
+            }
+            // sort in order of id so that they will be added in proper order (age)
+            chroms.sort(Comparator.comparing(Chromosome::getId));
+            return new Genotype(props, config, chroms);
+        } catch (Exception e) {
+            String msg = "error loading run " + runId;
+            logger.error(msg, e);
+            throw new IllegalStateException(msg + ": " + e);
+        }
+    }
+
+    /**
+     * Export a journal to the {@link FilePersistence} XML format.
+     * Usage: <code>JournalPersistence &lt;journal directory&gt; &lt;output
+     * base directory&gt;</code>
+     *
+     * @param args command line arguments
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: JournalPersistence <journal directory> <output base directory>");
+            System.exit(1);
+        }
+        try (Journal j = new Journal(new File(args[0]), Long.MAX_VALUE, false)) {
+            j.exportXml(new File(args[1]));
+        }
+    }
+
+    /**
+     * A journal of generation records for a single run, stored as a sequence
+     * of segment files in a directory. See {@link JournalPersistence} for an
+     * overview of the format.
+     */
+    public static class Journal implements Closeable {
+
+        private final File dir;
+
+        private final long segmentSize;
+
+        private final boolean sync;
+
+        private final List<Segment> segments = new ArrayList<Segment>();
+
+        private final List<GenerationEntry> generations = new ArrayList<GenerationEntry>();
+
+        // Location of the most recently stored version of each chromosome.
+        private final Map<Long, ChromosomeEntry> chromosomes = new HashMap<Long, ChromosomeEntry>();
+
+        private final Set<Long> deleted = new HashSet<Long>();
+
+        private String runName;
+
+        private long runStartTime;
+
+        private String searchParametersXml;
+
+        private RandomAccessFile writeFile;
+
+        /**
+         * Open (or create) the journal in the given directory. A partial
+         * record at the end of the last segment is discarded.
+         *
+         * @param dir the directory containing the journal segments.
+         * @param segmentSize the size in bytes after which a new segment is
+         * started.
+         * @param sync whether to force each record to the storage device.
+         */
+        public Journal(File dir, long segmentSize, boolean sync) throws IOException {
+            this.dir = dir;
+            this.segmentSize = segmentSize;
+            this.sync = sync;
+            dir.mkdirs();
+            if (!dir.isDirectory()) {
+                throw new IllegalArgumentException("journal directory is not a directory: " + dir);
+            }
+
+            File[] files = dir.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(openSegment(file));
+                }
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                Segment seg = segments.get(i);
+                if (!seg.hasFooter) {
+                    if (i < segments.size() - 1) {
+                        logger.warn("Journal segment " + seg.file + " has no index footer, it was scanned instead.");
+                    } else {
+                        // Discard any partial record and restore the footer so the segment can be appended to.
+                        writeFooter(seg);
+                    }
+                }
+                for (GenerationEntry gen : seg.generations) {
+                    indexGeneration(gen);
+                }
+            }
+            if (!segments.isEmpty() && segments.get(0).dataEnd > SEGMENT_HEADER_SIZE) {
+                readRunRecord(segments.get(0));
+            }
+        }
+
+        /**
+         * @return the number of generation records in this journal.
+         */
+        public int getGenerationCount() {
+            return generations.size();
+        }
+
+        /**
+         * @return the generation number of the generation record with the
+         * given index.
+         */
+        public long getGenerationNumber(int index) {
+            return generations.get(index).generation;
+        }
+
+        /**
+         * @return the run XML for the generation record with the given index,
+         * as produced by {@link Generation#toXml()}.
+         */
+        public String getGenerationXml(int index) throws IOException {
+            ByteBuffer buf = generations.get(index).payload();
+            buf.position(1 + 8 + 8);
+            return ChromosomeCodec.readString(ChromosomeCodec.asDataInput(buf));
+        }
+
+        /**
+         * @return the IDs of the chromosomes stored in the generation record
+         * with the given index.
+         */
+        public List<Long> getChromosomeIds(int index) {
+            return Collections.unmodifiableList(generations.get(index).chromosomeIds);
+        }
+
+        /**
+         * @return true iff the run record has been written.
+         */
+        public boolean hasRunRecord() {
+            return runName != null;
+        }
+
+        /**
+         * Read the most recently stored version of the chromosome with the
+         * given ID. The fitness and performance values are restored if the
+         * number of objectives matches.
+         *
+         * @return the chromosome, or null if it is not in the journal or has
+         * been deleted.
+         */
+        public Chromosome readChromosome(Long id, int objectiveCount) throws IOException {
+            ChromosomeEntry entry = chromosomes.get(id);
+            if (entry == null || deleted.contains(id)) {
+                return null;
+            }
+            return readChromosome(entry, objectiveCount);
+        }
+
+        /**
+         * Read all the chromosomes stored in the generation record with the
+         * given index, in the order they were stored.
+         */
+        public List<Chromosome> readGeneration(int index, int objectiveCount) throws IOException {
+            GenerationEntry gen = generations.get(index);
+            List<Chromosome> result = new ArrayList<Chromosome>(gen.chromosomeIds.size());
+            for (int i = 0; i < gen.chromosomeIds.size(); i++) {
+                result.add(readChromosome(new ChromosomeEntry(gen, gen.chromosomeOffsets[i]), objectiveCount));
+            }
+            return result;
+        }
+
+        private Chromosome readChromosome(ChromosomeEntry entry, int objectiveCount) throws IOException {
+            ByteBuffer buf = entry.generation.payload();
+            buf.position(entry.offset);
+            return ChromosomeCodec.read(ChromosomeCodec.asDataInput(buf), objectiveCount, 0);
+        }
+
+        /**
+         * Record that the chromosome with the given ID has been deleted. It
+         * won't be returned by {@link #readChromosome(Long, int)} unless it is
+         * stored again.
+         */
+        public void markDeleted(Long id) {
+            deleted.add(id);
+        }
+
+        /**
+         * Append the run record. This should be the first record in the
+         * journal.
+         */
+        public void appendRunRecord(String name, long startTime, String parametersXml) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_RUN);
+            ChromosomeCodec.writeString(out, name);
+            out.writeLong(startTime);
+            ChromosomeCodec.writeString(out, parametersXml);
+            out.close();
+            append(bytes.toByteArray(), null);
+            runName = name;
+            runStartTime = startTime;
+            searchParametersXml = parametersXml;
+        }
+
+        /**
+         * Append a generation record.
+         *
+         * @param generationXml the run XML for the generation.
+         * @param chroms the chromosomes to store.
+         * @param deletedIds IDs of chromosomes deleted since the last
+         * generation record.
+         */
+        public void appendGeneration(String generationXml, Collection<Chromosome> chroms, List<Long> deletedIds) throws IOException {
+            long generation = generations.isEmpty() ? 0 : generations.get(generations.size() - 1).generation + 1;
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeByte(RECORD_GENERATION);
+            header.writeLong(generation);
+            header.writeLong(System.currentTimeMillis());
+            ChromosomeCodec.writeString(header, generationXml);
+            header.writeInt(deletedIds.size());
+            for (Long id : deletedIds) {
+                header.writeLong(id);
+            }
+
+            // Chromosome table (ID and offset of each chromosome) followed by the chromosomes.
+            ByteArrayOutputStream chromBytes = new ByteArrayOutputStream();
+            DataOutputStream chromOut = new DataOutputStream(chromBytes);
+            int tableStart = header.size() + 4;
+            int chromStart = tableStart + chroms.size() * 12;
+            header.writeInt(chroms.size());
+            for (Chromosome c : chroms) {
+                header.writeLong(c.getId());
+                header.writeInt(chromStart + chromOut.size());
+                ChromosomeCodec.write(chromOut, c);
+            }
+            header.close();
+            chromOut.close();
+            byte[] payload = new byte[headerBytes.size() + chromBytes.size()];
+            System.arraycopy(headerBytes.toByteArray(), 0, payload, 0, headerBytes.size());
+            System.arraycopy(chromBytes.toByteArray(), 0, payload, headerBytes.size(), chromBytes.size());
+
+            GenerationEntry gen = new GenerationEntry();
+            gen.generation = generation;
+            append(payload, gen);
+            indexGeneration(gen);
+        }
+
+        /**
+         * Export this journal to the {@link FilePersistence} XML format in the
+         * given base directory: the most recently stored version of each
+         * chromosome that hasn't been deleted, and the run XML.
+         */
+        public void exportXml(File exportDir) throws IOException {
+            FilePersistence out = new FilePersistence(exportDir);
+            int objectiveCount = 1;
+            for (Map.Entry<Long, ChromosomeEntry> entry : chromosomes.entrySet()) {
+                if (!deleted.contains(entry.getKey())) {
+                    try {
+                        out.store(readChromosome(entry.getValue(), objectiveCount));
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException("Error exporting chromosome " + entry.getKey(), e);
+                    }
+                }
+            }
+
+            if (hasRunRecord()) {
+                final StringBuilder xml = new StringBuilder();
+                DateFormat fmt = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
+                long endTime = generations.isEmpty() ? runStartTime : generations.get(generations.size() - 1).time;
+                xml.append("<").append(XmlPersistableRun.RUN_TAG).append(" name=\"").append(runName).append("\" timedatestamp=\"[").append(fmt.format(runStartTime)).append(" - ").append(fmt.format(endTime)).append("]\" >\n");
+                xml.append(searchParametersXml);
+                for (int i = 0; i < generations.size(); i++) {
+                    xml.append(getGenerationXml(i));
+                }
+                xml.append("</").append(XmlPersistableRun.RUN_TAG).append(">\n");
+                out.storeXml(new XmlPersistable() {
+                    public String toXml() {
+                        return xml.toString();
+                    }
+
+                    public String getXmlRootTag() {
+                        return XmlPersistableRun.RUN_TAG;
+                    }
+
+                    public String getXmld() {
+                        return runName;
+                    }
+                });
+            }
+        }
+
+        /**
+         * @see java.io.Closeable#close()
+         */
+        @Override
+        public void close() throws IOException {
+            if (writeFile != null) {
+                writeFile.close();
+                writeFile = null;
+            }
+            for (Segment seg : segments) {
+                seg.map = null;
+            }
+        }
+
+        private void indexGeneration(GenerationEntry gen) throws IOException {
+            ByteBuffer buf = gen.payload();
+            buf.position(1);
+            gen.generation = buf.getLong();
+            gen.time = buf.getLong();
+            buf.position(buf.position() + buf.getInt()); // skip generation XML
+            int deletedCount = buf.getInt();
+            for (int i = 0; i < deletedCount; i++) {
+                deleted.add(buf.getLong());
+            }
+            int chromCount = buf.getInt();
+            gen.chromosomeIds = new ArrayList<Long>(chromCount);
+            gen.chromosomeOffsets = new int[chromCount];
+            for (int i = 0; i < chromCount; i++) {
+                Long id = buf.getLong();
+                gen.chromosomeIds.add(id);
+                gen.chromosomeOffsets[i] = buf.getInt();
+                chromosomes.put(id, new ChromosomeEntry(gen, gen.chromosomeOffsets[i]));
+                deleted.remove(id);
+            }
+            generations.add(gen);
+        }
+
+        private void readRunRecord(Segment seg) throws IOException {
+            ByteBuffer buf = seg.map();
+            int length = buf.getInt(SEGMENT_HEADER_SIZE);
+            buf.position(SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE);
+            buf.limit(SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + length);
+            if (buf.get() == RECORD_RUN) {
+                DataInputStream in = ChromosomeCodec.asDataInput(buf);
+                runName = ChromosomeCodec.readString(in);
+                runStartTime = in.readLong();
+                searchParametersXml = ChromosomeCodec.readString(in);
+            }
+        }
+
+        /**
+         * Append a record to the last segment, starting a new segment if
+         * necessary, and rewrite the index footer.
+         */
+        private void append(byte[] payload, GenerationEntry gen) throws IOException {
+            Segment seg = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (seg == null || (seg.dataEnd > SEGMENT_HEADER_SIZE && seg.dataEnd + RECORD_HEADER_SIZE + payload.length > segmentSize)) {
+                seg = newSegment();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            buf.putInt(payload.length);
+            buf.putInt((int) crc.getValue());
+            buf.put(payload);
+            buf.flip();
+
+            FileChannel channel = writeChannel(seg);
+            writeFully(channel, buf, seg.dataEnd);
+            if (gen != null) {
+                gen.segment = seg;
+                gen.offset = seg.dataEnd + RECORD_HEADER_SIZE;
+                gen.length = payload.length;
+                seg.generations.add(gen);
+            }
+            seg.dataEnd += RECORD_HEADER_SIZE + payload.length;
+            writeFooter(seg);
+        }
+
+        private Segment newSegment() throws IOException {
+            Segment seg = new Segment();
+            seg.file = new File(dir, String.format("%08d", segments.size()) + SEGMENT_SUFFIX);
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            seg.dataEnd = SEGMENT_HEADER_SIZE;
+            segments.add(seg);
+            writeFully(writeChannel(seg), header, 0);
+            return seg;
+        }
+
+        private FileChannel writeChannel(Segment seg) throws IOException {
+            if (seg.writeFile != null) {
+                return seg.writeFile.getChannel();
+            }
+            if (writeFile != null) {
+                writeFile.close();
+                for (Segment s : segments) {
+                    s.writeFile = null;
+                }
+            }
+            writeFile = new RandomAccessFile(seg.file, "rw");
+            seg.writeFile = writeFile;
+            return writeFile.getChannel();
+        }
+
+        /**
+         * Write the index footer for the given segment after the last record,
+         * discarding anything after it.
+         */
+        private void writeFooter(Segment seg) throws IOException {
+            ByteBuffer footer = ByteBuffer.allocate(4 + seg.generations.size() * FOOTER_ENTRY_SIZE + FOOTER_TRAILER_SIZE);
+            footer.putInt(seg.generations.size());
+            for (GenerationEntry gen : seg.generations) {
+                footer.putLong(gen.generation);
+                footer.putLong(gen.offset);
+                footer.putInt(gen.length);
+            }
+            footer.putLong(seg.dataEnd);
+            footer.putInt(FOOTER_MAGIC);
+            footer.flip();
+            FileChannel channel = writeChannel(seg);
+            writeFully(channel, footer, seg.dataEnd);
+            channel.truncate(seg.dataEnd + footer.limit());
+            if (sync) {
+                channel.force(false);
+            }
+            seg.hasFooter = true;
+            seg.map = null;
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+        }
+
+        /**
+         * Open an existing segment, reading its index footer or scanning it if
+         * the footer is missing or invalid.
+         */
+        private Segment openSegment(File file) throws IOException {
+            Segment seg = new Segment();
+            seg.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+                channel.read(header, 0);
+                header.flip();
+                if (size < SEGMENT_HEADER_SIZE || header.getInt() != SEGMENT_MAGIC) {
+                    throw new IOException("Not a journal segment: " + file);
+                }
+                if (header.getInt() != VERSION) {
+                    throw new IOException("Unsupported journal segment version: " + file);
+                }
+
+                if (size >= SEGMENT_HEADER_SIZE + 4 + FOOTER_TRAILER_SIZE) {
+                    ByteBuffer trailer = ByteBuffer.allocate(FOOTER_TRAILER_SIZE);
+                    channel.read(trailer, size - FOOTER_TRAILER_SIZE);
+                    trailer.flip();
+                    long dataEnd = trailer.getLong();
+                    if (trailer.getInt() == FOOTER_MAGIC && dataEnd >= SEGMENT_HEADER_SIZE && dataEnd <= size - FOOTER_TRAILER_SIZE - 4) {
+                        ByteBuffer footer = ByteBuffer.allocate((int) (size - FOOTER_TRAILER_SIZE - dataEnd));
+                        channel.read(footer, dataEnd);
+                        footer.flip();
+                        int count = footer.getInt();
+                        if (footer.remaining() == count * FOOTER_ENTRY_SIZE) {
+                            for (int i = 0; i < count; i++) {
+                                GenerationEntry gen = new GenerationEntry();
+                                gen.segment = seg;
+                                gen.generation = footer.getLong();
+                                gen.offset = footer.getLong();
+                                gen.length = footer.getInt();
+                                seg.generations.add(gen);
+                            }
+                            seg.dataEnd = dataEnd;
+                            seg.hasFooter = true;
+                            return seg;
+                        }
+                    }
+                }
+
+                // No valid footer, scan the records.
+                long position = SEGMENT_HEADER_SIZE;
+                ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                while (position + RECORD_HEADER_SIZE <= size) {
+                    recordHeader.clear();
+                    channel.read(recordHeader, position);
+                    recordHeader.flip();
+                    int length = recordHeader.getInt();
+                    int checksum = recordHeader.getInt();
+                    if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) {
+                        break;
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    channel.read(payload, position + RECORD_HEADER_SIZE);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload.array());
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    if (payload.get(0) == RECORD_GENERATION) {
+                        GenerationEntry gen = new GenerationEntry();
+                        gen.segment = seg;
+                        gen.generation = payload.getLong(1);
+                        gen.offset = position + RECORD_HEADER_SIZE;
+                        gen.length = length;
+                        seg.generations.add(gen);
+                    }
+                    position += RECORD_HEADER_SIZE + length;
+                }
+                seg.dataEnd = position;
+                seg.hasFooter = false;
+            }
+            return seg;
+        }
+    }
+
+    /**
+     * A journal segment file.
+     */
+    private static class Segment {
+
+        File file;
+
+        // The end of the last record, where the index footer starts.
+        long dataEnd;
+
+        boolean hasFooter;
+
+        final List<GenerationEntry> generations = new ArrayList<GenerationEntry>();
+
+        // Read-only view of the records in this segment, discarded when the segment is written to.
+        MappedByteBuffer map;
+
+        RandomAccessFile writeFile;
+
+        ByteBuffer map() throws IOException {
+            if (map == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, dataEnd);
+                }
+            }
+            return map.duplicate();
+        }
+    }
+
+    /**
+     * The location of a generation record and its chromosome table.
+     */
+    private static class GenerationEntry {
+
+        long generation;
+
+        long time;
+
+        Segment segment;
+
+        // Position of the record payload in the segment file.
+        long offset;
+
+        int length;
+
+        List<Long> chromosomeIds;
+
+        // Position of each chromosome in the record payload.
+        int[] chromosomeOffsets;
+
+        /**
+         * @return a view of the payload of this record, with position 0 at
+         * the start of the payload.
+         */
+        ByteBuffer payload() throws IOException {
+            ByteBuffer buf = segment.map();
+            buf.position((int) offset);
+            buf.limit((int) offset + length);
+            return buf.slice();
+        }
+    }
+
+    /**
+     * The location of a chromosome in a generation record.
+     */
+    private static class ChromosomeEntry {
+
+        final GenerationEntry generation;
+
+        final int offset;
+
+        ChromosomeEntry(GenerationEntry generation, int offset) {
+            this.generation = generation;
+            this.offset = offset;
+        }
+    }
+}
@@ -49,7 +49,7 @@ public class Run implements GeneticEventListener, Configurable {
 
 	private String name;
 
-	private List generations = new ArrayList();
+	private List<Generation> generations = new ArrayList<Generation>();
 
 	private Properties props;
 
@@ -111,6 +111,20 @@ public class Run implements GeneticEventListener, Configurable {
 			addGeneration(genotype);
 	}
 
+	/**
+	 * @return a copy of this run containing the generations added so far, which is not affected by generations added
+	 *         subsequently. Generations are immutable once added so they are shared with the copy.
+	 */
+	public Run snapshot() {
+		Run copy = new Run(name);
+		copy.id = id;
+		copy.props = props;
+		copy.startTime = startTime;
+		copy.currentGenerationNumber = currentGenerationNumber;
+		copy.generations = new ArrayList<Generation>(generations);
+		return copy;
+	}
+
 	/**
 	 * @return unique run ID
 	 */
@@ -121,7 +135,7 @@ public class Run implements GeneticEventListener, Configurable {
 	/**
 	 * @return generations orderd by generation number
 	 */
-	public List getGenerations() {
+	public List<Generation> getGenerations() {
 		return generations;
 	}
 
@@ -130,7 +144,7 @@ public class Run implements GeneticEventListener, Configurable {
 	 * 
 	 * @param aGenerations
 	 */
-	private void setGenerations(List aGenerations) {
+	private void setGenerations(List<Generation> aGenerations) {
 		generations = aGenerations;
 	}
 
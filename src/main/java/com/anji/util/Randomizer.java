@@ -11,22 +11,28 @@
  */
 package com.anji.util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
 
+import com.ojcoleman.ahni.hyperneat.Checkpointable;
+
 /**
  * Singleton holder of <code>Random</code> object to ensure all of system is
  * using same random sequence. This is important for testing and diagnostics
- * since it can guarantee reproducability.
+ * since it can guarantee reproducability. The state of the random sequence
+ * can be saved and restored with a checkpoint, see {@link Checkpointable}.
  *
  * @author Philip Tucker
  */
-public class Randomizer implements Configurable {
+public class Randomizer implements Configurable, Checkpointable {
 
     private static final String RANDOM_SEED_KEY = "random.seed";
 
     private long seed = 0;
 
-    private Random rand = null;
+    private CheckpointableRandom rand = null;
 
     /**
      * should call <code>init()</code> after ctor
@@ -45,7 +51,7 @@ public class Randomizer implements Configurable {
     public synchronized void init(Properties props) {
         seed = props.getLongProperty(RANDOM_SEED_KEY, System.currentTimeMillis());
         System.out.println("Random seed = " + seed);
-        rand = new Random(seed);
+        rand = new CheckpointableRandom(seed);
     }
 
     /**
@@ -61,4 +67,94 @@ public class Randomizer implements Configurable {
     public long getSeed() {
         return seed;
     }
+
+    /**
+     * @see Checkpointable#writeCheckpoint(DataOutputStream)
+     */
+    @Override
+    public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeLong(seed);
+        rand.writeState(out);
+    }
+
+    /**
+     * @see Checkpointable#readCheckpoint(DataInputStream)
+     */
+    @Override
+    public synchronized void readCheckpoint(DataInputStream in) throws IOException {
+        seed = in.readLong();
+        rand.readState(in);
+    }
+
+    /**
+     * A Random that produces exactly the same sequence as
+     * <code>java.util.Random</code> for a given seed, but whose internal state
+     * can be read and restored so that the sequence can be continued after
+     * resuming from a checkpoint. The state of <code>java.util.Random</code>
+     * itself is private, so the linear congruential generator and the cached
+     * Gaussian value are reimplemented here.
+     */
+    private static class CheckpointableRandom extends Random {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+
+        private static final long ADDEND = 0xBL;
+
+        private static final long MASK = (1L << 48) - 1;
+
+        // These are initialised by setSeed(), which is called from the super-class constructor, so must not have initialisers.
+        private long state;
+
+        private double nextNextGaussian;
+
+        private boolean haveNextNextGaussian;
+
+        CheckpointableRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public synchronized void setSeed(long seed) {
+            state = (seed ^ MULTIPLIER) & MASK;
+            haveNextNextGaussian = false;
+        }
+
+        @Override
+        protected synchronized int next(int bits) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
+        }
+
+        @Override
+        public synchronized double nextGaussian() {
+            if (haveNextNextGaussian) {
+                haveNextNextGaussian = false;
+                return nextNextGaussian;
+            }
+            double v1, v2, s;
+            do {
+                v1 = 2 * nextDouble() - 1;
+                v2 = 2 * nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            } while (s >= 1 || s == 0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+            nextNextGaussian = v2 * multiplier;
+            haveNextNextGaussian = true;
+            return v1 * multiplier;
+        }
+
+        synchronized void writeState(DataOutputStream out) throws IOException {
+            out.writeLong(state);
+            out.writeBoolean(haveNextNextGaussian);
+            out.writeDouble(nextNextGaussian);
+        }
+
+        synchronized void readState(DataInputStream in) throws IOException {
+            state = in.readLong();
+            haveNextNextGaussian = in.readBoolean();
+            nextNextGaussian = in.readDouble();
+        }
+    }
 }
@@ -1,13 +1,26 @@
 package com.ojcoleman.ahni.evaluation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,9 +33,12 @@ import com.anji.integration.Activator;
 import com.anji.integration.ActivatorTranscriber;
 import com.anji.integration.Transcriber;
 import com.anji.integration.TranscriberException;
+import com.anji.neat.NeatConfiguration;
 import com.anji.util.Randomizer;
 import com.ojcoleman.ahni.evaluation.novelty.Behaviour;
 import com.ojcoleman.ahni.evaluation.novelty.NoveltySearch;
+import com.ojcoleman.ahni.hyperneat.Checkpoint;
+import com.ojcoleman.ahni.hyperneat.Checkpointable;
 import com.ojcoleman.ahni.hyperneat.Configurable;
 import com.ojcoleman.ahni.hyperneat.HyperNEATConfiguration;
 import com.ojcoleman.ahni.hyperneat.HyperNEATEvolver;
@@ -61,7 +77,7 @@ import com.ojcoleman.ahni.util.Parallel.Operation;
  *
  * @author Oliver Coleman
  */
-public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implements Configurable {
+public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implements Configurable, Checkpointable {
 
     private static final long serialVersionUID = 1L;
     static Logger logger = Logger.getLogger(BulkFitnessFunctionMT.class);
@@ -79,6 +95,25 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
      * processor cores and the specified minimum will be used.
      */
     public static final String MAX_THREADS_KEY = "fitness.max_threads";
+    /**
+     * Property key to specify whether chromosomes should be evaluated in order
+     * of decreasing expected evaluation time, as estimated from the evaluation
+     * time of the same chromosome or its primary parent in the previous
+     * generation. This reduces the time evaluator threads spend idle at the end
+     * of each generation when evaluation times vary. Default is true.
+     */
+    public static final String ORDER_BY_EVALUATION_TIME_KEY = "fitness.order_by_evaluation_time";
+
+    /**
+     * The maximum number of evaluation results to cache, keyed by the content
+     * of the genetic material of the evaluated Chromosome. If the fitness
+     * function(s) are deterministic (see {@link #fitnessValuesStable()}) then
+     * Chromosomes whose genetic material is identical to that of a previously
+     * evaluated Chromosome, such as elites and clones, are neither transcribed
+     * nor evaluated again. Set to 0 to disable. Default is twice the
+     * population size.
+     */
+    public static final String EVALUATION_CACHE_SIZE_KEY = "fitness.cache.size";
 
     /**
      * Property key for specifying additional fitness function classes in a
@@ -155,12 +190,49 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
      */
     public static final String MINION_DEFAULT_PORT = "minion.default_port";
 
+    /**
+     * Whether to send Chromosomes to minions, and evaluation results back, in
+     * a compact binary format instead of using Java serialisation. The binary
+     * format sends the definition of each gene only once per connection, and
+     * then each Chromosome as its innovation IDs and allele values. Default is
+     * false.
+     */
+    public static final String MINION_BINARY_PROTOCOL = "minion.protocol.binary";
+
+    /**
+     * If the binary protocol is enabled, whether to encode the alleles of a
+     * Chromosome as the changes relative to the same Chromosome or a parent
+     * sent to the same minion in the current or previous generation. Default
+     * is true.
+     */
+    public static final String MINION_DELTA_ENCODING = "minion.protocol.delta";
+
+    /**
+     * If the binary protocol is enabled, whether to compress messages sent to
+     * and from minions. This reduces the amount of data sent at the cost of
+     * some processing time, so is most useful when network bandwidth is
+     * limited. Default is false.
+     */
+    public static final String MINION_COMPRESSION = "minion.protocol.compress";
+
     protected Properties props;
     protected Transcriber<Activator> transcriber;
     protected int numThreads;
-    protected int evaluatorsFinishedCount;
     protected Evaluator[] evaluators;
-    protected Iterator<Chromosome> chromosomesIterator;
+    // Budget of processor cores shared with other concurrent runs, or null if not sharing (see Properties#getCoreBudget()).
+    private Semaphore coreBudget;
+    // Executes the evaluators, each is submitted once per generation.
+    private ExecutorService evaluatorPool;
+    // The chromosomes being evaluated in the current generation, and the index of the next one to evaluate.
+    private Chromosome[] chromosomesToEvaluate;
+    private final AtomicInteger nextChromosomeIndex = new AtomicInteger();
+    private boolean orderByEvaluationTime;
+    protected EvaluationCache evaluationCache;
+    // Whether evaluation results are being read from and stored in evaluationCache in the current generation.
+    private boolean cachingEvaluationResults;
+    // Evaluation times in nanoseconds by chromosome ID, for the previous and current generation.
+    private Map<Long, Long> evaluationTimes = new HashMap<Long, Long>();
+    private Map<Long, Long> currentEvaluationTimes = new ConcurrentHashMap<Long, Long>();
     protected int logChampPerGens = -1;
     protected BulkFitnessFunctionMT[] multiFitnessFunctions;
     protected double[] multiFitnessFunctionWeights;
@@ -177,7 +249,22 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
      */
     protected Random random;
 
-    protected boolean endRun = false;
+    /**
+     * Set to true to end the run. This is checked by the evaluator threads
+     * before evaluating each chromosome: if a sub-class sets it while a
+     * generation is being evaluated then evaluation of the remaining
+     * chromosomes in the generation is cancelled (see
+     * {@link #evaluationCancelled}).
+     */
+    protected volatile boolean endRun = false;
+
+    /**
+     * Set to true if evaluation of the current generation was cancelled
+     * because {@link #endRun} was set during evaluation. Chromosomes that were
+     * not evaluated are given fitness values of 0 and the worst possible
+     * performance value.
+     */
+    protected boolean evaluationCancelled = false;
 
     protected double bestPerformance;
     /**
@@ -255,12 +342,24 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
             numThreads = maxThreads;
         }
 
-        EvaluatorGroup eg = new EvaluatorGroup(this.getClass().getSimpleName() + " evaluators");
+        coreBudget = props.getCoreBudget();
+        orderByEvaluationTime = props.getBooleanProperty(ORDER_BY_EVALUATION_TIME_KEY, true);
+        int cacheSize = props.getIntProperty(EVALUATION_CACHE_SIZE_KEY, props.getIntProperty(NeatConfiguration.POPUL_SIZE_KEY, 0) * 2);
+        if (cacheSize > 0) {
+            evaluationCache = new EvaluationCache(cacheSize);
+        }
+
+        final EvaluatorGroup eg = new EvaluatorGroup(this.getClass().getSimpleName() + " evaluators");
         logger.info("Using " + numThreads + " threads for transcription and evaluation.");
+        final AtomicInteger threadCount = new AtomicInteger();
+        evaluatorPool = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(eg, r, "FF Evaluator " + threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
         evaluators = new Evaluator[numThreads];
         for (int i = 0; i < numThreads; i++) {
-            evaluators[i] = new Evaluator(i, eg);
-            evaluators[i].start();
+            evaluators[i] = new Evaluator(i);
         }
 
         String[] minionHosts = props.getStringArrayProperty(MINION_HOSTS, null);
@@ -559,6 +658,19 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         return false;
     }
 
+    // Returns true iff the fitness values of this and all secondary fitness functions are stable.
+    private boolean allFitnessValuesStable() {
+        if (!fitnessValuesStable()) {
+            return false;
+        }
+        for (BulkFitnessFunctionMT func : multiFitnessFunctions) {
+            if (!func.fitnessValuesStable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Evaluate a set of chromosomes.
      *
@@ -575,9 +687,19 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         } else {
             evaluateFitnessMT(genotypes);
         }
+        evaluationCancelled = endRun;
 
         if (noveltyArchives != null) {
-            evaluateNoveltyMT(genotypes);
+            if (!evaluationCancelled) {
+                evaluateNoveltyMT(genotypes);
+            } else {
+                // Not all behaviours are available.
+                for (Chromosome chrom : genotypes) {
+                    for (int n = 0; n < noveltyObjectiveCount; n++) {
+                        chrom.setFitnessValue(0, objectiveCount - noveltyArchives.length + n);
+                    }
+                }
+            }
         }
 
         for (Chromosome chrom : genotypes) {
@@ -590,7 +712,7 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         bestPerformances.add(bestPerformance);
         double avgBestPerformance = ArrayUtil.average(ArrayUtils.toPrimitive(bestPerformances.toArray(new Double[0])));
 
-        endRun = false;
+        endRun = evaluationCancelled;
         // If enough generations have been finished to get an average.
         if (bestPerformances.isFull()) {
             // If we've reached the target performance, end the run.
@@ -608,24 +730,77 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
     }
 
     void evaluateFitnessMT(List<Chromosome> genotypes) {
-        // Evaluate fitness/performance over all individuals.
-        chromosomesIterator = genotypes.iterator();
-        evaluatorsFinishedCount = 0;
-        for (Evaluator ev : evaluators) {
-            ev.go();
+        // Evaluate fitness/performance over all individuals. Each evaluator takes the next chromosome to evaluate
+        // from chromosomesToEvaluate until there are none left.
+        chromosomesToEvaluate = genotypes.toArray(new Chromosome[genotypes.size()]);
+        cachingEvaluationResults = evaluationCache != null && allFitnessValuesStable();
+        if (orderByEvaluationTime) {
+            orderByExpectedEvaluationTime(chromosomesToEvaluate);
         }
-        while (true) {
-            try {
-                synchronized (this) {
-                    if (evaluatorsFinishedCount == evaluators.length) {
-                        break;
-                    }
-                    wait();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        nextChromosomeIndex.set(0);
+        try {
+            for (Future<Void> f : evaluatorPool.invokeAll(Arrays.asList(evaluators))) {
+                f.get();
             }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Exception in fitness evaluator thread.", e.getCause());
         }
+
+        // If evaluation was cancelled, make sure the chromosomes that weren't evaluated won't be selected.
+        for (int i = Math.min(nextChromosomeIndex.get(), chromosomesToEvaluate.length); i < chromosomesToEvaluate.length; i++) {
+            Chromosome chrom = chromosomesToEvaluate[i];
+            for (int f = 0; f < chrom.getObjectiveCount(); f++) {
+                chrom.setFitnessValue(0, f);
+            }
+            chrom.setPerformanceValue(targetPerformanceType == 1 ? 0 : 1);
+        }
+        chromosomesToEvaluate = null;
+        if (cachingEvaluationResults) {
+            logger.debug(evaluationCache);
+        }
+
+        evaluationTimes = currentEvaluationTimes;
+        currentEvaluationTimes = new ConcurrentHashMap<Long, Long>(evaluationTimes.size() * 2);
+    }
+
+    /**
+     * Sorts the given chromosomes in order of decreasing expected evaluation
+     * time: the evaluation time of the same chromosome in the previous
+     * generation if it was evaluated, otherwise that of its primary parent,
+     * otherwise the average over the previous generation. Evaluating the
+     * longest first means that the evaluators finish at around the same time.
+     */
+    private void orderByExpectedEvaluationTime(Chromosome[] chromosomes) {
+        final Map<Long, Long> times = evaluationTimes;
+        if (times.isEmpty()) {
+            return;
+        }
+        long total = 0;
+        for (long t : times.values()) {
+            total += t;
+        }
+        long average = total / times.size();
+        final Map<Chromosome, Long> expected = new IdentityHashMap<Chromosome, Long>();
+        for (Chromosome chrom : chromosomes) {
+            Long t = times.get(chrom.getId());
+            if (t == null && chrom.getPrimaryParentId() != null) {
+                t = times.get(chrom.getPrimaryParentId());
+            }
+            expected.put(chrom, t != null ? t : average);
+        }
+        Arrays.sort(chromosomes, (c1, c2) -> Long.compare(expected.get(c2), expected.get(c1)));
+    }
+
+    /**
+     * Returns the time in nanoseconds taken to transcribe and evaluate the
+     * given chromosome by the evaluator threads, if it was evaluated in the
+     * most recently evaluated generation, otherwise -1.
+     */
+    public long getEvaluationTime(Chromosome chrom) {
+        Long t = evaluationTimes.get(chrom.getId());
+        return t != null ? t : -1;
     }
 
     private void evaluateFitnessViaMinions(List<Chromosome> genotypes) {
@@ -717,38 +892,19 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
     private void evaluateNoveltyMT(List<Chromosome> genotypes) {
         assert !isMinionInstance;
 
-        for (Chromosome chrom : genotypes) {
-            for (int n = 0; n < noveltyObjectiveCount; n++) {
+        // Each archive computes the novelty of the whole population in parallel and then updates itself.
+        int fitnessSlot = objectiveCount - noveltyArchives.length;
+        for (int n = 0; n < noveltyObjectiveCount; n++) {
+            List<Behaviour> behaviours = new ArrayList<Behaviour>(genotypes.size());
+            for (Chromosome chrom : genotypes) {
                 assert chrom.behaviours[n] != null;
-                noveltyArchives[n].addToCurrentPopulation(chrom.behaviours[n]);
+                behaviours.add(chrom.behaviours[n]);
             }
-        }
-
-        chromosomesIterator = genotypes.iterator();
-        evaluatorsFinishedCount = 0;
-        for (Evaluator ev : evaluators) {
-            ev.goNovelty();
-        }
-        while (true) {
-            try {
-                synchronized (this) {
-                    if (evaluatorsFinishedCount == evaluators.length) {
-                        break;
-                    }
-                    wait();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            double[] novelty = noveltyArchives[n].testNovelty(behaviours);
+            for (int i = 0; i < novelty.length; i++) {
+                genotypes.get(i).setFitnessValue(novelty[i], fitnessSlot + n);
             }
         }
-
-        // double avgArchiveSize = 0;
-        for (int n = 0; n < noveltyObjectiveCount; n++) {
-            noveltyArchives[n].finishedEvaluation();
-            // avgArchiveSize += noveltyArchives[n].getArchiveSize();
-        }
-        // avgArchiveSize /= noveltyArchives.length;
-        // logger.info("aas: " + avgArchiveSize);
     }
 
     private void finaliseEvaluation(Chromosome chrom) {
@@ -946,29 +1102,49 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         return endRun;
     }
 
-    private synchronized Chromosome getNextChromosome() {
-        if (chromosomesIterator.hasNext()) {
-            return chromosomesIterator.next();
-        } else {
-            return null;
+    /**
+     * Returns the next chromosome to evaluate, or null if there are none left.
+     * If this run shares a budget of processor cores with other concurrent runs
+     * then a permit is acquired first, and must be released once the returned
+     * chromosome has been evaluated. The permit is acquired before taking the
+     * chromosome so that a thread waiting for a permit does not hold up a
+     * chromosome that another evaluator of this run could evaluate.
+     */
+    private Chromosome acquireNextChromosome() {
+        if (coreBudget == null) {
+            return getNextChromosome();
+        }
+        coreBudget.acquireUninterruptibly();
+        Chromosome chrom = getNextChromosome();
+        if (chrom == null) {
+            coreBudget.release();
         }
+        return chrom;
     }
 
-    private synchronized void finishedEvaluating() {
-        evaluatorsFinishedCount++;
-        notifyAll();
+    private Chromosome getNextChromosome() {
+        if (endRun) {
+            return null;
+        }
+        // Lock-free: each chromosome is taken by exactly one evaluator.
+        int i = nextChromosomeIndex.getAndIncrement();
+        return i < chromosomesToEvaluate.length ? chromosomesToEvaluate[i] : null;
     }
 
-    protected class Evaluator extends Thread {
+    /**
+     * Evaluates chromosomes from the generation being evaluated until there
+     * are none left or evaluation is cancelled (see {@link #endRun}). Each
+     * Evaluator is executed by at most one thread at a time, and retains the
+     * substrate it last generated so that the Transcriber may reuse it.
+     */
+    protected class Evaluator implements Callable<Void> {
 
-        private volatile boolean go = false;
-        private volatile boolean finish = false;
-        private volatile boolean testingNovelty = false;
         private int id;
         private Activator substrate;
+        private double[][] fitnessValues = null;
+        private Behaviour[][] behaviours = null;
 
-        protected Evaluator(int id, ThreadGroup tg) {
-            super(tg, "FF Evaluator " + id);
+        protected Evaluator(int id) {
             this.id = id;
             substrate = null;
         }
@@ -991,139 +1167,118 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         /**
          * Internal use only
          */
-        public void run() {
-            double[][] fitnessValues = null;
-            Behaviour[][] behaviours = null;
-
-            while (!finish) {
-                while (go) {
-                    if (fitnessValues == null) {
-                        fitnessValues = new double[multiFitnessFunctions.length + 1][];
-                        behaviours = new Behaviour[multiFitnessFunctions.length + 1][];
-                        fitnessValues[0] = new double[fitnessObjectivesCount()];
-                        behaviours[0] = new Behaviour[noveltyObjectiveCount()];
-                        for (int i = 0; i < multiFitnessFunctions.length; i++) {
-                            fitnessValues[i + 1] = new double[multiFitnessFunctions[i].fitnessObjectivesCount()];
-                            behaviours[i + 1] = new Behaviour[multiFitnessFunctions[i].noveltyObjectiveCount()];
-                        }
-                    }
+        @Override
+        public Void call() {
+            if (fitnessValues == null) {
+                fitnessValues = new double[multiFitnessFunctions.length + 1][];
+                behaviours = new Behaviour[multiFitnessFunctions.length + 1][];
+                fitnessValues[0] = new double[fitnessObjectivesCount()];
+                behaviours[0] = new Behaviour[noveltyObjectiveCount()];
+                for (int i = 0; i < multiFitnessFunctions.length; i++) {
+                    fitnessValues[i + 1] = new double[multiFitnessFunctions[i].fitnessObjectivesCount()];
+                    behaviours[i + 1] = new Behaviour[multiFitnessFunctions[i].noveltyObjectiveCount()];
+                }
+            }
 
-                    Chromosome chrom;
-                    while ((chrom = getNextChromosome()) != null) {
-                        if (!testingNovelty) {
-                            try {
-                                Activator previousSubstrate = substrate;
-                                substrate = generateSubstrate(chrom, substrate);
-
-                                // If a valid substrate could be generated.
-                                if (substrate != null) {
-                                    // Pull any stable (fixed) fitness values from chromosome.
-                                    for (int i = 0, fs = 0; i < fitnessValues.length; i++) {
-                                        for (int f = 0; f < fitnessValues[i].length; f++, fs++) {
-                                            fitnessValues[i][f] = chrom.getFitnessValue(fs);
-                                        }
-                                    }
-                                    for (int i = 0, fs = 0; i < behaviours.length; i++) {
-                                        for (int f = 0; f < behaviours[i].length; f++, fs++) {
-                                            behaviours[i][f] = chrom.behaviours[fs];
-                                        }
-                                    }
-                                    // Do secondary fitness functions first.
-                                    for (int i = 0; i < multiFitnessFunctions.length; i++) {
-                                        BulkFitnessFunctionMT func = multiFitnessFunctions[i];
-                                        // If the fitness values aren't stable for this function or they haven't been
-                                        // calculated yet for this chrom.
-                                        if (!func.fitnessValuesStable() || Double.isNaN(ArrayUtil.sum(fitnessValues[i + 1])) || ArrayUtils.contains(behaviours[i + 1], null)) {
-                                            func.evaluate(chrom, substrate, id, fitnessValues[i + 1], behaviours[i + 1]);
-                                        }
-                                        if (func.fitnessValuesStable()) {
-                                            // At least some fitness values stable (this doesn't prevent the non-stable
-                                            // ones from being updated).
-                                            chrom.setEvaluationDataStable();
-                                        }
-                                    }
+            Chromosome chrom;
+            while ((chrom = acquireNextChromosome()) != null) {
+                long start = System.nanoTime();
+                try {
+                    // If the result for identical genetic material is cached, skip transcription and evaluation.
+                    EvaluationCache.Key cacheKey = null;
+                    EvaluationCache.Result cached = null;
+                    if (cachingEvaluationResults) {
+                        cacheKey = EvaluationCache.keyFor(chrom);
+                        cached = evaluationCache.get(cacheKey);
+                    }
+                    if (cached != null) {
+                        cached.applyTo(chrom);
+                    } else {
+                        Activator previousSubstrate = substrate;
+                        substrate = generateSubstrate(chrom, substrate);
+
+                        // If a valid substrate could be generated.
+                        if (substrate != null) {
+                            // Pull any stable (fixed) fitness values from chromosome.
+                            for (int i = 0, fs = 0; i < fitnessValues.length; i++) {
+                                for (int f = 0; f < fitnessValues[i].length; f++, fs++) {
+                                    fitnessValues[i][f] = chrom.getFitnessValue(fs);
+                                }
+                            }
+                            for (int i = 0, fs = 0; i < behaviours.length; i++) {
+                                for (int f = 0; f < behaviours[i].length; f++, fs++) {
+                                    behaviours[i][f] = chrom.behaviours[fs];
+                                }
+                            }
+                            // Do secondary fitness functions first.
+                            for (int i = 0; i < multiFitnessFunctions.length; i++) {
+                                BulkFitnessFunctionMT func = multiFitnessFunctions[i];
+                                // If the fitness values aren't stable for this function or they haven't been
+                                // calculated yet for this chrom.
+                                if (!func.fitnessValuesStable() || Double.isNaN(ArrayUtil.sum(fitnessValues[i + 1])) || ArrayUtils.contains(behaviours[i + 1], null)) {
+                                    func.evaluate(chrom, substrate, id, fitnessValues[i + 1], behaviours[i + 1]);
+                                }
+                                if (func.fitnessValuesStable()) {
+                                    // At least some fitness values stable (this doesn't prevent the non-stable
+                                    // ones from being updated).
+                                    chrom.setEvaluationDataStable();
+                                }
+                            }
 
-                                    // If the fitness values aren't stable for the primary function or they haven't been
-                                    // calculated yet for this chrom.
-                                    if (!fitnessValuesStable() || Double.isNaN(ArrayUtil.sum(fitnessValues[0]))) {
-                                        // Do primary fitness function.
-                                        evaluate(chrom, substrate, id, fitnessValues[0], behaviours[0]);
-                                    }
-                                    if (fitnessValuesStable()) {
-                                        chrom.setEvaluationDataStable();
-                                    }
+                            // If the fitness values aren't stable for the primary function or they haven't been
+                            // calculated yet for this chrom.
+                            if (!fitnessValuesStable() || Double.isNaN(ArrayUtil.sum(fitnessValues[0]))) {
+                                // Do primary fitness function.
+                                evaluate(chrom, substrate, id, fitnessValues[0], behaviours[0]);
+                            }
+                            if (fitnessValuesStable()) {
+                                chrom.setEvaluationDataStable();
+                            }
 
-                                    // Assign fitness values to chromosome.
-                                    for (int i = 0, fs = 0; i < fitnessValues.length; i++) {
-                                        for (int f = 0; f < fitnessValues[i].length; f++, fs++) {
-                                            if (!Double.isNaN(fitnessValues[i][f])) {
-                                                chrom.setFitnessValue(fitnessValues[i][f], fs);
-                                            }
-                                        }
-                                    }
-                                    for (int i = 0, fs = 0; i < behaviours.length; i++) {
-                                        for (int f = 0; f < behaviours[i].length; f++, fs++) {
-                                            if (behaviours[i][f] != null) {
-                                                chrom.behaviours[fs] = behaviours[i][f];
-                                            }
-                                        }
+                            // Assign fitness values to chromosome.
+                            for (int i = 0, fs = 0; i < fitnessValues.length; i++) {
+                                for (int f = 0; f < fitnessValues[i].length; f++, fs++) {
+                                    if (!Double.isNaN(fitnessValues[i][f])) {
+                                        chrom.setFitnessValue(fitnessValues[i][f], fs);
                                     }
-
-                                    postEvaluate(chrom, substrate, id);
-                                } // If the transcriber decided the substrate decoding was a dud then still allow reusing
-                                // the old substrate.
-                                else {
-                                    substrate = previousSubstrate;
                                 }
-                            } catch (Exception e) {
-                                logger.warn("Exception during transcription or evaluation: " + e.getMessage());
-                                e.printStackTrace();
                             }
-                        } else { // testingNovelty
-                            int fitnessSlot = objectiveCount - noveltyArchives.length;
-                            // May be empty if substrate decoding was a dud (see above).
-                            if (chrom.behaviours != null) {
-                                for (int n = 0; n < noveltyArchives.length; n++) {
-                                    chrom.setFitnessValue(noveltyArchives[n].testNovelty(chrom.behaviours[n]), fitnessSlot++);
+                            for (int i = 0, fs = 0; i < behaviours.length; i++) {
+                                for (int f = 0; f < behaviours[i].length; f++, fs++) {
+                                    if (behaviours[i][f] != null) {
+                                        chrom.behaviours[fs] = behaviours[i][f];
+                                    }
                                 }
-                                finaliseEvaluation(chrom);
                             }
-                        }
-                    }
 
-                    go = false;
-                    finishedEvaluating();
-                }
-                try {
-                    synchronized (this) {
-                        while (!go && !finish) {
-                            wait();
+                            postEvaluate(chrom, substrate, id);
+
+                            if (cacheKey != null) {
+                                evaluationCache.put(cacheKey, chrom);
+                            }
+                        } // If the transcriber decided the substrate decoding was a dud then still allow reusing
+                        // the old substrate.
+                        else {
+                            substrate = previousSubstrate;
                         }
                     }
-                } catch (InterruptedException e) {
+                } catch (Exception e) {
+                    logger.warn("Exception during transcription or evaluation: " + e.getMessage());
                     e.printStackTrace();
+                } finally {
+                    if (coreBudget != null) {
+                        coreBudget.release();
+                    }
                 }
+                currentEvaluationTimes.put(chrom.getId(), System.nanoTime() - start);
             }
+            return null;
         }
 
-        protected synchronized void go() {
-            go = true;
-            testingNovelty = false;
-            notifyAll();
-        }
-
-        protected synchronized void goNovelty() {
-            go = true;
-            testingNovelty = true;
-            notifyAll();
-        }
-
-        protected synchronized void dispose() {
+        protected void dispose() {
             if (substrate != null) {
                 substrate.dispose();
             }
-            finish = true;
-            notifyAll();
         }
     }
 
@@ -1192,11 +1347,78 @@ public abstract class BulkFitnessFunctionMT extends AHNIFitnessFunction implemen
         }
     }
 
+    /**
+     * Writes the state of this fitness function that changes over a run: the
+     * best performance record used to determine when the target performance
+     * has been reached, the novelty archives and the state of any
+     * multi-objective sub-functions. The RNG ({@link #random}) is saved with
+     * the {@link Randomizer}. Sub-classes with other state that changes over a
+     * run, for example an environment that is made harder as performance
+     * improves, should override this and
+     * {@link #readCheckpoint(DataInputStream)} to save and restore it,
+     * calling the super-class method first.
+     */
+    @Override
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeDouble(bestPerformance);
+        out.writeDouble(lastBestPerformance);
+        if (bestPerformances == null) {
+            out.writeInt(-1);
+        } else {
+            Double[] values = bestPerformances.toArray(new Double[0]);
+            out.writeInt(values.length);
+            for (Double v : values) {
+                out.writeDouble(v);
+            }
+        }
+        out.writeInt(noveltyArchives == null ? 0 : noveltyArchives.length);
+        for (int n = 0; noveltyArchives != null && n < noveltyArchives.length; n++) {
+            Checkpoint.writeSection(out, noveltyArchives[n]);
+        }
+        out.writeInt(multiFitnessFunctions == null ? 0 : multiFitnessFunctions.length);
+        for (int i = 0; multiFitnessFunctions != null && i < multiFitnessFunctions.length; i++) {
+            Checkpoint.writeSection(out, multiFitnessFunctions[i]);
+        }
+    }
+
+    /**
+     * @see #writeCheckpoint(DataOutputStream)
+     */
+    @Override
+    public void readCheckpoint(DataInputStream in) throws IOException {
+        bestPerformance = in.readDouble();
+        lastBestPerformance = in.readDouble();
+        int count = in.readInt();
+        if (count >= 0) {
+            bestPerformances = new CircularFifoBuffer<Double>(targetPerformanceAverageCount);
+            for (int i = 0; i < count; i++) {
+                bestPerformances.add(in.readDouble());
+            }
+        }
+        count = in.readInt();
+        if (count != (noveltyArchives == null ? 0 : noveltyArchives.length)) {
+            throw new IOException("Number of novelty archives in checkpoint (" + count + ") does not match configuration.");
+        }
+        for (int n = 0; n < count; n++) {
+            Checkpoint.readSection(in, noveltyArchives[n]);
+        }
+        count = in.readInt();
+        if (count != (multiFitnessFunctions == null ? 0 : multiFitnessFunctions.length)) {
+            throw new IOException("Number of multi-objective fitness functions in checkpoint (" + count + ") does not match configuration.");
+        }
+        for (int i = 0; i < count; i++) {
+            Checkpoint.readSection(in, multiFitnessFunctions[i]);
+        }
+    }
+
     /**
      * Sub-classes may override this method to dispose of resources upon
      * disposal of this object.
      */
     public void dispose() {
+        if (evaluatorPool != null) {
+            evaluatorPool.shutdown();
+        }
         if (evaluators != null) {
             for (Evaluator e : evaluators) {
                 e.dispose();
@@ -0,0 +1,190 @@
+package com.ojcoleman.ahni.evaluation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.Chromosome;
+
+import com.ojcoleman.ahni.evaluation.novelty.Behaviour;
+
+/**
+ * A cache of evaluation results (fitness values, performance values and behaviours) keyed by the content of the
+ * genetic material of the evaluated Chromosome, so that Chromosomes with identical genetic material, such as elites
+ * carried over to the next generation and clones, need not be transcribed or evaluated again. This is only valid if
+ * the fitness function(s) are deterministic, see {@link BulkFitnessFunctionMT#fitnessValuesStable()}. When the cache
+ * is full the least recently used result is evicted. Methods may be called by multiple threads concurrently.
+ *
+ * @author Oliver Coleman
+ */
+public class EvaluationCache {
+	private final int capacity;
+	private final Map<Key, Result> results;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * @param capacity The maximum number of results to retain.
+	 */
+	public EvaluationCache(final int capacity) {
+		this.capacity = capacity;
+		results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the key for the genetic material of the given Chromosome.
+	 */
+	public static Key keyFor(Chromosome chrom) {
+		return new Key(chrom);
+	}
+
+	/**
+	 * Returns the result cached for the given key, or null if there is none.
+	 */
+	public Result get(Key key) {
+		Result result;
+		synchronized (results) {
+			result = results.get(key);
+		}
+		(result != null ? hitCount : missCount).incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Cache the evaluation result recorded in the given (evaluated) Chromosome with the given key.
+	 */
+	public void put(Key key, Chromosome chrom) {
+		Result result = new Result(chrom);
+		synchronized (results) {
+			results.put(key, result);
+		}
+	}
+
+	/**
+	 * Remove all cached results. The hit and miss counts are not reset.
+	 */
+	public void clear() {
+		synchronized (results) {
+			results.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of results cached.
+	 */
+	public int size() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of results cached.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #get(Key)} that found a cached result.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of calls to {@link #get(Key)} that did not find a cached result.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		long hits = getHitCount(), misses = getMissCount();
+		return "Evaluation cache: " + size() + "/" + capacity + " entries, " + hits + " hits, " + misses + " misses (" + (hits + misses > 0 ? Math.round(100.0 * hits / (hits + misses)) : 0) + "% hit rate)";
+	}
+
+	/**
+	 * Identifies genetic material by the innovation IDs and values of its alleles. Genes with the same innovation ID
+	 * are the same gene, so this fully determines the genetic material.
+	 */
+	public static final class Key {
+		private final long[] ids;
+		private final double[] values;
+		private final int hash;
+
+		private Key(Chromosome chrom) {
+			int size = chrom.getAlleles().size();
+			ids = new long[size];
+			values = new double[size];
+			long h = size;
+			int i = 0;
+			for (Allele allele : chrom.getAlleles()) {
+				ids[i] = allele.getInnovationId();
+				values[i] = allele.getValue();
+				h = h * 31 + ids[i];
+				h = h * 31 + Double.doubleToLongBits(values[i]);
+				i++;
+			}
+			hash = (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(ids, other.ids) && Arrays.equals(values, other.values);
+		}
+	}
+
+	/**
+	 * The evaluation data recorded for a Chromosome.
+	 */
+	public static final class Result {
+		private final double[] fitnessValues;
+		private final Map<String, Double> performanceValues;
+		private final Behaviour[] behaviours;
+
+		private Result(Chromosome chrom) {
+			fitnessValues = chrom.getFitnessValues().clone();
+			performanceValues = new TreeMap<String, Double>(chrom.getAllPerformanceValues());
+			behaviours = chrom.behaviours == null ? null : chrom.behaviours.clone();
+		}
+
+		/**
+		 * Set the fitness values, performance values and behaviours of the given Chromosome to those of this result.
+		 * Values that were not set when the result was recorded are left unchanged.
+		 */
+		public void applyTo(Chromosome chrom) {
+			for (int i = 0; i < fitnessValues.length; i++) {
+				if (!Double.isNaN(fitnessValues[i])) {
+					chrom.setFitnessValue(fitnessValues[i], i);
+				}
+			}
+			chrom.setPerformanceValues(performanceValues);
+			if (behaviours != null) {
+				for (int i = 0; i < behaviours.length; i++) {
+					if (behaviours[i] != null) {
+						chrom.behaviours[i] = behaviours[i];
+					}
+				}
+			}
+			chrom.setEvaluationDataStable();
+		}
+	}
+}
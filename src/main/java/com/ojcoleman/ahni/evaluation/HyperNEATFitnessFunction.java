@@ -132,7 +132,7 @@ public abstract class HyperNEATFitnessFunction extends BulkFitnessFunctionMT {
 	public void evaluate(List<Chromosome> genotypes) {
 		super.evaluate(genotypes);
 
-		endRun = false;
+		endRun = evaluationCancelled;
 		// If we've completed all scalings and reached the target performance, end the run.
 		// If enough generations have been finished to get an average.
 		if (bestPerformances.isFull()) {
@@ -54,6 +54,8 @@ public class Minion {
 	ObjectInputStream in;
 	Properties properties;
 	BulkFitnessFunctionMT fitnessFunc;
+	// If the binary protocol is enabled, the codec for the current connection.
+	MinionCodec codec;
 	int currentGeneration;
 	
 	public static void main(String[] args) {
@@ -229,6 +231,10 @@ public class Minion {
 							properties.singletonObjectProperty(ActivatorTranscriber.TRANSCRIBER_KEY);
 							fitnessFunc = (BulkFitnessFunctionMT) properties.getFitnessFunction();
 							currentGeneration = -1;
+							codec = null;
+							if (properties.getBooleanProperty(BulkFitnessFunctionMT.MINION_BINARY_PROTOCOL, false)) {
+								codec = new MinionCodec(properties.getBooleanProperty(BulkFitnessFunctionMT.MINION_DELTA_ENCODING, true), properties.getBooleanProperty(BulkFitnessFunctionMT.MINION_COMPRESSION, false));
+							}
 							
 							if (active) {
 								System.out.println("  Configured.");
@@ -259,12 +265,17 @@ public class Minion {
 									out.writeObject(new IllegalStateException("Evaluate request sent when minion not configured"));
 								}
 							} else {
-								List<Chromosome> chroms = (List<Chromosome>) request.data;
+								List<Chromosome> chroms = codec != null ? codec.decodeChromosomes((byte[]) request.data) : (List<Chromosome>) request.data;
 								fitnessFunc.evaluateFitnessMT(chroms);
 								
 								if (active) {
 									System.out.println("  Finished evaluation.");
-									out.writeObject(chroms);
+									if (codec != null) {
+										out.writeObject(codec.encodeResults(chroms));
+										out.reset();
+									} else {
+										out.writeObject(chroms);
+									}
 								}
 							}
 							break;
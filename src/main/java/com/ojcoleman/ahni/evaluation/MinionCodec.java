@@ -0,0 +1,575 @@
+package com.ojcoleman.ahni.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.jgapcustomised.Allele;
+import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.ChromosomeMaterial;
+import org.jgapcustomised.EvaluationData;
+
+import com.ojcoleman.ahni.evaluation.novelty.Behaviour;
+import com.ojcoleman.ahni.evaluation.novelty.RealVectorBehaviour;
+
+/**
+ * Compact binary encoding of the Chromosomes sent to a {@link Minion} for evaluation and of the evaluation results
+ * sent back, used instead of Java serialisation when {@link BulkFitnessFunctionMT#MINION_BINARY_PROTOCOL} is enabled.
+ * One instance is used for each end of a connection, and the instances at either end maintain matching state, so
+ * messages must be decoded in the order they were encoded.
+ *
+ * A Chromosome is sent as its ID, parent IDs, existing evaluation data and the innovation IDs and values of its
+ * alleles. Genes are assumed to be immutable, so the definition of each gene (the gene and allele type) is sent,
+ * using Java serialisation, only the first time it is used on a connection. If delta encoding is enabled then the
+ * alleles of a Chromosome are encoded relative to a Chromosome sent in the current or previous generation, preferably
+ * the same Chromosome (eg an elite being re-evaluated) otherwise one of its parents, as the innovation IDs added and
+ * removed and the values that have changed. The encoded message may optionally be compressed.
+ *
+ * @author Oliver Coleman
+ */
+class MinionCodec {
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int FLAG_RESET = 2;
+
+	private static final byte GENOME_FULL = 0;
+	private static final byte GENOME_DELTA = 1;
+
+	private static final byte BEHAVIOUR_NULL = 0;
+	private static final byte BEHAVIOUR_REAL_VECTOR = 1;
+	private static final byte BEHAVIOUR_SERIALISED = 2;
+
+	private final boolean deltaEncoding;
+	private final boolean compression;
+
+	// Prototype alleles for the genes that have been sent (or received), by innovation ID.
+	private final Map<Long, Allele> genes = new HashMap<Long, Allele>();
+	// The genomes sent (or received) in the current and previous generation, by Chromosome ID.
+	private final Map<Long, Genome> genomes = new HashMap<Long, Genome>();
+	// If true then the next message encoded tells the receiver to discard its state.
+	private boolean resetPending = true;
+
+	/**
+	 * @param deltaEncoding Whether to encode alleles relative to previously sent Chromosomes. Only has an effect at the
+	 *            encoding end, the decoding end follows what the encoder did.
+	 * @param compression Whether to compress encoded messages. Only has an effect at the encoding end.
+	 */
+	public MinionCodec(boolean deltaEncoding, boolean compression) {
+		this.deltaEncoding = deltaEncoding;
+		this.compression = compression;
+	}
+
+	/**
+	 * Discard the state shared with the other end of the connection. This must be called at the encoding end if a
+	 * message may not have been decoded by the other end, for example because the connection timed out; the next
+	 * message encoded then tells the decoder to discard its state too.
+	 */
+	public synchronized void reset() {
+		genes.clear();
+		genomes.clear();
+		resetPending = true;
+	}
+
+	/**
+	 * Encode the given Chromosomes for evaluation in the given generation.
+	 */
+	public synchronized byte[] encodeChromosomes(List<Chromosome> chroms, int generation) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		boolean reset = resetPending;
+		resetPending = false;
+		DataOutputStream out = openOutput(bytes, reset ? FLAG_RESET : 0);
+
+		out.writeInt(generation);
+		retainGenerations(generation);
+
+		// Definitions of genes not sent before.
+		List<Allele> newGenes = new ArrayList<Allele>();
+		for (Chromosome chrom : chroms) {
+			for (Allele allele : chrom.getAlleles()) {
+				if (!genes.containsKey(allele.getInnovationId())) {
+					Allele prototype = allele.cloneAllele();
+					genes.put(prototype.getInnovationId(), prototype);
+					newGenes.add(prototype);
+				}
+			}
+		}
+		writeSerialised(out, newGenes);
+
+		writeVarInt(out, chroms.size());
+		for (Chromosome chrom : chroms) {
+			out.writeLong(chrom.getId());
+			writeNullableLong(out, chrom.getPrimaryParentId());
+			writeNullableLong(out, chrom.getSecondaryParentId());
+			writeEvaluationData(out, chrom);
+
+			Genome genome = new Genome(chrom, generation);
+			Long refId = deltaEncoding ? findReference(chrom) : null;
+			if (refId != null) {
+				out.writeByte(GENOME_DELTA);
+				out.writeLong(refId);
+				writeDelta(out, genomes.get(refId), genome);
+			} else {
+				out.writeByte(GENOME_FULL);
+				writeFull(out, genome);
+			}
+			genomes.put(chrom.getId(), genome);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode Chromosomes encoded with {@link #encodeChromosomes(List, int)}.
+	 */
+	public synchronized List<Chromosome> decodeChromosomes(byte[] data) throws IOException, ClassNotFoundException {
+		DataInputStream in = openInput(data);
+		int generation = in.readInt();
+		retainGenerations(generation);
+
+		for (Object gene : (List<?>) readSerialised(in)) {
+			Allele prototype = (Allele) gene;
+			genes.put(prototype.getInnovationId(), prototype);
+		}
+
+		int count = readVarInt(in);
+		List<Chromosome> chroms = new ArrayList<Chromosome>(count);
+		for (int c = 0; c < count; c++) {
+			Long id = in.readLong();
+			Long primaryParentId = readNullableLong(in);
+			Long secondaryParentId = readNullableLong(in);
+			int objectiveCount = readVarInt(in);
+			int behaviourCount = readVarInt(in);
+
+			// The evaluation data precedes the genome, so read it into a placeholder first.
+			EvaluationData evalData = new EvaluationData(objectiveCount, behaviourCount);
+			readEvaluationData(in, evalData);
+
+			Genome genome;
+			if (in.readByte() == GENOME_DELTA) {
+				Long refId = in.readLong();
+				Genome ref = genomes.get(refId);
+				if (ref == null) {
+					throw new IllegalStateException("Reference genome for Chromosome " + refId + " not available.");
+				}
+				genome = readDelta(in, ref, generation);
+			} else {
+				genome = readFull(in, generation);
+			}
+			genomes.put(id, genome);
+
+			List<Allele> alleles = new ArrayList<Allele>(genome.ids.length);
+			for (int i = 0; i < genome.ids.length; i++) {
+				Allele prototype = genes.get(genome.ids[i]);
+				if (prototype == null) {
+					throw new IllegalStateException("Definition for gene " + genome.ids[i] + " not available.");
+				}
+				Allele allele = prototype.cloneAllele();
+				allele.setValue(genome.values[i]);
+				alleles.add(allele);
+			}
+			Chromosome chrom = new Chromosome(new ChromosomeMaterial(alleles, primaryParentId, secondaryParentId), id, objectiveCount, behaviourCount);
+			copyEvaluationData(evalData, chrom);
+			chroms.add(chrom);
+		}
+		return chroms;
+	}
+
+	/**
+	 * Encode the evaluation results (fitness, performance and behaviours) of the given Chromosomes.
+	 */
+	public synchronized byte[] encodeResults(List<Chromosome> chroms) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		DataOutputStream out = openOutput(bytes, 0);
+		writeVarInt(out, chroms.size());
+		for (Chromosome chrom : chroms) {
+			out.writeLong(chrom.getId());
+			writeEvaluationData(out, chrom);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode evaluation results encoded with {@link #encodeResults(List)} into the given Chromosomes, which must be
+	 * those given to {@link #encodeChromosomes(List, int)}, in the same order.
+	 */
+	public synchronized void decodeResults(byte[] data, List<Chromosome> chroms) throws IOException, ClassNotFoundException {
+		DataInputStream in = openInput(data);
+		int count = readVarInt(in);
+		if (count != chroms.size()) {
+			throw new IllegalStateException("Number of evaluation results (" + count + ") does not match number of Chromosomes (" + chroms.size() + ").");
+		}
+		for (Chromosome chrom : chroms) {
+			long id = in.readLong();
+			if (id != chrom.getId()) {
+				throw new IllegalStateException("Evaluation result for Chromosome " + id + " received in place of result for Chromosome " + chrom.getId() + ".");
+			}
+			readVarInt(in); // objective count
+			readVarInt(in); // behaviour count
+			readEvaluationData(in, chrom);
+		}
+	}
+
+	private DataOutputStream openOutput(ByteArrayOutputStream bytes, int flags) {
+		if (compression)
+			flags |= FLAG_COMPRESSED;
+		bytes.write(flags);
+		OutputStream os = bytes;
+		if (compression) {
+			os = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED), 4096);
+		}
+		return new DataOutputStream(os);
+	}
+
+	private DataInputStream openInput(byte[] data) {
+		int flags = data[0];
+		if ((flags & FLAG_RESET) != 0) {
+			genes.clear();
+			genomes.clear();
+		}
+		InputStream is = new ByteArrayInputStream(data, 1, data.length - 1);
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			is = new InflaterInputStream(is);
+		}
+		return new DataInputStream(is);
+	}
+
+	/**
+	 * Discard genomes from generations before the previous one.
+	 */
+	private void retainGenerations(int generation) {
+		Iterator<Genome> itr = genomes.values().iterator();
+		while (itr.hasNext()) {
+			if (itr.next().generation < generation - 1) {
+				itr.remove();
+			}
+		}
+	}
+
+	private Long findReference(Chromosome chrom) {
+		if (genomes.containsKey(chrom.getId()))
+			return chrom.getId();
+		if (chrom.getPrimaryParentId() != null && genomes.containsKey(chrom.getPrimaryParentId()))
+			return chrom.getPrimaryParentId();
+		if (chrom.getSecondaryParentId() != null && genomes.containsKey(chrom.getSecondaryParentId()))
+			return chrom.getSecondaryParentId();
+		return null;
+	}
+
+	private static void writeFull(DataOutputStream out, Genome genome) throws IOException {
+		writeVarInt(out, genome.ids.length);
+		writeIds(out, genome.ids, genome.ids.length);
+		for (double v : genome.values) {
+			out.writeDouble(v);
+		}
+	}
+
+	private static Genome readFull(DataInputStream in, int generation) throws IOException {
+		int size = readVarInt(in);
+		long[] ids = readIds(in, size);
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = in.readDouble();
+		}
+		return new Genome(ids, values, generation);
+	}
+
+	/**
+	 * Writes the alleles of the given genome as the innovation IDs removed from and added to the reference genome, a
+	 * bit set indicating which of the alleles retained from the reference have a different value, and the new values
+	 * for those alleles and for the added alleles.
+	 */
+	private static void writeDelta(DataOutputStream out, Genome ref, Genome genome) throws IOException {
+		long[] removed = new long[ref.ids.length];
+		long[] added = new long[genome.ids.length];
+		int removedCount = 0, addedCount = 0;
+		int r = 0, g = 0;
+		while (r < ref.ids.length || g < genome.ids.length) {
+			if (g == genome.ids.length || (r < ref.ids.length && ref.ids[r] < genome.ids[g])) {
+				removed[removedCount++] = ref.ids[r++];
+			} else if (r == ref.ids.length || genome.ids[g] < ref.ids[r]) {
+				added[addedCount++] = genome.ids[g++];
+			} else {
+				r++;
+				g++;
+			}
+		}
+		writeVarInt(out, removedCount);
+		writeIds(out, removed, removedCount);
+		writeVarInt(out, addedCount);
+		writeIds(out, added, addedCount);
+
+		// Bit set over the alleles retained from the reference genome.
+		int retainedCount = genome.ids.length - addedCount;
+		byte[] changed = new byte[(retainedCount + 7) >> 3];
+		r = 0;
+		int bit = 0;
+		for (g = 0; g < genome.ids.length; g++) {
+			while (r < ref.ids.length && ref.ids[r] < genome.ids[g])
+				r++;
+			if (r < ref.ids.length && ref.ids[r] == genome.ids[g]) {
+				if (Double.doubleToLongBits(ref.values[r]) != Double.doubleToLongBits(genome.values[g])) {
+					changed[bit >> 3] |= 1 << (bit & 7);
+				}
+				bit++;
+			}
+		}
+		out.write(changed);
+
+		r = 0;
+		bit = 0;
+		for (g = 0; g < genome.ids.length; g++) {
+			while (r < ref.ids.length && ref.ids[r] < genome.ids[g])
+				r++;
+			if (r < ref.ids.length && ref.ids[r] == genome.ids[g]) {
+				if ((changed[bit >> 3] & (1 << (bit & 7))) != 0) {
+					out.writeDouble(genome.values[g]);
+				}
+				bit++;
+			} else {
+				out.writeDouble(genome.values[g]);
+			}
+		}
+	}
+
+	private static Genome readDelta(DataInputStream in, Genome ref, int generation) throws IOException {
+		long[] removed = readIds(in, readVarInt(in));
+		long[] added = readIds(in, readVarInt(in));
+		int size = ref.ids.length - removed.length + added.length;
+		int retainedCount = size - added.length;
+		byte[] changed = new byte[(retainedCount + 7) >> 3];
+		in.readFully(changed);
+
+		long[] ids = new long[size];
+		double[] values = new double[size];
+		int r = 0, rm = 0, a = 0, bit = 0;
+		for (int g = 0; g < size; g++) {
+			// Skip removed alleles of the reference genome.
+			while (rm < removed.length && r < ref.ids.length && ref.ids[r] == removed[rm]) {
+				r++;
+				rm++;
+			}
+			if (r < ref.ids.length && (a == added.length || ref.ids[r] < added[a])) {
+				ids[g] = ref.ids[r];
+				values[g] = (changed[bit >> 3] & (1 << (bit & 7))) != 0 ? in.readDouble() : ref.values[r];
+				r++;
+				bit++;
+			} else {
+				ids[g] = added[a++];
+				values[g] = in.readDouble();
+			}
+		}
+		return new Genome(ids, values, generation);
+	}
+
+	/**
+	 * Writes ascending innovation IDs as the differences between consecutive IDs.
+	 */
+	private static void writeIds(DataOutputStream out, long[] ids, int count) throws IOException {
+		long prev = 0;
+		for (int i = 0; i < count; i++) {
+			writeVarLong(out, ids[i] - prev);
+			prev = ids[i];
+		}
+	}
+
+	private static long[] readIds(DataInputStream in, int count) throws IOException {
+		long[] ids = new long[count];
+		long prev = 0;
+		for (int i = 0; i < count; i++) {
+			prev += readVarLong(in);
+			ids[i] = prev;
+		}
+		return ids;
+	}
+
+	private static void writeEvaluationData(DataOutputStream out, Chromosome chrom) throws IOException {
+		double[] fitness = chrom.getFitnessValues();
+		Behaviour[] behaviours = chrom.behaviours;
+		writeVarInt(out, fitness.length);
+		writeVarInt(out, behaviours == null ? 0 : behaviours.length);
+		out.writeBoolean(chrom.isEvaluationDataStable());
+		out.writeDouble(chrom.getFitnessValue());
+		for (double f : fitness) {
+			out.writeDouble(f);
+		}
+		Map<String, Double> performance = chrom.getAllPerformanceValues();
+		writeVarInt(out, performance.size());
+		for (Map.Entry<String, Double> e : performance.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeDouble(e.getValue());
+		}
+		if (behaviours != null) {
+			for (Behaviour b : behaviours) {
+				writeBehaviour(out, b);
+			}
+		}
+	}
+
+	/**
+	 * Reads evaluation data written by writeEvaluationData, excluding the objective and behaviour counts, into the
+	 * given EvaluationData, which must have the same number of objectives and behaviours.
+	 */
+	private static void readEvaluationData(DataInputStream in, EvaluationData data) throws IOException, ClassNotFoundException {
+		if (in.readBoolean()) {
+			data.setEvaluationDataStable();
+		}
+		data.setFitnessValue(in.readDouble());
+		double[] fitness = new double[data.getFitnessValues().length];
+		for (int i = 0; i < fitness.length; i++) {
+			fitness[i] = in.readDouble();
+		}
+		data.setFitnessValues(fitness);
+		int performanceCount = readVarInt(in);
+		for (int i = 0; i < performanceCount; i++) {
+			data.setPerformanceValue(in.readUTF(), in.readDouble());
+		}
+		if (data.behaviours != null) {
+			Behaviour[] behaviours = new Behaviour[data.behaviours.length];
+			for (int i = 0; i < behaviours.length; i++) {
+				behaviours[i] = readBehaviour(in);
+			}
+			data.behaviours = behaviours;
+		}
+	}
+
+	private static void copyEvaluationData(EvaluationData from, EvaluationData to) {
+		if (from.isEvaluationDataStable()) {
+			to.setEvaluationDataStable();
+		}
+		to.setFitnessValue(from.getFitnessValue());
+		to.setFitnessValues(from.getFitnessValues());
+		to.setPerformanceValues(from.getAllPerformanceValues());
+		if (from.behaviours != null) {
+			System.arraycopy(from.behaviours, 0, to.behaviours, 0, from.behaviours.length);
+		}
+	}
+
+	private static void writeBehaviour(DataOutputStream out, Behaviour b) throws IOException {
+		if (b == null) {
+			out.writeByte(BEHAVIOUR_NULL);
+		} else if (b.getClass() == RealVectorBehaviour.class) {
+			out.writeByte(BEHAVIOUR_REAL_VECTOR);
+			double[] p = ((RealVectorBehaviour) b).p.getDataRef();
+			writeVarInt(out, p.length);
+			for (double v : p) {
+				out.writeDouble(v);
+			}
+		} else {
+			out.writeByte(BEHAVIOUR_SERIALISED);
+			writeSerialised(out, b);
+		}
+	}
+
+	private static Behaviour readBehaviour(DataInputStream in) throws IOException, ClassNotFoundException {
+		switch (in.readByte()) {
+		case BEHAVIOUR_NULL:
+			return null;
+		case BEHAVIOUR_REAL_VECTOR:
+			double[] p = new double[readVarInt(in)];
+			for (int i = 0; i < p.length; i++) {
+				p[i] = in.readDouble();
+			}
+			return new RealVectorBehaviour(new ArrayRealVector(p, false));
+		default:
+			return (Behaviour) readSerialised(in);
+		}
+	}
+
+	private static void writeSerialised(DataOutputStream out, Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(o);
+		oos.close();
+		writeVarInt(out, bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static Object readSerialised(DataInputStream in) throws IOException, ClassNotFoundException {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		return ois.readObject();
+	}
+
+	private static void writeNullableLong(DataOutputStream out, Long l) throws IOException {
+		out.writeBoolean(l != null);
+		if (l != null)
+			out.writeLong(l);
+	}
+
+	private static Long readNullableLong(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int v) throws IOException {
+		writeVarLong(out, v);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Writes a non-negative value using 7 bits per byte, with the high bit indicating that more bytes follow.
+	 */
+	private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+	}
+
+	/**
+	 * The innovation IDs, in ascending order, and values of the alleles of a Chromosome.
+	 */
+	private static class Genome {
+		final long[] ids;
+		final double[] values;
+		final int generation;
+
+		Genome(long[] ids, double[] values, int generation) {
+			this.ids = ids;
+			this.values = values;
+			this.generation = generation;
+		}
+
+		Genome(Chromosome chrom, int generation) {
+			int size = chrom.getAlleles().size();
+			ids = new long[size];
+			values = new double[size];
+			int i = 0;
+			for (Allele allele : chrom.getAlleles()) {
+				ids[i] = allele.getInnovationId();
+				values[i] = allele.getValue();
+				i++;
+			}
+			this.generation = generation;
+		}
+	}
+}
@@ -41,6 +41,8 @@ class MinionHandler extends Thread {
 	protected Socket socket;
 	protected ObjectInputStream in;
 	protected ObjectOutputStream out;
+	// If the binary protocol is enabled, the codec for the current connection.
+	protected MinionCodec codec;
 	protected List<Chromosome> chromsToEval;
 	protected boolean lastEvalFailed = false;
 	protected int failCount = 0;
@@ -150,6 +152,11 @@ class MinionHandler extends Thread {
 			out = new ObjectOutputStream(socket.getOutputStream());
 			in = new ObjectInputStream(socket.getInputStream());
 			socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
+			// The minion starts with no codec state on each new connection.
+			codec = null;
+			if (ff.props.getBooleanProperty(BulkFitnessFunctionMT.MINION_BINARY_PROTOCOL, false)) {
+				codec = new MinionCodec(ff.props.getBooleanProperty(BulkFitnessFunctionMT.MINION_DELTA_ENCODING, true), ff.props.getBooleanProperty(BulkFitnessFunctionMT.MINION_COMPRESSION, false));
+			}
 			// Configure the instance.
 			StringWriter sw = new StringWriter();
 			ff.props.store(sw, "");
@@ -205,15 +212,22 @@ class MinionHandler extends Thread {
 	
 	synchronized boolean evaluateChroms() {
 		try {
-			List<Chromosome> dummies = new ArrayList<Chromosome>();
-			// Create dummy chromosomes that don't reference a Species to avoid 
-			// serialisation of the Species and all the Chromosomes, etc that they contain.
-			for (Chromosome c : chromsToEval) {
-				Chromosome dummy = (Chromosome) c.clone();
-				dummy.resetSpecie();
-				dummies.add(dummy);
+			if (codec != null) {
+				// Chromosomes are encoded directly, without their Species.
+				out.writeObject(new Minion.Request(Minion.Request.Type.EVALUATE, codec.encodeChromosomes(chromsToEval, ff.props.getEvolver().getGeneration())));
+				// Don't retain references to the (large) sent messages in the stream.
+				out.reset();
+			} else {
+				List<Chromosome> dummies = new ArrayList<Chromosome>();
+				// Create dummy chromosomes that don't reference a Species to avoid 
+				// serialisation of the Species and all the Chromosomes, etc that they contain.
+				for (Chromosome c : chromsToEval) {
+					Chromosome dummy = (Chromosome) c.clone();
+					dummy.resetSpecie();
+					dummies.add(dummy);
+				}
+				out.writeObject(new Minion.Request(Minion.Request.Type.EVALUATE, dummies));
 			}
-			out.writeObject(new Minion.Request(Minion.Request.Type.EVALUATE, dummies));
 			
 			// Can take a while for evaluations to complete.
 			// Wait twice as long as the longest average time for this minion, or 10 minutes if this is first time.
@@ -225,15 +239,19 @@ class MinionHandler extends Thread {
 				long evalEnd = System.currentTimeMillis();
 				socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
 				
-				Iterator<Chromosome> chromsEvaluated = ((List<Chromosome>) response).iterator();
-				for (Chromosome chrom : chromsToEval) {
-					Chromosome evaluated = chromsEvaluated.next();
-					assert ((long) chrom.getId() == (long) evaluated.getId()) : chrom.getId() + "==" + evaluated.getId(); 
-					chrom.setFitnessValue(evaluated.getFitnessValue());
-					chrom.setFitnessValues(evaluated.getFitnessValues());
-					chrom.setPerformanceValue(evaluated.getPerformanceValue());
-					chrom.setPerformanceValues(evaluated.getAllPerformanceValues());
-					chrom.behaviours = evaluated.behaviours;
+				if (codec != null) {
+					codec.decodeResults((byte[]) response, chromsToEval);
+				} else {
+					Iterator<Chromosome> chromsEvaluated = ((List<Chromosome>) response).iterator();
+					for (Chromosome chrom : chromsToEval) {
+						Chromosome evaluated = chromsEvaluated.next();
+						assert ((long) chrom.getId() == (long) evaluated.getId()) : chrom.getId() + "==" + evaluated.getId(); 
+						chrom.setFitnessValue(evaluated.getFitnessValue());
+						chrom.setFitnessValues(evaluated.getFitnessValues());
+						chrom.setPerformanceValue(evaluated.getPerformanceValue());
+						chrom.setPerformanceValues(evaluated.getAllPerformanceValues());
+						chrom.behaviours = evaluated.behaviours;
+					}
 				}
 				lastEvalFailed = false;
 				updateAverageMinionEvalTimePerChrom((int) (evalEnd - evalStart) / chromsToEval.size());
@@ -241,6 +259,10 @@ class MinionHandler extends Thread {
 			} catch (SocketTimeoutException e) {
 				lastEvalFailed = true;
 				socket.setSoTimeout(Minion.DEFAULT_READ_TIMEOUT);
+				if (codec != null) {
+					// The minion may not process the request, so don't rely on it having the state from it.
+					codec.reset();
+				}
 				return false;
 			}
 		} catch (Exception e) {
@@ -1,10 +1,7 @@
 package com.ojcoleman.ahni.evaluation;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
 
 
@@ -13,6 +10,7 @@ import org.apache.log4j.Logger;
 import com.anji.integration.*;
 import com.ojcoleman.ahni.hyperneat.Configurable;
 import com.ojcoleman.ahni.hyperneat.Properties;
+import com.ojcoleman.ahni.util.ArrayUtil;
 import com.ojcoleman.ahni.util.NiceWriter;
 
 /**
@@ -97,6 +95,17 @@ public class TargetFitnessCalculator implements Configurable {
 	
 	private static boolean outputRangeChecked = false;
 	
+	// The most recently used patterns given to evaluate(Activator, Object, Object, ...), converted to flat arrays.
+	private volatile FlatPatterns flatPatterns;
+	
+	// Buffers reused between evaluations, one set per evaluation thread.
+	private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+	
 	public TargetFitnessCalculator() {
 	}
 
@@ -142,7 +151,10 @@ public class TargetFitnessCalculator implements Configurable {
 
 	/**
 	 * Evaluate the given network on the given input and target output pairs. Currently only 1 or 2 dimensional input
-	 * and output arrays are supported (thus inputPatterns and targetOutputPatterns can have 2 or 3 dimensions).
+	 * and output arrays are supported (thus inputPatterns and targetOutputPatterns can have 2 or 3 dimensions). The
+	 * patterns are converted to the flat form used by
+	 * {@link #evaluate(Activator, double[], int, double[], int, int, double, double, NiceWriter)}; the converted
+	 * patterns are cached, so the same pattern arrays should be passed in each time (and not modified) where possible.
 	 * 
 	 * @param substrate The network to evaluate.
 	 * @param inputPatterns Array containing stimuli (input) examples, in the form [trial][dN]...[d0]. The dimensions
@@ -155,6 +167,44 @@ public class TargetFitnessCalculator implements Configurable {
 	 * @return The calculated fitness value.
 	 */
 	public Results evaluate(Activator substrate, Object inputPatterns, Object targetOutputPatterns, double minTargetOutputValue, double maxTargetOutputValue, NiceWriter logOutput) {
+		FlatPatterns patterns = flatPatterns;
+		if (patterns == null || patterns.inputPatterns != inputPatterns || patterns.targetOutputPatterns != targetOutputPatterns) {
+			patterns = new FlatPatterns(inputPatterns, targetOutputPatterns);
+			flatPatterns = patterns;
+		}
+		return evaluate(substrate, patterns.input, patterns.inputStride, patterns.target, patterns.targetStride, patterns.trialCount, minTargetOutputValue, maxTargetOutputValue, logOutput, patterns.inputWidth, patterns.targetWidth);
+	}
+
+	/**
+	 * Evaluate the given network on the given input and target output pairs, stored in flat arrays. This avoids
+	 * allocating memory per trial: the network is activated for all trials with
+	 * {@link Activator#nextBatch(double[], int, double[], int, int)} into a reusable buffer, and the error over all
+	 * trials and outputs is computed in a single pass over the responses. Networks with 2D input or output layers take
+	 * row-packed patterns (see {@link com.ojcoleman.ahni.util.ArrayUtil#pack(double[][])}).
+	 * 
+	 * @param substrate The network to evaluate.
+	 * @param inputPatterns Array containing stimuli (input) examples; the input for trial <code>t</code> occupies the
+	 *            {@link Activator#getInputCount()} values starting at <code>t * inputStride</code>.
+	 * @param inputStride The distance between the starts of consecutive input examples.
+	 * @param targetOutputPatterns Array containing target response (output) examples; the target output for trial
+	 *            <code>t</code> occupies the {@link Activator#getOutputCount()} values starting at
+	 *            <code>t * targetStride</code>.
+	 * @param targetStride The distance between the starts of consecutive target output examples.
+	 * @param trialCount The number of input and target output pairs.
+	 * @param minTargetOutputValue The smallest value that occurs in the target outputs.
+	 * @param maxTargetOutputValue The largest value that occurs in the target outputs.
+	 * @param logOutput If not null then for each pattern the input, target and output will be written to this.
+	 * @return The calculated fitness value.
+	 */
+	public Results evaluate(Activator substrate, double[] inputPatterns, int inputStride, double[] targetOutputPatterns, int targetStride, int trialCount, double minTargetOutputValue, double maxTargetOutputValue, NiceWriter logOutput) {
+		return evaluate(substrate, inputPatterns, inputStride, targetOutputPatterns, targetStride, trialCount, minTargetOutputValue, maxTargetOutputValue, logOutput, 0, 0);
+	}
+
+	/**
+	 * @param inputWidth If greater than 0, the width of 2D input patterns, used when logging.
+	 * @param targetWidth If greater than 0, the width of 2D target output patterns, used when logging.
+	 */
+	private Results evaluate(Activator substrate, double[] inputPatterns, int inputStride, double[] targetOutputPatterns, int targetStride, int trialCount, double minTargetOutputValue, double maxTargetOutputValue, NiceWriter logOutput, int inputWidth, int targetWidth) {
 		// if (substrate instanceof BainNN && ((BainNN) substrate).getTopology() == BainNN.Topology.RECURRENT) {
 		// logger.debug("Setting fitness to 0 due to recurrent topology for target fitness function.");
 		// return new Results();
@@ -162,22 +212,12 @@ public class TargetFitnessCalculator implements Configurable {
 		
 		Random random = properties.getConfig().getRandomGenerator();
 
-		int dim = (inputPatterns instanceof double[][]) ? 1 : 2;
-		double[][] input1D = null, output1D = null, responses1D = null;
-		double[][][] input2D = null, output2D = null, responses2D = null;
-		if (dim == 1) {
-			input1D = (double[][]) inputPatterns;
-			output1D = (double[][]) targetOutputPatterns;
-			responses1D = substrate.nextSequence(input1D);
-		} else {
-			input2D = (double[][][]) inputPatterns;
-			output2D = (double[][][]) targetOutputPatterns;
-			responses2D = substrate.nextSequence(input2D);
-		}
+		int outputCount = substrate.getOutputCount();
+		Buffers buffers = this.buffers.get();
+		double[] responses = buffers.getResponses(trialCount * outputCount);
+		substrate.nextBatch(inputPatterns, inputStride, responses, outputCount, trialCount);
 
 		double maxError = 0;
-		int trialCount = dim == 1 ? input1D.length : input2D.length;
-		int outputCount = substrate.getOutputCount();
 		
 		if (substrate.getMinResponse() > minTargetOutputValue || substrate.getMaxResponse() < maxTargetOutputValue) {
 			throw new IllegalStateException("The response range of the substrate does not encompass the target output range.");
@@ -209,57 +249,50 @@ public class TargetFitnessCalculator implements Configurable {
 		else if (errorTypeTrial.squareTotalError())
 			maxError = maxError * maxError;
 
-		List<Integer> trialIndexes = new ArrayList<Integer>(trialCount);
+		int[] trialIndexes = buffers.getTrialIndexes(trialCount);
 		for (int i = 0; i < trialCount; i++)
-			trialIndexes.add(i);
-		if (logOutput == null) // Keep trials in order when logging.
-			Collections.shuffle(trialIndexes, random);
+			trialIndexes[i] = i;
+		if (logOutput == null) { // Keep trials in order when logging.
+			// Same algorithm (and so the same use of the random number generator) as Collections.shuffle(List, Random).
+			for (int i = trialCount; i > 1; i--) {
+				int j = random.nextInt(i);
+				int t = trialIndexes[i - 1];
+				trialIndexes[i - 1] = trialIndexes[j];
+				trialIndexes[j] = t;
+			}
+		}
 
+		boolean squareErrorsOutput = errorTypeOutput.squareErrors();
+		boolean avgErrorsOutput = errorTypeOutput.avgErrors();
+		boolean rootTotalErrorOutput = errorTypeOutput.rootTotalError();
+		boolean squareTotalErrorOutput = errorTypeOutput.squareTotalError();
+		boolean squareErrorsTrial = errorTypeTrial.squareErrors();
+		
 		double totalError = 0;
 		int percentCorrect = 0;
 		for (int i = 0; i < trialCount; i++) {
-			int trial = trialIndexes.get(i);
+			int trial = trialIndexes[i];
+			int r = trial * outputCount;
+			int t = trial * targetStride;
 			double trialError = 0;
 			boolean correct = true;
-			if (dim == 1) {
-				for (int x = 0; x < output1D[trial].length; x++) {
-					double diff = Math.abs(responses1D[trial][x] - output1D[trial][x]);
-					trialError += errorTypeOutput.squareErrors() ? diff * diff : diff;
-					if (diff > acceptableError)
-						correct = false;
-				}
-				if (logOutput != null) {
-					try {
-						logOutput.put(trial).put("\tInput:  ").put(input1D[trial]).put("\n\tTarget: ").put(output1D[trial]).put("\n\tOutput: ").put(responses1D[trial]).put("\n\tError: ").put(trialError).put((errorTypeOutput.squareErrors() ? " (sum of squared)" : "") + "  (" + (correct ? "" : "in") + "correct)\n\n");
-					} catch (IOException e) {
-						logger.info("Error writing to evaluation log file: " + Arrays.toString(e.getStackTrace()));
-					}
-				}
-			} else {
-				for (int y = 0; y < output2D[trial].length; y++) {
-					for (int x = 0; x < output2D[trial][0].length; x++) {
-						double diff = Math.abs(responses2D[trial][y][x] - output2D[trial][y][x]);
-						trialError += errorTypeOutput.squareErrors() ? diff * diff : diff;
-						if (diff > acceptableError)
-							correct = false;
-					}
-				}
-				if (logOutput != null) {
-					try {
-						logOutput.put(trial).put("\tInput:  ").put(input2D[trial]).put("\n\tTarget: ").put(output2D[trial]).put("\n\tOutput: ").put(responses2D[trial]).put("\n\tError: ").put(trialError).put((errorTypeOutput.squareErrors() ? " (sum of squared)" : "") + "  (" + (correct ? "" : "in") + "correct)\n\n");
-					} catch (IOException e) {
-						logger.info("Error writing to evaluation log file: " + Arrays.toString(e.getStackTrace()));
-					}
-				}
+			for (int x = 0; x < outputCount; x++) {
+				double diff = Math.abs(responses[r + x] - targetOutputPatterns[t + x]);
+				trialError += squareErrorsOutput ? diff * diff : diff;
+				if (diff > acceptableError)
+					correct = false;
 			}
-			if (errorTypeOutput.avgErrors())
+			if (logOutput != null) {
+				logTrial(logOutput, trial, inputPatterns, trial * inputStride, substrate.getInputCount(), inputWidth, targetOutputPatterns, t, responses, r, outputCount, targetWidth, trialError, correct);
+			}
+			if (avgErrorsOutput)
 				trialError /= outputCount;
-			if (errorTypeOutput.rootTotalError())
+			if (rootTotalErrorOutput)
 				trialError = Math.sqrt(trialError);
-			else if (errorTypeOutput.squareTotalError())
+			else if (squareTotalErrorOutput)
 				trialError = trialError * trialError;
 
-			totalError += errorTypeTrial.squareErrors() ? trialError * trialError : trialError;
+			totalError += squareErrorsTrial ? trialError * trialError : trialError;
 
 			if (correct)
 				percentCorrect++;
@@ -290,11 +323,105 @@ public class TargetFitnessCalculator implements Configurable {
 		
 		return results;
 	}
+	
+	private void logTrial(NiceWriter logOutput, int trial, double[] input, int inputIndex, int inputCount, int inputWidth, double[] target, int targetIndex, double[] output, int outputIndex, int outputCount, int targetWidth, double trialError, boolean correct) {
+		try {
+			logOutput.put(trial).put("\tInput:  ");
+			putPattern(logOutput, input, inputIndex, inputCount, inputWidth);
+			logOutput.put("\n\tTarget: ");
+			putPattern(logOutput, target, targetIndex, outputCount, targetWidth);
+			logOutput.put("\n\tOutput: ");
+			putPattern(logOutput, output, outputIndex, outputCount, targetWidth);
+			logOutput.put("\n\tError: ").put(trialError).put((errorTypeOutput.squareErrors() ? " (sum of squared)" : "") + "  (" + (correct ? "" : "in") + "correct)\n\n");
+		} catch (IOException e) {
+			logger.info("Error writing to evaluation log file: " + Arrays.toString(e.getStackTrace()));
+		}
+	}
+	
+	private static void putPattern(NiceWriter logOutput, double[] values, int index, int length, int width) throws IOException {
+		if (width > 0) {
+			logOutput.put(ArrayUtil.unpack(values, width, length / width, index));
+		} else {
+			logOutput.put(Arrays.copyOfRange(values, index, index + length));
+		}
+	}
 
 	public String getFitnessConversionType() {
 		return fitnessConversionType;
 	}
 
+	/**
+	 * Input and target output patterns given as 2D ([trial][value]) or 3D ([trial][y][x]) arrays, converted to the
+	 * flat form.
+	 */
+	private static class FlatPatterns {
+		final Object inputPatterns, targetOutputPatterns;
+		final double[] input, target;
+		final int inputStride, targetStride, trialCount;
+		// Width of 2D patterns, or 0 for 1D patterns.
+		final int inputWidth, targetWidth;
+
+		FlatPatterns(Object inputPatterns, Object targetOutputPatterns) {
+			this.inputPatterns = inputPatterns;
+			this.targetOutputPatterns = targetOutputPatterns;
+			if (inputPatterns instanceof double[][]) {
+				double[][] in = (double[][]) inputPatterns;
+				double[][] out = (double[][]) targetOutputPatterns;
+				trialCount = in.length;
+				inputStride = trialCount > 0 ? in[0].length : 0;
+				targetStride = trialCount > 0 ? out[0].length : 0;
+				input = new double[trialCount * inputStride];
+				target = new double[trialCount * targetStride];
+				for (int t = 0; t < trialCount; t++) {
+					System.arraycopy(in[t], 0, input, t * inputStride, inputStride);
+					System.arraycopy(out[t], 0, target, t * targetStride, targetStride);
+				}
+				inputWidth = 0;
+				targetWidth = 0;
+			} else {
+				double[][][] in = (double[][][]) inputPatterns;
+				double[][][] out = (double[][][]) targetOutputPatterns;
+				trialCount = in.length;
+				inputWidth = trialCount > 0 ? in[0][0].length : 0;
+				targetWidth = trialCount > 0 ? out[0][0].length : 0;
+				inputStride = trialCount > 0 ? in[0].length * inputWidth : 0;
+				targetStride = trialCount > 0 ? out[0].length * targetWidth : 0;
+				input = new double[trialCount * inputStride];
+				target = new double[trialCount * targetStride];
+				for (int t = 0; t < trialCount; t++) {
+					for (int y = 0; y < in[t].length; y++) {
+						System.arraycopy(in[t][y], 0, input, t * inputStride + y * inputWidth, inputWidth);
+					}
+					for (int y = 0; y < out[t].length; y++) {
+						System.arraycopy(out[t][y], 0, target, t * targetStride + y * targetWidth, targetWidth);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffers reused between evaluations.
+	 */
+	private static class Buffers {
+		private double[] responses = new double[0];
+		private int[] trialIndexes = new int[0];
+
+		double[] getResponses(int length) {
+			if (responses.length < length) {
+				responses = new double[length];
+			}
+			return responses;
+		}
+
+		int[] getTrialIndexes(int length) {
+			if (trialIndexes.length < length) {
+				trialIndexes = new int[length];
+			}
+			return trialIndexes;
+		}
+	}
+
 	/**
 	 * Storage for the results of a fitness evaluation.
 	 */
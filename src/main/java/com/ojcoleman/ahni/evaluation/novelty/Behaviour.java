@@ -19,6 +19,15 @@ public abstract class Behaviour implements Serializable {
 	 * Provide a default/suggested threshold. Should be in the range [0, 1].
 	 */
 	public abstract double defaultThreshold();
+
+	/**
+	 * Returns true iff {@link #distanceFrom(Behaviour)} is a metric, in particular that it is symmetric and satisfies
+	 * the triangle inequality. This allows {@link NoveltySearch} to use a {@link VPTreeBehaviourIndex} to find nearest
+	 * neighbours in the archive. This default implementation returns false.
+	 */
+	public boolean isMetric() {
+		return false;
+	}
 	
 	/**
 	 * Subclasses may override this method to render a list of behaviours as an image for logging/visualisation purposes.
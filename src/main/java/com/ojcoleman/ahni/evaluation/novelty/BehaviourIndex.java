@@ -0,0 +1,55 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.Collection;
+
+/**
+ * Base class for indexes over a set of {@link Behaviour}s that support k-nearest-neighbour queries, as used by
+ * {@link NoveltySearch} to find the nearest neighbours of a behaviour in the novelty archive. Queries may be performed
+ * by multiple threads concurrently, but not concurrently with modification of the index.
+ *
+ * @author Oliver Coleman
+ */
+public abstract class BehaviourIndex {
+	/**
+	 * Add the given behaviour to this index.
+	 */
+	public abstract void add(Behaviour b);
+
+	/**
+	 * Add the given behaviours to this index.
+	 */
+	public void addAll(Collection<? extends Behaviour> behaviours) {
+		for (Behaviour b : behaviours) {
+			add(b);
+		}
+	}
+
+	/**
+	 * Returns the number of behaviours in this index.
+	 */
+	public abstract int size();
+
+	/**
+	 * Remove all behaviours from this index.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Offer the distances from the given behaviour to (at least) its k nearest neighbours in this index to the given
+	 * NearestDistances, where k is {@link NearestDistances#capacity()}. Distances are determined with
+	 * <code>query.distanceFrom(b)</code>.
+	 */
+	public abstract void nearest(Behaviour query, NearestDistances result);
+
+	/**
+	 * Returns true iff this index contains a behaviour whose distance from the given behaviour is less than the given
+	 * radius.
+	 */
+	public boolean containsWithin(Behaviour query, double radius) {
+		if (size() == 0)
+			return false;
+		NearestDistances nearest = new NearestDistances(1);
+		nearest(query, nearest);
+		return nearest.bound() < radius;
+	}
+}
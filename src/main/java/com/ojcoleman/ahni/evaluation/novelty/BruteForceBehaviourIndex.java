@@ -0,0 +1,45 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BehaviourIndex} that computes the distance to every behaviour in the index for each query, retaining only
+ * the k nearest. This works with any {@link Behaviour} implementation.
+ *
+ * @author Oliver Coleman
+ */
+public class BruteForceBehaviourIndex extends BehaviourIndex {
+	private final List<Behaviour> behaviours = new ArrayList<Behaviour>();
+
+	@Override
+	public void add(Behaviour b) {
+		behaviours.add(b);
+	}
+
+	@Override
+	public int size() {
+		return behaviours.size();
+	}
+
+	@Override
+	public void clear() {
+		behaviours.clear();
+	}
+
+	@Override
+	public void nearest(Behaviour query, NearestDistances result) {
+		for (Behaviour b : behaviours) {
+			result.offer(query.distanceFrom(b));
+		}
+	}
+
+	@Override
+	public boolean containsWithin(Behaviour query, double radius) {
+		for (Behaviour b : behaviours) {
+			if (query.distanceFrom(b) < radius)
+				return true;
+		}
+		return false;
+	}
+}
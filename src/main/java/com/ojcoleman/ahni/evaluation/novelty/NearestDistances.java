@@ -0,0 +1,108 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.Arrays;
+
+/**
+ * Collects the k smallest of the distances offered to it, using a bounded max-heap. This is used to perform partial
+ * selection of the k nearest neighbours of a {@link Behaviour} without storing and sorting all distances.
+ *
+ * @author Oliver Coleman
+ */
+public class NearestDistances {
+	private final double[] heap;
+	private int size;
+
+	/**
+	 * @param k The number of smallest distances to retain. Must be at least 1.
+	 */
+	public NearestDistances(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("The number of nearest distances to retain must be at least 1.");
+		}
+		heap = new double[k];
+	}
+
+	/**
+	 * Offer a distance. It is retained if fewer than k distances have been retained so far or if it is smaller than the
+	 * largest retained distance (in which case the largest is discarded).
+	 */
+	public void offer(double d) {
+		if (size < heap.length) {
+			// Sift up.
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (heap[parent] >= d)
+					break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = d;
+		} else if (d < heap[0]) {
+			// Replace root and sift down.
+			int i = 0;
+			while (true) {
+				int child = (i << 1) + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && heap[child + 1] > heap[child])
+					child++;
+				if (heap[child] <= d)
+					break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = d;
+		}
+	}
+
+	/**
+	 * Returns the distance a new distance must be less than to be retained: the largest retained distance if k
+	 * distances have been retained, otherwise positive infinity.
+	 */
+	public double bound() {
+		return size < heap.length ? Double.POSITIVE_INFINITY : heap[0];
+	}
+
+	/**
+	 * Returns the number of distances retained, at most k.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of distances retained, k.
+	 */
+	public int capacity() {
+		return heap.length;
+	}
+
+	/**
+	 * Returns the number of retained distances that are less than the given value.
+	 */
+	public int countLessThan(double d) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (heap[i] < d)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the retained distances in ascending order.
+	 */
+	public double[] toSortedArray() {
+		double[] sorted = Arrays.copyOf(heap, size);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Discard all retained distances.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
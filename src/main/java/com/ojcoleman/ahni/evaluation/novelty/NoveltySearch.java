@@ -1,19 +1,25 @@
 package com.ojcoleman.ahni.evaluation.novelty;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 
 import com.anji.neat.NeatConfiguration;
+import com.ojcoleman.ahni.hyperneat.Checkpointable;
 import com.ojcoleman.ahni.hyperneat.Configurable;
 import com.ojcoleman.ahni.hyperneat.Properties;
 import com.ojcoleman.ahni.util.Range;
 
-public class NoveltySearch implements Configurable {
+public class NoveltySearch implements Configurable, Checkpointable {
 	private static Logger logger = Logger.getLogger(NoveltySearch.class);
 
 	/**
@@ -41,6 +47,12 @@ public class NoveltySearch implements Configurable {
 	 * fitness.function.novelty.threshold. Default is 0 (disabled, threshold method will be used instead).
 	 */
 	public static final String ARCHIVE_ADD_PROB = "fitness.function.novelty.add_probability";
+	/**
+	 * The {@link BehaviourIndex} implementation used to find the nearest neighbours of a behaviour in the archive.
+	 * Default is {@link VPTreeBehaviourIndex} if the {@link Behaviour}s are metric (see {@link Behaviour#isMetric()}),
+	 * otherwise {@link BruteForceBehaviourIndex}.
+	 */
+	public static final String ARCHIVE_INDEX_CLASS = "fitness.function.novelty.index.class";
 
 	int k = 30;
 	double archiveThreshold = 0;
@@ -49,6 +61,8 @@ public class NoveltySearch implements Configurable {
 
 	Properties properties;
 	public List<Behaviour> archive;
+	Class<? extends BehaviourIndex> archiveIndexClass;
+	BehaviourIndex archiveIndex; // Created when the first behaviour is added to the archive.
 	List<Behaviour> currentPop;
 	List<Behaviour> toArchive;
 	int noNewArchiveCount; // count number of generations in a row for which no individual added to archive.
@@ -77,6 +91,13 @@ public class NoveltySearch implements Configurable {
 		}
 
 		k = props.getIntProperty(K, k);
+		if (props.containsKey(ARCHIVE_INDEX_CLASS)) {
+			Class<?> indexClass = props.getClassProperty(ARCHIVE_INDEX_CLASS);
+			if (!BehaviourIndex.class.isAssignableFrom(indexClass)) {
+				throw new IllegalArgumentException("The class given for " + ARCHIVE_INDEX_CLASS + " must extend " + BehaviourIndex.class.getName() + ".");
+			}
+			archiveIndexClass = indexClass.asSubclass(BehaviourIndex.class);
+		}
 		// Adjust threshold so that around 1% of population is added at a time.
 		int popSize = props.getIntProperty(NeatConfiguration.POPUL_SIZE_KEY);
 		tooManyArchiveAdditionsThreshold = Math.max(1, (int) Math.round(popSize * 0.01));
@@ -89,6 +110,7 @@ public class NoveltySearch implements Configurable {
 	 */
 	public void reset() {
 		archive = new ArrayList<Behaviour>(k);
+		archiveIndex = null;
 		toArchive = Collections.synchronizedList(new ArrayList<Behaviour>());
 		currentPop = new ArrayList<Behaviour>();
 		noNewArchiveCount = 0;
@@ -102,47 +124,21 @@ public class NoveltySearch implements Configurable {
 	 */
 	public double testNovelty(Behaviour b) {
 		// System.err.println(b);
-		int totalSize = archive.size() + currentPop.size();
-		double[] dist = new double[totalSize];
-		int i = 0;
-		int inArchiveCount = 0;
-		for (Behaviour b2 : archive) {
-			dist[i] = b.distanceFrom(b2);
-			assert (dist[i] >= 0 && dist[i] <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + dist[i] + " was found.";
-			if (dist[i] < 0.0000001) inArchiveCount++;
-			i++;
-		}
-		assert currentPop.size() > 0 : "The current population in NoveltySearch has zero size.";
-		for (Behaviour b2 : currentPop) {
-			dist[i] = b.distanceFrom(b2);
-			assert (dist[i] >= 0 && dist[i] <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + dist[i] + " was found.";
-			i++;
-		}
-		int kTemp = Math.min(totalSize, this.k);
-		Arrays.sort(dist);
-		double avgDist = 0;
-		for (i = 0; i < kTemp; i++) {
-			avgDist += dist[i];
-		}
-		avgDist /= kTemp;
-		assert (avgDist >= 0 && avgDist <= 1) : "Values returned by testNovelty must be in the range [0, 1] but a value of " + avgDist + " was found.";
+		boolean[] inArchiveKTimes = new boolean[1];
+		double avgDist = averageNearestDistance(b, new NearestDistances(k), inArchiveKTimes, 0);
 
 		// Don't add it if it's already in the archive k times (at which point adding it more times will have no 
 		// effect on the average distance calculation but will consume resources (memory, cpu).
-		if (inArchiveCount < k) {
+		if (!inArchiveKTimes[0]) {
 			// If using probabilistic archive addition method.
 			if (addProbability > 0) {
 				if (properties.getConfig().getRandomGenerator().nextDouble() < addProbability) {
 					toArchive.add(b);
 				}
 			} else { // Using threshold archive addition method.
-				if (archiveThreshold == 0) {
-					archiveThreshold = b.defaultThreshold();
-					archiveThresholdMin = properties.getDoubleProperty(ARCHIVE_THRESHOLD_MIN, archiveThreshold * 0.05);
-	
-				}
+				initArchiveThreshold(b);
 				// If the archive and toArchive queue don't contain a similar behaviour, add it to the archive.
-				if (!containsSimilar(toArchive, b, archiveThreshold) && !containsSimilar(archive, b, archiveThreshold)) {
+				if (!containsSimilar(toArchive, b, archiveThreshold) && !archiveContainsSimilar(b)) {
 					toArchive.add(b);
 				}
 			}
@@ -151,6 +147,106 @@ public class NoveltySearch implements Configurable {
 		return avgDist;
 	}
 
+	/**
+	 * Determine the novelty of all the behaviours in a population and then update the archive, in one call. This is
+	 * equivalent to calling {@link #setCurrentPopulation(List)}, {@link #testNovelty(Behaviour)} for each behaviour
+	 * in order and then {@link #finishedEvaluation()}, except that the distances between each behaviour and the
+	 * archive and population are computed in parallel, in blocks of behaviours, using the common fork-join pool. The
+	 * (inherently sequential) decisions about which behaviours to add to the archive are then made in population
+	 * order, so the result does not depend on thread scheduling.
+	 * 
+	 * @param population The behaviours of all members of the current population.
+	 * @return The novelty of each behaviour, in the same order as the given population, values in the range [0, 1].
+	 */
+	public double[] testNovelty(final List<Behaviour> population) {
+		final int size = population.size();
+		assert size > 0 : "The population given to NoveltySearch.testNovelty(List) has zero size.";
+		setCurrentPopulation(population);
+		if (addProbability == 0) {
+			initArchiveThreshold(population.get(0));
+		}
+
+		final double[] novelty = new double[size];
+		final boolean[] inArchiveKTimes = new boolean[size];
+		final boolean[] similarInArchive = new boolean[size];
+		// Several blocks per processor so that the load is balanced if some blocks take longer than others.
+		final int blockSize = Math.max(1, size / (Runtime.getRuntime().availableProcessors() * 4));
+		final int blockCount = (size + blockSize - 1) / blockSize;
+		IntStream.range(0, blockCount).parallel().forEach(block -> {
+			NearestDistances nearest = new NearestDistances(k);
+			int end = Math.min(size, (block + 1) * blockSize);
+			for (int i = block * blockSize; i < end; i++) {
+				Behaviour b = population.get(i);
+				assert b != null;
+				nearest.clear();
+				novelty[i] = averageNearestDistance(b, nearest, inArchiveKTimes, i);
+				if (addProbability == 0 && !inArchiveKTimes[i]) {
+					similarInArchive[i] = archiveContainsSimilar(b);
+				}
+			}
+		});
+
+		for (int i = 0; i < size; i++) {
+			if (!inArchiveKTimes[i]) {
+				Behaviour b = population.get(i);
+				if (addProbability > 0) {
+					if (properties.getConfig().getRandomGenerator().nextDouble() < addProbability) {
+						toArchive.add(b);
+					}
+				} else if (!similarInArchive[i] && !containsSimilar(toArchive, b, archiveThreshold)) {
+					toArchive.add(b);
+				}
+			}
+		}
+
+		finishedEvaluation();
+		return novelty;
+	}
+
+	/**
+	 * Returns the average distance from the given behaviour to its k nearest neighbours in the archive and the current
+	 * population. The given NearestDistances, which must be empty and have capacity k, is used to find the nearest
+	 * neighbours. inArchiveKTimes[index] is set to true iff the given behaviour is already in the archive k or more
+	 * times.
+	 */
+	private double averageNearestDistance(Behaviour b, NearestDistances nearest, boolean[] inArchiveKTimes, int index) {
+		// Only the k nearest distances over the archive and current population are retained.
+		int inArchiveCount = 0;
+		if (archiveIndex != null) {
+			archiveIndex.nearest(b, nearest);
+			// If there are k or more copies of b in the archive then the k nearest are all copies, so this count is
+			// only accurate up to k, which is all that is required.
+			inArchiveCount = nearest.countLessThan(0.0000001);
+		}
+		inArchiveKTimes[index] = inArchiveCount >= k;
+		assert currentPop.size() > 0 : "The current population in NoveltySearch has zero size.";
+		for (Behaviour b2 : currentPop) {
+			double d = b.distanceFrom(b2);
+			assert (d >= 0 && d <= 1) : "Values returned by implementations of Behaviour.distanceFrom() must be in the range [0, 1] but a value of " + d + " was found.";
+			nearest.offer(d);
+		}
+		double[] dist = nearest.toSortedArray();
+		int kTemp = dist.length;
+		double avgDist = 0;
+		for (int i = 0; i < kTemp; i++) {
+			avgDist += dist[i];
+		}
+		avgDist /= kTemp;
+		assert (avgDist >= 0 && avgDist <= 1) : "Values returned by testNovelty must be in the range [0, 1] but a value of " + avgDist + " was found.";
+		return avgDist;
+	}
+
+	private void initArchiveThreshold(Behaviour b) {
+		if (archiveThreshold == 0) {
+			archiveThreshold = b.defaultThreshold();
+			archiveThresholdMin = properties.getDoubleProperty(ARCHIVE_THRESHOLD_MIN, archiveThreshold * 0.05);
+		}
+	}
+
+	private boolean archiveContainsSimilar(Behaviour b) {
+		return archiveIndex != null && archiveIndex.containsWithin(b, archiveThreshold);
+	}
+
 	private boolean containsSimilar(List<Behaviour> behaviours, Behaviour b, double threshold) {
 		if (behaviours.isEmpty())
 			return false;
@@ -209,6 +305,12 @@ public class NoveltySearch implements Configurable {
 		}
 
 		archive.addAll(toArchive);
+		if (!toArchive.isEmpty()) {
+			if (archiveIndex == null) {
+				archiveIndex = createArchiveIndex(toArchive.get(0));
+			}
+			archiveIndex.addAll(toArchive);
+		}
 		if (properties.getEvolver().getGeneration() % 50 == 0)
 			logger.info("Novelty archive size is now " + archive.size() + (addProbability == 0 ? "  (archive threshold is " + archiveThreshold + ")." : "."));
 
@@ -216,6 +318,48 @@ public class NoveltySearch implements Configurable {
 		currentPop = new ArrayList<Behaviour>();
 	}
 
+	/**
+	 * Writes the archive and the archive threshold state. The archived {@link Behaviour}s are written with Java
+	 * serialisation.
+	 */
+	@Override
+	public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeDouble(archiveThreshold);
+		out.writeDouble(archiveThresholdMin);
+		out.writeInt(noNewArchiveCount);
+		ObjectOutputStream objOut = new ObjectOutputStream(out);
+		objOut.writeObject(new ArrayList<Behaviour>(archive));
+		objOut.flush();
+	}
+
+	/**
+	 * Replaces the archive and archive threshold state, and rebuilds the archive index.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized void readCheckpoint(DataInputStream in) throws IOException {
+		reset();
+		archiveThreshold = in.readDouble();
+		archiveThresholdMin = in.readDouble();
+		noNewArchiveCount = in.readInt();
+		try {
+			archive.addAll((List<Behaviour>) new ObjectInputStream(in).readObject());
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Could not restore novelty archive", e);
+		}
+		if (!archive.isEmpty()) {
+			archiveIndex = createArchiveIndex(archive.get(0));
+			archiveIndex.addAll(archive);
+		}
+	}
+
+	private BehaviourIndex createArchiveIndex(Behaviour b) {
+		if (archiveIndexClass != null) {
+			return properties.newObjectProperty(archiveIndexClass);
+		}
+		return b.isMetric() ? new VPTreeBehaviourIndex() : new BruteForceBehaviourIndex();
+	}
+
 	public int getArchiveSize() {
 		return archive.size();
 	}
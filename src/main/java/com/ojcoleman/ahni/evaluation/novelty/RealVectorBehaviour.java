@@ -38,6 +38,14 @@ public class RealVectorBehaviour extends Behaviour {
 		return p.getL1Distance(((RealVectorBehaviour) b).p) / maxDist;
 	}
 	
+	/**
+	 * Returns true: the (scaled) L1 distance is a metric.
+	 */
+	@Override
+	public boolean isMetric() {
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return ArrayUtil.toString(p.getDataRef(), "  ", nf);
@@ -0,0 +1,222 @@
+package com.ojcoleman.ahni.evaluation.novelty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BehaviourIndex} based on vantage-point trees. Queries visit only the parts of the trees that may contain
+ * behaviours nearer than the k'th nearest found so far, which is typically a small fraction of the index for large
+ * indexes. Pruning relies on the triangle inequality, so this index only returns exact results for behaviours whose
+ * {@link Behaviour#distanceFrom(Behaviour)} is a metric, see {@link Behaviour#isMetric()}.
+ *
+ * Vantage-point trees are static, so to support incremental addition the index consists of a buffer of recently added
+ * behaviours, which is searched exhaustively, and a set of trees whose sizes at least double from one tree to the next.
+ * When the buffer is full it is built into a new tree, merging it with any existing trees no larger than it. Thus each
+ * behaviour is included in a rebuilt tree O(log n) times.
+ *
+ * For high-dimensional behaviours the triangle inequality often allows little of the trees to be pruned, in which case
+ * searching them is slower than simply computing the distance to every behaviour. So the fraction of the trees visited
+ * by queries is tracked, and if it is high the trees are scanned exhaustively instead, except for periodic queries
+ * that search the trees to keep the tracked fraction up to date.
+ *
+ * @author Oliver Coleman
+ */
+public class VPTreeBehaviourIndex extends BehaviourIndex {
+	private static final int BUFFER_SIZE = 64;
+	private static final int LEAF_SIZE = 8;
+	// Allowance for floating point error when applying the triangle inequality.
+	private static final double PRUNE_TOLERANCE = 1e-9;
+	// If the average fraction of the trees visited by a query is above this then the trees are scanned exhaustively.
+	private static final double EXHAUSTIVE_SCAN_THRESHOLD = 0.3;
+	// When scanning exhaustively, every PROBE_INTERVAL'th query searches the trees to update visitedFraction.
+	private static final int PROBE_INTERVAL = 32;
+
+	// All behaviours in order of addition, used for exhaustive scans (the trees reorder them, scanning in the order
+	// they were created is typically more cache-friendly).
+	private final List<Behaviour> behaviours = new ArrayList<Behaviour>();
+	private final List<Behaviour> buffer = new ArrayList<Behaviour>(BUFFER_SIZE);
+	// In order of decreasing size.
+	private final List<Tree> trees = new ArrayList<Tree>();
+	// Exponential moving average of the fraction of the trees visited by queries. Updates from concurrent queries may
+	// occasionally be lost, which doesn't matter for its purpose.
+	private volatile double visitedFraction;
+	private final AtomicInteger queryCount = new AtomicInteger();
+
+	@Override
+	public void add(Behaviour b) {
+		behaviours.add(b);
+		buffer.add(b);
+		if (buffer.size() >= BUFFER_SIZE) {
+			List<Behaviour> items = new ArrayList<Behaviour>(buffer);
+			buffer.clear();
+			while (!trees.isEmpty() && trees.get(trees.size() - 1).items.length <= items.size()) {
+				items.addAll(Arrays.asList(trees.remove(trees.size() - 1).items));
+			}
+			trees.add(new Tree(items.toArray(new Behaviour[items.size()])));
+		}
+	}
+
+	@Override
+	public int size() {
+		return behaviours.size();
+	}
+
+	@Override
+	public void clear() {
+		buffer.clear();
+		trees.clear();
+		behaviours.clear();
+		visitedFraction = 0;
+	}
+
+	@Override
+	public void nearest(Behaviour query, NearestDistances result) {
+		int treeSize = behaviours.size() - buffer.size();
+		if (treeSize > 0 && visitedFraction > EXHAUSTIVE_SCAN_THRESHOLD && queryCount.incrementAndGet() % PROBE_INTERVAL != 0) {
+			for (Behaviour b : behaviours) {
+				result.offer(query.distanceFrom(b));
+			}
+			return;
+		}
+		for (Behaviour b : buffer) {
+			result.offer(query.distanceFrom(b));
+		}
+		if (treeSize == 0)
+			return;
+		int visited = 0;
+		for (Tree tree : trees) {
+			visited += tree.nearest(query, result, 0, tree.items.length);
+		}
+		visitedFraction += ((double) visited / treeSize - visitedFraction) * 0.1;
+	}
+
+	@Override
+	public boolean containsWithin(Behaviour query, double radius) {
+		for (Behaviour b : buffer) {
+			if (query.distanceFrom(b) < radius)
+				return true;
+		}
+		for (Tree tree : trees) {
+			if (tree.containsWithin(query, radius, 0, tree.items.length))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A vantage-point tree stored implicitly in an array. The node for the range [lo, hi) has its vantage point at lo;
+	 * the behaviours in [lo+1, outerStart[lo]) are no further from it than radius[lo] and those in [outerStart[lo], hi)
+	 * are no nearer. Ranges of at most LEAF_SIZE behaviours are leaves that are searched exhaustively.
+	 */
+	private static class Tree {
+		final Behaviour[] items;
+		final double[] radius;
+		final int[] outerStart;
+
+		Tree(Behaviour[] items) {
+			this.items = items;
+			radius = new double[items.length];
+			outerStart = new int[items.length];
+			build(0, items.length, new double[items.length]);
+		}
+
+		private void build(int lo, int hi, double[] dist) {
+			if (hi - lo <= LEAF_SIZE)
+				return;
+			Behaviour vantage = items[lo];
+			for (int i = lo + 1; i < hi; i++) {
+				dist[i] = vantage.distanceFrom(items[i]);
+			}
+			int median = (lo + 1 + hi) >>> 1;
+			select(dist, lo + 1, hi - 1, median);
+			radius[lo] = dist[median];
+			outerStart[lo] = median;
+			build(lo + 1, median, dist);
+			build(median, hi, dist);
+		}
+
+		/**
+		 * Partially sort items[left..right] (inclusive) by dist so that the element at index k is the one that would be
+		 * there if fully sorted, with no larger elements before it and no smaller elements after it.
+		 */
+		private void select(double[] dist, int left, int right, int k) {
+			while (right > left) {
+				double pivot = dist[(left + right) >>> 1];
+				// Three-way partition so that many equal distances (eg duplicate behaviours) don't degrade performance.
+				int lt = left, i = left, gt = right;
+				while (i <= gt) {
+					if (dist[i] < pivot) {
+						swap(dist, lt++, i++);
+					} else if (dist[i] > pivot) {
+						swap(dist, i, gt--);
+					} else {
+						i++;
+					}
+				}
+				if (k < lt) {
+					right = lt - 1;
+				} else if (k > gt) {
+					left = gt + 1;
+				} else {
+					return;
+				}
+			}
+		}
+
+		private void swap(double[] dist, int i, int j) {
+			double d = dist[i];
+			dist[i] = dist[j];
+			dist[j] = d;
+			Behaviour b = items[i];
+			items[i] = items[j];
+			items[j] = b;
+		}
+
+		/**
+		 * Returns the number of behaviours visited.
+		 */
+		int nearest(Behaviour query, NearestDistances result, int lo, int hi) {
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					result.offer(query.distanceFrom(items[i]));
+				}
+				return hi - lo;
+			}
+			double d = query.distanceFrom(items[lo]);
+			result.offer(d);
+			double mu = radius[lo];
+			int mid = outerStart[lo];
+			// Search the partition the query is in first as it's more likely to contain the nearest neighbours,
+			// which tightens the bound for the other partition.
+			int visited = 1;
+			if (d < mu) {
+				visited += nearest(query, result, lo + 1, mid);
+				if (mu - d <= result.bound() + PRUNE_TOLERANCE)
+					visited += nearest(query, result, mid, hi);
+			} else {
+				visited += nearest(query, result, mid, hi);
+				if (d - mu <= result.bound() + PRUNE_TOLERANCE)
+					visited += nearest(query, result, lo + 1, mid);
+			}
+			return visited;
+		}
+
+		boolean containsWithin(Behaviour query, double r, int lo, int hi) {
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					if (query.distanceFrom(items[i]) < r)
+						return true;
+				}
+				return false;
+			}
+			double d = query.distanceFrom(items[lo]);
+			if (d < r)
+				return true;
+			double mu = radius[lo];
+			int mid = outerStart[lo];
+			return (d - mu <= r + PRUNE_TOLERANCE && containsWithin(query, r, lo + 1, mid)) || (mu - d <= r + PRUNE_TOLERANCE && containsWithin(query, r, mid, hi));
+		}
+	}
+}
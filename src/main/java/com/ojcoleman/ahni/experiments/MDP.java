@@ -32,6 +32,7 @@ import com.ojcoleman.ahni.experiments.TSPSuperimposedWaves.EvalType;
 import com.ojcoleman.ahni.experiments.mr2d.EnvironmentDescription;
 import com.ojcoleman.ahni.hyperneat.Properties;
 import com.ojcoleman.ahni.nn.BainNN;
+import com.ojcoleman.ahni.nn.NNAdaptor;
 import com.ojcoleman.ahni.util.ArrayUtil;
 import com.ojcoleman.ahni.util.DoubleVector;
 import com.ojcoleman.ahni.util.NiceWriter;
@@ -191,6 +192,15 @@ public class MDP extends BulkFitnessFunctionMT implements AHNIEventListener {
 	 */
 	public static final String SINGLE_REWARD_STATE = "fitness.function.mdp.single_reward_state";
 
+	/**
+	 * If true and the substrate supports it (see {@link NNAdaptor#supportsLanes()}) then the agent is evaluated on all
+	 * environments in lock-step: at each step the environments are set up for every environment and then the network is
+	 * activated for every environment, with a separate network state for each environment. The results are the same as
+	 * evaluating the agent on each environment in turn. Evaluations that are logged are always performed one
+	 * environment at a time. Default is true.
+	 */
+	public static final String LOCKSTEP = "fitness.function.mdp.lockstep";
+
 	public enum EvalType { ACT, PREDICT }
 	
 	private EvalType evalType;
@@ -224,6 +234,7 @@ public class MDP extends BulkFitnessFunctionMT implements AHNIEventListener {
 	private boolean gridEnvs, gridWrap;
 	private int gridSize, gridSizeMax; // Only if gridEnvs == true;
 	private boolean singleRewardState;
+	private boolean lockstep;
 
 	// Indexes into agent input array.
 	private int currentStateIndex = 0;
@@ -281,6 +292,7 @@ public class MDP extends BulkFitnessFunctionMT implements AHNIEventListener {
 		}
 
 		singleRewardState = props.getBooleanProperty(SINGLE_REWARD_STATE, false);
+		lockstep = props.getBooleanProperty(LOCKSTEP, true);
 		gridEnvs = props.getBooleanProperty(GRID_ENVIRONMENT, false);
 		gridWrap = props.getBooleanProperty(GRID_ENVIRONMENT_WRAP, false);
 		adustStateCountForEnvType();
@@ -488,8 +500,37 @@ public class MDP extends BulkFitnessFunctionMT implements AHNIEventListener {
 
 			double[] input = new double[substrate.getInputDimension()[0]];
 			double[] avgRewardOrRMSEForEachTrial = new double[trialCount];
+			
+			// The reward (or RMSE) for each trial on each environment, if the agent is evaluated on all environments in lock-step.
+			double[][] lockstepRewardOrRMSE = null;
+			if (lockstep && !logText && !logImage && substrate instanceof NNAdaptor && ((NNAdaptor) substrate).supportsLanes()) {
+				lockstepRewardOrRMSE = evaluateLockstep((NNAdaptor) substrate, environments, behaviour);
+			}
+			
 			int envIndex = 0;
 			for (Environment env : environments) {
+				if (lockstepRewardOrRMSE != null) {
+					double trialRewardOrRMSE = 0;
+					for (int trial = 0; trial < trialCount; trial++) {
+						trialRewardOrRMSE = lockstepRewardOrRMSE[envIndex][trial];
+						if (envIndex < numEnvsToUseForEval) {
+							if (evalType == EvalType.ACT) {
+								if (trial == trialCount - 1) {
+									randomCompare += trialRewardOrRMSE / env.getRandomReward();
+								}
+								avgRewardOrRMSEForEachTrial[trial] += trialRewardOrRMSE / env.getMaxReward();
+							}
+							else {
+								avgRewardOrRMSEForEachTrial[trial] += Math.sqrt(trialRewardOrRMSE / (stepsForEval * stateCountMax));
+							}
+						}
+					}
+					if (evalType == EvalType.ACT && envIndex < numEnvsToUseForEval && trialRewardOrRMSE / env.getMaxReward() > 0.99) {
+						solvedCount++;
+					}
+					envIndex++;
+					continue;
+				}
 
 				if (logText) {
 					logOutput.put("\n\nBEGIN EVALUATION ON ENVIRONMENT " + env.id + "\n");
@@ -833,6 +874,157 @@ public class MDP extends BulkFitnessFunctionMT implements AHNIEventListener {
 		}
 	}
 	
+	/**
+	 * Evaluates the agent on all the given environments in lock-step, see {@link #LOCKSTEP}.
+	 * 
+	 * @return The reward (or squared error for the prediction task) for each trial on each environment.
+	 */
+	private double[][] evaluateLockstep(NNAdaptor nn, List<Environment> environments, int[][][] behaviour) {
+		int laneCount = environments.size();
+		double[][] input = new double[laneCount][nn.getInputDimension()[0]];
+		double[][] output = new double[laneCount][nn.getOutputDimension()[0]];
+		double[][] trialRewardOrRMSE = new double[laneCount][trialCount];
+		boolean[] active = new boolean[laneCount];
+		Lane[] lanes = new Lane[laneCount];
+		int activeCount = 0;
+		for (int envIndex = 0; envIndex < laneCount; envIndex++) {
+			lanes[envIndex] = new Lane(environments.get(envIndex), envIndex, trialRewardOrRMSE[envIndex]);
+			active[envIndex] = lanes[envIndex].isActive();
+			if (active[envIndex]) activeCount++;
+		}
+		
+		// Reset substrate to initial state for every environment.
+		nn.setLaneCount(laneCount);
+		
+		while (activeCount > 0) {
+			for (int envIndex = 0; envIndex < laneCount; envIndex++) {
+				if (active[envIndex]) {
+					lanes[envIndex].setUpInput(input[envIndex]);
+				}
+			}
+			nn.nextLanes(input, output, active);
+			for (int envIndex = 0; envIndex < laneCount; envIndex++) {
+				if (active[envIndex]) {
+					lanes[envIndex].step(output[envIndex], behaviour);
+					if (!lanes[envIndex].isActive()) {
+						active[envIndex] = false;
+						activeCount--;
+					}
+				}
+			}
+		}
+		return trialRewardOrRMSE;
+	}
+	
+	/**
+	 * The state of the evaluation of an agent on one environment when evaluating on all environments in lock-step.
+	 * This follows the same steps as the evaluation in {@link MDP#_evaluate(Chromosome, Activator, String, boolean, boolean, double[], Behaviour[], List, int)}.
+	 */
+	private class Lane {
+		final Environment env;
+		final int envIndex;
+		final double[] trialRewardOrRMSE;
+		int trial, step;
+		Random envTrialRandom;
+		State currentState, prevState;
+		Transition transition;
+		int prevAction, action;
+		boolean stepCountsTowardFitness;
+		
+		public Lane(Environment env, int envIndex, double[] trialRewardOrRMSE) {
+			this.env = env;
+			this.envIndex = envIndex;
+			this.trialRewardOrRMSE = trialRewardOrRMSE;
+			startTrial(0);
+		}
+		
+		public boolean isActive() {
+			return trial < trialCount;
+		}
+		
+		private void startTrial(int t) {
+			trial = t;
+			step = 0;
+			if (trial < trialCount) {
+				envTrialRandom = new Random((envRandomSeed + env.id * trialCount + trial) * 10);
+				currentState = env.states[0];
+				prevState = null;
+				transition = null;
+				prevAction = -1;
+				if (env.getStepsPerTrial() == 0) {
+					startTrial(trial + 1);
+				}
+			}
+		}
+		
+		public void setUpInput(double[] input) {
+			stepCountsTowardFitness = (trialCount > 1 && trial == trialCount - 1) || (trialCount == 1 && step >= stepsPerTrial - stepsForEval);
+			
+			Arrays.fill(input, 0);
+			input[currentStateIndex + currentState.id] = 1;
+			if (includePrevState && prevState != null) {
+				input[previousStateIndex + prevState.id] = 1;
+			}
+			prevState = currentState;
+			if (includePrevAction && prevAction >= 0) {
+				input[previousActionIndex + prevAction] = 1;
+			}
+			if (includeExpl && stepCountsTowardFitness) {
+				input[explIndex] = 1;
+			}
+			
+			if (evalType == EvalType.ACT) {
+				if (transition != null) {
+					input[rewardIndex] = transition.reward;
+				}
+			}
+			else {
+				action = envTrialRandom.nextInt(actionCount);
+				input[currentActionIndex + action] = 1;
+			}
+		}
+		
+		public void step(double[] output, int[][][] behaviour) {
+			boolean endTrial = false;
+			if (evalType == EvalType.ACT) {
+				action = ArrayUtil.getMaxIndex(output);
+				prevAction = action;
+				transition = currentState.getNextTransition(action, envTrialRandom);
+				if (transition != null) {
+					currentState = transition.nextState;
+					if (stepCountsTowardFitness || singleRewardState) {
+						trialRewardOrRMSE[trial] += transition.reward;
+					}
+				}
+				endTrial = singleRewardState && currentState.id == env.rewardState;
+			}
+			else {
+				transition = currentState.getNextTransition(action, envTrialRandom);
+				if (transition != null) {
+					currentState = transition.nextState;
+				}
+				if (stepCountsTowardFitness) {
+					for (int i = 0; i < stateCountMax; i++) {
+						double error = Math.abs((i == currentState.id ? 1 : 0) - output[i]);
+						if (error >= 0.5) {
+							error = (error - 0.445) * 1.8;
+							trialRewardOrRMSE[trial] += error * error;
+						}
+					}
+				}
+			}
+			
+			if (behaviour != null && envIndex < noveltySearchEnvCount) {
+				behaviour[env.id][trial][step] = currentState.id;
+			}
+			
+			step++;
+			if (endTrial || step == env.getStepsPerTrial()) {
+				startTrial(trial + 1);
+			}
+		}
+	}
+	
 	@Override
 	public boolean evaluateGeneralisation(Chromosome genotype, Activator substrate, String baseFileName, boolean logText, boolean logImage, double[] fitnessValues) {
 		if (props.getEvolver().getGeneration() > 0) {
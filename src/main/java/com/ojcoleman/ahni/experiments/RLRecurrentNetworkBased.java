@@ -160,6 +160,15 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 	 * so that the same environments are used for calculating performance and novelty.
 	 */
 	public static final String NOVELTY_SEARCH_ONLY = "fitness.function.rlrnn.noveltysearch.only";
+	
+	/**
+	 * If true and the substrate supports it (see {@link NNAdaptor#supportsLanes()}) then the agent is evaluated on all
+	 * environments in lock-step: at each step every environment is stepped and then the agent network is activated for
+	 * every environment, with a separate network state for each environment. The results are the same as evaluating the
+	 * agent on each environment in turn. Evaluations that are logged are always performed one environment at a time.
+	 * Default is true.
+	 */
+	public static final String LOCKSTEP = "fitness.function.rlrnn.lockstep";
 
 	private int task;
 	private int environmentCount;
@@ -186,6 +195,7 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 	private int totalNSBehaviourSize;
 	private int nsRecordLength;
 	private int nsStartRecordItr;
+	private boolean lockstep;
 
 	@Override
 	public void init(Properties props) {
@@ -202,6 +212,7 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 		iterationCount = props.getIntProperty(ITERATION_COUNT);
 		nsRecordLength = props.getIntProperty(NOVELTY_SEARCH_RECORD_LENGTH, 8);
 		nsStartRecordItr = iterationCount - nsRecordLength;
+		lockstep = props.getBooleanProperty(LOCKSTEP, true);
 
 		networkSize = props.getIntProperty(SIZE);
 		observable = Math.max(1, props.getIntProperty(OBSERVABLE));
@@ -327,8 +338,24 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 			}
 
 			double[] avgRewardForEachTrial = new double[trialCount];
+			
+			// The reward for each trial on each environment, if the agent is evaluated on all environments in lock-step.
+			double[][] lockstepReward = null;
+			if (lockstep && !logText && !logImage && nn.supportsLanes()) {
+				lockstepReward = evaluateLockstep(nn, envs, behaviour);
+			}
 
 			for (int envIndex = 0; envIndex < envCount; envIndex++) {
+				if (lockstepReward != null) {
+					double envReward = 0;
+					for (int trial = 0; trial < trialCount; trial++) {
+						envReward += lockstepReward[envIndex][trial];
+						avgRewardForEachTrial[trial] += lockstepReward[envIndex][trial];
+					}
+					reward += envReward / trialCount;
+					continue;
+				}
+				
 				Environment env = envs[envIndex].getInstance();
 				if (logText) {
 					logOutput.put("\n\nBEGIN EVALUATION ON ENVIRONMENT " + env.id + "\n");
@@ -392,29 +419,7 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 						}
 						
 						// Calculate fitness.
-						double stepReward = 0;
-						if (task == TASK_CONTROL) {
-							// Fitness/performance is based on how close the output is to zero.
-							// The max output magnitude is 1 since we are using a (bipolar) Sigmoid activation function.
-							int controlCount = 2;
-							double controlOutputSum = 0;
-							for (int oc = 0; oc < controlCount; oc++) {
-								controlOutputSum += Math.abs(envOutput[envOutput.length - 1 - oc]);
-							}
-							stepReward = 1 - Math.abs(controlOutputSum / controlCount);
-						}
-						else { //(task == TASK_PREDICT)
-							// Fitness/performance is based on how close the previous agent output is to the current 
-							// output of the last fitness.function.rlrnn.predict nodes. 
-							double error = 0;
-							for (int o=0, e=envOutput.length-predict; o < predict; o++, e++) {
-								double diff = prevAgentOutput[o] - envOutput[e];
-								//error += diff * diff
-								error += Math.abs(diff);
-							}
-							//error = Math.sqrt(error);
-							stepReward = 1.0 / (1 + error);
-						}
+						double stepReward = getStepReward(envOutput, prevAgentOutput);
 						
 						// Only count reward for last half of evaluation.
 						if (step >= iterationCount / 2)
@@ -547,6 +552,108 @@ public class RLRecurrentNetworkBased extends BulkFitnessFunctionMT implements AH
 		}
 	}
 	
+	/**
+	 * Evaluates the agent on all the given environments in lock-step, see {@link #LOCKSTEP}.
+	 * 
+	 * @return The reward for each trial on each environment.
+	 */
+	private double[][] evaluateLockstep(NNAdaptor nn, Environment[] envs, ArrayRealVector behaviour) {
+		int envCount = envs.length;
+		double[][] trialReward = new double[envCount][trialCount];
+		Environment[] env = new Environment[envCount];
+		double[][] agentOutput = new double[envCount][nn.getOutputCount()];
+		double[][] envOutput = new double[envCount][];
+		double[][] prevAgentOutput = new double[envCount][predict];
+		for (int envIndex = 0; envIndex < envCount; envIndex++) {
+			env[envIndex] = envs[envIndex].getInstance();
+			envOutput[envIndex] = new double[env[envIndex].rnn.getOutputCount()];
+		}
+		
+		// Reset substrate to initial state for every environment.
+		nn.setLaneCount(envCount);
+		
+		try {
+			for (int trial = 0; trial < trialCount; trial++) {
+				for (int envIndex = 0; envIndex < envCount; envIndex++) {
+					Arrays.fill(agentOutput[envIndex], 0);
+					Arrays.fill(prevAgentOutput[envIndex], 0);
+					
+					// Reset environment to initial state.
+					env[envIndex].rnn.reset();
+					
+					if (task == TASK_PREDICT) {
+						// Run environment for a while so it can get into a stable dynamic (if it's going to).
+						for (int step = 0; step < iterationCount; step++) {
+							env[envIndex].rnn.next(null, envOutput[envIndex]);
+						}
+					}
+				}
+				
+				for (int step = 0; step < iterationCount; step++) {
+					// Step environments.
+					for (int envIndex = 0; envIndex < envCount; envIndex++) {
+						if (task == TASK_CONTROL) {
+							env[envIndex].rnn.next(agentOutput[envIndex], envOutput[envIndex]);
+						}
+						else { //(task == TASK_PREDICT)
+							env[envIndex].rnn.next(null, envOutput[envIndex]);
+							System.arraycopy(agentOutput[envIndex], 0, prevAgentOutput[envIndex], 0, predict);
+						}
+					}
+					
+					// Step agent for all environments.
+					nn.nextLanes(envOutput, agentOutput, null);
+					
+					for (int envIndex = 0; envIndex < envCount; envIndex++) {
+						// Only count reward for last half of evaluation.
+						if (step >= iterationCount / 2)
+							trialReward[envIndex][trial] += getStepReward(envOutput[envIndex], prevAgentOutput[envIndex]);
+						
+						if (behaviour != null && envIndex < noveltySearchEnvCount && trial == trialCount - 1 && step >= nsStartRecordItr) {
+							int behaviourIndex = (envIndex * nsRecordLength + (step-nsStartRecordItr)) * predict;
+							for (int i = 0; i < predict; i++, behaviourIndex++) {
+								behaviour.setEntry(behaviourIndex, (agentOutput[envIndex][i] + 1) / 2);
+							}
+						}
+					}
+				}
+				
+				for (int envIndex = 0; envIndex < envCount; envIndex++) {
+					trialReward[envIndex][trial] /= iterationCount / 2;
+				}
+			}
+		} finally {
+			for (int envIndex = 0; envIndex < envCount; envIndex++) {
+				env[envIndex].unlock();
+			}
+		}
+		return trialReward;
+	}
+	
+	private double getStepReward(double[] envOutput, double[] prevAgentOutput) {
+		if (task == TASK_CONTROL) {
+			// Fitness/performance is based on how close the output is to zero.
+			// The max output magnitude is 1 since we are using a (bipolar) Sigmoid activation function.
+			int controlCount = 2;
+			double controlOutputSum = 0;
+			for (int oc = 0; oc < controlCount; oc++) {
+				controlOutputSum += Math.abs(envOutput[envOutput.length - 1 - oc]);
+			}
+			return 1 - Math.abs(controlOutputSum / controlCount);
+		}
+		// task == TASK_PREDICT
+		// Fitness/performance is based on how close the previous agent output is to the current 
+		// output of the last fitness.function.rlrnn.predict nodes. 
+		double error = 0;
+		for (int o=0, e=envOutput.length-predict; o < predict; o++, e++) {
+			double diff = prevAgentOutput[o] - envOutput[e];
+			//error += diff * diff
+			error += Math.abs(diff);
+		}
+		//error = Math.sqrt(error);
+		return 1.0 / (1 + error);
+	}
+	
 	@Override
 	public boolean evaluateGeneralisation(Chromosome genotype, Activator substrate, String baseFileName, boolean logText, boolean logImage, double[] fitnessValues) {
 		if (genEnvironments == null) {
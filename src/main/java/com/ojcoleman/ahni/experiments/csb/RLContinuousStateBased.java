@@ -110,6 +110,15 @@ public class RLContinuousStateBased extends BulkFitnessFunctionMT implements AHN
 	 */
 	public static final String NOVELTY_SEARCH_ED_RC = "fitness.function.rlcss.noveltysearch.even_distribution.record_count";
 
+	/**
+	 * If true and the substrate supports it (see {@link NNAdaptor#supportsLanes()}) then the agent is evaluated on all
+	 * environments in lock-step: at each step the agent network is activated for every environment, with a separate
+	 * network state for each environment, and then every environment is updated. The results are the same as evaluating
+	 * the agent on each environment in turn. Evaluations that are logged are always performed one environment at a
+	 * time. Default is true.
+	 */
+	public static final String LOCKSTEP = "fitness.function.rlcss.lockstep";
+
 
 	private int envSize;
 	private int environmentCount;
@@ -128,6 +137,7 @@ public class RLContinuousStateBased extends BulkFitnessFunctionMT implements AHN
 	
 	private int behaviourEDRecordCount;
 	int behaviourFSRecordCount;
+	private boolean lockstep;
 	
 	@Override
 	public void init(Properties props) {
@@ -136,6 +146,7 @@ public class RLContinuousStateBased extends BulkFitnessFunctionMT implements AHN
 		envSize = props.getIntProperty(SIZE);
 		environmentReplaceProb = props.getDoubleProperty(ENVIRONMENT_CHANGE_RATE);
 		trialCount = props.getIntProperty(TRIAL_COUNT);
+		lockstep = props.getBooleanProperty(LOCKSTEP, true);
 		difficultyIncreasePerformance = props.getDoubleProperty(DIFFICULTY_INCREASE_PERFORMANCE);
 		targetPerformance = props.getDoubleProperty(HyperNEATEvolver.PERFORMANCE_TARGET_KEY);
 		environments = new Environment[environmentCount];
@@ -236,7 +247,36 @@ public class RLContinuousStateBased extends BulkFitnessFunctionMT implements AHN
 			int behaviourIndex = 0;
 			double maxFitness = 0;
 			boolean logImageTemp = logImage;
+			
+			// The reward and performance for each trial on each environment, if the agent is evaluated on all environments in lock-step.
+			double[][] lockstepReward = null, lockstepPerformance = null;
+			if (lockstep && !logText && !logImage && nn.supportsLanes()) {
+				lockstepReward = new double[environmentCount][trialCount];
+				lockstepPerformance = new double[environmentCount][trialCount];
+				evaluateLockstep(nn, lockstepReward, lockstepPerformance, finalStates, behaviourED, behaviourFS);
+			}
+			
 			for (int ei = 0; ei < environmentCount; ei++) {
+				if (lockstepReward != null) {
+					double previousTrialPerformance = 0;
+					for (int trial = 0; trial < trialCount; trial++) {
+						double trialReward = lockstepReward[ei][trial];
+						avgRewardForEachTrial[trial] += trialReward;
+						
+						double p = previousTrialPerformance;
+						double c = lockstepPerformance[ei][trial];
+						learnRating += c < p ? 0 : (c == p ? 1 : 2);
+						previousTrialPerformance = c;
+						
+						double factor = Math.pow((trial+1.0) / trialCount, 2);
+						maxFitness += factor;
+						fitness += trialReward * factor;
+					}
+					// Only show performance for last trial.
+					performance += lockstepPerformance[ei][trialCount - 1];
+					continue;
+				}
+				
 				int envIndex = ((logText || logImageTemp) && environmentReplaceProb == 0) ? ei : environmentOrder[ei];
 				Environment env = environments[envIndex];
 				if (logText) {
@@ -501,6 +541,153 @@ public class RLContinuousStateBased extends BulkFitnessFunctionMT implements AHN
 		}
 	}
 	
+	/**
+	 * Evaluates the agent on all environments in lock-step, see {@link #LOCKSTEP}. The reward and performance for each
+	 * trial on each environment (in evaluation order) are put in the given arrays, along with the final state of each
+	 * trial and the novelty search behaviours if these are being recorded.
+	 */
+	private void evaluateLockstep(NNAdaptor nn, double[][] trialReward, double[][] trialPerformance, ArrayRealVector[][] finalStates, ArrayRealVector behaviourED, ArrayRealVector behaviourFS) {
+		double[][] agentInput = new double[environmentCount][];
+		double[][] agentOutput = new double[environmentCount][];
+		boolean[] active = new boolean[environmentCount];
+		Lane[] lanes = new Lane[environmentCount];
+		int activeCount = 0;
+		for (int ei = 0; ei < environmentCount; ei++) {
+			lanes[ei] = new Lane(ei, environments[environmentOrder[ei]], trialReward[ei], trialPerformance[ei], finalStates[ei], behaviourED, behaviourFS != null);
+			agentInput[ei] = lanes[ei].agentInput;
+			agentOutput[ei] = lanes[ei].agentOutput;
+			active[ei] = lanes[ei].isActive();
+			if (active[ei]) activeCount++;
+		}
+		
+		// Reset substrate to initial state for every environment.
+		nn.setLaneCount(environmentCount);
+		
+		while (activeCount > 0) {
+			for (int ei = 0; ei < environmentCount; ei++) {
+				if (active[ei]) {
+					lanes[ei].recordBehaviour();
+				}
+			}
+			
+			// Ask agent what it wants to do next, given output from environment.
+			nn.nextLanes(agentInput, agentOutput, active);
+			
+			for (int ei = 0; ei < environmentCount; ei++) {
+				if (active[ei]) {
+					lanes[ei].step();
+					if (!lanes[ei].isActive()) {
+						active[ei] = false;
+						activeCount--;
+					}
+				}
+			}
+		}
+		
+		if (behaviourFS != null) {
+			// Each trial overwrites the first steps behaviour, so the behaviour is that recorded in the environment evaluated last.
+			for (int ei = 0; ei < environmentCount; ei++) {
+				for (int r = 0; r < lanes[ei].behaviourFSCount; r++) {
+					behaviourFS.setSubVector(r * envSize, lanes[ei].behaviourFSStates[r]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The state of the evaluation of an agent on one environment when evaluating on all environments in lock-step.
+	 * This follows the same steps as the evaluation in {@link RLContinuousStateBased#_evaluate(Chromosome, Activator, String, boolean, boolean, double[], Behaviour[])}.
+	 */
+	private class Lane {
+		final int ei;
+		final Environment env;
+		final double[] trialReward, trialPerformance;
+		final ArrayRealVector[] finalStates;
+		final ArrayRealVector behaviourED;
+		final double[] agentInput, agentOutput;
+		final int noveltySearchStepsPerRecord;
+		int trial, step;
+		ArrayRealVector state;
+		int behaviourIndexED;
+		// The first steps behaviour recorded in the last trial.
+		ArrayRealVector[] behaviourFSStates;
+		int behaviourFSCount;
+		
+		public Lane(int ei, Environment env, double[] trialReward, double[] trialPerformance, ArrayRealVector[] finalStates, ArrayRealVector behaviourED, boolean recordBehaviourFS) {
+			this.ei = ei;
+			this.env = env;
+			this.trialReward = trialReward;
+			this.trialPerformance = trialPerformance;
+			this.finalStates = finalStates;
+			this.behaviourED = behaviourED;
+			agentInput = new double[env.getOutputSize()];
+			agentOutput = new double[env.getInputSize()];
+			noveltySearchStepsPerRecord = (int) Math.ceil((double) env.getMinimumStepsToSolve() / behaviourEDRecordCount);
+			behaviourFSStates = recordBehaviourFS ? new ArrayRealVector[behaviourFSRecordCount] : null;
+			startTrial(0);
+		}
+		
+		public boolean isActive() {
+			return trial < trialCount;
+		}
+		
+		private void startTrial(int t) {
+			trial = t;
+			step = 0;
+			if (trial < trialCount) {
+				Arrays.fill(agentOutput, 0);
+				// Get initial state and environment output.
+				state = env.startState.copy();
+				Arrays.fill(agentInput, 0);
+				env.getOutputForState(state, agentInput);
+				agentInput[agentInput.length-1] = 0;
+				behaviourIndexED = 0;
+				behaviourFSCount = 0;
+				if (env.getMinimumStepsToSolve() == 0) {
+					endTrial();
+				}
+			}
+		}
+		
+		public void recordBehaviour() {
+			if (behaviourED != null && step > 0 && step % noveltySearchStepsPerRecord == 0) {
+				behaviourED.setSubVector(((ei * trialCount + trial) * behaviourEDRecordCount + behaviourIndexED) * envSize, state);
+				behaviourIndexED++;
+			}
+			if (behaviourFSStates != null && trial == trialCount - 1 && step > 0 && step <= behaviourFSRecordCount) {
+				behaviourFSStates[behaviourFSCount++] = state.copy();
+			}
+		}
+		
+		public void step() {
+			// Get updated environment output.
+			double perf = env.updateStateAndOutput(state, agentOutput, agentInput);
+			if (trialCount > 1) {
+				// Set reward signal to binary value, otherwise agent can potentially follow the reward gradient during a trial. 
+				agentInput[agentInput.length-1] = perf > 0.9 ? 1 : 0;
+			}
+			step++;
+			if (step >= env.getMinimumStepsToSolve()) {
+				endTrial();
+			}
+		}
+		
+		private void endTrial() {
+			// Reward for trial is reward received in last step.
+			trialReward[trial] = env.getRewardForState(state);
+			assert Range.checkUnitRange(trialReward[trial], "trialReward");
+			trialPerformance[trial] = env.getPerformanceForState(state);
+			finalStates[trial] = state;
+			if (behaviourED != null) {
+				// Fill rest of behaviour vector with final state.
+				for (; behaviourIndexED < behaviourEDRecordCount; behaviourIndexED++) {
+					behaviourED.setSubVector(((ei * trialCount + trial) * behaviourEDRecordCount + behaviourIndexED) * envSize, state);
+				}
+			}
+			startTrial(trial + 1);
+		}
+	}
+	
 	// Used to determine behaviour when environments used to determine fitness will be replaced over the course of evolution.
 	private void getBehaviourForNovelty(Chromosome genotype, NNAdaptor nn, Behaviour[] behaviours) {
 		//int trialCount = 1;
@@ -13,7 +13,6 @@ import org.dyn4j.Listener;
 import org.dyn4j.collision.AxisAlignedBounds;
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.BodyFixture;
-import org.dyn4j.dynamics.RaycastResult;
 import org.dyn4j.dynamics.Settings;
 import org.dyn4j.dynamics.World;
 import org.dyn4j.dynamics.contact.ContactListener;
@@ -24,7 +23,6 @@ import org.dyn4j.geometry.Circle;
 import org.dyn4j.geometry.Polygon;
 import org.dyn4j.geometry.Rectangle;
 import org.dyn4j.geometry.Mass;
-import org.dyn4j.geometry.Ray;
 import org.dyn4j.geometry.Segment;
 import org.dyn4j.geometry.Vector2;
 
@@ -43,7 +41,7 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 	private List<ObjectBody> objectBodies;
 	
 	private Vector2 linearImpulse = new Vector2();
-	private List<RaycastResult> sensorResults;
+	private RaySensors sensors;
 	private double[][] sensorData;
 	private boolean sensorDataStale;
 	
@@ -60,7 +58,7 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 			objectBodies.add(objBody);
 		}
 
-		sensorResults = new ArrayList<RaycastResult>(mobileRobot2D.getAgentSensorCount());
+		sensors = new RaySensors(mobileRobot2D.getAgentSensorCount(), mobileRobot2D.getAgentSensorViewAngle(), 100);
 		sensorData = new double[2][mobileRobot2D.getAgentSensorCount()];
 		
 		settings = new Settings();
@@ -71,6 +69,7 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 	public void reset() {
 		super.reset();
 		
+		sensors.clear();
 		world = new World();
 		world.addBody(makeWallBody(-0.1, 0, 0, 1));
 		world.addBody(makeWallBody(0, 1, 1, 1.1));
@@ -102,7 +101,19 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 			world.addBody(body);
 			object.body = body;
 			body.setUserData(object);
+			
+			// The agent casts the sensor rays so isn't seen by them.
+			if (!object.description.type.isAgent) {
+				double x = object.description.initialPosition.x, y = object.description.initialPosition.y;
+				double radius = object.description.type.size * 0.5, colour = object.description.type.colour;
+				object.isStatic = object.description.type.mass <= 0;
+				object.sensorIndex = object.isStatic ? sensors.addStatic(x, y, radius, colour) : sensors.addDynamic(x, y, radius, colour);
+			}
+			else {
+				object.sensorIndex = -1;
+			}
 		}
+		sensors.buildIndex();
 		
 		sensorDataStale = true;
 	}
@@ -113,6 +124,7 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 		BodyFixture fixture = body.addFixture(w);
 		body.setMass(MassType.INFINITE);
 		body.translate((x2+x1)/2, (y2+y1)/2);
+		sensors.addBox(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
 		return body;
 	}
 
@@ -134,6 +146,9 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 			object.currentPosition.x = object.body.getTransform().getTranslationX();
 			object.currentPosition.y = object.body.getTransform().getTranslationY();
 			object.currentRotation = object.body.getTransform().getRotationAngle();
+			if (object.sensorIndex != -1 && !object.isStatic) {
+				sensors.setDynamicPosition(object.sensorIndex, object.currentPosition.x, object.currentPosition.y);
+			}
 		}
 		
 		sensorDataStale = true;
@@ -145,31 +160,7 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 		if (sensorDataStale) {
 			Body agentBody = objectBodies.get(0).body;
 			assert ((ObjectInstance) agentBody.getUserData()).description.type.isAgent;
-			double rotation = agentBody.getTransform().getRotationAngle();
-			Vector2 location = agentBody.getTransform().getTranslation();
-			
-			int sensorCount = mobileRobot2D.getAgentSensorCount();
-			double rayAngle = rotation - mobileRobot2D.getAgentSensorViewAngle() / 2 + Math.PI/2;
-			double rayAngleDelta = mobileRobot2D.getAgentSensorViewAngle() / (sensorCount-1);
-			Ray ray = new Ray(location, rayAngle);
-			for (int si = 0; si < sensorCount; si++) {
-				sensorResults.clear();
-				world.raycast(ray, 100, true, false, sensorResults);
-				if (sensorResults.isEmpty()) {
-					sensorData[0][si] = 10;
-					sensorData[1][si] = -1;
-				}
-				else if (sensorResults.get(0).getBody().getUserData() == null) {
-					sensorData[0][si] = sensorResults.get(0).getRaycast().getDistance();
-					sensorData[1][si] = -1;
-				}
-				else {
-					sensorData[0][si] = sensorResults.get(0).getRaycast().getDistance();
-					sensorData[1][si] = ((ObjectBody) sensorResults.get(0).getBody().getUserData()).description.type.colour;
-				}
-				rayAngle += rayAngleDelta;
-				ray.setDirection(rayAngle);
-			}
+			sensors.cast(agentBody.getTransform().getTranslationX(), agentBody.getTransform().getTranslationY(), agentBody.getTransform().getRotationAngle(), sensorData);
 			sensorDataStale = false;
 		}
 		return sensorData;
@@ -177,6 +168,9 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 	
 	private class ObjectBody extends ObjectInstance {
 		Body body;
+		boolean isStatic;
+		// Index in sensors, or -1 if this object isn't seen by the sensors (the agent).
+		int sensorIndex;
 		public ObjectBody(ObjectInstance obj) {
 			super(obj.environmentDescription, obj.description);
 		}
@@ -184,6 +178,17 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 	
 	
 	
+	private void removeFromSensors(ObjectBody object) {
+		if (object.sensorIndex != -1) {
+			if (object.isStatic) {
+				sensors.removeStatic(object.sensorIndex);
+			}
+			else {
+				sensors.removeDynamic(object.sensorIndex);
+			}
+		}
+	}
+	
 	/////////// ContactListener interface methods
 
 	@Override
@@ -191,11 +196,13 @@ class Dyn4JEnvironment extends Environment implements ContactListener {
 		if (cp.getBody1().getUserData() != null && cp.getBody2().getUserData() != null) {
 			int action = this.processContactEvent((ObjectInstance) cp.getBody1().getUserData(), (ObjectInstance) cp.getBody2().getUserData());
 			if (action == CONTACT_REMOVE_FIRST) {
+				removeFromSensors((ObjectBody) cp.getBody1().getUserData());
 				world.removeBody(cp.getBody1(), false);
 				world.setUpdateRequired(true);
 				return false;
 			}
 			if (action == CONTACT_REMOVE_SECOND) {
+				removeFromSensors((ObjectBody) cp.getBody2().getUserData());
 				world.removeBody(cp.getBody2(), false);
 				world.setUpdateRequired(true);
 				return false;
@@ -0,0 +1,427 @@
+package com.ojcoleman.ahni.experiments.mr2d;
+
+import java.util.Arrays;
+
+/**
+ * Casts all of the range/colour sensor rays of an agent in one pass. Static geometry (walls and immovable objects) is
+ * held in a uniform grid that is built once per environment reset, since it doesn't move between steps; movable
+ * objects are tested directly against each ray. Per-ray results for the static geometry are kept and reused when the
+ * agent has not moved since the last cast, in which case only the contributions from movable objects are recomputed.
+ * All buffers are allocated up front so casting does not create garbage.
+ *
+ * Objects are modelled as circles and walls as axis-aligned boxes, matching the bodies created by
+ * {@link Dyn4JEnvironment}. As with a Dyn4J raycast, shapes containing the ray origin (eg the agent itself) are ignored.
+ */
+class RaySensors {
+	/**
+	 * The range value reported by a sensor when its ray doesn't hit anything.
+	 */
+	public static final double NO_HIT_RANGE = 10;
+	/**
+	 * The colour value reported by a sensor when its ray hits nothing or a wall.
+	 */
+	public static final double NO_COLOUR = -1;
+
+	private static final int MAX_GRID_SIZE = 32;
+
+	private final int sensorCount;
+	private final double viewAngle;
+	private final double maxLength;
+
+	// Static axis-aligned boxes (walls).
+	private int boxCount;
+	private double[] boxMinX = new double[4], boxMinY = new double[4], boxMaxX = new double[4], boxMaxY = new double[4];
+
+	// Static circles, indexed by a uniform grid.
+	private int staticCount;
+	private double[] staticX = new double[8], staticY = new double[8], staticRadius = new double[8], staticColour = new double[8];
+	private boolean[] staticActive = new boolean[8];
+	private double gridMinX, gridMinY, gridMaxX, gridMaxY, cellSizeX, cellSizeY;
+	private int gridSize;
+	private int[] cellStart;
+	private int[] cellItems;
+	// Used to avoid testing a circle spanning several cells more than once per ray.
+	private int[] staticLastRay = new int[8];
+	private int rayId;
+
+	// Movable circles.
+	private int dynamicCount;
+	private double[] dynamicX = new double[8], dynamicY = new double[8], dynamicRadius = new double[8], dynamicColour = new double[8];
+	private boolean[] dynamicActive = new boolean[8];
+
+	// Per-ray results for static geometry from the last cast, and the agent pose they were computed for.
+	private final double[] staticHitRange, staticHitColour;
+	private double lastOriginX = Double.NaN, lastOriginY = Double.NaN, lastRotation = Double.NaN;
+	private boolean staticChanged = true;
+	private boolean dynamicChanged = true;
+
+	private final double[] rayDirX, rayDirY;
+
+	/**
+	 * @param sensorCount The number of sensor rays.
+	 * @param viewAngle The angle between the first and last sensor rays.
+	 * @param maxLength The maximum length of a sensor ray.
+	 */
+	public RaySensors(int sensorCount, double viewAngle, double maxLength) {
+		this.sensorCount = sensorCount;
+		this.viewAngle = viewAngle;
+		this.maxLength = maxLength;
+		staticHitRange = new double[sensorCount];
+		staticHitColour = new double[sensorCount];
+		rayDirX = new double[sensorCount];
+		rayDirY = new double[sensorCount];
+	}
+
+	/**
+	 * Remove all geometry. {@link #buildIndex()} must be called after new geometry has been added.
+	 */
+	public void clear() {
+		boxCount = 0;
+		staticCount = 0;
+		dynamicCount = 0;
+		cellStart = null;
+		cellItems = null;
+		staticChanged = true;
+		dynamicChanged = true;
+	}
+
+	/**
+	 * Add a static axis-aligned box, such as a wall. Boxes always report a colour of {@link #NO_COLOUR}.
+	 */
+	public void addBox(double minX, double minY, double maxX, double maxY) {
+		if (boxCount == boxMinX.length) {
+			int size = boxCount * 2;
+			boxMinX = Arrays.copyOf(boxMinX, size);
+			boxMinY = Arrays.copyOf(boxMinY, size);
+			boxMaxX = Arrays.copyOf(boxMaxX, size);
+			boxMaxY = Arrays.copyOf(boxMaxY, size);
+		}
+		boxMinX[boxCount] = minX;
+		boxMinY[boxCount] = minY;
+		boxMaxX[boxCount] = maxX;
+		boxMaxY[boxCount] = maxY;
+		boxCount++;
+		staticChanged = true;
+	}
+
+	/**
+	 * Add a static (immovable) circle.
+	 * @return The index of the circle, for use with {@link #removeStatic(int)}.
+	 */
+	public int addStatic(double x, double y, double radius, double colour) {
+		if (staticCount == staticX.length) {
+			int size = staticCount * 2;
+			staticX = Arrays.copyOf(staticX, size);
+			staticY = Arrays.copyOf(staticY, size);
+			staticRadius = Arrays.copyOf(staticRadius, size);
+			staticColour = Arrays.copyOf(staticColour, size);
+			staticActive = Arrays.copyOf(staticActive, size);
+			staticLastRay = Arrays.copyOf(staticLastRay, size);
+		}
+		staticX[staticCount] = x;
+		staticY[staticCount] = y;
+		staticRadius[staticCount] = radius;
+		staticColour[staticCount] = colour;
+		staticActive[staticCount] = true;
+		staticChanged = true;
+		return staticCount++;
+	}
+
+	/**
+	 * Add a movable circle. Its position should be updated with {@link #setDynamicPosition(int, double, double)}
+	 * whenever it moves.
+	 * @return The index of the circle, for use with {@link #setDynamicPosition(int, double, double)} and {@link #removeDynamic(int)}.
+	 */
+	public int addDynamic(double x, double y, double radius, double colour) {
+		if (dynamicCount == dynamicX.length) {
+			int size = dynamicCount * 2;
+			dynamicX = Arrays.copyOf(dynamicX, size);
+			dynamicY = Arrays.copyOf(dynamicY, size);
+			dynamicRadius = Arrays.copyOf(dynamicRadius, size);
+			dynamicColour = Arrays.copyOf(dynamicColour, size);
+			dynamicActive = Arrays.copyOf(dynamicActive, size);
+		}
+		dynamicX[dynamicCount] = x;
+		dynamicY[dynamicCount] = y;
+		dynamicRadius[dynamicCount] = radius;
+		dynamicColour[dynamicCount] = colour;
+		dynamicActive[dynamicCount] = true;
+		dynamicChanged = true;
+		return dynamicCount++;
+	}
+
+	/**
+	 * Remove the static circle with the given index from the simulation (eg because it has been collected).
+	 */
+	public void removeStatic(int index) {
+		if (staticActive[index]) {
+			staticActive[index] = false;
+			staticChanged = true;
+		}
+	}
+
+	/**
+	 * Remove the movable circle with the given index from the simulation (eg because it has been collected).
+	 */
+	public void removeDynamic(int index) {
+		if (dynamicActive[index]) {
+			dynamicActive[index] = false;
+			dynamicChanged = true;
+		}
+	}
+
+	/**
+	 * Update the position of the movable circle with the given index.
+	 */
+	public void setDynamicPosition(int index, double x, double y) {
+		if (dynamicX[index] != x || dynamicY[index] != y) {
+			dynamicX[index] = x;
+			dynamicY[index] = y;
+			dynamicChanged = true;
+		}
+	}
+
+	/**
+	 * Build the spatial index over the static circles. Must be called after static geometry has been added and before {@link #cast(double, double, double, double[][])}.
+	 */
+	public void buildIndex() {
+		if (staticCount == 0) {
+			gridSize = 0;
+			return;
+		}
+		gridMinX = Double.POSITIVE_INFINITY;
+		gridMinY = Double.POSITIVE_INFINITY;
+		gridMaxX = Double.NEGATIVE_INFINITY;
+		gridMaxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < staticCount; i++) {
+			gridMinX = Math.min(gridMinX, staticX[i] - staticRadius[i]);
+			gridMinY = Math.min(gridMinY, staticY[i] - staticRadius[i]);
+			gridMaxX = Math.max(gridMaxX, staticX[i] + staticRadius[i]);
+			gridMaxY = Math.max(gridMaxY, staticY[i] + staticRadius[i]);
+		}
+		gridSize = Math.max(1, Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(staticCount))));
+		cellSizeX = Math.max((gridMaxX - gridMinX) / gridSize, 1e-9);
+		cellSizeY = Math.max((gridMaxY - gridMinY) / gridSize, 1e-9);
+
+		// Two passes: count items per cell, then fill.
+		int cellCount = gridSize * gridSize;
+		cellStart = new int[cellCount + 1];
+		for (int i = 0; i < staticCount; i++) {
+			int x0 = cellX(staticX[i] - staticRadius[i]), x1 = cellX(staticX[i] + staticRadius[i]);
+			int y0 = cellY(staticY[i] - staticRadius[i]), y1 = cellY(staticY[i] + staticRadius[i]);
+			for (int cy = y0; cy <= y1; cy++) {
+				for (int cx = x0; cx <= x1; cx++) {
+					cellStart[cy * gridSize + cx + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < cellCount; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		cellItems = new int[cellStart[cellCount]];
+		int[] fill = Arrays.copyOf(cellStart, cellCount);
+		for (int i = 0; i < staticCount; i++) {
+			int x0 = cellX(staticX[i] - staticRadius[i]), x1 = cellX(staticX[i] + staticRadius[i]);
+			int y0 = cellY(staticY[i] - staticRadius[i]), y1 = cellY(staticY[i] + staticRadius[i]);
+			for (int cy = y0; cy <= y1; cy++) {
+				for (int cx = x0; cx <= x1; cx++) {
+					cellItems[fill[cy * gridSize + cx]++] = i;
+				}
+			}
+		}
+		Arrays.fill(staticLastRay, 0);
+		rayId = 0;
+		staticChanged = true;
+	}
+
+	private int cellX(double x) {
+		return Math.max(0, Math.min(gridSize - 1, (int) ((x - gridMinX) / cellSizeX)));
+	}
+
+	private int cellY(double y) {
+		return Math.max(0, Math.min(gridSize - 1, (int) ((y - gridMinY) / cellSizeY)));
+	}
+
+	/**
+	 * Cast all sensor rays from the given origin.
+	 * @param originX The x coordinate of the origin of the rays (the agent's position).
+	 * @param originY The y coordinate of the origin of the rays.
+	 * @param rotation The rotation of the agent. The sensors are centred on the direction rotation + PI/2.
+	 * @param sensorData An array to put the sensor data into, format is [range, colour][sensor1..sensorN].
+	 */
+	public void cast(double originX, double originY, double rotation, double[][] sensorData) {
+		boolean poseChanged = originX != lastOriginX || originY != lastOriginY || rotation != lastRotation;
+		if (!poseChanged && !staticChanged && !dynamicChanged) {
+			return;
+		}
+
+		if (poseChanged) {
+			double rayAngle = rotation - viewAngle / 2 + Math.PI / 2;
+			double rayAngleDelta = viewAngle / (sensorCount - 1);
+			for (int si = 0; si < sensorCount; si++) {
+				rayDirX[si] = Math.cos(rayAngle);
+				rayDirY[si] = Math.sin(rayAngle);
+				rayAngle += rayAngleDelta;
+			}
+		}
+
+		double[] range = sensorData[0];
+		double[] colour = sensorData[1];
+		boolean recastStatic = poseChanged || staticChanged;
+		for (int si = 0; si < sensorCount; si++) {
+			double dx = rayDirX[si], dy = rayDirY[si];
+			if (recastStatic) {
+				castStatic(originX, originY, dx, dy, si);
+			}
+			double bestT = staticHitRange[si];
+			double bestColour = staticHitColour[si];
+			for (int i = 0; i < dynamicCount; i++) {
+				if (dynamicActive[i]) {
+					double t = intersectCircle(originX, originY, dx, dy, dynamicX[i], dynamicY[i], dynamicRadius[i]);
+					if (t < bestT) {
+						bestT = t;
+						bestColour = dynamicColour[i];
+					}
+				}
+			}
+			if (bestT > maxLength) {
+				range[si] = NO_HIT_RANGE;
+				colour[si] = NO_COLOUR;
+			} else {
+				range[si] = bestT;
+				colour[si] = bestColour;
+			}
+		}
+
+		lastOriginX = originX;
+		lastOriginY = originY;
+		lastRotation = rotation;
+		staticChanged = false;
+		dynamicChanged = false;
+	}
+
+	/**
+	 * Find the nearest static hit for the given ray and store it in {@link #staticHitRange} and {@link #staticHitColour}.
+	 * A range of positive infinity indicates no hit.
+	 */
+	private void castStatic(double ox, double oy, double dx, double dy, int si) {
+		double bestT = Double.POSITIVE_INFINITY;
+		double bestColour = NO_COLOUR;
+
+		// Boxes (walls) generally enclose everything else, so test them first to bound the grid traversal.
+		for (int i = 0; i < boxCount; i++) {
+			double t = intersectBox(ox, oy, dx, dy, boxMinX[i], boxMinY[i], boxMaxX[i], boxMaxY[i]);
+			if (t < bestT) {
+				bestT = t;
+			}
+		}
+
+		if (gridSize > 0) {
+			double tLimit = Math.min(bestT, maxLength);
+			rayId++;
+			if (ox >= gridMinX && ox <= gridMaxX && oy >= gridMinY && oy <= gridMaxY) {
+				// Walk the cells along the ray (Amanatides and Woo), stopping once the nearest hit found so far is
+				// before the exit from the current cell.
+				int cx = cellX(ox), cy = cellY(oy);
+				int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+				int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+				double tDeltaX = stepX != 0 ? cellSizeX / Math.abs(dx) : Double.POSITIVE_INFINITY;
+				double tDeltaY = stepY != 0 ? cellSizeY / Math.abs(dy) : Double.POSITIVE_INFINITY;
+				double tMaxX = stepX > 0 ? (gridMinX + (cx + 1) * cellSizeX - ox) / dx : (stepX < 0 ? (gridMinX + cx * cellSizeX - ox) / dx : Double.POSITIVE_INFINITY);
+				double tMaxY = stepY > 0 ? (gridMinY + (cy + 1) * cellSizeY - oy) / dy : (stepY < 0 ? (gridMinY + cy * cellSizeY - oy) / dy : Double.POSITIVE_INFINITY);
+				while (true) {
+					int cell = cy * gridSize + cx;
+					for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+						int i = cellItems[k];
+						if (staticActive[i] && staticLastRay[i] != rayId) {
+							staticLastRay[i] = rayId;
+							double t = intersectCircle(ox, oy, dx, dy, staticX[i], staticY[i], staticRadius[i]);
+							if (t < bestT) {
+								bestT = t;
+								bestColour = staticColour[i];
+							}
+						}
+					}
+					double tExit = Math.min(tMaxX, tMaxY);
+					if (bestT <= tExit || tExit > tLimit) {
+						break;
+					}
+					if (tMaxX < tMaxY) {
+						cx += stepX;
+						if (cx < 0 || cx >= gridSize) break;
+						tMaxX += tDeltaX;
+					} else {
+						cy += stepY;
+						if (cy < 0 || cy >= gridSize) break;
+						tMaxY += tDeltaY;
+					}
+				}
+			} else {
+				// Origin is outside the indexed region, just test everything.
+				for (int i = 0; i < staticCount; i++) {
+					if (staticActive[i]) {
+						double t = intersectCircle(ox, oy, dx, dy, staticX[i], staticY[i], staticRadius[i]);
+						if (t < bestT) {
+							bestT = t;
+							bestColour = staticColour[i];
+						}
+					}
+				}
+			}
+		}
+
+		staticHitRange[si] = bestT;
+		staticHitColour[si] = bestColour;
+	}
+
+	/**
+	 * @return the distance along the ray to the first intersection with the circle, or positive infinity if there is
+	 *         none or the origin is inside the circle. The direction (dx, dy) must be normalised.
+	 */
+	private static double intersectCircle(double ox, double oy, double dx, double dy, double cx, double cy, double r) {
+		double mx = ox - cx, my = oy - cy;
+		double c = mx * mx + my * my - r * r;
+		if (c <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double b = mx * dx + my * dy;
+		if (b > 0) {
+			// Origin outside the circle and pointing away from it.
+			return Double.POSITIVE_INFINITY;
+		}
+		double disc = b * b - c;
+		if (disc < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return -b - Math.sqrt(disc);
+	}
+
+	/**
+	 * @return the distance along the ray to the first intersection with the box, or positive infinity if there is
+	 *         none or the origin is inside the box.
+	 */
+	private static double intersectBox(double ox, double oy, double dx, double dy, double minX, double minY, double maxX, double maxY) {
+		if (ox >= minX && ox <= maxX && oy >= minY && oy <= maxY) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double tNear = Double.NEGATIVE_INFINITY, tFar = Double.POSITIVE_INFINITY;
+		if (dx == 0) {
+			if (ox < minX || ox > maxX) return Double.POSITIVE_INFINITY;
+		} else {
+			double t1 = (minX - ox) / dx, t2 = (maxX - ox) / dx;
+			tNear = Math.max(tNear, Math.min(t1, t2));
+			tFar = Math.min(tFar, Math.max(t1, t2));
+		}
+		if (dy == 0) {
+			if (oy < minY || oy > maxY) return Double.POSITIVE_INFINITY;
+		} else {
+			double t1 = (minY - oy) / dy, t2 = (maxY - oy) / dy;
+			tNear = Math.max(tNear, Math.min(t1, t2));
+			tFar = Math.min(tFar, Math.max(t1, t2));
+		}
+		if (tNear > tFar || tNear < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return tNear;
+	}
+}
@@ -20,6 +20,7 @@ import com.anji.integration.AnjiNetTranscriber;
 import com.anji.nn.AnjiNet;
 import com.ojcoleman.ahni.evaluation.HyperNEATFitnessFunction;
 import com.ojcoleman.ahni.hyperneat.Properties;
+import com.ojcoleman.ahni.nn.FlatGridNet;
 import com.ojcoleman.ahni.nn.GridNet;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriberGridNet;
@@ -341,8 +342,7 @@ public class ObjectRecognitionFitnessFunction3 extends HyperNEATFitnessFunction
 	}
 
 	protected double evaluate(Chromosome genotype, Activator activator, int threadIndex) {
-		GridNet substrate = (GridNet) activator;
-		double[][][] responses = substrate.nextSequence(stimuli);
+		double[][][] responses = activator.nextSequence(stimuli);
 
 		double avgDist = 0;
 		double avgInvDist = 0;
@@ -433,7 +433,7 @@ public class ObjectRecognitionFitnessFunction3 extends HyperNEATFitnessFunction
 				// calculate dimensions of this weight target matrix (bounded by grid edges)
 				int dy = Math.min(inputHeight - 1, ty + connectionRange) - Math.max(0, ty - connectionRange) + 1;
 				int dx = Math.min(inputWidth - 1, tx + connectionRange) - Math.max(0, tx - connectionRange) + 1;
-				double[][] w = substrate.getWeights()[0][ty][tx][0];
+				double[][] w = activator instanceof FlatGridNet ? ((FlatGridNet) activator).getWeightMatrix(1, ty, tx) : ((GridNet) activator).getWeightMatrix(1, ty, tx);
 
 				for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
 					for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
@@ -16,6 +16,7 @@ import com.anji.integration.Activator;
 import com.anji.integration.ActivatorTranscriber;
 import com.ojcoleman.ahni.evaluation.HyperNEATFitnessFunction;
 import com.ojcoleman.ahni.hyperneat.Properties;
+import com.ojcoleman.ahni.nn.FlatGridNet;
 import com.ojcoleman.ahni.nn.GridNet;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriberGridNet;
@@ -419,8 +420,9 @@ public class ObjectRecognitionFitnessFunction4 extends HyperNEATFitnessFunction
 		if (percentCorrect > bestPCSoFar)
 			bestPCSoFar = percentCorrect;
 
-		if (saveImagesNow && activator instanceof GridNet) {
-			GridNet substrate = (GridNet) activator;
+		if (saveImagesNow && (activator instanceof GridNet || activator instanceof FlatGridNet)) {
+			GridNet substrate = activator instanceof GridNet ? (GridNet) activator : null;
+			FlatGridNet flatSubstrate = activator instanceof FlatGridNet ? (FlatGridNet) activator : null;
 			System.out.println("saving images for " + genotype.getId() + ", performance: " + performance + ", fitness: " + fitness);
 
 			printedFirst = true;
@@ -464,7 +466,7 @@ public class ObjectRecognitionFitnessFunction4 extends HyperNEATFitnessFunction
 						// calculate dimensions of this weight target matrix (bounded by grid edges)
 						int dy = Math.min(height[tz - 1] - 1, ty + connectionRange) - Math.max(0, ty - connectionRange) + 1;
 						int dx = Math.min(width[tz - 1] - 1, tx + connectionRange) - Math.max(0, tx - connectionRange) + 1;
-						double[][] w = substrate.getWeights()[tz - 1][ty][tx][0];
+						double[][] w = substrate != null ? substrate.getWeightMatrix(tz, ty, tx) : flatSubstrate.getWeightMatrix(tz, ty, tx);
 
 						for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
 							for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
@@ -502,8 +504,8 @@ public class ObjectRecognitionFitnessFunction4 extends HyperNEATFitnessFunction
 			// Generate image for activation levels for some trials
 			for (int t = 0; t < 25; t++) {
 				// individually reapply stimuli so we can capture activation values for all layers
-				substrate.next(stimuli[t]);
-				double[][][] activation = substrate.getActivation();
+				activator.next(stimuli[t]);
+				double[][][] activation = substrate != null ? substrate.getActivation() : flatSubstrate.getActivation();
 				BufferedImage[] activationImage = new BufferedImage[depth];
 				int imageActivationLayerMaxWidth = 0;
 				int imageActivationLayerTotalHeight = 0;
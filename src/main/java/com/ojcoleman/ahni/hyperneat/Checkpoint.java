@@ -0,0 +1,172 @@
+package com.ojcoleman.ahni.hyperneat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of the state of an evolutionary run, from which the run can be resumed. A checkpoint consists of a
+ * sequence of values and sections written by the owner of the checkpoint (see {@link HyperNEATEvolver}); each
+ * {@link Checkpointable} is written to its own length-prefixed section so that reading a section can never consume the
+ * data of the following sections. Checkpoint files are written atomically: the data is written to a temporary file,
+ * forced to the storage device and then moved over the previous checkpoint, so a crash during writing leaves the
+ * previous checkpoint intact.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x41484e43;
+	private static final int VERSION = 1;
+
+	private final ByteArrayOutputStream bytes;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+	/**
+	 * Create a new, empty checkpoint to write state to.
+	 */
+	public Checkpoint() {
+		bytes = new ByteArrayOutputStream(1 << 16);
+		out = new DataOutputStream(bytes);
+		in = null;
+	}
+
+	private Checkpoint(byte[] data) {
+		bytes = null;
+		out = null;
+		in = new DataInputStream(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * @return The stream to write state to.
+	 * @throws IllegalStateException if this checkpoint was loaded from a file.
+	 */
+	public DataOutputStream out() {
+		if (out == null) {
+			throw new IllegalStateException("Checkpoint was loaded from file, it can only be read from.");
+		}
+		return out;
+	}
+
+	/**
+	 * @return The stream to read state from.
+	 * @throws IllegalStateException if this checkpoint was not loaded from a file.
+	 */
+	public DataInputStream in() {
+		if (in == null) {
+			throw new IllegalStateException("Checkpoint was not loaded from file, it can only be written to.");
+		}
+		return in;
+	}
+
+	/**
+	 * Write the state of the given object to its own section.
+	 */
+	public void writeSection(Checkpointable c) throws IOException {
+		writeSection(out(), c);
+	}
+
+	/**
+	 * Restore the state of the given object from the next section, as written by
+	 * {@link #writeSection(Checkpointable)}.
+	 */
+	public void readSection(Checkpointable c) throws IOException {
+		readSection(in(), c);
+	}
+
+	/**
+	 * Write the state of the given object to the given stream as a length-prefixed section. This may be used by a
+	 * {@link Checkpointable} to write the state of objects it contains.
+	 */
+	public static void writeSection(DataOutputStream out, Checkpointable c) throws IOException {
+		ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+		DataOutputStream sectionOut = new DataOutputStream(sectionBytes);
+		c.writeCheckpoint(sectionOut);
+		sectionOut.flush();
+		out.writeInt(sectionBytes.size());
+		sectionBytes.writeTo(out);
+	}
+
+	/**
+	 * Restore the state of the given object from a section written by
+	 * {@link #writeSection(DataOutputStream, Checkpointable)}.
+	 */
+	public static void readSection(DataInputStream in, Checkpointable c) throws IOException {
+		byte[] section = new byte[in.readInt()];
+		in.readFully(section);
+		c.readCheckpoint(new DataInputStream(new ByteArrayInputStream(section)));
+	}
+
+	/**
+	 * @return A copy of the data written to this checkpoint, including the header, ready to be written to file with
+	 *         {@link #store(byte[], File)}. The data is copied so that storing it may be deferred to another thread.
+	 */
+	public byte[] toByteArray() throws IOException {
+		out().flush();
+		byte[] body = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(body.length + 16);
+		DataOutputStream dataOut = new DataOutputStream(data);
+		dataOut.writeInt(MAGIC);
+		dataOut.writeInt(VERSION);
+		dataOut.writeInt((int) crc.getValue());
+		dataOut.writeInt(body.length);
+		dataOut.write(body);
+		dataOut.close();
+		return data.toByteArray();
+	}
+
+	/**
+	 * Atomically replace the given file with the given checkpoint data, as produced by {@link #toByteArray()}.
+	 */
+	public static void store(byte[] data, File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File temp = new File(dir, file.getName() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(temp)) {
+			fos.write(data);
+			fos.getFD().sync();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Load a checkpoint from the given file.
+	 *
+	 * @throws IOException if the file could not be read or is not a valid checkpoint.
+	 */
+	public static Checkpoint load(File file) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+		if (data.length < 16 || header.readInt() != MAGIC) {
+			throw new IOException(file + " is not a checkpoint file.");
+		}
+		if (header.readInt() != VERSION) {
+			throw new IOException("Unsupported checkpoint version in " + file);
+		}
+		int checksum = header.readInt();
+		int length = header.readInt();
+		if (length != data.length - 16) {
+			throw new IOException("Checkpoint file " + file + " is truncated.");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 16, length);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Checkpoint file " + file + " is corrupt (checksum mismatch).");
+		}
+		byte[] body = new byte[length];
+		System.arraycopy(data, 16, body, 0, length);
+		return new Checkpoint(body);
+	}
+}
@@ -0,0 +1,22 @@
+package com.ojcoleman.ahni.hyperneat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Implemented by objects whose state must be saved in a {@link Checkpoint} so that an evolutionary run can be resumed
+ * from it, see {@link HyperNEATEvolver#CHECKPOINT_PER_GENERATIONS_KEY}. The state is restored into an object that has
+ * been created and initialised from the same properties as the object the state was saved from.
+ */
+public interface Checkpointable {
+	/**
+	 * Write the state of this object to the given stream.
+	 */
+	public void writeCheckpoint(DataOutputStream out) throws IOException;
+
+	/**
+	 * Restore the state of this object from the given stream, as written by {@link #writeCheckpoint(DataOutputStream)}.
+	 */
+	public void readCheckpoint(DataInputStream in) throws IOException;
+}
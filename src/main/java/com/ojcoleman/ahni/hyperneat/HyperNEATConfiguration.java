@@ -60,6 +60,24 @@ public class HyperNEATConfiguration extends NeatConfiguration implements Configu
      */
     public static final String NUM_RUNS_KEY = "num.runs";
 
+    /**
+     * The number of evolution runs to perform concurrently in the same JVM when
+     * more than one run is to be performed. Concurrent runs share a budget of
+     * processor cores for fitness evaluation (see
+     * {@link #CONCURRENT_RUNS_CORES_KEY}), so that cores left idle during the
+     * serial phases of one run (speciation, reproduction, logging) are used to
+     * evaluate the populations of the other runs. Each run is given a different
+     * random seed, derived from random.seed if it is set. Default is 1.
+     */
+    public static final String NUM_CONCURRENT_RUNS_KEY = "num.runs.concurrent";
+
+    /**
+     * The maximum number of threads, over all concurrent runs, that may be
+     * transcribing and evaluating individuals at any one time. Defaults to the
+     * number of available processor cores.
+     */
+    public static final String CONCURRENT_RUNS_CORES_KEY = "num.runs.concurrent.cores";
+
     /**
      * Where to save files generated by one or more runs.
      */
@@ -2,10 +2,13 @@ package com.ojcoleman.ahni.hyperneat;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Files;
 import java.net.Socket;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -55,6 +58,7 @@ import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber;
 import com.ojcoleman.ahni.transcriber.TranscriberAdaptor;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber.CPPN;
 import com.ojcoleman.ahni.util.ArrayUtil;
+import com.ojcoleman.ahni.util.AsyncWriter;
 import com.ojcoleman.ahni.util.NiceWriter;
 import com.ojcoleman.ahni.util.PaddingDecimalFormat;
 
@@ -97,10 +101,34 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
     public static final String LOG_CHAMP_TOSTRING_KEY = "log.champ.tostring";
     public static final String LOG_CHAMP_TOIMAGE_KEY = "log.champ.toimage";
     public static final String LOG_SPECIES_HISTORY_KEY = "log.species_history";
+    /**
+     * properties key, the maximum number of log file writes (species history
+     * lines and champ files) waiting to be performed by the background writer
+     * thread before evolution is blocked until the writer catches up. If 0 then
+     * log files are written on the thread performing evolution. Default is 16.
+     */
+    public static final String LOG_QUEUE_SIZE_KEY = "log.queue.size";
+    /**
+     * properties key, the number of generations between checkpoints of the
+     * evolutionary state, from which a run can be resumed (see
+     * {@link Checkpoint}). Default is 0 (no checkpoints).
+     */
+    public static final String CHECKPOINT_PER_GENERATIONS_KEY = "checkpoint.pergenerations";
+    /**
+     * properties key, the checkpoint file. Default is checkpoint.bin in the
+     * output directory (with the output prefix).
+     */
+    public static final String CHECKPOINT_FILE_KEY = "checkpoint.file";
+    /**
+     * properties key, whether to resume the run from the checkpoint file if it
+     * exists when checkpoints are enabled. Default is true.
+     */
+    public static final String CHECKPOINT_RESUME_KEY = "checkpoint.resume";
     public static final String INITIAL_CPPN = "hyperneat.cppn.initial";
 
     private HyperNEATConfiguration config = null;
     private final List<AHNIEventListener> listeners = new ArrayList<>();
+    private volatile boolean stopRequested = false;
     private Properties properties = null;
     private NEATGenotype genotype = null;
     private int numEvolutions = 0;
@@ -111,6 +139,10 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
     private int logPerGenerations = 1;
     int logChampToString = -1;
     int logChampToImage = -1;
+    private AsyncWriter logWriter;
+    private int checkpointPerGenerations = 0;
+    private File checkpointFile = null;
+    private boolean resumeFromCheckpoint = true;
 
     protected int generation = 0;
     protected Chromosome fittest = null;
@@ -187,6 +219,12 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
             logPerGenerations = props.getIntProperty(LOG_PER_GENERATIONS_KEY, 1);
             logChampToString = props.getIntProperty(LOG_CHAMP_TOSTRING_KEY, -1);
             logChampToImage = props.getIntProperty(LOG_CHAMP_TOIMAGE_KEY, -1);
+            checkpointPerGenerations = props.getIntProperty(CHECKPOINT_PER_GENERATIONS_KEY, 0);
+            if (checkpointPerGenerations > 0) {
+                checkpointFile = new File(props.getProperty(CHECKPOINT_FILE_KEY, props.getProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY, "") + props.getProperty(HyperNEATConfiguration.OUTPUT_PREFIX_KEY, "") + "checkpoint.bin"));
+                resumeFromCheckpoint = props.getBooleanProperty(CHECKPOINT_RESUME_KEY, true);
+            }
+            logWriter = new AsyncWriter(HyperNEATEvolver.class.getSimpleName() + "-log", props.getIntProperty(LOG_QUEUE_SIZE_KEY, 16));
 
             //
             // event listeners
@@ -213,6 +251,7 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
                 config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_START_GENETIC_OPERATORS_EVENT, dbListener);
                 config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_FINISH_GENETIC_OPERATORS_EVENT, dbListener);
                 config.getEventManager().addEventListener(GeneticEvent.GENOTYPE_EVALUATED_EVENT, dbListener);
+                config.getEventManager().addEventListener(GeneticEvent.RUN_COMPLETED_EVENT, dbListener);
             }
             // else {
             // config.load();
@@ -256,6 +295,14 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
         listeners.remove(listener);
     }
 
+    /**
+     * Request that the run finish at the end of the current generation. May be
+     * called from any thread, for example by an {@link AHNIEventListener}.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
     protected void fireEvent(AHNIEvent event) {
         for (AHNIEventListener listener : listeners) {
             listener.ahniEventOccurred(event);
@@ -296,6 +343,11 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
         genotype = NEATGenotype.randomInitialGenotype(properties, config);
         //}
 
+        int startGeneration = 0;
+        if (checkpointFile != null && resumeFromCheckpoint && checkpointFile.exists()) {
+            startGeneration = restoreCheckpoint();
+        }
+
         if (logger.isDebugEnabled()) {
             // Log CPPN represented by each initial Chromosome.
             Transcriber transcriber = properties.singletonObjectProperty(AnjiNetTranscriber.class);
@@ -311,21 +363,30 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
         int generationOfFirstSolution = -1;
         fittest = genotype.getFittestChromosome();
 
-        BufferedWriter speciesInfoWriter = null;
+        final BufferedWriter speciesInfoWriter;
         if (properties.logFilesEnabled() && properties.getBooleanProperty(LOG_SPECIES_HISTORY_KEY, false)) {
             File dirFile = new File(properties.getProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY));
             if (!dirFile.exists()) {
                 dirFile.mkdirs();
             }
-            speciesInfoWriter = new BufferedWriter(new FileWriter(properties.getProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY) + properties.getProperty(HyperNEATConfiguration.OUTPUT_PREFIX_KEY, "") + "species-history-size.csv"));
-            StringBuffer output = new StringBuffer();
-            output.append("Gen,\tTSE,\tTS,\tNew,\tExt");
-            for (int i = 0; i < 100; i++) {
-                output.append(",\t" + i);
+            File speciesHistoryFile = new File(properties.getProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY) + properties.getProperty(HyperNEATConfiguration.OUTPUT_PREFIX_KEY, "") + "species-history-size.csv");
+            // If resuming from a checkpoint then append to the existing history, less any generations logged after the checkpoint was written.
+            boolean appendSpeciesHistory = startGeneration > 0 && speciesHistoryFile.exists();
+            if (appendSpeciesHistory) {
+                truncateSpeciesHistory(speciesHistoryFile, startGeneration);
+            }
+            speciesInfoWriter = new BufferedWriter(new FileWriter(speciesHistoryFile, appendSpeciesHistory));
+            if (!appendSpeciesHistory) {
+                StringBuffer output = new StringBuffer();
+                output.append("Gen,\tTSE,\tTS,\tNew,\tExt");
+                for (int i = 0; i < 100; i++) {
+                    output.append(",\t" + i);
+                }
+                output.append("\n");
+                speciesInfoWriter.write(output.toString());
             }
-            output.append("\n");
-            speciesInfoWriter.write(output.toString());
-            speciesInfoWriter.flush();
+        } else {
+            speciesInfoWriter = null;
         }
 
         double avgGenTime = 0, cumulativeDurationBetweenLogging = 0;
@@ -334,7 +395,7 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
 
         fireEvent(new AHNIEvent(AHNIEvent.Type.RUN_START, this, this));
 
-        for (generation = 0; generation < numEvolutions && !bulkFitnessFunc.endRun(); generation++) {
+        for (generation = startGeneration; generation < numEvolutions && !bulkFitnessFunc.endRun() && !stopRequested; generation++) {
             long start = System.currentTimeMillis();
 
             fireEvent(new AHNIEvent(AHNIEvent.Type.GENERATION_START, this, this));
@@ -402,8 +463,12 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
                     output.append(species.previousOriginalSize);
                 }
                 output.append("\n");
-                speciesInfoWriter.write(output.toString());
-                speciesInfoWriter.flush();
+                // Written in the background; the writer is flushed when the log writer catches up (and at the end of the run).
+                String line = output.toString();
+                logWriter.submit(() -> {
+                    speciesInfoWriter.write(line);
+                    speciesInfoWriter.flush();
+                });
             }
 
             if (properties.logFilesEnabled()) {
@@ -413,6 +478,10 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
 
             fireEvent(new AHNIEvent(AHNIEvent.Type.GENERATION_END, this, this));
 
+            if (checkpointFile != null && (generation + 1) % checkpointPerGenerations == 0) {
+                writeCheckpoint();
+            }
+
             double duration = (System.currentTimeMillis() - start) / 1000d;
             if (avgGenTime == 0) {
                 avgGenTime = duration;
@@ -512,8 +581,10 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
         fireEvent(new AHNIEvent(AHNIEvent.Type.RUN_END, this, this));
 
         if (speciesInfoWriter != null) {
-            speciesInfoWriter.close();
+            logWriter.submit(() -> speciesInfoWriter.close());
         }
+        // Make sure all log files are written before the run is reported as complete.
+        logWriter.close();
 
         // if evolution was terminated before the max number of gens was
         // performed (eg because solution was found sooner)
@@ -538,6 +609,86 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
         return bestPerformances;
     }
 
+    /**
+     * Capture the evolutionary state at the end of the current generation and
+     * write it to the checkpoint file. The state is captured on this thread
+     * and the file is written in the background.
+     */
+    private void writeCheckpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        DataOutputStream out = checkpoint.out();
+        int nextGeneration = generation + 1;
+        out.writeInt(nextGeneration);
+        for (int g = 0; g < nextGeneration; g++) {
+            out.writeDouble(bestFitnesses[g]);
+            out.writeDouble(bestPerformances[g]);
+        }
+        checkpoint.writeSection(genotype);
+        checkpoint.writeSection(config);
+        checkpoint.writeSection(properties.singletonObjectProperty(Randomizer.class));
+        out.writeBoolean(bulkFitnessFunc instanceof Checkpointable);
+        if (bulkFitnessFunc instanceof Checkpointable) {
+            checkpoint.writeSection((Checkpointable) bulkFitnessFunc);
+        }
+        byte[] data = checkpoint.toByteArray();
+        File file = checkpointFile;
+        logWriter.submit(() -> Checkpoint.store(data, file));
+    }
+
+    /**
+     * Restore the evolutionary state from the checkpoint file.
+     *
+     * @return the generation to resume from.
+     */
+    private int restoreCheckpoint() throws IOException {
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+        DataInputStream in = checkpoint.in();
+        int nextGeneration = in.readInt();
+        for (int g = 0; g < nextGeneration; g++) {
+            double fitness = in.readDouble();
+            double performance = in.readDouble();
+            if (g < numEvolutions) {
+                bestFitnesses[g] = fitness;
+                bestPerformances[g] = performance;
+            }
+        }
+        checkpoint.readSection(genotype);
+        checkpoint.readSection(config);
+        checkpoint.readSection(properties.singletonObjectProperty(Randomizer.class));
+        if (in.readBoolean()) {
+            if (!(bulkFitnessFunc instanceof Checkpointable)) {
+                throw new IOException("Checkpoint contains fitness function state but the fitness function " + bulkFitnessFunc.getClass().getName() + " is not Checkpointable.");
+            }
+            checkpoint.readSection((Checkpointable) bulkFitnessFunc);
+        }
+
+        // The chromosomes from the generations before the checkpoint are not saved, use the latest ones.
+        nextGeneration = Math.min(nextGeneration, numEvolutions);
+        for (int g = 0; g < nextGeneration; g++) {
+            fittestChromosomes[g] = genotype.getFittest();
+            bestPerformingChromosomes[g] = genotype.getBestPerforming();
+        }
+        bestPerforming = genotype.getBestPerforming();
+        logger.info("Resumed run from checkpoint " + checkpointFile + " at generation " + nextGeneration + ".");
+        return nextGeneration;
+    }
+
+    /**
+     * Remove the rows for the given generation and later from the species
+     * history file, keeping the header.
+     */
+    private static void truncateSpeciesHistory(File file, int generation) throws IOException {
+        StringBuilder kept = new StringBuilder();
+        for (String line : Files.readAllLines(file.toPath())) {
+            int end = line.indexOf(',');
+            String rowGeneration = end == -1 ? line : line.substring(0, end);
+            if (!rowGeneration.matches("\\d+") || Integer.parseInt(rowGeneration) < generation) {
+                kept.append(line).append("\n");
+            }
+        }
+        Files.write(file.toPath(), kept.toString().getBytes());
+    }
+
     /**
      * Returns an array containing the fittest Chromosome from each generation.
      */
@@ -671,14 +822,20 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
                     logger.warn("Champ substrate is null, which probably means it's been classified as a dud by the transcriber (e.g. perhaps because there are no connections from input to output.");
                 } else {
                     String baseFileName = properties.getProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY) + properties.getProperty(HyperNEATConfiguration.OUTPUT_PREFIX_KEY, "") + label + "best_performing-" + (finished ? "final" : generation) + "-" + champ.getId();
+                    // The string representations and image are generated here, as the substrate and champ may
+                    // change, but written to file in the background.
                     if (logString) {
-                        BufferedWriter outputfile = new BufferedWriter(new FileWriter(baseFileName + ".txt"));
-                        outputfile.write("String representation of " + msg + ":\n" + substrate);
+                        StringBuilder text = new StringBuilder();
+                        text.append("String representation of " + msg + ":\n" + substrate);
                         if (cppn != null) {
-                            outputfile.write("\n\n\nString representation of CPPN:\n" + cppn);
+                            text.append("\n\n\nString representation of CPPN:\n" + cppn);
                         }
-                        outputfile.write("\n\n\nString representation of Chromosome:\n" + champ.getMaterial().toXML());
-                        outputfile.close();
+                        text.append("\n\n\nString representation of Chromosome:\n" + champ.getMaterial().toXML());
+                        logWriter.submit(() -> {
+                            try (BufferedWriter outputfile = new BufferedWriter(new FileWriter(baseFileName + ".txt"))) {
+                                outputfile.write(text.toString());
+                            }
+                        });
                     }
 
                     if (logImage) {
@@ -686,8 +843,15 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
                         boolean success = substrate.render(image.createGraphics(), image.getWidth(), image.getHeight(), 30);
                         if (success) {
                             File outputfile = new File(baseFileName + ".png");
-                            ImageIO.write(image, "png", outputfile);
-                            logger.info("Rendered " + msg + " to " + outputfile);
+                            logWriter.submit(() -> {
+                                try {
+                                    ImageIO.write(image, "png", outputfile);
+                                    logger.info("Rendered " + msg + " to " + outputfile);
+                                } catch (IOException e) {
+                                    System.err.println("Error saving image of best performing network.");
+                                    e.printStackTrace();
+                                }
+                            });
                         }
                     }
 
@@ -723,9 +887,6 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
             } catch (TranscriberException e) {
                 System.err.println("Error transcribing best performing individual.");
                 e.printStackTrace();
-            } catch (IOException e) {
-                System.err.println("Error saving image of best performing network.");
-                e.printStackTrace();
             }
         }
     }
@@ -806,6 +967,6 @@ public class HyperNEATEvolver implements Configurable, GeneticEventListener {
      * the last one.
      */
     public boolean evolutionFinished() {
-        return generation >= numEvolutions - 1 || bulkFitnessFunc.endRun();
+        return generation >= numEvolutions - 1 || bulkFitnessFunc.endRun() || stopRequested;
     }
 }
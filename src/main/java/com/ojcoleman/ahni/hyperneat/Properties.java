@@ -3,6 +3,7 @@ package com.ojcoleman.ahni.hyperneat;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +23,8 @@ public class Properties extends com.anji.util.Properties {
 
     private HyperNEATEvolver evolver;
 
+    private Semaphore coreBudget;
+
     /**
      * Creates a new empty Properties.
      */
@@ -152,6 +155,23 @@ public class Properties extends com.anji.util.Properties {
         this.evolver = evolver;
     }
 
+    /**
+     * Get the budget of processor cores shared with other runs being performed
+     * concurrently, or null if this run is not sharing cores. Each permit allows
+     * one thread to transcribe and evaluate an individual.
+     */
+    public Semaphore getCoreBudget() {
+        return coreBudget;
+    }
+
+    /**
+     * Set the budget of processor cores shared with other runs being performed
+     * concurrently. This method should generally only be called by {@link Run}.
+     */
+    public void setCoreBudget(Semaphore coreBudget) {
+        this.coreBudget = coreBudget;
+    }
+
     // Below copied from com.anji.util.Properties to make use of our own Configurable interface.
     /**
      * @param key <code>key</code>+<code>CLASS_SUFFIX</code> references property
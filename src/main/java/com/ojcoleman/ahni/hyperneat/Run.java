@@ -8,6 +8,12 @@ import java.text.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +23,8 @@ import org.apache.log4j.PropertyConfigurator;
 import com.anji.util.Misc;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import com.ojcoleman.ahni.event.AHNIEvent;
+import com.ojcoleman.ahni.event.AHNIEventListener;
 import com.ojcoleman.ahni.hyperneat.HyperNEATEvolver;
 import com.ojcoleman.ahni.util.PropertiesConverter;
 import com.ojcoleman.ahni.util.Results;
@@ -76,11 +84,20 @@ public class Run {
     @Parameter(names = {"-force", "-f"}, description = "Force using the specified output directory even if it exists.")
     public boolean forceOutputDir = false;
 
+    @Parameter(names = {"-reportprogress", "-rp"}, description = "Write the best performance at the end of each generation to standard output, in lines of the form \"" + PROGRESS_PREFIX + "<generation> <performance>\".")
+    public boolean reportProgress = false;
+
     @Parameter(converter = PropertiesConverter.class, arity = 1, description = "<Properties file to read experiment parameters from>")
     public List<Properties> propertiesFiles = new ArrayList<Properties>(1);
 
     Properties properties;
 
+    /**
+     * Prefix of the lines written to standard output for each generation when
+     * {@link #reportProgress} is set.
+     */
+    public static final String PROGRESS_PREFIX = "AHNI-PROGRESS ";
+
     /**
      * The best performance for each generation for each run, in the format
      * [run][generation]. This will only be populated after {@link #run()} has
@@ -95,6 +112,17 @@ public class Run {
      */
     public double[][] fitness;
 
+    // Listeners added to the evolver for each run.
+    private final List<AHNIEventListener> eventListeners = new ArrayList<AHNIEventListener>();
+    // Budget of processor cores shared with runs performed elsewhere in this JVM, if any.
+    private Semaphore coreBudget;
+
+    // The number of generations performed in each run, and progress over all runs.
+    private int[] generations;
+    private int concurrentRuns;
+    private int finishedRuns;
+    private double avgRunTime;
+
     /**
      * @param args
      */
@@ -124,6 +152,25 @@ public class Run {
         properties = props;
     }
 
+    /**
+     * Add a listener to the {@link HyperNEATEvolver} for each run, for example
+     * to monitor the progress of each run.
+     */
+    public void addEventListener(AHNIEventListener listener) {
+        eventListeners.add(listener);
+    }
+
+    /**
+     * Set a budget of processor cores to share with runs performed elsewhere in
+     * this JVM (see {@link Properties#getCoreBudget()}). If not set then the
+     * runs performed concurrently by this Run (see
+     * {@link HyperNEATConfiguration#NUM_CONCURRENT_RUNS_KEY}) share a budget of
+     * their own.
+     */
+    public void setCoreBudget(Semaphore coreBudget) {
+        this.coreBudget = coreBudget;
+    }
+
     /**
      * Performs one or more runs.
      */
@@ -197,62 +244,60 @@ public class Run {
         }
 
         int numRuns = properties.getIntProperty(HyperNEATConfiguration.NUM_RUNS_KEY);
+        concurrentRuns = Math.max(1, Math.min(numRuns, properties.getIntProperty(HyperNEATConfiguration.NUM_CONCURRENT_RUNS_KEY, 1)));
 
         performance = new double[numRuns][];
         fitness = new double[numRuns][];
+        generations = new int[numRuns];
+        finishedRuns = 0;
+        avgRunTime = 0;
 
         long start = System.currentTimeMillis();
-        double avgRunTime = 0;
-        double avgGenerations = 0;
-        int solvedCount = 0;
-        for (int run = 0; run < numRuns; run++) {
-            long startRun = System.currentTimeMillis();
-
-            Properties runProps = new Properties(properties);
-
-            // Look for AHNI_RUN_ID env variable set by ParameterTuner for HTCondor runs.
-            String runID = System.getenv("AHNI_RUN_ID") == null ? "" + run : System.getenv("AHNI_RUN_ID");
-            runProps.setProperty("run.id", runID);
-
-            String runOutputDir = outputDir + (numRuns > 1 ? run + File.separator : "");
-            if (outputDir != null) {
-                runProps.setProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY, runOutputDir);
-
-                // If there is a file logger for each run.
-                if (runLogFile != null) {
-                    Appender fileAppender = Logger.getRootLogger().getAppender("RunLog");
-                    if (fileAppender != null) {
-                        // FIXME
-                    //    fileAppender.setFile(runOutputDir + runLogFile);
-                    //    fileAppender.activateOptions();
+        if (concurrentRuns == 1) {
+            for (int run = 0; run < numRuns; run++) {
+                performRun(run, numRuns, runLogFile, coreBudget, null);
+            }
+        } else {
+            int cores = properties.getIntProperty(HyperNEATConfiguration.CONCURRENT_RUNS_CORES_KEY, Runtime.getRuntime().availableProcessors());
+            final Semaphore budget = coreBudget != null ? coreBudget : new Semaphore(Math.max(1, cores));
+            // Each run must have a different seed, otherwise runs started at the same time would be identical.
+            final long baseSeed = properties.containsKey("random.seed") ? properties.getLongProperty("random.seed") : System.currentTimeMillis();
+            logger.info("Performing " + concurrentRuns + " runs concurrently, sharing " + cores + " cores for evaluation. Seed for run n is " + baseSeed + " + n.");
+
+            final int runCount = numRuns;
+            ExecutorService runPool = Executors.newFixedThreadPool(concurrentRuns);
+            List<Future<Void>> results = new ArrayList<Future<Void>>(numRuns);
+            for (int run = 0; run < numRuns; run++) {
+                final int r = run;
+                results.add(runPool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Thread.currentThread().setName("Run " + r);
+                        performRun(r, runCount, null, budget, baseSeed + r);
+                        return null;
                     }
+                }));
+            }
+            runPool.shutdown();
+            try {
+                for (Future<Void> result : results) {
+                    result.get();
                 }
+            } catch (ExecutionException ex) {
+                runPool.shutdownNow();
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
             }
+        }
+        long end = System.currentTimeMillis();
 
-            logger.info("\n\n--- START RUN: " + (run + 1) + " of " + numRuns + " (" + ((run * 100) / (numRuns)) + "%) ---------------------------------------\n\n");
-            HyperNEATEvolver evolver = (HyperNEATEvolver) runProps.singletonObjectProperty(HyperNEATEvolver.class);
-
-            evolver.run();
-
-            performance[run] = evolver.getBestPerformance();
-            fitness[run] = evolver.getBestFitness();
-            avgGenerations += evolver.getGeneration();
-            if (evolver.getGeneration() < performance[run].length) {
+        double avgGenerations = 0;
+        int solvedCount = 0;
+        for (int run = 0; run < numRuns; run++) {
+            avgGenerations += generations[run];
+            if (generations[run] < performance[run].length) {
                 solvedCount++;
             }
-
-            evolver.dispose();
-
-            long duration = (System.currentTimeMillis() - startRun) / 1000;
-            if (avgRunTime == 0) {
-                avgRunTime = duration;
-            } else {
-                avgRunTime = avgRunTime * 0.9 + duration * 0.1;
-            }
-            int eta = (int) Math.round(avgRunTime * (numRuns - (run + 1)));
-            logger.info("\n--- Run finished in " + Misc.formatTimeInterval(duration) + ".  ETA to complete all runs:" + Misc.formatTimeInterval(eta) + ". ------------------\n");
         }
-        long end = System.currentTimeMillis();
 
         // If there is a file logger for each run, set log file back to root output dir.
         if (runLogFile != null) {
@@ -303,6 +348,87 @@ public class Run {
         }
     }
 
+    /**
+     * Performs a single run and records its results.
+     *
+     * @param run The index of the run.
+     * @param numRuns The total number of runs.
+     * @param runLogFile The name of the log file for each run, or null if there
+     * is none or it should not be changed (when runs are performed
+     * concurrently).
+     * @param coreBudget The budget of processor cores shared with other runs
+     * performed concurrently, or null if there is none.
+     * @param seed The random seed for the run, or null to use the seed given in
+     * the properties, if any.
+     */
+    private void performRun(int run, int numRuns, String runLogFile, Semaphore coreBudget, Long seed) throws Exception {
+        long startRun = System.currentTimeMillis();
+
+        Properties runProps = new Properties(properties);
+        runProps.setCoreBudget(coreBudget);
+        if (seed != null) {
+            runProps.setProperty("random.seed", "" + seed);
+        }
+
+        // Look for AHNI_RUN_ID env variable set by ParameterTuner for HTCondor runs.
+        String runID = System.getenv("AHNI_RUN_ID") == null ? "" + run : System.getenv("AHNI_RUN_ID");
+        runProps.setProperty("run.id", runID);
+
+        String runOutputDir = outputDir + (numRuns > 1 ? run + File.separator : "");
+        if (outputDir != null) {
+            runProps.setProperty(HyperNEATConfiguration.OUTPUT_DIR_KEY, runOutputDir);
+
+            // If there is a file logger for each run.
+            if (runLogFile != null) {
+                Appender fileAppender = Logger.getRootLogger().getAppender("RunLog");
+                if (fileAppender != null) {
+                    // FIXME
+                //    fileAppender.setFile(runOutputDir + runLogFile);
+                //    fileAppender.activateOptions();
+                }
+            }
+        }
+
+        logger.info("\n\n--- START RUN: " + (run + 1) + " of " + numRuns + " (" + ((run * 100) / (numRuns)) + "%) ---------------------------------------\n\n");
+        HyperNEATEvolver evolver = (HyperNEATEvolver) runProps.singletonObjectProperty(HyperNEATEvolver.class);
+        for (AHNIEventListener listener : eventListeners) {
+            evolver.addEventListener(listener);
+        }
+        if (reportProgress) {
+            evolver.addEventListener(new AHNIEventListener() {
+                @Override
+                public void ahniEventOccurred(AHNIEvent event) {
+                    if (event.getType() == AHNIEvent.Type.GENERATION_END) {
+                        HyperNEATEvolver e = event.getEvolver();
+                        System.out.println(PROGRESS_PREFIX + e.getGeneration() + " " + e.getBestPerformance()[e.getGeneration()]);
+                    }
+                }
+            });
+        }
+
+        evolver.run();
+
+        performance[run] = evolver.getBestPerformance();
+        fitness[run] = evolver.getBestFitness();
+        generations[run] = evolver.getGeneration();
+
+        evolver.dispose();
+
+        long duration = (System.currentTimeMillis() - startRun) / 1000;
+        int remaining;
+        synchronized (this) {
+            if (avgRunTime == 0) {
+                avgRunTime = duration;
+            } else {
+                avgRunTime = avgRunTime * 0.9 + duration * 0.1;
+            }
+            finishedRuns++;
+            remaining = numRuns - finishedRuns;
+        }
+        int eta = (int) Math.round(avgRunTime * Math.ceil((double) remaining / concurrentRuns));
+        logger.info("\n--- Run " + (run + 1) + " finished in " + Misc.formatTimeInterval(duration) + ".  ETA to complete all runs:" + Misc.formatTimeInterval(eta) + ". ------------------\n");
+    }
+
     private void logEnv() {
         StringBuffer out = new StringBuffer();
         out.append("\nEnvironment vars:");
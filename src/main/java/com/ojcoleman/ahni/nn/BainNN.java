@@ -20,9 +20,6 @@ import org.apache.log4j.Logger;
 import com.anji.integration.Activator;
 import com.anji.integration.TranscriberException;
 import com.ojcoleman.ahni.util.ArrayUtil;
-import com.ojcoleman.ahni.util.bellmanfordsp.BellmanFordSP;
-import com.ojcoleman.ahni.util.bellmanfordsp.DirectedEdge;
-import com.ojcoleman.ahni.util.bellmanfordsp.EdgeWeightedDigraph;
 import com.ojcoleman.bain.NeuralNetwork;
 import com.ojcoleman.bain.base.ComponentCollection;
 import com.ojcoleman.bain.base.ComponentConfiguration;
@@ -50,6 +47,21 @@ public class BainNN extends NNAdaptor {
 
 	public static final String SUBSTRATE_EXECUTION_MODE = "ann.transcriber.bain.executionmode";
 	public static final String SUBSTRATE_SIMULATION_RESOLUTION = "ann.transcriber.bain.resolution";
+	/**
+	 * If true then synapse outputs are summed per post-synaptic neuron in a separate pass rather than being added
+	 * directly to the neuron inputs by each synapse, which allows the synapses to be simulated deterministically in
+	 * parallel (see {@link com.ojcoleman.bain.base.SynapseCollection#setPostSortedAccumulation(boolean)}). Default is
+	 * true if {@link #SUBSTRATE_EXECUTION_MODE} is set to something other than SEQ, otherwise false. Regardless of this
+	 * setting it is always enabled when the synapses are executed in parallel, including when a parallel execution mode
+	 * is selected automatically (see {@link NeuralNetwork#getMinimumSizeForJTP()}).
+	 */
+	public static final String SUBSTRATE_POST_SORTED_SYNAPSES = "ann.transcriber.bain.postsortedsynapses";
+	/**
+	 * If true then non-layered feed-forward networks are activated by evaluating each neuron once in topological order
+	 * for each input, rather than by running the whole network once per layer, when the neuron and synapse collections
+	 * support it (see {@link NeuralNetwork#canStepSinglePass()}). The outputs are the same either way. Default is true.
+	 */
+	public static final String SUBSTRATE_SINGLE_PASS = "ann.transcriber.bain.singlepass";
 
 	/**
 	 * Describes the basic topology of a network.
@@ -75,6 +87,11 @@ public class BainNN extends NNAdaptor {
 								// fetching input values from a GPU.
 	private boolean[] neuronDisabled;
 	private int stepsPerStep;
+	// The neurons in topological order, only set for non-layered feed-forward networks, see getActivationOrder().
+	private int[] activationOrder;
+	// The non-input neurons in topological order, activated by NeuralNetwork.stepSinglePass(int[]).
+	private int[] singlePassOrder;
+	private boolean singlePassEnabled = true;
 	private Topology topology;
 	private String name;
 	private int[] inputDimensions;
@@ -84,6 +101,10 @@ public class BainNN extends NNAdaptor {
 	double sumOfSquaredConnectionLengths;
 
 	private int synapseCount;
+	
+	// The saved state of each lane, and the lane whose state the network currently holds (-1 for none), see setLaneCount(int).
+	private NeuralNetwork.State[] laneStates;
+	private int currentLane = -1;
 
 	private static boolean reportedExecutionModeProblem = false;
 
@@ -189,28 +210,41 @@ public class BainNN extends NNAdaptor {
 	
 	@Override
 	public void next(double[] stimuli, double[] output) {
-		if (topology == Topology.FEED_FORWARD_NONLAYERED) {
+		activate(stimuli, 0, stimuli == null ? 0 : stimuli.length);
+		System.arraycopy(nn.getNeurons().getOutputs(), outputIndex, output, 0, outputSize);
+		checkExecMode();
+	}
+	
+	/**
+	 * Set the inputs to the given values (if not null) and run the network so that the outputs reflect the inputs.
+	 */
+	private void activate(double[] stimuli, int offset, int length) {
+		if (topology == Topology.FEED_FORWARD_NONLAYERED && singlePassEnabled && stimuli != null && length == inputSize && nn.canStepSinglePass()) {
+			// Evaluate each neuron once, in topological order, with the input neurons holding the stimuli values.
+			System.arraycopy(stimuli, offset, nnOutputs, 0, length);
+			nn.getNeurons().setOutputsModified(0, length);
+			nn.stepSinglePass(singlePassOrder);
+		} else if (topology == Topology.FEED_FORWARD_NONLAYERED) {
 			// For non-layered FF networks we have to run the network stepsPerStep times to propagate the
 			// signals all the way through, while making sure the input neurons have the stimuli values
 			// maintained each step.
 			for (int s = 0; s < stepsPerStep; s++) {
 				if (stimuli != null) {
-					System.arraycopy(stimuli, 0, nnOutputs, 0, stimuli.length);
-					nn.getNeurons().setOutputsModified(0, stimuli.length);
+					System.arraycopy(stimuli, offset, nnOutputs, 0, length);
+					nn.getNeurons().setOutputsModified(0, length);
 				}
 				nn.step();
 			}
-			System.arraycopy(stimuli, 0, nnOutputs, 0, stimuli.length);
+			if (stimuli != null) {
+				System.arraycopy(stimuli, offset, nnOutputs, 0, length);
+			}
 		} else {
 			if (stimuli != null) {
-				System.arraycopy(stimuli, 0, nnOutputs, 0, stimuli.length);
-				nn.getNeurons().setOutputsModified(0, stimuli.length);
+				System.arraycopy(stimuli, offset, nnOutputs, 0, length);
+				nn.getNeurons().setOutputsModified(0, length);
 			}
 			nn.run(stepsPerStep);
 		}
-		
-		System.arraycopy(nn.getNeurons().getOutputs(), outputIndex, output, 0, outputSize);
-		checkExecMode();
 	}
 
 	@Override
@@ -238,7 +272,7 @@ public class BainNN extends NNAdaptor {
 			}
 		} else {
 			for (int s = 0; s < stimuliCount; s++) {
-				result[s] = next(stimuli[s]);
+				next(stimuli[s], result[s]);
 			}
 		}
 		checkExecMode();
@@ -287,6 +321,68 @@ public class BainNN extends NNAdaptor {
 		}
 		checkExecMode();
 	}
+	
+	@Override
+	public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+		// Optmisation for layered FF networks, as for nextSequence(..).
+		if (topology == Topology.FEED_FORWARD_LAYERED) {
+			for (int stimuliIndex = 0, responseIndex = 1 - stepsPerStep; stimuliIndex < count + stepsPerStep - 1; stimuliIndex++, responseIndex++) {
+				if (stimuliIndex < count) {
+					System.arraycopy(stimuli, stimuliIndex * stimuliStride, nnOutputs, 0, inputSize);
+					nn.getNeurons().setOutputsModified(0, inputSize);
+				}
+				nn.step();
+				if (responseIndex >= 0) {
+					System.arraycopy(nnOutputs, outputIndex, responses, responseIndex * responseStride, outputSize);
+				}
+			}
+		} else {
+			for (int s = 0; s < count; s++) {
+				activate(stimuli, s * stimuliStride, inputSize);
+				System.arraycopy(nnOutputs, outputIndex, responses, s * responseStride, outputSize);
+			}
+		}
+		checkExecMode();
+	}
+
+	/**
+	 * {@inheritDoc} Bain networks always support lanes: the state of the network for each lane is saved and restored
+	 * as required (see {@link NeuralNetwork#saveState(NeuralNetwork.State)}), including any plastic synapse efficacies.
+	 */
+	@Override
+	public boolean supportsLanes() {
+		return true;
+	}
+
+	@Override
+	public void setLaneCount(int laneCount) {
+		reset();
+		if (laneStates == null || laneStates.length != laneCount) {
+			laneStates = new NeuralNetwork.State[laneCount];
+		}
+		for (int lane = 0; lane < laneCount; lane++) {
+			laneStates[lane] = nn.saveState(laneStates[lane]);
+		}
+		// The reset state is equivalent to the state of every lane.
+		currentLane = laneCount > 0 ? 0 : -1;
+	}
+
+	@Override
+	public void nextLanes(double[][] stimuli, double[][] output, boolean[] active) {
+		for (int lane = 0; lane < stimuli.length; lane++) {
+			if (active == null || active[lane]) {
+				// Only swap state when switching lanes, so that simulating a single lane costs the same as next(..).
+				if (lane != currentLane) {
+					if (currentLane != -1) {
+						laneStates[currentLane] = nn.saveState(laneStates[currentLane]);
+					}
+					nn.restoreState(laneStates[lane]);
+					currentLane = lane;
+				}
+				next(stimuli[lane], output[lane]);
+			}
+		}
+	}
 
 	private void checkExecMode() {
 		if (!reportedExecutionModeProblem && nn.getPreferredExecutionMode() != null && nn.getPreferredExecutionMode() != nn.getSynapses().getExecutionMode()) {
@@ -297,6 +393,7 @@ public class BainNN extends NNAdaptor {
 	@Override
 	public void reset() {
 		nn.reset();
+		currentLane = -1;
 	}
 
 	@Override
@@ -364,57 +461,107 @@ public class BainNN extends NNAdaptor {
 	}
 
 	/**
-	 * (Re)calculates the number of steps required to fully activate a non-layered feed-forward network. If this network
-	 * is not of type {@link BainNN.Topology#FEED_FORWARD_NONLAYERED} then this method does nothing and returns
+	 * (Re)calculates the number of steps required to fully activate a non-layered feed-forward network, and the order
+	 * in which the neurons may be activated in a single pass (see {@link #getActivationOrder()}). If this network is
+	 * not of type {@link BainNN.Topology#FEED_FORWARD_NONLAYERED} then this method does nothing and returns
 	 * immediately.
 	 */
 	public void setStepsPerStepForNonLayeredFF() {
+		activationOrder = null;
+		singlePassOrder = null;
 		if (topology != Topology.FEED_FORWARD_NONLAYERED)
 			return;
 		
-		// To find the longest path from any output node to any input node
-		// create a directed acyclic graph representing the network where
-		// each edge has the opposite direction of the corresponding 
-		// connection and has weight/value = -1. Then use the Bellman-Ford 
-		// algorithm for finding the lowest value path starting from each 
-		// output node/vertex to each input node/vertex. The lowest value path
-		// corresponds to the longest path since the edges have value -1.
-		EdgeWeightedDigraph graph = new EdgeWeightedDigraph(neuronCount);
+		// Build the adjacency lists of the network in compressed sparse row form: the post-synaptic neurons of 
+		// the synapses from neuron n are at indexes [outStart[n], outStart[n+1]) of outNeuron.
 		SynapseCollection<? extends ComponentConfiguration> synapses = nn.getSynapses();
-		for (int c = 0; c < synapses.getSizePopulated(); c++) {
-			graph.addEdge(new DirectedEdge(synapses.getPostNeuron(c), synapses.getPreNeuron(c), -1));
+		int synapseCount = synapses.getSizePopulated();
+		int[] outStart = new int[neuronCount + 1];
+		int[] outNeuron = new int[synapseCount];
+		int[] inDegree = new int[neuronCount];
+		for (int c = 0; c < synapseCount; c++) {
+			outStart[synapses.getPreNeuron(c) + 1]++;
+			inDegree[synapses.getPostNeuron(c)]++;
 		}
-
-		// Apply Bellman-Ford algo for each output neuron, query for lowest 
-		// value path to each input.
-		int maxDepth = 0;
-		boolean cyclic = false;
-		for (int o = outputIndex; o < neuronCount && !cyclic; o++) {
-			BellmanFordSP bfsp = new BellmanFordSP(graph, o);
-			
-			if (bfsp.hasNegativeCycle()) {
-				cyclic = true;
-				break;
+		for (int n = 0; n < neuronCount; n++) {
+			outStart[n + 1] += outStart[n];
+		}
+		int[] next = Arrays.copyOf(outStart, neuronCount);
+		for (int c = 0; c < synapseCount; c++) {
+			outNeuron[next[synapses.getPreNeuron(c)]++] = synapses.getPostNeuron(c);
+		}
+		
+		// Sort the neurons topologically with Kahn's algorithm, and at the same time find the number of steps 
+		// required for the output of each neuron to settle: 0 for input neurons, as their outputs are set 
+		// before each step, otherwise one more than the maximum for its pre-synaptic neurons. Until a neuron 
+		// is reached in the sort, depth holds the maximum for the pre-synaptic neurons processed so far. If 
+		// not all neurons can be sorted then the network contains a cycle.
+		int[] order = new int[neuronCount];
+		int[] depth = new int[neuronCount];
+		int head = 0, tail = 0;
+		for (int n = 0; n < neuronCount; n++) {
+			if (inDegree[n] == 0) {
+				order[tail++] = n;
 			}
-			
-			for (int i = 0; i < inputSize; i++) {
-				double dist = bfsp.distTo(i);
-				if (dist != Double.POSITIVE_INFINITY && -dist > maxDepth) {
-					maxDepth = (int) Math.round(-dist);
+		}
+		while (head < tail) {
+			int n = order[head++];
+			depth[n] = n < inputSize ? 0 : depth[n] + 1;
+			for (int i = outStart[n]; i < outStart[n + 1]; i++) {
+				int post = outNeuron[i];
+				if (depth[n] > depth[post]) {
+					depth[post] = depth[n];
+				}
+				if (--inDegree[post] == 0) {
+					order[tail++] = post;
 				}
 			}
 		}
+		boolean cyclic = tail < neuronCount;
+		
+		int maxDepth = 0;
+		for (int o = outputIndex; o < neuronCount; o++) {
+			if (depth[o] > maxDepth) {
+				maxDepth = depth[o];
+			}
+		}
 		
 		//System.err.println("maxDepth " + maxDepth + "  cyclic " + (cyclic ? "T" : "F"));
 		
 		if (!cyclic) {
-			stepsPerStep = maxDepth - 1;
+			stepsPerStep = maxDepth;
+			activationOrder = order;
+			singlePassOrder = new int[neuronCount - Math.min(inputSize, neuronCount)];
+			int i = 0;
+			for (int n : order) {
+				if (n >= inputSize) {
+					singlePassOrder[i++] = n;
+				}
+			}
 		} else {
 			logger.warn("The Bain network marked as non-layered feed forward contains cycles. Switching to recurrent topology mode with " + stepsPerStep + " activation cycles per step.");
 			this.topology = Topology.RECURRENT;
 		}
 	}
 
+	/**
+	 * Set whether non-layered feed-forward networks are activated in a single pass when possible, see
+	 * {@link #SUBSTRATE_SINGLE_PASS}. Default is true.
+	 */
+	public void setSinglePassEnabled(boolean singlePassEnabled) {
+		this.singlePassEnabled = singlePassEnabled;
+	}
+
+	/**
+	 * Returns the indexes of all the neurons in an order in which each neuron comes after all of its pre-synaptic
+	 * neurons, so that activating the neurons in this order propagates the input through the network in a single pass.
+	 * Returns null if this network is not of type {@link BainNN.Topology#FEED_FORWARD_NONLAYERED}. The returned array
+	 * should not be modified.
+	 */
+	public int[] getActivationOrder() {
+		return activationOrder;
+	}
+
 	/**
 	 * Returns a string describing this network and its connectivity.
 	 */
@@ -0,0 +1,561 @@
+package com.ojcoleman.ahni.nn;
+
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.anji.integration.Activator;
+import com.anji.nn.activationfunction.ActivationFunction;
+
+/**
+ * A layered feed-forward grid network, functionally equivalent to a feed-forward {@link GridNet} in which connections
+ * extend up to a given range in the x and y axes from layer n to layer n+1, but storing activations, biases and weights
+ * in flat contiguous arrays rather than nested arrays. Optionally the weights for a layer may be shared by all target
+ * neurons in the layer, convolution style, so that only a single kernel of weights indexed by the relative offset from
+ * the target to the source neuron is stored. Each layer is evaluated a row of target neurons at a time using loops over
+ * contiguous array elements which the JIT compiler can vectorise, and the rows of large layers are evaluated in
+ * parallel.
+ *
+ * The width (x-axis), height (y-axis) of each layer and the depth (z-axis) are defined and fixed upon construction.
+ * Inputs are applied to the "top" layer (z=0) and the bottom layer (z=depth-1) is the output. The connections to a
+ * target neuron at (tx, ty) in layer tz are from the source neurons in layer tz-1 in the window [max(0, tx-range),
+ * min(width[tz-1]-1, tx+range)] x [max(0, ty-range), min(height[tz-1]-1, ty+range)].
+ *
+ * @author Oliver Coleman
+ */
+public class FlatGridNet implements Activator {
+	/**
+	 * base XML tag
+	 */
+	public final static String XML_TAG = "grid network";
+
+	/**
+	 * The default minimum number of connections into a layer for the rows of the layer to be evaluated in parallel.
+	 */
+	public static final int DEFAULT_PARALLEL_MIN_CONNECTIONS = 1 << 18;
+
+	private ActivationFunction activationFunction;
+
+	private int depth;
+	private int[] width; // dimensions for each layer
+	private int[] height;
+	private int connectionRange;
+
+	// Activation for each layer, [z][y * width[z] + x].
+	private double[][] activation;
+	// Bias for each neuron not in the input layer, [z-1][y * width[z] + x].
+	private double[][] bias;
+
+	// Weights for each layer, [z-1][]. The weights for the target neuron at index t in layer z start at
+	// weightOffset[z-1][t] and are stored in row-major order for the source window of the target neuron.
+	private double[][] weights;
+	private int[][] weightOffset;
+
+	// Shared weight kernels for each layer, [z-1][(sy - ty + kernelRangeY) * kernelWidth + (sx - tx + kernelRangeX)].
+	private double[][] kernels;
+	private boolean[] weightSharing;
+	private int[] kernelRangeX;
+	private int[] kernelRangeY;
+
+	// Output layer in the format returned by next(double[][]).
+	private double[][] outputs;
+
+	private int parallelMinConnections = DEFAULT_PARALLEL_MIN_CONNECTIONS;
+
+	private String name;
+
+	/**
+	 * Creates a FlatGridNet with the given dimensions and all weights and biases set to zero.
+	 *
+	 * @param layerDimensions The dimensions of each layer, in the format [width=0|height=1][layer].
+	 * @param connectionRange The maximum length/range of connections in either direction in the x and y axes.
+	 * @param function the ActivationFunction to use; only one type of activation function is used throughout the
+	 *            network.
+	 * @param aName Name of the network.
+	 */
+	public FlatGridNet(int[][] layerDimensions, int connectionRange, ActivationFunction function, String aName) {
+		width = layerDimensions[0];
+		height = layerDimensions[1];
+		depth = width.length;
+		this.connectionRange = connectionRange;
+		activationFunction = function;
+		name = aName;
+
+		activation = new double[depth][];
+		for (int l = 0; l < depth; l++) {
+			activation[l] = new double[width[l] * height[l]];
+		}
+		outputs = new double[height[depth - 1]][width[depth - 1]];
+
+		bias = new double[depth - 1][];
+		weights = new double[depth - 1][];
+		weightOffset = new int[depth - 1][];
+		kernels = new double[depth - 1][];
+		weightSharing = new boolean[depth - 1];
+		kernelRangeX = new int[depth - 1];
+		kernelRangeY = new int[depth - 1];
+		for (int tz = 1; tz < depth; tz++) {
+			bias[tz - 1] = new double[width[tz] * height[tz]];
+			kernelRangeX[tz - 1] = Math.min(connectionRange, Math.max(width[tz - 1], width[tz]) - 1);
+			kernelRangeY[tz - 1] = Math.min(connectionRange, Math.max(height[tz - 1], height[tz]) - 1);
+
+			int[] offset = new int[width[tz] * height[tz] + 1];
+			long total = 0;
+			for (int ty = 0, t = 0; ty < height[tz]; ty++) {
+				int dy = windowSize(ty, height[tz - 1]);
+				for (int tx = 0; tx < width[tz]; tx++, t++) {
+					offset[t] = (int) total;
+					total += (long) dy * windowSize(tx, width[tz - 1]);
+				}
+			}
+			if (total > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many connections into layer " + tz + " (" + total + ") for FlatGridNet, reduce the connection range.");
+			}
+			offset[offset.length - 1] = (int) total;
+			weightOffset[tz - 1] = offset;
+		}
+	}
+
+	/**
+	 * Returns the size of the window of source neurons along an axis for a target neuron at the given position.
+	 */
+	private int windowSize(int t, int sourceSize) {
+		return windowEnd(t, sourceSize) - windowStart(t) + 1;
+	}
+
+	private int windowStart(int t) {
+		return Math.max(0, t - connectionRange);
+	}
+
+	private int windowEnd(int t, int sourceSize) {
+		return (int) Math.min(sourceSize - 1, (long) t + connectionRange);
+	}
+
+	/**
+	 * Set whether all target neurons in the given layer share the same weights, relative to their position. If so the
+	 * weights for the layer are set with {@link #setKernelWeight(int, int, int, double)}, otherwise with
+	 * {@link #setWeight(int, int, int, int, int, double)}.
+	 *
+	 * @param tz The target layer, in the range [1, depth).
+	 */
+	public void setWeightSharing(int tz, boolean shared) {
+		weightSharing[tz - 1] = shared;
+		if (shared && kernels[tz - 1] == null) {
+			kernels[tz - 1] = new double[(2 * kernelRangeX[tz - 1] + 1) * (2 * kernelRangeY[tz - 1] + 1)];
+		} else if (!shared && weights[tz - 1] == null) {
+			weights[tz - 1] = new double[weightOffset[tz - 1][weightOffset[tz - 1].length - 1]];
+		}
+	}
+
+	/**
+	 * @return true iff all target neurons in the given layer share the same weights, relative to their position.
+	 */
+	public boolean isWeightSharing(int tz) {
+		return weightSharing[tz - 1];
+	}
+
+	/**
+	 * Set the weight of the connection from the neuron at (sx, sy) in layer tz-1 to the neuron at (tx, ty) in layer tz.
+	 * The weights for the layer must not be shared. The source neuron must be within the connection range of the target
+	 * neuron.
+	 */
+	public void setWeight(int tz, int ty, int tx, int sy, int sx, double weight) {
+		if (weights[tz - 1] == null) {
+			setWeightSharing(tz, false);
+		}
+		assert !weightSharing[tz - 1] : "Weights are shared for layer " + tz;
+		int dx = windowSize(tx, width[tz - 1]);
+		weights[tz - 1][weightOffset[tz - 1][ty * width[tz] + tx] + (sy - windowStart(ty)) * dx + (sx - windowStart(tx))] = weight;
+	}
+
+	/**
+	 * Set the weight of the connections from the neurons at (tx + dx, ty + dy) in layer tz-1 to the neurons at (tx, ty)
+	 * in layer tz, for all tx and ty. The weights for the layer must be shared.
+	 *
+	 * @param dy The relative offset in the y axis, in the range [-{@link #getKernelRangeY(int)},
+	 *            {@link #getKernelRangeY(int)}].
+	 * @param dx The relative offset in the x axis, in the range [-{@link #getKernelRangeX(int)},
+	 *            {@link #getKernelRangeX(int)}].
+	 */
+	public void setKernelWeight(int tz, int dy, int dx, double weight) {
+		if (kernels[tz - 1] == null) {
+			setWeightSharing(tz, true);
+		}
+		assert weightSharing[tz - 1] : "Weights are not shared for layer " + tz;
+		kernels[tz - 1][(dy + kernelRangeY[tz - 1]) * (2 * kernelRangeX[tz - 1] + 1) + dx + kernelRangeX[tz - 1]] = weight;
+	}
+
+	/**
+	 * @return The maximum relative offset in the x axis of connections into the given layer, which determines the width
+	 *         of the shared weight kernel for the layer.
+	 */
+	public int getKernelRangeX(int tz) {
+		return kernelRangeX[tz - 1];
+	}
+
+	/**
+	 * @return The maximum relative offset in the y axis of connections into the given layer, which determines the
+	 *         height of the shared weight kernel for the layer.
+	 */
+	public int getKernelRangeY(int tz) {
+		return kernelRangeY[tz - 1];
+	}
+
+	/**
+	 * Set the bias of the neuron at (tx, ty) in layer tz.
+	 */
+	public void setBias(int tz, int ty, int tx, double value) {
+		bias[tz - 1][ty * width[tz] + tx] = value;
+	}
+
+	/**
+	 * @return The bias of the neuron at (tx, ty) in layer tz.
+	 */
+	public double getBias(int tz, int ty, int tx) {
+		return bias[tz - 1][ty * width[tz] + tx];
+	}
+
+	/**
+	 * Returns a copy of the weights of the connections to the neuron at (tx, ty) in layer tz, in the same format as the
+	 * weight matrix for a target neuron in a feed-forward {@link GridNet}, i.e. <code>[wy][wx]</code> where wy and wx
+	 * are relative to the (grid edge bounded) start of the window of source neurons.
+	 */
+	public double[][] getWeightMatrix(int tz, int ty, int tx) {
+		int sy0 = windowStart(ty), sx0 = windowStart(tx);
+		int dy = windowSize(ty, height[tz - 1]), dx = windowSize(tx, width[tz - 1]);
+		double[][] w = new double[dy][dx];
+		if (weightSharing[tz - 1]) {
+			int kw = 2 * kernelRangeX[tz - 1] + 1;
+			for (int wy = 0; wy < dy; wy++) {
+				int k = (sy0 + wy - ty + kernelRangeY[tz - 1]) * kw + sx0 - tx + kernelRangeX[tz - 1];
+				System.arraycopy(kernels[tz - 1], k, w[wy], 0, dx);
+			}
+		} else if (weights[tz - 1] != null) {
+			int offset = weightOffset[tz - 1][ty * width[tz] + tx];
+			for (int wy = 0; wy < dy; wy++, offset += dx) {
+				System.arraycopy(weights[tz - 1], offset, w[wy], 0, dx);
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Set the minimum number of connections into a layer for the rows of the layer to be evaluated in parallel.
+	 * Defaults to {@link #DEFAULT_PARALLEL_MIN_CONNECTIONS}. Set to {@link Integer#MAX_VALUE} to disable parallel
+	 * evaluation, for example when networks are already evaluated in parallel and layers are small.
+	 */
+	public void setParallelMinConnections(int parallelMinConnections) {
+		this.parallelMinConnections = parallelMinConnections;
+	}
+
+	/**
+	 * @return Number corresponding to cost of network activation in resources.
+	 */
+	public long cost() {
+		return getConnectionCount(true) * activationFunction.cost();
+	}
+
+	/**
+	 * Perform one complete cycle, propagating signal from input layer to output layer.
+	 */
+	public void step() {
+		for (int tz = 1; tz < depth; tz++) {
+			final int z = tz;
+			int rowCount = height[tz];
+			long connectionCount = weightOffset[tz - 1][weightOffset[tz - 1].length - 1];
+			if (connectionCount >= parallelMinConnections && rowCount > 1) {
+				IntStream.range(0, rowCount).parallel().forEach(ty -> stepRow(z, ty));
+			} else {
+				for (int ty = 0; ty < rowCount; ty++) {
+					stepRow(tz, ty);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the activation of the neurons in row ty of layer tz.
+	 */
+	private void stepRow(int tz, int ty) {
+		double[] src = activation[tz - 1];
+		double[] dst = activation[tz];
+		int sw = width[tz - 1], sh = height[tz - 1], tw = width[tz];
+		int rowStart = ty * tw;
+		int sy0 = windowStart(ty), sy1 = windowEnd(ty, sh);
+
+		System.arraycopy(bias[tz - 1], rowStart, dst, rowStart, tw);
+
+		if (weightSharing[tz - 1]) {
+			// For each kernel weight accumulate its contribution to every target neuron in the row for which the
+			// source neuron is within the grid.
+			double[] kernel = kernels[tz - 1];
+			int krx = kernelRangeX[tz - 1], kw = 2 * krx + 1;
+			for (int sy = sy0; sy <= sy1; sy++) {
+				int kRow = (sy - ty + kernelRangeY[tz - 1]) * kw + krx;
+				int srcRow = sy * sw;
+				for (int dx = -krx; dx <= krx; dx++) {
+					double k = kernel[kRow + dx];
+					int txStart = Math.max(0, -dx), txEnd = Math.min(tw - 1, sw - 1 - dx);
+					int s = srcRow + dx;
+					for (int tx = txStart; tx <= txEnd; tx++) {
+						dst[rowStart + tx] += k * src[s + tx];
+					}
+				}
+			}
+		} else if (weights[tz - 1] != null) {
+			double[] w = weights[tz - 1];
+			int[] offset = weightOffset[tz - 1];
+			for (int tx = 0, t = rowStart; tx < tw; tx++, t++) {
+				int sx0 = windowStart(tx);
+				int dx = windowEnd(tx, sw) - sx0 + 1;
+				int wi = offset[t];
+				double sum = dst[t];
+				for (int sy = sy0; sy <= sy1; sy++) {
+					for (int s = sy * sw + sx0, sEnd = s + dx; s < sEnd; s++, wi++) {
+						sum += src[s] * w[wi];
+					}
+				}
+				dst[t] = sum;
+			}
+		}
+
+		activationFunction.applyInPlace(dst, rowStart, rowStart + tw);
+	}
+
+	/**
+	 * Set the input layer. The format is input[y][x]. The values are copied.
+	 */
+	public void setInputs(double[][] inputs) {
+		for (int y = 0; y < height[0]; y++) {
+			System.arraycopy(inputs[y], 0, activation[0], y * width[0], width[0]);
+		}
+	}
+
+	/**
+	 * Get output pattern.
+	 *
+	 * @return A reference to the output pattern, updated by calls to {@link #next()} and the next methods. The format
+	 *         is output[y][x].
+	 */
+	public double[][] getOutputs() {
+		return outputs;
+	}
+
+	private void updateOutputs() {
+		double[] out = activation[depth - 1];
+		int w = width[depth - 1];
+		for (int y = 0; y < outputs.length; y++) {
+			System.arraycopy(out, y * w, outputs[y], 0, w);
+		}
+	}
+
+	/**
+	 * @return A copy of the activation of every neuron in the format [z][y][x].
+	 */
+	public double[][][] getActivation() {
+		double[][][] copy = new double[depth][][];
+		for (int z = 0; z < depth; z++) {
+			copy[z] = new double[height[z]][width[z]];
+			for (int y = 0; y < height[z]; y++) {
+				System.arraycopy(activation[z], y * width[z], copy[z][y], 0, width[z]);
+			}
+		}
+		return copy;
+	}
+
+	// +++++++++++ Activator interface ++++++++++++++
+
+	/**
+	 * @return double[][] output layer given last provided input activation via <code>next(double[])</code> or
+	 *         <code>next(double[][])</code>.
+	 * @see Activator#next(double[])
+	 * @see Activator#next(double[][])
+	 */
+	public Object next() {
+		step();
+		updateOutputs();
+		return outputs;
+	}
+
+	/**
+	 * @param stimuli first row of input layer. The values are copied.
+	 * @return double[] first row of output array given input stimuli, copied by reference.
+	 */
+	public double[] next(double[] stimuli) {
+		System.arraycopy(stimuli, 0, activation[0], 0, width[0]);
+		step();
+		updateOutputs();
+		return outputs[0];
+	}
+
+	/**
+	 * @param stimuli sequence of first row of input layer.
+	 * @return double[][] sequence of first row of output values array given input stimuli.
+	 */
+	public double[][] nextSequence(double[][] stimuli) {
+		double[][] response = new double[stimuli.length][width[depth - 1]];
+		for (int seq = 0; seq < stimuli.length; seq++) {
+			System.arraycopy(stimuli[seq], 0, activation[0], 0, width[0]);
+			step();
+			System.arraycopy(activation[depth - 1], 0, response[seq], 0, width[depth - 1]);
+		}
+		updateOutputs();
+		return response;
+	}
+
+	/**
+	 * @param stimuli input layer. The values are copied.
+	 * @return double[][] output layer given input stimuli, copied by reference.
+	 */
+	public double[][] next(double[][] stimuli) {
+		setInputs(stimuli);
+		step();
+		updateOutputs();
+		return outputs;
+	}
+
+	/**
+	 * @param stimuli sequence of input layer values.
+	 * @return double[][][] sequence of output value arrays given input stimuli.
+	 */
+	public double[][][] nextSequence(double[][][] stimuli) {
+		int w = width[depth - 1];
+		double[][][] response = new double[stimuli.length][height[depth - 1]][w];
+		for (int seq = 0; seq < stimuli.length; seq++) {
+			setInputs(stimuli[seq]);
+			step();
+			for (int y = 0; y < height[depth - 1]; y++) {
+				System.arraycopy(activation[depth - 1], y * w, response[seq][y], 0, w);
+			}
+		}
+		updateOutputs();
+		return response;
+	}
+
+	/**
+	 * {@inheritDoc} The input values are copied.
+	 */
+	public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+		int inputCount = activation[0].length;
+		int outputCount = activation[depth - 1].length;
+		for (int seq = 0; seq < count; seq++) {
+			System.arraycopy(stimuli, seq * stimuliStride, activation[0], 0, inputCount);
+			step();
+			System.arraycopy(activation[depth - 1], 0, responses, seq * responseStride, outputCount);
+		}
+		updateOutputs();
+	}
+
+	/**
+	 * reset object to initial state, clear all activation.
+	 */
+	public void reset() {
+		for (int z = 0; z < depth; z++) {
+			Arrays.fill(activation[z], 0);
+		}
+		for (double[] row : outputs) {
+			Arrays.fill(row, 0);
+		}
+	}
+
+	/**
+	 * @return String identifier, preferably unique, of object.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String newName) {
+		name = newName;
+	}
+
+	/**
+	 * @return min response value
+	 */
+	public double getMinResponse() {
+		return activationFunction.getMinValue();
+	}
+
+	/**
+	 * @return max response value
+	 */
+	public double getMaxResponse() {
+		return activationFunction.getMaxValue();
+	}
+
+	/**
+	 * @return dimension of input array
+	 */
+	public int[] getInputDimension() {
+		return new int[] { height[0], width[0] };
+	}
+
+	/**
+	 * @return dimension of output array
+	 */
+	public int[] getOutputDimension() {
+		return new int[] { height[depth - 1], width[depth - 1] };
+	}
+
+	@Override
+	public int getInputCount() {
+		return height[0] * width[0];
+	}
+
+	@Override
+	public int getOutputCount() {
+		return height[depth - 1] * width[depth - 1];
+	}
+
+	/**
+	 * Return a count of the total number of connections in this network. Connections with shared weights are counted
+	 * once for each target neuron.
+	 *
+	 * $param includeBias Iff true then include bias connections.
+	 */
+	public int getConnectionCount(boolean includeBias) {
+		int connectionCount = 0;
+		for (int tz = 1; tz < depth; tz++) {
+			connectionCount += weightOffset[tz - 1][weightOffset[tz - 1].length - 1];
+			if (includeBias)
+				connectionCount += height[tz] * width[tz];
+		}
+		return connectionCount;
+	}
+
+	/**
+	 * @return <code>String</code> XML representation
+	 */
+	public String toXml() {
+		StringBuffer result = new StringBuffer();
+		result.append("<").append(XML_TAG).append(">\n");
+		result.append("<title>").append(getName()).append("</title>\n");
+		result.append("</").append(XML_TAG).append(">\n");
+		return result.toString();
+	}
+
+	/**
+	 * @see com.anji.util.XmlPersistable#getXmld()
+	 */
+	public String getXmld() {
+		return name;
+	}
+
+	public String getXmlRootTag() {
+		return "network";
+	}
+
+	@Override
+	public boolean render(Graphics2D g, int width, int height, int neuronSize) {
+		return false;
+	}
+
+	@Override
+	public void dispose() {
+	}
+
+	@Override
+	public boolean isRecurrent() {
+		return false;
+	}
+}
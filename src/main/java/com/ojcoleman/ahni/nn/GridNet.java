@@ -51,6 +51,7 @@ public class GridNet implements Activator {
 
 	private double[][][] activation; // tz,ty,tx
 	private double[][][] activationNew; // tz,ty,tx
+	private double[][] batchInput; // input layer used by nextBatch(..), y,x
 
 	private String name;
 
@@ -379,6 +380,15 @@ public class GridNet implements Activator {
 		return bias;
 	}
 
+	/**
+	 * Provides a reference to the weight matrix for the connections from layer tz-1 to the neuron at (tx, ty) in layer
+	 * tz of a feed-forward GridNet, in the format <code>[wy][wx]</code> where wy and wx are relative to the (grid edge
+	 * bounded) start of the window of source neurons.
+	 */
+	public double[][] getWeightMatrix(int tz, int ty, int tx) {
+		return weights[tz - 1][ty][tx][0];
+	}
+
 	/**
 	 * Perform one activation step, consisting of cyclesPerStep steps, calculating new activation for all neurons. For
 	 * feed-forward networks use stepFF.
@@ -417,19 +427,10 @@ public class GridNet implements Activator {
 							}
 						}
 
-						activationNew[tz][ty][tx] = activationFunction.apply(sum);
-
-						// System.out.println();
-
-						System.out.print("\t" + activationNew[tz][ty][tx]);
+						activationNew[tz][ty][tx] = activationFunction.evaluate(sum);
 					}
-					System.out.println();
 				}
-				System.out.println();
 			}
-			System.out.println();
-			System.out.println();
-			System.out.println();
 
 			double[][][] temp = activation;
 			activation = activationNew;
@@ -465,12 +466,14 @@ public class GridNet implements Activator {
 							sum += activation[sz][sy][sx] * w[wy][wx];
 						}
 					}
-					activation[tz][ty][tx] = activationFunction.apply(sum);
+					// Store the sum and apply the activation function to the whole row below.
+					activation[tz][ty][tx] = sum;
 
 					// System.out.println();
 
 					// System.out.print("\t" + activation[tz][ty][tx]);
 				}
+				activationFunction.applyInPlace(activation[tz][ty], 0, width[tz]);
 				// System.out.println();
 			}
 			// System.out.println();
@@ -569,6 +572,32 @@ public class GridNet implements Activator {
 		return response;
 	}
 
+	/**
+	 * {@inheritDoc} The input values are copied into an input layer owned by this network, replacing any input layer
+	 * array provided via <code>next(double[])</code> or <code>next(double[][])</code>.
+	 */
+	public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+		if (batchInput == null) {
+			batchInput = new double[height[0]][width[0]];
+		}
+		activation[0] = batchInput;
+		int outWidth = width[depth - 1];
+		for (int seq = 0; seq < count; seq++) {
+			int i = seq * stimuliStride;
+			for (int y = 0; y < height[0]; y++, i += width[0]) {
+				System.arraycopy(stimuli, i, batchInput[y], 0, width[0]);
+			}
+			if (isFeedForward)
+				stepFF();
+			else
+				step();
+			int o = seq * responseStride;
+			for (int y = 0; y < height[depth - 1]; y++, o += outWidth) {
+				System.arraycopy(activation[depth - 1][y], 0, responses, o, outWidth);
+			}
+		}
+	}
+
 	/**
 	 * reset object to initial state, clear all activation.
 	 */
@@ -10,6 +10,10 @@ public abstract class NNAdaptor implements Activator {
 	protected Point coordsMin;
 	private Point coordsMax;
 	protected Point coordsRange;
+	
+	// Reusable buffers for the default implementation of nextBatch(..).
+	private double[] batchInput;
+	private double[] batchOutput;
 
 	/**
 	 * Enable storing coordinates for neurons.
@@ -170,4 +174,68 @@ public abstract class NNAdaptor implements Activator {
 			}
 		}
 	}
+
+	/**
+	 * {@inheritDoc} This default implementation copies each input vector into a reusable array and calls
+	 * {@link #next(double[], double[])}, but sub-classes may override this method more efficiently.
+	 */
+	@Override
+	public void nextBatch(double[] stimuli, int stimuliStride, double[] responses, int responseStride, int count) {
+		int inputCount = getInputCount();
+		int outputCount = getOutputCount();
+		if (batchInput == null || batchInput.length != inputCount) {
+			batchInput = new double[inputCount];
+		}
+		if (batchOutput == null || batchOutput.length != outputCount) {
+			batchOutput = new double[outputCount];
+		}
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(stimuli, i * stimuliStride, batchInput, 0, inputCount);
+			next(batchInput, batchOutput);
+			System.arraycopy(batchOutput, 0, responses, i * responseStride, outputCount);
+		}
+	}
+
+	/**
+	 * Returns true iff this network supports simulating several independent instances of itself in lock-step, see
+	 * {@link #nextLanes(double[][], double[][], boolean[])}. This default implementation returns true iff this network
+	 * is not recurrent, in which case its output depends only on the current input. Sub-classes that maintain state
+	 * between calls to next(..) should override this method if they override {@link #setLaneCount(int)} and
+	 * {@link #nextLanes(double[][], double[][], boolean[])} accordingly.
+	 */
+	public boolean supportsLanes() {
+		return !isRecurrent();
+	}
+
+	/**
+	 * Reset this network and set the number of lanes to simulate with
+	 * {@link #nextLanes(double[][], double[][], boolean[])}. Each lane is an independent instance of this network with
+	 * its own state, initially the state after {@link #reset()}. This allows, for example, a network to be evaluated
+	 * on several environments at once, stepping each environment and then the network for all environments in turn.
+	 * This default implementation simply resets this network.
+	 * 
+	 * @see #supportsLanes()
+	 */
+	public void setLaneCount(int laneCount) {
+		reset();
+	}
+
+	/**
+	 * Retrieve the output from each lane (see {@link #setLaneCount(int)}) for the corresponding input. This is
+	 * equivalent to calling {@link #next(double[], double[])} on a separate instance of this network for each lane.
+	 * This default implementation simply calls {@link #next(double[], double[])} for each active lane, which is only
+	 * correct if this network does not maintain state between calls to next(..), see {@link #supportsLanes()}.
+	 * 
+	 * @param stimuli The input for each lane.
+	 * @param output An array to put the output from each lane in.
+	 * @param active Indicates which lanes should be activated, or null to activate all lanes. The state and output of
+	 *            inactive lanes are unchanged.
+	 */
+	public void nextLanes(double[][] stimuli, double[][] output, boolean[] active) {
+		for (int lane = 0; lane < stimuli.length; lane++) {
+			if (active == null || active[lane]) {
+				next(stimuli[lane], output[lane]);
+			}
+		}
+	}
 }
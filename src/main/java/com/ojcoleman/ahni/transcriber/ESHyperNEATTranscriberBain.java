@@ -33,6 +33,7 @@ import com.ojcoleman.ahni.hyperneat.Properties;
 import com.ojcoleman.ahni.nn.BainNN;
 import com.ojcoleman.ahni.nn.NNAdaptor;
 import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber.CPPN;
+import com.ojcoleman.ahni.transcriber.HyperNEATTranscriber.QueryBlock;
 import com.ojcoleman.ahni.util.Point;
 
 /**
@@ -298,15 +299,18 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		
 		// This list is passed to the quadTreeInitialisation and pruneAndExpress methods to be reused for performance reasons.
 		double[] tempStorageForCPPNValues = new double[maxQuadTreeSize];
+		// Likewise for the blocks used to query the CPPN.
+		QueryBlock quadTreeQueryBlock = cppn.newQueryBlock(maxQuadTreeSize);
+		QueryBlock bandQueryBlock = cppn.newQueryBlock(4);
 		
 		// Generate connections from input nodes.
 		for (Neuron input : inputNeuronPositionsCopy) {
 			// Analyse outgoing connectivity pattern from this input.		
-			QuadPoint root = quadTreeInitialisation(cppn, input, true, tempStorageForCPPNValues);
+			QuadPoint root = quadTreeInitialisation(cppn, input, true, tempStorageForCPPNValues, quadTreeQueryBlock);
 			
 			// Traverse quad tree and retrieve connections.
 			tempConnections.clear();
-			pruneAndExpress(cppn, input, tempConnections, root, true, tempStorageForCPPNValues);
+			pruneAndExpress(cppn, input, tempConnections, root, true, tempStorageForCPPNValues, bandQueryBlock);
 			
 			for (TempConnection tempCon : tempConnections) {
 				Neuron newHidden = new Neuron(tempCon.targetPoint.x, tempCon.targetPoint.y, tempCon.targetPoint.z, Neuron.HIDDEN);
@@ -326,11 +330,11 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		for (int step = 0; step < esIterations; step++) {
 			for (Neuron hiddenNeuron : unexploredHiddenNodes.values()) {
 				// Analyse outgoing connectivity pattern from hidden neuron.
-				QuadPoint root = quadTreeInitialisation(cppn, hiddenNeuron, true, tempStorageForCPPNValues);
+				QuadPoint root = quadTreeInitialisation(cppn, hiddenNeuron, true, tempStorageForCPPNValues, quadTreeQueryBlock);
 				
 				// Traverse quad tree and retrieve connections.
 				tempConnections.clear();
-				pruneAndExpress(cppn, hiddenNeuron, tempConnections, root, true, tempStorageForCPPNValues);
+				pruneAndExpress(cppn, hiddenNeuron, tempConnections, root, true, tempStorageForCPPNValues, bandQueryBlock);
 				
 				for (TempConnection tempCon : tempConnections) {
 					Neuron newHidden = new Neuron(tempCon.targetPoint.x, tempCon.targetPoint.y, tempCon.targetPoint.z, Neuron.HIDDEN);
@@ -355,9 +359,9 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		// Connect discovered hidden neurons to output neurons.
 		for (Neuron outputPos : outputNeuronPositionsCopy) {
 			// Analyse incoming connectivity pattern to this output
-			QuadPoint root = quadTreeInitialisation(cppn, outputPos, false, tempStorageForCPPNValues);
+			QuadPoint root = quadTreeInitialisation(cppn, outputPos, false, tempStorageForCPPNValues, quadTreeQueryBlock);
 			tempConnections.clear();
-			pruneAndExpress(cppn, outputPos, tempConnections, root, false, tempStorageForCPPNValues);
+			pruneAndExpress(cppn, outputPos, tempConnections, root, false, tempStorageForCPPNValues, bandQueryBlock);
 
 			for (TempConnection tempCon : tempConnections) {
 				Neuron source = new Neuron(tempCon.sourcePoint.x, tempCon.sourcePoint.y, tempCon.sourcePoint.z, Neuron.HIDDEN);
@@ -486,6 +490,17 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 
 		// Set pre and post neuron indexes and weight value for each connection.
 		double[] synapseWeights = synapses.getEfficacies();
+		QueryBlock queryBlock = null;
+		if (synapseParamsEnabled || synapseTypesEnabled) {
+			// Query the CPPN for the parameters of all synapses in a single block.
+			queryBlock = cppn.newQueryBlock(synapseCount);
+			for (Connection c : connections) {
+				cppn.setSourceCoordinates(c.source);
+				cppn.setTargetCoordinates(c.target);
+				cppn.addToBlock(queryBlock);
+			}
+			cppn.queryBlock(queryBlock);
+		}
 		int ci = 0;
 		for (Connection c : connections) {
 			assert (c.source.indexInBainNN < neuronCount);
@@ -493,7 +508,7 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			synapses.setPreAndPostNeurons(ci, c.source.indexInBainNN, c.target.indexInBainNN);
 			synapseWeights[ci] = c.weight;
 			if (synapseParamsEnabled || synapseTypesEnabled) {
-				cppn.query(c.source, c.target);
+				cppn.selectBlockResult(queryBlock, ci);
 				setSynapseParameters(synapses, ci, cppn, false, true);
 			}
 			ci++;
@@ -504,6 +519,7 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		int simRes = properties.getIntProperty(BainNN.SUBSTRATE_SIMULATION_RESOLUTION, 1000);
 		String execModeName = properties.getProperty(BainNN.SUBSTRATE_EXECUTION_MODE, null);
 		Kernel.EXECUTION_MODE execMode = execModeName == null ? null : Kernel.EXECUTION_MODE.valueOf(execModeName);
+		synapses.setPostSortedAccumulation(properties.getBooleanProperty(BainNN.SUBSTRATE_POST_SORTED_SYNAPSES, execMode != null && execMode != Kernel.EXECUTION_MODE.SEQ));
 		NeuralNetwork nn = new NeuralNetwork(simRes, neurons, synapses, execMode);
 		int[] inputDims = new int[] { inputCount, 1 };
 		int[] outputDims = new int[] { outputCount, 1 };
@@ -513,6 +529,7 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			if (feedForward && network.getTopology().equals(BainNN.Topology.RECURRENT)) {
 				return null;
 			}
+			network.setSinglePassEnabled(properties.getBooleanProperty(BainNN.SUBSTRATE_SINGLE_PASS, true));
 			if (properties.getBooleanProperty(ES_HYPERNEAT_RECORD_COORDINATES, false)) {
 				network.enableCoords();
 				int neuronIndex = 0;
@@ -686,9 +703,19 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 	 * @return The root of the generated quadtree, each QuadPoint stores CPPN activation level for its position.
 	 */
 	public QuadPoint quadTreeInitialisation(CPPN cppn, Point n, boolean outgoing, double[] tempStorageForCPPNValues) {
+		return quadTreeInitialisation(cppn, n, outgoing, tempStorageForCPPNValues, cppn.newQueryBlock(maxQuadTreeSize));
+	}
+
+	/**
+	 * As for {@link #quadTreeInitialisation(CPPN, Point, boolean, double[])}, allowing reuse of the block used to
+	 * query the CPPN.
+	 */
+	public QuadPoint quadTreeInitialisation(CPPN cppn, Point n, boolean outgoing, double[] tempStorageForCPPNValues, QueryBlock queryBlock) {
 		QuadPoint root = new QuadPoint(0.5, 0.5, 0.5, 1, 1); // x, y, z, width, level
 		ArrayDeque<QuadPoint> queue = new ArrayDeque<QuadPoint>(maxQuadTreeSize);
 		queue.add(root);
+		List<QuadPoint> parents = new ArrayList<QuadPoint>(maxQuadTreeSize);
+		boolean[] blockLEOs = null;
 
 		//DecimalFormat nf1 = new DecimalFormat("###0.0##");
 		/*BufferedImage image = null;
@@ -700,57 +727,76 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 			g = image.createGraphics();
 		}*/
 		
+		// The queue is processed a level at a time so that the CPPN can be queried for all children at a level in a single block.
 		while (!queue.isEmpty()) {
-			QuadPoint parent = queue.removeFirst();
-
-			// Divide into sub-regions and assign children to parent.
-			int childLevel = parent.level+1;
-			double childWidth = parent.width * 0.5;
-			double offset = childWidth * 0.5;
-			if (pseudo3D ) {
-				// Hidden nodes located on XZ plane at y = 0.5.
-				parent.children[0] = new QuadPoint(parent.x - offset, 0.5, parent.z - offset, childWidth, childLevel);
-				parent.children[1] = new QuadPoint(parent.x - offset, 0.5, parent.z + offset, childWidth, childLevel);
-				parent.children[2] = new QuadPoint(parent.x + offset, 0.5, parent.z - offset, childWidth, childLevel);
-				parent.children[3] = new QuadPoint(parent.x + offset, 0.5, parent.z + offset, childWidth, childLevel);
-			}
-			else {
-				// Hidden nodes located on XY plane.
-				parent.children[0] = new QuadPoint(parent.x - offset, parent.y - offset, 0, childWidth, childLevel);
-				parent.children[1] = new QuadPoint(parent.x - offset, parent.y + offset, 0, childWidth, childLevel);
-				parent.children[2] = new QuadPoint(parent.x + offset, parent.y - offset, 0, childWidth, childLevel);
-				parent.children[3] = new QuadPoint(parent.x + offset, parent.y + offset, 0, childWidth, childLevel);
-			}
+			parents.clear();
+			parents.addAll(queue);
+			queue.clear();
+			queryBlock.clear();
 			
-			// Get CPPN output for each child.
-			for (int ci = 0; ci < 4; ci++) {
-				QuadPoint child = parent.children[ci];
-				if (outgoing) { // Querying connection from input or hidden node.
-					child.cppnValue = cppn.query(n, child); // Outgoing connectivity pattern.
-					//child.cppnValue = cppn.getRangedWeight();
+			for (QuadPoint parent : parents) {
+				// Divide into sub-regions and assign children to parent.
+				int childLevel = parent.level+1;
+				double childWidth = parent.width * 0.5;
+				double offset = childWidth * 0.5;
+				if (pseudo3D ) {
+					// Hidden nodes located on XZ plane at y = 0.5.
+					parent.children[0] = new QuadPoint(parent.x - offset, 0.5, parent.z - offset, childWidth, childLevel);
+					parent.children[1] = new QuadPoint(parent.x - offset, 0.5, parent.z + offset, childWidth, childLevel);
+					parent.children[2] = new QuadPoint(parent.x + offset, 0.5, parent.z - offset, childWidth, childLevel);
+					parent.children[3] = new QuadPoint(parent.x + offset, 0.5, parent.z + offset, childWidth, childLevel);
 				}
-				else { // Querying connection to output node.
-					child.cppnValue = cppn.query(child, n); // Incoming connectivity pattern.
-					//child.cppnValue = cppn.getRangedWeight();
+				else {
+					// Hidden nodes located on XY plane.
+					parent.children[0] = new QuadPoint(parent.x - offset, parent.y - offset, 0, childWidth, childLevel);
+					parent.children[1] = new QuadPoint(parent.x - offset, parent.y + offset, 0, childWidth, childLevel);
+					parent.children[2] = new QuadPoint(parent.x + offset, parent.y - offset, 0, childWidth, childLevel);
+					parent.children[3] = new QuadPoint(parent.x + offset, parent.y + offset, 0, childWidth, childLevel);
 				}
 				
-				child.leo = cppn.getLEO();
-				
-				/*if (firstTime) {
-					int hwI = (int) Math.round(childWidth * w);
-					int x = (int) Math.round(child.x * w) - hwI/2;
-					int y = (int) Math.round((pseudo3D ? child.z : child.y) * h) - hwI/2;
-					int c = Math.min((int) Math.round(child.cppnValue * 0.5 * 255), 255);
-					g.setColor(new Color(c, c, c));
-					g.fillRect(x, y, hwI, hwI);*/
-					//logger.info(child.level + " : " + child.width + " : " + nf1.format(n.x) + ", " + nf1.format(n.y) + ", " + nf1.format(n.z) +  " -> " + nf1.format(child.x) + ", " + nf1.format(child.y) + ", " + nf1.format(child.z) + " : " + nf1.format(child.cppnValue));
-				//}
+				for (int ci = 0; ci < 4; ci++) {
+					QuadPoint child = parent.children[ci];
+					if (outgoing) { // Querying connection from input or hidden node.
+						cppn.setSourceCoordinates(n); // Outgoing connectivity pattern.
+						cppn.setTargetCoordinates(child);
+					}
+					else { // Querying connection to output node.
+						cppn.setSourceCoordinates(child); // Incoming connectivity pattern.
+						cppn.setTargetCoordinates(n);
+					}
+					cppn.addToBlock(queryBlock);
+				}
 			}
-
-			// Divide if minimum resolution hasn't been reached or variance is above threshold and maximum resolution hasn't been reached.
-			if (parent.level < initialDepth || (parent.level < maxDepth && variance(parent, tempStorageForCPPNValues) > divisionThreshold)) {
+			
+			// Get CPPN output for each child.
+			cppn.queryBlock(queryBlock);
+			double[] blockWeights = queryBlock.getOutputs(getCPPNIndexWeight()[0]);
+			blockLEOs = cppn.getLEOs(queryBlock, 0, blockLEOs);
+			int queryIndex = 0;
+			for (QuadPoint parent : parents) {
 				for (int ci = 0; ci < 4; ci++) {
-					queue.add(parent.children[ci]);
+					QuadPoint child = parent.children[ci];
+					child.cppnValue = blockWeights[queryIndex];
+					//child.cppnValue = cppn.getRangedWeight();
+					child.leo = blockLEOs[queryIndex];
+					queryIndex++;
+					
+					/*if (firstTime) {
+						int hwI = (int) Math.round(childWidth * w);
+						int x = (int) Math.round(child.x * w) - hwI/2;
+						int y = (int) Math.round((pseudo3D ? child.z : child.y) * h) - hwI/2;
+						int c = Math.min((int) Math.round(child.cppnValue * 0.5 * 255), 255);
+						g.setColor(new Color(c, c, c));
+						g.fillRect(x, y, hwI, hwI);*/
+						//logger.info(child.level + " : " + child.width + " : " + nf1.format(n.x) + ", " + nf1.format(n.y) + ", " + nf1.format(n.z) +  " -> " + nf1.format(child.x) + ", " + nf1.format(child.y) + ", " + nf1.format(child.z) + " : " + nf1.format(child.cppnValue));
+					//}
+				}
+	
+				// Divide if minimum resolution hasn't been reached or variance is above threshold and maximum resolution hasn't been reached.
+				if (parent.level < initialDepth || (parent.level < maxDepth && variance(parent, tempStorageForCPPNValues) > divisionThreshold)) {
+					for (int ci = 0; ci < 4; ci++) {
+						queue.add(parent.children[ci]);
+					}
 				}
 			}
 		}
@@ -784,43 +830,59 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 	 * @param tempStorageForCPPNValues A list store the CPPN value for each node in the quadtree. Allows reuse of same list for performance reasons.
 	 */
 	protected void pruneAndExpress(CPPN cppn, Point neuron, List<TempConnection> connections, QuadPoint root, boolean outgoing, double[] tempStorageForCPPNValues) {
+		pruneAndExpress(cppn, neuron, connections, root, outgoing, tempStorageForCPPNValues, cppn.newQueryBlock(4));
+	}
+
+	/**
+	 * As for {@link #pruneAndExpress(CPPN, Point, List, QuadPoint, boolean, double[])}, allowing reuse of the block
+	 * used to query the CPPN for the band neighbours of each point.
+	 */
+	protected void pruneAndExpress(CPPN cppn, Point neuron, List<TempConnection> connections, QuadPoint root, boolean outgoing, double[] tempStorageForCPPNValues, QueryBlock queryBlock) {
 		double left = 0, right = 0, top = 0, bottom = 0;
 
 		if (root.children[0] == null)
 			return;
 
+		int weightIndex = getCPPNIndexWeight()[0];
+		
 		// Traverse quadtree depth-first.
 		for (int ci = 0; ci < 4; ci++) {
 			QuadPoint child = root.children[ci];
 			double childVariance = variance(child, tempStorageForCPPNValues);
 			if (childVariance >= varianceThreshold) {
-				pruneAndExpress(cppn, neuron, connections, child, outgoing, tempStorageForCPPNValues);
+				pruneAndExpress(cppn, neuron, connections, child, outgoing, tempStorageForCPPNValues, queryBlock);
 			} else if (child.leo) { // If LEO disabled this should always happen for at least the leaf nodes because their variance is zero.
-				// Determine if point is in a band by checking neighbour CPPN values.
+				// Determine if point is in a band by checking neighbour CPPN values (left, right, top, bottom).
 				double width = root.width;
+				queryBlock.clear();
 				if (outgoing) {
-					left = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x - width, child.y, child.z));
-					right = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x + width, child.y, child.z));
+					addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x - width, child.y, child.z);
+					addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x + width, child.y, child.z);
 					if (pseudo3D) { // Hidden nodes located on XZ plane.
-						top = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x, child.y, child.z - width));
-						bottom = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x, child.y, child.z + width));
+						addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x, child.y, child.z - width);
+						addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x, child.y, child.z + width);
 					}
 					else { // Hidden nodes located on XY plane.
-						top = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x, child.y - width, child.z));
-						bottom = Math.abs(child.cppnValue - cppn.query(neuron.x, neuron.y, neuron.z, child.x, child.y + width, child.z));
+						addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x, child.y - width, child.z);
+						addQuery(cppn, queryBlock, neuron.x, neuron.y, neuron.z, child.x, child.y + width, child.z);
 					}
 				} else {
-					left = Math.abs(child.cppnValue - cppn.query(child.x - width, child.y, child.z, neuron.x, neuron.y, neuron.z));
-					right = Math.abs(child.cppnValue - cppn.query(child.x + width, child.y, child.z, neuron.x, neuron.y, neuron.z));
+					addQuery(cppn, queryBlock, child.x - width, child.y, child.z, neuron.x, neuron.y, neuron.z);
+					addQuery(cppn, queryBlock, child.x + width, child.y, child.z, neuron.x, neuron.y, neuron.z);
 					if (pseudo3D) { // Hidden nodes located on XZ plane.
-						top = Math.abs(child.cppnValue - cppn.query(child.x, child.y, child.z - width, neuron.x, neuron.y, neuron.z));
-						bottom = Math.abs(child.cppnValue - cppn.query(child.x, child.y, child.z + width, neuron.x, neuron.y, neuron.z));
+						addQuery(cppn, queryBlock, child.x, child.y, child.z - width, neuron.x, neuron.y, neuron.z);
+						addQuery(cppn, queryBlock, child.x, child.y, child.z + width, neuron.x, neuron.y, neuron.z);
 					}
 					else { // Hidden nodes located on XY plane.
-						top = Math.abs(child.cppnValue - cppn.query(child.x, child.y - width, child.z, neuron.x, neuron.y, neuron.z));
-						bottom = Math.abs(child.cppnValue - cppn.query(child.x, child.y + width, child.z, neuron.x, neuron.y, neuron.z));
+						addQuery(cppn, queryBlock, child.x, child.y - width, child.z, neuron.x, neuron.y, neuron.z);
+						addQuery(cppn, queryBlock, child.x, child.y + width, child.z, neuron.x, neuron.y, neuron.z);
 					}
 				}
+				cppn.queryBlock(queryBlock);
+				left = Math.abs(child.cppnValue - queryBlock.getOutput(weightIndex, 0));
+				right = Math.abs(child.cppnValue - queryBlock.getOutput(weightIndex, 1));
+				top = Math.abs(child.cppnValue - queryBlock.getOutput(weightIndex, 2));
+				bottom = Math.abs(child.cppnValue - queryBlock.getOutput(weightIndex, 3));
 				
 				if (Math.max(Math.min(top, bottom), Math.min(left, right)) > bandThrehold) {
 					TempConnection tc;
@@ -836,6 +898,12 @@ public class ESHyperNEATTranscriberBain extends HyperNEATTranscriberBainBase imp
 		}
 	}
 
+	private void addQuery(CPPN cppn, QueryBlock queryBlock, double sx, double sy, double sz, double tx, double ty, double tz) {
+		cppn.setSourceCoordinates(sx, sy, sz);
+		cppn.setTargetCoordinates(tx, ty, tz);
+		cppn.addToBlock(queryBlock);
+	}
+
 	/**
 	 * Determine the variance of a given region.
 	 * @param p The root of the quadtree.  
@@ -716,6 +716,83 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		return new CPPN(genotype);
 	}
 
+	/**
+	 * A block of CPPN queries for use with {@link CPPN#queryBlock(QueryBlock)}. The CPPN inputs and outputs for the
+	 * queries in the block are stored in structure-of-arrays layout, indexed by [CPPN input or output index][query
+	 * index], so that the CPPN can be evaluated over the whole block at once. A block may be reused for any number of
+	 * sequential batches of queries via {@link #clear()}; it grows as necessary to hold all the queries added to it.
+	 */
+	public static class QueryBlock {
+		protected double[][] input;
+		protected double[][] output;
+		protected double[] synapseLength;
+		protected int size;
+		protected int capacity;
+
+		protected QueryBlock(int inputCount, int outputCount, int capacity) {
+			this.capacity = Math.max(1, capacity);
+			input = new double[inputCount][this.capacity];
+			output = new double[outputCount][this.capacity];
+			synapseLength = new double[this.capacity];
+		}
+
+		/**
+		 * Remove all queries from this block.
+		 */
+		public void clear() {
+			size = 0;
+		}
+
+		/**
+		 * @return the number of queries in this block.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Get the value of the given CPPN output for the given query. Should be called after calling
+		 * {@link CPPN#queryBlock(QueryBlock)}.
+		 * 
+		 * @param outputIndex The index of the CPPN output.
+		 * @param queryIndex The index of the query in this block.
+		 */
+		public double getOutput(int outputIndex, int queryIndex) {
+			return output[outputIndex][queryIndex];
+		}
+
+		/**
+		 * Get the values of the given CPPN output for all queries in this block. The returned array is used internally
+		 * by this block and may be longer than {@link #size()}. Should be called after calling
+		 * {@link CPPN#queryBlock(QueryBlock)}.
+		 * 
+		 * @param outputIndex The index of the CPPN output.
+		 */
+		public double[] getOutputs(int outputIndex) {
+			return output[outputIndex];
+		}
+
+		/**
+		 * Add a query to this block with the given CPPN input values.
+		 */
+		protected void add(double[] cppnInput) {
+			if (size == capacity) {
+				capacity *= 2;
+				for (int i = 0; i < input.length; i++) {
+					input[i] = Arrays.copyOf(input[i], capacity);
+				}
+				for (int o = 0; o < output.length; o++) {
+					output[o] = new double[capacity];
+				}
+				synapseLength = new double[capacity];
+			}
+			for (int i = 0; i < input.length; i++) {
+				input[i][size] = cppnInput[i];
+			}
+			size++;
+		}
+	}
+
 	/**
 	 * Provides a wrapper for an {@link com.anji.integration.Activator} that represents a CPPN.
 	 */
@@ -730,10 +807,24 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * Squared length of the current synapse (set when query() called).
 		 */
 		protected double synapseLength = 0;
+		/**
+		 * The activator used to evaluate blocks of queries, or null if the CPPN does not support block activation.
+		 */
+		protected AnjiActivator blockActivator;
+		/**
+		 * The block and index of the query selected via {@link #selectBlockResult(QueryBlock, int)}, if any. The get
+		 * methods read the inputs and outputs of this query rather than cppnInput and cppnOutput. Cleared by
+		 * {@link #query()}.
+		 */
+		protected QueryBlock selectedBlock;
+		protected int selectedQuery;
 
 		public CPPN(Chromosome genotype) throws TranscriberException {
 			cppnActivator = cppnTranscriber.transcribe(genotype);
 			((AnjiActivator) cppnActivator).setName("CPPN-" + genotype.getId());
+			if (((AnjiActivator) cppnActivator).supportsBlockActivation()) {
+				blockActivator = (AnjiActivator) cppnActivator;
+			}
 			if (cppnIdxBiasInput != -1) {
 				cppnInput[cppnIdxBiasInput] = 1; // Bias.
 			}
@@ -968,6 +1059,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 			}
 
 			cppnActivator.reset();
+			selectedBlock = null;
 			cppnOutput = cppnActivator.next(cppnInput);
 			return getWeight();
 		}
@@ -1020,11 +1112,180 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 			return query();
 		}
 
+		/**
+		 * Create a new (empty) block of queries for this CPPN.
+		 * 
+		 * @param capacity The expected number of queries in the block. The block will grow as necessary if more queries
+		 *            are added.
+		 * @see #addToBlock(QueryBlock)
+		 * @see #queryBlock(QueryBlock)
+		 */
+		public QueryBlock newQueryBlock(int capacity) {
+			return new QueryBlock(cppnInputCount, cppnActivator.getOutputCount(), capacity);
+		}
+
+		/**
+		 * Add a query to the given block using the source and target coordinates currently set for this CPPN (via the
+		 * various setSourceCoordinates and setTargetCoordinates methods).
+		 */
+		public void addToBlock(QueryBlock block) {
+			block.add(cppnInput);
+		}
+
+		/**
+		 * Query this CPPN for every query in the given block. If the CPPN is feed-forward the whole block is evaluated
+		 * at once (see {@link AnjiActivator#nextBlock(double[][], int, double[][])}), otherwise each query is performed
+		 * in turn. The results are identical to calling {@link #query()} for each query separately. The output values
+		 * may be retrieved directly from the block, via {@link #getRangedWeights(QueryBlock, int, double[])} and
+		 * {@link #getLEOs(QueryBlock, int, boolean[])}, or via the usual get methods after selecting a particular query
+		 * with {@link #selectBlockResult(QueryBlock, int)}.
+		 */
+		public void queryBlock(QueryBlock block) {
+			int count = block.size;
+			double[][] in = block.input;
+			double[] sx = in[cppnIdxSX], sy = in[cppnIdxSY], tx = in[cppnIdxTX], ty = in[cppnIdxTY];
+			if (includeDelta || leoThresholdFactorDistance) {
+				double[] sz = cppnIdxDZ != -1 ? in[cppnIdxSZ] : null;
+				double[] tz = cppnIdxDZ != -1 ? in[cppnIdxTZ] : null;
+				for (int i = 0; i < count; i++) {
+					double dx = sx[i] - tx[i];
+					double dy = sy[i] - ty[i];
+					double dz = cppnIdxDZ != -1 ? sz[i] - tz[i] : 0;
+					block.synapseLength[i] = leoThresholdFactorDistance ? Math.sqrt(dx * dx + dy * dy + dz * dz) : -1;
+					if (includeDelta) {
+						in[cppnIdxDX][i] = dx;
+						in[cppnIdxDY][i] = dy;
+						if (cppnIdxDZ != -1) {
+							in[cppnIdxDZ][i] = dz;
+						}
+					}
+				}
+			} else {
+				Arrays.fill(block.synapseLength, 0, count, -1);
+			}
+			if (includeAngle) {
+				double[] an = in[cppnIdxAn];
+				for (int i = 0; i < count; i++) {
+					double angle = Math.atan2(sy[i] - ty[i], sx[i] - tx[i]);
+					angle /= 2 * Math.PI;
+					if (angle < 0)
+						angle += 1;
+					an[i] = angle;
+				}
+			}
+
+			if (blockActivator != null) {
+				blockActivator.nextBlock(in, count, block.output);
+			} else {
+				double[] blockInput = new double[cppnInputCount];
+				for (int i = 0; i < count; i++) {
+					for (int ii = 0; ii < cppnInputCount; ii++) {
+						blockInput[ii] = in[ii][i];
+					}
+					cppnActivator.reset();
+					double[] out = cppnActivator.next(blockInput);
+					for (int o = 0; o < out.length; o++) {
+						block.output[o][i] = out[o];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Select the result of a query in a block so that it may be retrieved via the usual get methods (for example
+		 * {@link #getNeuronTypeIndex()} and {@link #getRangedSynapseParam(int, int)}) as if {@link #query()} had been
+		 * called for it. The inputs and outputs of the query are read from the block, not copied. Should be called after
+		 * calling {@link #queryBlock(QueryBlock)}. Where only weights, biases and/or link expression values are required
+		 * prefer {@link #getRangedWeights(QueryBlock, int, double[])}, {@link #getRangedBiasWeights(QueryBlock, int, double[])}
+		 * and {@link #getLEOs(QueryBlock, int, boolean[])}.
+		 * 
+		 * @param block The block containing the query.
+		 * @param queryIndex The index of the query in the block.
+		 */
+		public void selectBlockResult(QueryBlock block, int queryIndex) {
+			selectedBlock = block;
+			selectedQuery = queryIndex;
+			synapseLength = block.synapseLength[queryIndex];
+		}
+
+		private double input(int index) {
+			return selectedBlock != null ? selectedBlock.input[index][selectedQuery] : cppnInput[index];
+		}
+
+		private double output(int index) {
+			return selectedBlock != null ? selectedBlock.output[index][selectedQuery] : cppnOutput[index];
+		}
+
+		/**
+		 * Get the value of a connection weight for every query in the given block (see {@link #getRangedWeight(int)}).
+		 * Should be called after calling {@link #queryBlock(QueryBlock)}.
+		 * 
+		 * @param block The block of queries.
+		 * @param index The weight index, see {@link #getRangedWeight(int)}.
+		 * @param weights Array to put the weight values in. If null or shorter than {@link QueryBlock#size()} then a new
+		 *            array is created.
+		 * @return the array containing the weight values.
+		 */
+		public double[] getRangedWeights(QueryBlock block, int index, double[] weights) {
+			return rangeOutputs(block, cppnIdxWeight[index], weights);
+		}
+
+		/**
+		 * Get the bias value for every query in the given block (see {@link #getRangedBiasWeight(int)}). Should be
+		 * called after calling {@link #queryBlock(QueryBlock)}.
+		 * 
+		 * @param block The block of queries.
+		 * @param index The bias index, see {@link #getRangedBiasWeight(int)}.
+		 * @param biases Array to put the bias values in. If null or shorter than {@link QueryBlock#size()} then a new
+		 *            array is created.
+		 * @return the array containing the bias values.
+		 */
+		public double[] getRangedBiasWeights(QueryBlock block, int index, double[] biases) {
+			return rangeOutputs(block, cppnIdxBias[index], biases);
+		}
+
+		private double[] rangeOutputs(QueryBlock block, int outputIndex, double[] values) {
+			if (values == null || values.length < block.size) {
+				values = new double[block.capacity];
+			}
+			double[] output = block.output[outputIndex];
+			for (int i = 0; i < block.size; i++) {
+				values[i] = rangeOutput(output[i], connectionWeightMin, connectionWeightMax, connectionWeightRange, connectionExprThresh);
+			}
+			return values;
+		}
+
+		/**
+		 * Get the value of the link expression output for every query in the given block (see {@link #getLEO(int)}).
+		 * Should be called after calling {@link #queryBlock(QueryBlock)}.
+		 * 
+		 * @param block The block of queries.
+		 * @param index The LEO index, see {@link #getLEO(int)}.
+		 * @param leo Array to put the LEO values in. If null or shorter than {@link QueryBlock#size()} then a new array
+		 *            is created.
+		 * @return the array containing the LEO values.
+		 */
+		public boolean[] getLEOs(QueryBlock block, int index, boolean[] leo) {
+			if (leo == null || leo.length < block.size) {
+				leo = new boolean[block.capacity];
+			}
+			if (!enableLEO) {
+				Arrays.fill(leo, 0, block.size, true);
+				return leo;
+			}
+			double[] output = block.output[cppnIdxLEO[index]];
+			for (int i = 0; i < block.size; i++) {
+				double direction = cppnIdxSZ != -1 ? (block.input[cppnIdxTZ][i] - block.input[cppnIdxSZ][i]) : 1;
+				leo[i] = isLinkExpressed(output[i], direction, block.synapseLength[i]);
+			}
+			return leo;
+		}
+
 		/**
 		 * Get the value of the weight. Should be called after calling {@link #query()}.
 		 */
 		public double getWeight() {
-			return cppnOutput[cppnIdxWeight[0]];
+			return output(cppnIdxWeight[0]);
 		}
 
 		/**
@@ -1041,7 +1302,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * be called after calling {@link #query()}.
 		 */
 		public double getWeight(int index) {
-			return cppnOutput[cppnIdxWeight[index]];
+			return output(cppnIdxWeight[index]);
 		}
 
 		/**
@@ -1059,7 +1320,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * for a target neuron after setting the source coordinate values to 0.
 		 */
 		public double getBiasWeight() {
-			return cppnOutput[cppnIdxBias[0]];
+			return output(cppnIdxBias[0]);
 		}
 
 		/**
@@ -1078,7 +1339,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * source coordinate values to 0.
 		 */
 		public double getBiasWeight(int index) {
-			return cppnOutput[cppnIdxBias[index]];
+			return output(cppnIdxBias[index]);
 		}
 
 		/**
@@ -1108,9 +1369,13 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 */
 		public boolean getLEO(int index) {
 			if (!enableLEO) return true;
-			double direction = cppnIdxSZ != -1 ? (cppnInput[cppnIdxTZ] - cppnInput[cppnIdxSZ]) : 1;
+			double direction = cppnIdxSZ != -1 ? (input(cppnIdxTZ) - input(cppnIdxSZ)) : 1;
+			return isLinkExpressed(output(cppnIdxLEO[index]), direction, synapseLength);
+		}
+
+		private boolean isLinkExpressed(double leoOutput, double direction, double length) {
 			int dirIndex = direction < 0 ? 0 : (direction == 0 ? 1 : 2);
-			return cppnOutput[cppnIdxLEO[index]] > leoThreshold * (leoThresholdFactorDistance ? synapseLength : 1) * leoThresholdFactorDirection[dirIndex];
+			return leoOutput > leoThreshold * (leoThresholdFactorDistance ? length : 1) * leoThresholdFactorDirection[dirIndex];
 		}
 
 		/**
@@ -1128,7 +1393,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * returned.
 		 */
 		public boolean getNEO(int index) {
-			return !enableNEO || cppnOutput[cppnIdxNEO[index]] > neoThreshold;
+			return !enableNEO || output(cppnIdxNEO[index]) > neoThreshold;
 		}
 		
 		/**
@@ -1157,7 +1422,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * called after calling {@link #query()}.
 		 */
 		public double getNeuronParam(int type, int paramIndex) {
-			return cppnOutput[cppnIDXNeuronParams[type][paramIndex]];
+			return output(cppnIDXNeuronParams[type][paramIndex]);
 		}
 
 		/**
@@ -1175,7 +1440,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * called after calling {@link #query()}.
 		 */
 		public double getSynapseParam(int type, int paramIndex) {
-			return cppnOutput[cppnIDXSynapseParams[type][paramIndex]];
+			return output(cppnIDXSynapseParams[type][paramIndex]);
 		}
 
 		/**
@@ -1193,7 +1458,7 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * add additional outputs to the CPPN.
 		 */
 		public double getOutput(int index) {
-			return cppnOutput[index];
+			return output(index);
 		}
 
 		/**
@@ -1202,10 +1467,17 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		 * optionally have a threshold applied.
 		 */
 		public double getRangedOutput(int index, double minValue, double maxValue, double valueRange, double threshold) {
-			double output = cppnOutput[index];
+			double output = rangeOutput(output(index), minValue, maxValue, valueRange, threshold);
 			
-			//assert !Double.isNaN(output) : Arrays.toString(cppnOutput) + "\n" + cppnActivator.toString();
+			assert !Double.isNaN(output) : "output " + index + " is NaN\n" + cppnActivator.toString();
 			
+			return output;
+		}
+
+		/**
+		 * Transform the given raw output value to be within the specified range, optionally applying a threshold.
+		 */
+		private double rangeOutput(double output, double minValue, double maxValue, double valueRange, double threshold) {
 			if (cppnOutputUnitBounded) {
 				// Scale to range [minValue, maxValue].
 				output = output * valueRange + minValue;
@@ -1217,8 +1489,6 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 				output = Math.min(maxValue, Math.max(minValue, output));
 			}
 			
-			//assert !Double.isNaN(output) : cppnOutput + "\n" + cppnActivator.toString();
-
 			// If thresholding is to be applied.
 			if (threshold > 0) {
 				if (Math.abs(output) > threshold) {
@@ -1231,8 +1501,6 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 				}
 			}
 			
-			assert !Double.isNaN(output) : Arrays.toString(cppnOutput) + "\n" + cppnActivator.toString();
-			
 			return output;
 		}
 
@@ -1286,9 +1554,9 @@ public abstract class HyperNEATTranscriber<T extends Activator> extends Transcri
 		
 		public double getSynapseLength() {
 			if (synapseLength == -1) {
-				double dx = cppnInput[cppnIdxSX] - cppnInput[cppnIdxTX];
-				double dy = cppnInput[cppnIdxSY] - cppnInput[cppnIdxTY];
-				double dz = cppnIdxDZ != -1 ? cppnInput[cppnIdxSZ] - cppnInput[cppnIdxTZ] : 0;
+				double dx = input(cppnIdxSX) - input(cppnIdxTX);
+				double dy = input(cppnIdxSY) - input(cppnIdxTY);
+				double dz = cppnIdxDZ != -1 ? input(cppnIdxSZ) - input(cppnIdxTZ) : 0;
 				synapseLength = Math.sqrt(dx * dx + dy * dy + dz * dz);
 			}
 			return synapseLength;
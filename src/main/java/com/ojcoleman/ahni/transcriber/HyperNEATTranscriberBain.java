@@ -210,14 +210,24 @@ public class HyperNEATTranscriberBain extends HyperNEATTranscriberBainBase {
 		
 		int synapseIndex = 0;
 		
-		// query CPPN for substrate neuron parameters.
+		// query CPPN for substrate neuron parameters, all neurons are queried in a single block.
 		boolean[] neuronDisabled = new boolean[neuronCount];
+		QueryBlock queryBlock = cppn.newQueryBlock(neuronCount);
 		for (int z = 0; z < depth; z++) {
 			for (int y = 0; y < height[z]; y++) {
 				for (int x = 0; x < width[z]; x++) {
 					cppn.resetSourceCoordinates();
 					cppn.setTargetCoordinatesFromGridIndices(x, y, z);
-					cppn.query();
+					cppn.addToBlock(queryBlock);
+				}
+			}
+		}
+		cppn.queryBlock(queryBlock);
+		int queryIndex = 0;
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height[z]; y++) {
+				for (int x = 0; x < width[z]; x++) {
+					cppn.selectBlockResult(queryBlock, queryIndex++);
 					
 					int bainNeuronIndex = getBainNeuronIndex(x, y, z);
 					int neuronType = 0;
@@ -256,12 +266,24 @@ public class HyperNEATTranscriberBain extends HyperNEATTranscriberBainBase {
 					
 					cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
 					
+					// Query the CPPN for all synapses to the target neuron in a single block.
 					// Iteration over layers for the source neuron is only used for recurrent networks.
+					queryBlock.clear();
 					for (int sz = (feedForward ? tz - 1 : 0); sz < (feedForward ? tz : depth); sz++) {
 						for (int sy = 0; sy < height[sz]; sy++) {
 							for (int sx = 0; sx < width[sz]; sx++) {
 								cppn.setSourceCoordinatesFromGridIndices(sx, sy, sz);
-								cppn.query();
+								cppn.addToBlock(queryBlock);
+							}
+						}
+					}
+					cppn.queryBlock(queryBlock);
+					queryIndex = 0;
+					
+					for (int sz = (feedForward ? tz - 1 : 0); sz < (feedForward ? tz : depth); sz++) {
+						for (int sy = 0; sy < height[sz]; sy++) {
+							for (int sx = 0; sx < width[sz]; sx++) {
+								cppn.selectBlockResult(queryBlock, queryIndex++);
 								int bainNeuronIndexSource = getBainNeuronIndex(sx, sy, sz);
 								int synapseType = 0;
 								if (synapseTypesEnabled) {
@@ -314,6 +336,7 @@ public class HyperNEATTranscriberBain extends HyperNEATTranscriberBainBase {
 			int simRes = properties.getIntProperty(BainNN.SUBSTRATE_SIMULATION_RESOLUTION, 1000);
 			String execModeName = properties.getProperty(BainNN.SUBSTRATE_EXECUTION_MODE, null);
 			Kernel.EXECUTION_MODE execMode = execModeName == null ? null : Kernel.EXECUTION_MODE.valueOf(execModeName);
+			synapses.setPostSortedAccumulation(properties.getBooleanProperty(BainNN.SUBSTRATE_POST_SORTED_SYNAPSES, execMode != null && execMode != Kernel.EXECUTION_MODE.SEQ));
 			NeuralNetwork nn = new NeuralNetwork(simRes, neurons, synapses, execMode);
 			int[] outputDims = new int[] { width[depth - 1], height[depth - 1] };
 			int[] inputDims = new int[] { width[0], height[0] };
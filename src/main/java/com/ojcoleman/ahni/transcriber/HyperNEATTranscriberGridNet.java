@@ -2,6 +2,8 @@ package com.ojcoleman.ahni.transcriber;
 
 import com.ojcoleman.bain.neuron.rate.NeuronCollectionWithBias;
 
+import java.util.TreeSet;
+
 import org.apache.log4j.Logger;
 import org.jgapcustomised.*;
 
@@ -15,12 +17,13 @@ import com.anji.nn.*;
 import com.anji.nn.activationfunction.ActivationFunction;
 import com.anji.nn.activationfunction.ActivationFunctionFactory;
 import com.ojcoleman.ahni.hyperneat.Properties;
+import com.ojcoleman.ahni.nn.FlatGridNet;
 import com.ojcoleman.ahni.nn.GridNet;
 
 /**
- * Constructs a {@link com.ojcoleman.ahni.nn.GridNet} neural network from a chromosome using the hypercube (from HyperNEAT)
- * encoding scheme. An {@link com.anji.integration.ActivatorTranscriber} should be used to construct an instance of this
- * class.
+ * Constructs a {@link com.ojcoleman.ahni.nn.FlatGridNet} (for feed-forward substrates, see {@link #GRIDNET_FLAT_KEY}) or
+ * {@link com.ojcoleman.ahni.nn.GridNet} neural network from a chromosome using the hypercube (from HyperNEAT) encoding
+ * scheme. An {@link com.anji.integration.ActivatorTranscriber} should be used to construct an instance of this class.
  * 
  * To transcribe the neural network from a {@link Chromosome} a connective pattern producing network (CPPN) is created
  * from the Chromosome, and then this is "queried" to determine the weight of each connection in the neural network. The
@@ -28,13 +31,38 @@ import com.ojcoleman.ahni.nn.GridNet;
  * 
  * @author Oliver Coleman
  */
-public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
+public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber<Activator> {
 	public static final String HYPERNEAT_ACTIVATION_FUNCTION_KEY = "ann.hyperneat.activation.function";
+	/**
+	 * Set to false to transcribe feed-forward substrates to a {@link GridNet} rather than a {@link FlatGridNet}. Default
+	 * is true. Recurrent substrates are always transcribed to a GridNet.
+	 */
+	public static final String GRIDNET_FLAT_KEY = "ann.hyperneat.gridnet.flat";
+	/**
+	 * Set to true to share the weights of each layer of a {@link FlatGridNet} between all target neurons in the layer,
+	 * convolution style, when the weights produced by the CPPN for the layer are translation invariant. The CPPN is
+	 * queried for one weight for each offset between a target and source neuron, and the weights are then checked
+	 * against those for a sample of target neurons; if they differ the weights for every connection are queried as
+	 * usual. This reduces the number of CPPN queries and the size of the substrate for large layers, such as those of
+	 * vision substrates, when the CPPN is typically translation invariant (for example when
+	 * {@link HyperNEATTranscriber#HYPERNEAT_INCLUDE_DELTA} is enabled and the CPPN is only connected to the delta
+	 * inputs). The sample consists of the target neurons at the corners of the layer and at a grid of interior
+	 * positions (at each quarter of the width and height, and next to the centre); a CPPN whose weights depend on the
+	 * absolute position of the target neuron only in ways that happen to coincide at all of these positions (for
+	 * example some periodic functions) will not be detected and will produce the wrong network, so this should only be
+	 * enabled when the CPPN is expected to be translation invariant. Default is false.
+	 */
+	public static final String GRIDNET_WEIGHT_SHARING_KEY = "ann.hyperneat.gridnet.weightsharing";
+
+	// Maximum relative difference between a weight and the corresponding shared weight for them to be considered equal.
+	private static final double WEIGHT_SHARING_TOLERANCE = 1e-9;
 
 	private final static Logger logger = Logger.getLogger(HyperNEATTranscriberGridNet.class);
 
 	private ActivationFunction activationFunction;
 	private boolean layerEncodingIsInput = false;
+	private boolean flat = true;
+	private boolean weightSharing = false;
 
 	public HyperNEATTranscriberGridNet() {
 	}
@@ -46,19 +74,219 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 	public void init(com.ojcoleman.ahni.hyperneat.Properties props) {
 		super.init(props);
 		activationFunction = ActivationFunctionFactory.getInstance().get(props.getProperty(HYPERNEAT_ACTIVATION_FUNCTION_KEY));
+		flat = props.getBooleanProperty(GRIDNET_FLAT_KEY, flat);
+		weightSharing = props.getBooleanProperty(GRIDNET_WEIGHT_SHARING_KEY, weightSharing);
 	}
 
 	/**
 	 * @see Transcriber#transcribe(Chromosome)
 	 */
-	public GridNet transcribe(Chromosome genotype) throws TranscriberException {
+	public Activator transcribe(Chromosome genotype) throws TranscriberException {
+		if (feedForward && flat)
+			return newFlatGridNet(genotype, null);
 		return newGridNet(genotype, null);
 	}
 
-	public GridNet transcribe(Chromosome genotype, Activator substrate) throws TranscriberException {
+	public Activator transcribe(Chromosome genotype, Activator substrate) throws TranscriberException {
+		if (feedForward && flat)
+			return newFlatGridNet(genotype, (FlatGridNet) substrate);
 		return newGridNet(genotype, (GridNet) substrate);
 	}
 
+	/**
+	 * Create a new feed-forward neural network from the a genotype.
+	 * 
+	 * @param genotype chromosome to transcribe
+	 * @return phenotype If given this will be updated and returned, if NULL then a new network will be created.
+	 * @throws TranscriberException
+	 */
+	public FlatGridNet newFlatGridNet(Chromosome genotype, FlatGridNet phenotype) throws TranscriberException {
+		CPPN cppn = new CPPN(genotype);
+
+		int connectionRange = this.connectionRange == -1 ? Integer.MAX_VALUE / 4 : this.connectionRange;
+
+		if (phenotype == null) {
+			int[][] layerDimensions = new int[2][depth];
+			for (int l = 0; l < depth; l++) {
+				layerDimensions[0][l] = width[l];
+				layerDimensions[1][l] = height[l];
+			}
+			phenotype = new FlatGridNet(layerDimensions, connectionRange, activationFunction, "network " + genotype.getId());
+			logger.info("New substrate has input size " + width[0] + "x" + height[0] + " and " + phenotype.getConnectionCount(true) + " connections.");
+		} else {
+			phenotype.setName("network " + genotype.getId());
+		}
+
+		QueryBlock queryBlock = cppn.newQueryBlock(64);
+		double[] blockWeights = null;
+		boolean[] blockLEOs = null;
+		for (int tz = 1; tz < depth; tz++) {
+			int cppnOutputIndex = layerEncodingIsInput ? 0 : tz - 1;
+
+			// Query the CPPN for the bias of each neuron in the layer, a row at a time.
+			if (enableBias) {
+				for (int ty = 0; ty < height[tz]; ty++) {
+					queryBlock.clear();
+					for (int tx = 0; tx < width[tz]; tx++) {
+						cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
+						cppn.setSourceCoordinatesFromGridIndices(tx, ty, tz);
+						cppn.addToBlock(queryBlock);
+					}
+					cppn.queryBlock(queryBlock);
+					blockWeights = cppn.getRangedBiasWeights(queryBlock, cppnOutputIndex, blockWeights);
+					for (int tx = 0; tx < width[tz]; tx++) {
+						phenotype.setBias(tz, ty, tx, blockWeights[tx]);
+					}
+				}
+			}
+
+			if (weightSharing && querySharedWeights(cppn, queryBlock, phenotype, tz, connectionRange)) {
+				continue;
+			}
+
+			// Query the CPPN for all connections to each target neuron in a single block.
+			phenotype.setWeightSharing(tz, false);
+			for (int ty = 0; ty < height[tz]; ty++) {
+				for (int tx = 0; tx < width[tz]; tx++) {
+					int sy0 = Math.max(0, ty - connectionRange), sy1 = Math.min(height[tz - 1] - 1, ty + connectionRange);
+					int sx0 = Math.max(0, tx - connectionRange), sx1 = Math.min(width[tz - 1] - 1, tx + connectionRange);
+					queryBlock.clear();
+					cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
+					for (int sy = sy0; sy <= sy1; sy++) {
+						for (int sx = sx0; sx <= sx1; sx++) {
+							cppn.setSourceCoordinatesFromGridIndices(sx, sy, tz - 1);
+							cppn.addToBlock(queryBlock);
+						}
+					}
+					cppn.queryBlock(queryBlock);
+					blockWeights = cppn.getRangedWeights(queryBlock, cppnOutputIndex, blockWeights);
+					blockLEOs = cppn.getLEOs(queryBlock, cppnOutputIndex, blockLEOs);
+					int queryIndex = 0;
+					for (int sy = sy0; sy <= sy1; sy++) {
+						for (int sx = sx0; sx <= sx1; sx++) {
+							phenotype.setWeight(tz, ty, tx, sy, sx, blockLEOs[queryIndex] ? blockWeights[queryIndex] : 0);
+							queryIndex++;
+						}
+					}
+				}
+			}
+		}
+		return phenotype;
+	}
+
+	/**
+	 * Query the CPPN for a kernel of weights, indexed by the offset from the target to the source neuron, to be shared
+	 * by all target neurons in the given layer. The weight for each offset is that of the connection with that offset to
+	 * the target neuron closest to the centre of the layer. The CPPN is then queried for all the connections to a
+	 * spread of sample target neurons, see {@link #weightSharingSamples(int)}; if any of these differ from the kernel
+	 * then the weights are not translation invariant and the kernel is discarded.
+	 * 
+	 * @return true iff the weights are translation invariant and the kernel was set in the given phenotype.
+	 */
+	private boolean querySharedWeights(CPPN cppn, QueryBlock queryBlock, FlatGridNet phenotype, int tz, int connectionRange) {
+		int cppnOutputIndex = layerEncodingIsInput ? 0 : tz - 1;
+		int krx = phenotype.getKernelRangeX(tz), kry = phenotype.getKernelRangeY(tz);
+		int kw = 2 * krx + 1;
+		double[] kernel = new double[kw * (2 * kry + 1)];
+
+		queryBlock.clear();
+		for (int dy = -kry; dy <= kry; dy++) {
+			int ty = kernelReferenceIndex(dy, height[tz], height[tz - 1]);
+			for (int dx = -krx; ty != -1 && dx <= krx; dx++) {
+				int tx = kernelReferenceIndex(dx, width[tz], width[tz - 1]);
+				if (tx != -1) {
+					cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
+					cppn.setSourceCoordinatesFromGridIndices(tx + dx, ty + dy, tz - 1);
+					cppn.addToBlock(queryBlock);
+				}
+			}
+		}
+		cppn.queryBlock(queryBlock);
+		double[] blockWeights = cppn.getRangedWeights(queryBlock, cppnOutputIndex, null);
+		boolean[] blockLEOs = cppn.getLEOs(queryBlock, cppnOutputIndex, null);
+		int queryIndex = 0;
+		for (int dy = -kry; dy <= kry; dy++) {
+			int ty = kernelReferenceIndex(dy, height[tz], height[tz - 1]);
+			for (int dx = -krx; ty != -1 && dx <= krx; dx++) {
+				if (kernelReferenceIndex(dx, width[tz], width[tz - 1]) != -1) {
+					kernel[(dy + kry) * kw + dx + krx] = blockLEOs[queryIndex] ? blockWeights[queryIndex] : 0;
+					queryIndex++;
+				}
+			}
+		}
+
+		int[] sampleYs = weightSharingSamples(height[tz]);
+		int[] sampleXs = weightSharingSamples(width[tz]);
+		for (int sample = 0; sample < sampleYs.length * sampleXs.length; sample++) {
+			int ty = sampleYs[sample / sampleXs.length], tx = sampleXs[sample % sampleXs.length];
+			int sy0 = Math.max(0, ty - connectionRange), sy1 = Math.min(height[tz - 1] - 1, ty + connectionRange);
+			int sx0 = Math.max(0, tx - connectionRange), sx1 = Math.min(width[tz - 1] - 1, tx + connectionRange);
+			queryBlock.clear();
+			cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
+			for (int sy = sy0; sy <= sy1; sy++) {
+				for (int sx = sx0; sx <= sx1; sx++) {
+					cppn.setSourceCoordinatesFromGridIndices(sx, sy, tz - 1);
+					cppn.addToBlock(queryBlock);
+				}
+			}
+			cppn.queryBlock(queryBlock);
+			blockWeights = cppn.getRangedWeights(queryBlock, cppnOutputIndex, blockWeights);
+			blockLEOs = cppn.getLEOs(queryBlock, cppnOutputIndex, blockLEOs);
+			queryIndex = 0;
+			for (int sy = sy0; sy <= sy1; sy++) {
+				for (int sx = sx0; sx <= sx1; sx++) {
+					double weight = blockLEOs[queryIndex] ? blockWeights[queryIndex] : 0;
+					queryIndex++;
+					double shared = kernel[(sy - ty + kry) * kw + sx - tx + krx];
+					if (Math.abs(weight - shared) > WEIGHT_SHARING_TOLERANCE * Math.max(1, Math.abs(weight))) {
+						return false;
+					}
+				}
+			}
+		}
+
+		phenotype.setWeightSharing(tz, true);
+		for (int dy = -kry; dy <= kry; dy++) {
+			for (int dx = -krx; dx <= krx; dx++) {
+				phenotype.setKernelWeight(tz, dy, dx, kernel[(dy + kry) * kw + dx + krx]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the indexes along an axis of the given size of the target neurons whose connections are checked against
+	 * the shared weights: the first and last, each quarter, and the one after the centre (so that a kernel which only
+	 * matches at every second position is detected).
+	 */
+	private static int[] weightSharingSamples(int size) {
+		int last = size - 1;
+		TreeSet<Integer> samples = new TreeSet<Integer>();
+		samples.add(0);
+		samples.add(last / 4);
+		samples.add(last / 2);
+		samples.add(Math.min(last, last / 2 + 1));
+		samples.add((3 * last) / 4);
+		samples.add(last);
+		int[] indexes = new int[samples.size()];
+		int i = 0;
+		for (int index : samples) {
+			indexes[i++] = index;
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns the index along an axis of the target neuron closest to the centre of the target layer for which the
+	 * source neuron at the given offset is within the source layer, or -1 if there is no such target neuron.
+	 */
+	private static int kernelReferenceIndex(int offset, int targetSize, int sourceSize) {
+		int min = Math.max(0, -offset), max = Math.min(targetSize - 1, sourceSize - 1 - offset);
+		if (min > max)
+			return -1;
+		return Math.min(max, Math.max(min, targetSize / 2));
+	}
+
 	/**
 	 * Create a new neural network from the a genotype.
 	 * 
@@ -94,17 +322,41 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 			}
 
 			// query CPPN for substrate connection weights
+			QueryBlock queryBlock = cppn.newQueryBlock(64);
+			double[] blockBiases = null, blockWeights = null;
+			boolean[] blockLEOs = null;
 			for (int tz = 1; tz < depth; tz++) {
+				int cppnOutputIndex = layerEncodingIsInput ? 0 : tz-1;
 				for (int ty = 0; ty < height[tz]; ty++) {
 					for (int tx = 0; tx < width[tz]; tx++) {
 						cppn.setTargetCoordinatesFromGridIndices(tx, ty, tz);
 
-						// bias
+						// calculate dimensions of this weight target matrix
+						// (bounded by grid edges)
+						int dy = Math.min(height[tz - 1] - 1, ty + connectionRange) - Math.max(0, ty - connectionRange) + 1;
+						int dx = Math.min(width[tz - 1] - 1, tx + connectionRange) - Math.max(0, tx - connectionRange) + 1;
+
+						// Query the CPPN for the bias (first query, if enabled) and all connections to zyx in a single block.
+						queryBlock.clear();
 						if (enableBias) {
 							cppn.setSourceCoordinatesFromGridIndices(tx, ty, tz);
-							cppn.query();
-							int cppnOutputIndex = layerEncodingIsInput ? 0 : tz-1;
-							bias[tz - 1][ty][tx] = cppn.getRangedBiasWeight(cppnOutputIndex);
+							cppn.addToBlock(queryBlock);
+						}
+						for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
+							for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
+								cppn.setSourceCoordinatesFromGridIndices(sx, sy, tz-1);
+								cppn.addToBlock(queryBlock);
+							}
+						}
+						cppn.queryBlock(queryBlock);
+						blockWeights = cppn.getRangedWeights(queryBlock, cppnOutputIndex, blockWeights);
+						blockLEOs = cppn.getLEOs(queryBlock, cppnOutputIndex, blockLEOs);
+						int queryIndex = 0;
+
+						// bias
+						if (enableBias) {
+							blockBiases = cppn.getRangedBiasWeights(queryBlock, cppnOutputIndex, blockBiases);
+							bias[tz - 1][ty][tx] = blockBiases[queryIndex++];
 									
 							/* below now handled by getRangedBiasWeight
 							double biasVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, cppn.getBiasWeight(cppnOutputIndex)));
@@ -121,11 +373,6 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 							*/
 						}
 
-						// calculate dimensions of this weight target matrix
-						// (bounded by grid edges)
-						int dy = Math.min(height[tz - 1] - 1, ty + connectionRange) - Math.max(0, ty - connectionRange) + 1;
-						int dx = Math.min(width[tz - 1] - 1, tx + connectionRange) - Math.max(0, tx - connectionRange) + 1;
-
 						// if (createNewPhenotype)
 						// System.out.println(tz + "," + ty + "," + tx + "  dy = " + dy + "  dx = " + dx);
 
@@ -142,14 +389,9 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 						// s{y,x} is index of source neuron
 						for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
 							for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
-								cppn.setSourceCoordinatesFromGridIndices(sx, sy, tz-1);
-
-								cppn.query();
-
 								// Determine weight for synapse from source to target.
-								int cppnOutputIndex = layerEncodingIsInput ? 0 : tz-1;
-								
-								w[wy][wx] = cppn.getLEO(cppnOutputIndex) ? cppn.getRangedWeight(cppnOutputIndex) : 0;
+								w[wy][wx] = blockLEOs[queryIndex] ? blockWeights[queryIndex] : 0;
+								queryIndex++;
 								
 								/* below now handled by getRangedWeight
 								double weightVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, cppn.getWeight(cppnOutputIndex)));
@@ -213,6 +455,7 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 			}
 
 			// query CPPN for substrate connection weights
+			QueryBlock queryBlock = cppn.newQueryBlock(64);
 			for (int tz = 1; tz < depth; tz++) {
 				for (int ty = 0; ty < height[tz]; ty++) {
 					for (int tx = 0; tx < width[tz]; tx++) {
@@ -233,18 +476,30 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 						weights[tz - 1][ty][tx] = new double[dz][dy][dx];
 						double[][][] w = weights[tz - 1][ty][tx];
 
+						// Query the CPPN for all connections to t{zyx} in a single block.
+						queryBlock.clear();
+						for (int wz = 0, sz = Math.max(1, tz - connectionRange); wz < dz; wz++, sz++) {
+							for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
+								for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
+									cppn.setSourceCoordinatesFromGridIndices(sx, sy, sz);
+									cppn.addToBlock(queryBlock);
+								}
+							}
+						}
+						cppn.queryBlock(queryBlock);
+						// Raw (unranged) weight and bias outputs for each query.
+						double[] blockWeights = queryBlock.getOutputs(getCPPNIndexWeight()[0]);
+						double[] blockBiases = enableBias ? queryBlock.getOutputs(getCPPNIndexBiasOutput()[0]) : null;
+						int queryIndex = 0;
+
 						// for each connection to t{zyx}
 						// w{z,y,x} is index into weight matrix
 						// s{z,y,x} is index of source neuron
 						for (int wz = 0, sz = Math.max(1, tz - connectionRange); wz < dz; wz++, sz++) {
 							for (int wy = 0, sy = Math.max(0, ty - connectionRange); wy < dy; wy++, sy++) {
 								for (int wx = 0, sx = Math.max(0, tx - connectionRange); wx < dx; wx++, sx++) {
-									cppn.setSourceCoordinatesFromGridIndices(sx, sy, sz);
-
-									cppn.query();
-
 									// weight
-									double weightVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, cppn.getWeight()));
+									double weightVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, blockWeights[queryIndex]));
 									if (Math.abs(weightVal) > connectionExprThresh) {
 										if (weightVal > 0)
 											weightVal = (weightVal - connectionExprThresh) * (connectionWeightMax / (connectionWeightMax - connectionExprThresh));
@@ -258,7 +513,7 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 
 									// bias
 									if (enableBias && wz == 0 && wy == 0 && wx == 0) {
-										double biasVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, cppn.getBiasWeight()));
+										double biasVal = Math.min(connectionWeightMax, Math.max(connectionWeightMin, blockBiases[queryIndex]));
 										if (Math.abs(biasVal) > connectionExprThresh) {
 											if (biasVal > 0)
 												biasVal = (biasVal - connectionExprThresh) * (connectionWeightMax / (connectionWeightMax - connectionExprThresh));
@@ -270,7 +525,7 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 											bias[tz - 1][ty][tx] = 0;
 										}
 									}
-
+									queryIndex++;
 								}
 								// System.out.println();
 							}
@@ -301,6 +556,6 @@ public class HyperNEATTranscriberGridNet extends HyperNEATTranscriber {
 	 * @see com.anji.integration.Transcriber#getPhenotypeClass()
 	 */
 	public Class getPhenotypeClass() {
-		return GridNet.class;
+		return feedForward && flat ? FlatGridNet.class : GridNet.class;
 	}
 }
@@ -8,7 +8,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,6 +24,7 @@ import com.ojcoleman.bain.neuron.rate.NeuronCollectionWithBias;
 import org.apache.log4j.Logger;
 import org.jgapcustomised.BulkFitnessFunction;
 import org.jgapcustomised.Chromosome;
+import org.jgapcustomised.PackedAlleles;
 
 import com.aparapi.Kernel;
 import com.anji.integration.Activator;
@@ -152,17 +152,18 @@ public class NEATTranscriberBain extends TranscriberAdaptor<BainNN> implements C
 	 * @throws TranscriberException
 	 */
 	public BainNN newBainNN(Chromosome genotype) throws TranscriberException {
-		List<NeuronAllele> neuronAlleles = new LinkedList<NeuronAllele>();
-		List<NeuronAllele> inputNeuronAlleles = NeatChromosomeUtility.getNeuronList(genotype.getAlleles(), NeuronType.INPUT);
-		List<NeuronAllele> outputNeuronAlleles = NeatChromosomeUtility.getNeuronList(genotype.getAlleles(), NeuronType.OUTPUT);
+		PackedAlleles alleles = genotype.getPackedAlleles();
+		List<NeuronAllele> neuronAlleles = new ArrayList<NeuronAllele>(alleles.getNeuronCount());
+		List<NeuronAllele> inputNeuronAlleles = NeatChromosomeUtility.getNeuronList(alleles, NeuronType.INPUT);
+		List<NeuronAllele> outputNeuronAlleles = NeatChromosomeUtility.getNeuronList(alleles, NeuronType.OUTPUT);
 		
 		// Collect together all neuron alleles, with input first, hidden next, and output last (this is the order than Bain networks should be in).
 		neuronAlleles.addAll(inputNeuronAlleles);
-		neuronAlleles.addAll(NeatChromosomeUtility.getNeuronList(genotype.getAlleles(), NeuronType.HIDDEN));
+		neuronAlleles.addAll(NeatChromosomeUtility.getNeuronList(alleles, NeuronType.HIDDEN));
 		neuronAlleles.addAll(outputNeuronAlleles);
 		
 		// Get all connection alleles.
-		List<ConnectionAllele> remainingConnAlleles = NeatChromosomeUtility.getConnectionList(genotype.getAlleles());
+		List<ConnectionAllele> remainingConnAlleles = NeatChromosomeUtility.getConnectionList(alleles);
 		
 		int neuronCount = neuronAlleles.size();
 		int synapseCount = remainingConnAlleles.size();
@@ -247,11 +248,13 @@ public class NEATTranscriberBain extends TranscriberAdaptor<BainNN> implements C
 		// If feed-forward, cycles per step is depth-1.
 		String execModeName = props.getProperty(BainNN.SUBSTRATE_EXECUTION_MODE, null);
 		Kernel.EXECUTION_MODE execMode = execModeName == null ? null : Kernel.EXECUTION_MODE.valueOf(execModeName);
+		synapses.setPostSortedAccumulation(props.getBooleanProperty(BainNN.SUBSTRATE_POST_SORTED_SYNAPSES, execMode != null && execMode != Kernel.EXECUTION_MODE.SEQ));
 		NeuralNetwork nn = new NeuralNetwork(simRes, neurons, synapses, execMode);
 		int[] inputDims = new int[] { inputNeuronAlleles.size() };
 		int[] outputDims = new int[] { outputNeuronAlleles.size() };
 		try {
 			BainNN substrate = new BainNN(nn, inputDims, outputDims, cyclesPerStep, topology, "network " + genotype.getId(), 1000);
+			substrate.setSinglePassEnabled(props.getBooleanProperty(BainNN.SUBSTRATE_SINGLE_PASS, true));
 			
 			// See if transcriptions differ for same Chromosome.
 //			String dbg2 = "" + genotype.getMaterial();
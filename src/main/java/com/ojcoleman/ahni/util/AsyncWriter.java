@@ -0,0 +1,201 @@
+package com.ojcoleman.ahni.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Performs write tasks (typically serialisation and file I/O) in order on a single background thread so that the
+ * thread submitting them, eg the thread driving evolution, does not block on I/O. The data a task writes should be
+ * snapshotted before the task is submitted, as the task may run at any time before the next call to {@link #flush()}.
+ * At most a fixed number of tasks may be pending; {@link #submit(Task)} blocks when this limit is reached so that the
+ * submitting thread can not get arbitrarily far ahead of the writer. If the capacity is 0 then tasks are performed
+ * immediately on the submitting thread.
+ * <p>
+ * If a task fails then the tasks still pending are skipped, and the failure is rethrown to the submitting thread by
+ * the next call to {@link #submit(Task)}, {@link #flush()} or {@link #close()}, so that a failed write still aborts
+ * whatever is driving the writes, as it would if the task had been performed on the submitting thread.
+ * </p>
+ */
+public class AsyncWriter {
+	private static final Logger logger = Logger.getLogger(AsyncWriter.class);
+
+	/**
+	 * A write task.
+	 */
+	public interface Task {
+		public void run() throws Exception;
+	}
+
+	private static final Task STOP = new Task() {
+		public void run() {
+		}
+	};
+
+	private final String name;
+	private final BlockingQueue<Task> queue;
+	private Thread thread;
+	// The first failure of a task performed on the background thread, if any.
+	private volatile Throwable failure;
+
+	/**
+	 * @param name The name of the background thread, used in log messages.
+	 * @param capacity The maximum number of pending tasks. If 0 then tasks are performed on the submitting thread.
+	 */
+	public AsyncWriter(String name, int capacity) {
+		this.name = name;
+		queue = capacity > 0 ? new ArrayBlockingQueue<Task>(capacity) : null;
+	}
+
+	/**
+	 * Submit the given task, blocking if the maximum number of tasks are already pending.
+	 * 
+	 * @throws RuntimeException if a previously submitted task failed (checked exceptions are wrapped in an
+	 *             {@link IllegalStateException}), or if the capacity is 0 and the given task fails.
+	 */
+	public void submit(Task task) {
+		if (queue == null) {
+			perform(task);
+			return;
+		}
+		rethrowFailure();
+		enqueue(task);
+	}
+
+	private void enqueue(Task task) {
+		synchronized (this) {
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+					public void run() {
+						drain();
+					}
+				}, name);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		try {
+			queue.put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting to submit task to " + name + ", performing it on the current thread.");
+			perform(task);
+		}
+	}
+
+	/**
+	 * Wait for all tasks submitted so far to be performed.
+	 * 
+	 * @throws RuntimeException if a task failed, see {@link #submit(Task)}.
+	 */
+	public void flush() {
+		awaitPending();
+		rethrowFailure();
+	}
+
+	private void awaitPending() {
+		if (queue == null) {
+			return;
+		}
+		synchronized (this) {
+			if (thread == null) {
+				return;
+			}
+		}
+		Barrier barrier = new Barrier();
+		enqueue(barrier);
+		try {
+			barrier.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for all tasks submitted so far to be performed and stop the background thread. Tasks submitted after this
+	 * will start a new background thread.
+	 * 
+	 * @throws RuntimeException if a task failed, see {@link #submit(Task)}.
+	 */
+	public void close() {
+		awaitPending();
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t != null) {
+			try {
+				queue.put(STOP);
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		rethrowFailure();
+	}
+
+	private void rethrowFailure() {
+		Throwable e = failure;
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		if (e != null) {
+			throw new IllegalStateException("Error performing write task in " + name, e);
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Task task;
+			try {
+				task = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (task == STOP) {
+				return;
+			}
+			if (task instanceof Barrier) {
+				((Barrier) task).run();
+			} else if (failure == null) {
+				// Skip the remaining tasks after a failure, they will likely depend on the failed one.
+				try {
+					task.run();
+				} catch (Throwable e) {
+					logger.error("Error performing write task in " + name, e);
+					failure = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the position of a call to {@link #flush()} or {@link #close()} in the queue.
+	 */
+	private static class Barrier implements Task {
+		final CountDownLatch done = new CountDownLatch(1);
+
+		public void run() {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Perform the given task on the current thread, propagating any failure.
+	 */
+	private void perform(Task task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Error performing write task in " + name, e);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,11 +23,14 @@ import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -34,6 +38,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,6 +51,9 @@ import org.apache.log4j.Logger;
 
 import com.esotericsoftware.wildcard.Paths;
 import com.ojcoleman.ahni.evaluation.TargetFitnessCalculator;
+import com.ojcoleman.ahni.event.AHNIEvent;
+import com.ojcoleman.ahni.event.AHNIEventListener;
+import com.ojcoleman.ahni.hyperneat.HyperNEATEvolver;
 import com.ojcoleman.ahni.hyperneat.Properties;
 import com.ojcoleman.ahni.hyperneat.Run;
 
@@ -91,6 +100,26 @@ import com.ojcoleman.ahni.hyperneat.Run;
  * <dd>The initial multiplicative factor</dd>
  * <dt>parametertuner.numruns</dt>
  * <dd>The number of runs to perform when determining fitness for a set of property values. Default is 50, which is probably about the safest minimum.</dd>
+ * <dt>parametertuner.htcondor</dt>
+ * <dd>A template for an HTCondor submit file. If given then runs are performed via HTCondor, otherwise they are
+ * performed on the local machine.</dd>
+ * <dt>parametertuner.local.concurrentruns</dt>
+ * <dd>The maximum number of runs to perform at once on the local machine, over all sets of property values being
+ * tried. A value less than 1 indicates the number of available processor cores. Default is 1.</dd>
+ * <dt>parametertuner.local.cores</dt>
+ * <dd>The number of processor cores to share between the runs performed at once on the local machine for fitness
+ * evaluation. Default is the number of available processor cores.</dd>
+ * <dt>parametertuner.local.fork</dt>
+ * <dd>If true then each local run is performed in a separate JVM, otherwise runs are performed in this JVM. Default is
+ * false.</dd>
+ * <dt>parametertuner.earlystop.z</dt>
+ * <dd>For local runs, the remaining runs for a set of property values are abandoned if, for some generation, the mean
+ * of the best performance over the runs that have reached that generation plus this many standard errors is less than
+ * the performance of the current best result at that generation. The abandoned result is never adopted. A value of 0
+ * disables early stopping. Default is 0.</dd>
+ * <dt>parametertuner.earlystop.minruns</dt>
+ * <dd>The minimum number of runs that must have reached a generation before early stopping is considered for it.
+ * Default is the larger of 5 and a fifth of parametertuner.numruns.</dd>
  * </dl>
  * </p>
  */
@@ -115,11 +144,20 @@ public class ParameterTuner implements Serializable {
 	private String htCondorTpl;
 	private int[] adjustIneffectiveCount;
 	private int[] adjustCountDown;
-	private Result bestResult;
+	private volatile Result bestResult;
 	private int iteration;
 	private int property;
 	private int stagnantCount = 0;
 	private boolean suppressLogging;
+	private int localConcurrentRuns;
+	private int localCores;
+	private boolean localFork;
+	private double earlyStopZ;
+	private int earlyStopMinRuns;
+	// Performs local runs, the processor cores shared by local runs performed in this JVM, and forked local runs.
+	private transient ExecutorService localRunPool;
+	private transient Semaphore localCoreBudget;
+	private transient Set<Process> runningProcesses;
 	
 	public static void main(String[] args) {
 		File checkPoint = new File("checkpoint");
@@ -152,6 +190,13 @@ public class ParameterTuner implements Serializable {
 		Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+            	if (runningProcesses != null) {
+            		synchronized (runningProcesses) {
+            			for (Process process : runningProcesses) {
+            				process.destroy();
+            			}
+            		}
+            	}
             	System.out.println("\n\nExiting. Cancelling currently running condor jobs (if any).");
             	for (String id : runningCondorClusterIDs) {
             		try {
@@ -241,6 +286,19 @@ public class ParameterTuner implements Serializable {
 					// TODO Allow keeping file output (tricky/painful with Condor 7.0)
 					props.remove("output.dir");
 				}
+				localConcurrentRuns = props.getIntProperty("parametertuner.local.concurrentruns", 1);
+				if (localConcurrentRuns < 1) {
+					localConcurrentRuns = Runtime.getRuntime().availableProcessors();
+				}
+				localCores = props.getIntProperty("parametertuner.local.cores", Runtime.getRuntime().availableProcessors());
+				localFork = props.getBooleanProperty("parametertuner.local.fork", false);
+				if (htCondorTpl == null && localFork) {
+					// Clean up generated files from previous aborted runs.
+					Paths paths = new Paths("./", "pt-local-*");
+					paths.delete();
+				}
+				earlyStopZ = props.getDoubleProperty("parametertuner.earlystop.z", 0);
+				earlyStopMinRuns = props.getIntProperty("parametertuner.earlystop.minruns", Math.max(5, numRuns / 5));
 				
 				props.setProperty("num.runs", "1"); // We'll calculate our own average so we can report progress as we go.
 				props.setProperty("num.generations", "" + numGens);
@@ -537,25 +595,154 @@ public class ParameterTuner implements Serializable {
 		
 		private Result doRuns(Properties props, String name, String label) throws Exception {
 			if (htCondorTpl == null) {
-				return new Result(props, doRunsSerial(props, label), props.getIntProperty("popul.size"), props.getIntProperty("num.generations"));
+				RunProgress progress = new RunProgress(props);
+				Results results = doRunsLocal(props, name, label, progress);
+				return new Result(props, results, props.getIntProperty("popul.size"), props.getIntProperty("num.generations"), progress.isStopped());
 			} else {
-				return new Result(props, doRunsHTCondor(props, name, label), props.getIntProperty("popul.size"), props.getIntProperty("num.generations"));
+				return new Result(props, doRunsHTCondor(props, name, label), props.getIntProperty("popul.size"), props.getIntProperty("num.generations"), false);
 			}
 		}
 
-		private Results doRunsSerial(Properties props, String label) throws Exception {
+		/**
+		 * Performs the runs on the local machine, on the pool shared by all sets of property values being tried. The
+		 * best performance in each generation of each run is reported to the given RunProgress as the runs progress,
+		 * and runs not yet finished are abandoned if it determines that the property values are clearly worse than
+		 * those giving the current best result.
+		 */
+		private Results doRunsLocal(final Properties props, String name, final String label, final RunProgress progress) throws Exception {
 			System.out.print("Starting " + numRuns + " runs (" + label + ") ");
-			double[][] performances = new double[numRuns][];
+			File forkDir = null;
+			if (localFork) {
+				String dirName = "pt-local-" + iteration + "-" + name;
+				if (dirName.length() > 255) {
+					// Trim to maximum length of 255 as this is the maximum on most file systems.
+					dirName = dirName.substring(0, 255);
+				}
+				forkDir = new File(dirName);
+				FileUtils.deleteQuietly(forkDir);
+				forkDir.mkdir();
+				// Divide the cores between the runs performed at once, as each JVM has its own evaluator threads.
+				Properties forkProps = (Properties) props.clone();
+				forkProps.setProperty("fitness.max_threads", "" + Math.max(1, localCores / localConcurrentRuns));
+				FileOutputStream propsOut = new FileOutputStream(new File(forkDir, "pt.properties"));
+				forkProps.store(propsOut, dirName);
+				propsOut.close();
+			}
+			
+			final File dir = forkDir;
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(numRuns);
 			for (int r = 0; r < numRuns; r++) {
-				Run runner = new Run(props);
-				runner.noOutput = true;
-				runner.run();
-				performances[r] = runner.performance[0];
-				System.out.print(label);
-				if (r > 0 && r % 25 == 0) System.out.print("("+r+")");					
+				final int run = r;
+				futures.add(getLocalRunPool().submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						if (progress.isStopped()) {
+							return null;
+						}
+						if (dir != null) {
+							doForkedRun(dir, run, progress);
+						} else {
+							doLocalRun(props, run, progress);
+						}
+						System.out.print(label);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			System.out.print(progress.isStopped() ? " (" + label + " stopped early at generation " + progress.getStoppedAtGeneration() + ") " : " (" + label + " finished) ");
+			return progress.getResults();
+		}
+
+		private void doLocalRun(Properties props, final int run, final RunProgress progress) throws Exception {
+			Run runner = new Run(new Properties(props));
+			runner.noOutput = true;
+			runner.setCoreBudget(localCoreBudget);
+			runner.addEventListener(new AHNIEventListener() {
+				@Override
+				public void ahniEventOccurred(AHNIEvent event) {
+					if (event.getType() == AHNIEvent.Type.GENERATION_END) {
+						HyperNEATEvolver evolver = event.getEvolver();
+						int generation = evolver.getGeneration();
+						progress.report(run, generation, evolver.getBestPerformance()[generation]);
+						if (progress.isStopped()) {
+							evolver.stop();
+						}
+					}
+				}
+			});
+			runner.run();
+			if (!progress.isStopped()) {
+				progress.complete(run, runner.performance[0]);
+			}
+		}
+
+		private void doForkedRun(File dir, final int run, final RunProgress progress) throws Exception {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			ArrayList<String> command = new ArrayList<String>();
+			command.addAll(Arrays.asList(java, "-cp", System.getProperty("java.class.path"), Run.class.getName()));
+			if (suppressLogging) {
+				command.add("-ao");
+			}
+			command.addAll(Arrays.asList("-rp", "-od", "./", "-f", "-op", "cp" + run + "-", "-ar", "result", "./pt.properties"));
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.directory(dir);
+			builder.environment().put("AHNI_RUN_ID", "" + run);
+			builder.redirectError(new File(dir, "err-" + run + ".txt"));
+
+			final Process process = builder.start();
+			runningProcesses.add(process);
+			// Report the performance for each generation as the run writes it to standard output, and copy the rest
+			// of the output to a file.
+			final File outFile = new File(dir, "out-" + run + ".txt");
+			Thread outputReader = new Thread(ParameterTuner.class.getName() + " local run " + run + " output") {
+				@Override
+				public void run() {
+					try {
+						BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+						BufferedWriter writer = new BufferedWriter(new FileWriter(outFile));
+						String line;
+						while ((line = reader.readLine()) != null) {
+							if (line.startsWith(Run.PROGRESS_PREFIX)) {
+								String[] values = line.substring(Run.PROGRESS_PREFIX.length()).split(" ");
+								progress.report(run, Integer.parseInt(values[0]), Double.parseDouble(values[1]));
+							} else {
+								writer.write(line);
+								writer.newLine();
+							}
+						}
+						writer.close();
+						reader.close();
+					} catch (IOException e) {
+						// The process was destroyed.
+					}
+				}
+			};
+			outputReader.setDaemon(true);
+			outputReader.start();
+			try {
+				while (!process.waitFor(1, TimeUnit.SECONDS)) {
+					if (progress.isStopped()) {
+						process.destroy();
+						return;
+					}
+				}
+			} finally {
+				runningProcesses.remove(process);
+			}
+			outputReader.join();
+			if (process.exitValue() != 0) {
+				throw new Exception("Local run " + run + " in " + dir + " exited with status " + process.exitValue() + ", see " + new File(dir, "err-" + run + ".txt"));
+			}
+
+			BufferedReader reader = new BufferedReader(new FileReader(new File(dir, "cp" + run + "-result-performance.csv")));
+			double[] performance = new Results(reader).getData(0);
+			reader.close();
+			if (!progress.isStopped()) {
+				progress.complete(run, performance);
 			}
-			System.out.print(" (" + label + " finished) ");
-			return new Results(performances, null);
 		}
 		
 		private Results doRunsHTCondor(Properties props, String name, String label) throws Exception {
@@ -691,6 +878,112 @@ public class ParameterTuner implements Serializable {
 	}
 	
 	
+	private synchronized ExecutorService getLocalRunPool() {
+		if (localRunPool == null) {
+			localRunPool = Executors.newFixedThreadPool(localConcurrentRuns, new DaemonThreadFactory(ParameterTuner.class.getName() + " local runs"));
+			localCoreBudget = new Semaphore(Math.max(1, localCores));
+			runningProcesses = Collections.synchronizedSet(new HashSet<Process>());
+		}
+		return localRunPool;
+	}
+	
+	
+	/**
+	 * Records the best performance in each generation of each run performed for a set of property values as the runs
+	 * progress, and determines whether the property values are clearly worse than those giving the current best result
+	 * (see <em>parametertuner.earlystop.z</em>).
+	 */
+	private class RunProgress {
+		private final int popSize;
+		// Best performance for [run][generation], NaN for generations not yet reported.
+		private final double[][] performance;
+		// Whether each run has completed, in which case performance holds the results of the run.
+		private final boolean[] completed;
+		// Number of runs reporting, and the sum and sum of squares of their performance, for each generation.
+		private final int[] count;
+		private final double[] sum, sumSquares;
+		private volatile boolean stopped;
+		private int stoppedAtGeneration = -1;
+		
+		public RunProgress(Properties props) {
+			popSize = props.getIntProperty("popul.size");
+			int generations = props.getIntProperty("num.generations");
+			performance = new double[numRuns][];
+			completed = new boolean[numRuns];
+			count = new int[generations];
+			sum = new double[generations];
+			sumSquares = new double[generations];
+		}
+		
+		public synchronized void report(int run, int generation, double value) {
+			if (generation >= count.length) {
+				return;
+			}
+			if (performance[run] == null) {
+				performance[run] = new double[count.length];
+				Arrays.fill(performance[run], Double.NaN);
+			}
+			performance[run][generation] = value;
+			count[generation]++;
+			sum[generation] += value;
+			sumSquares[generation] += value * value;
+			
+			// Only compare with the current best result if it was obtained with the same population size, otherwise
+			// the performance for the same generation is not comparable.
+			Result best = bestResult;
+			int n = count[generation];
+			if (!stopped && earlyStopZ > 0 && n >= Math.max(2, earlyStopMinRuns) && best != null && best.popSize() == popSize && generation < best.generationCount()) {
+				double mean = sum[generation] / n;
+				double variance = Math.max(0, (sumSquares[generation] - sum[generation] * mean) / (n - 1));
+				if (mean + earlyStopZ * Math.sqrt(variance / n) < best.performance(generation)) {
+					stopped = true;
+					stoppedAtGeneration = generation;
+				}
+			}
+		}
+		
+		/**
+		 * Records the best performance in each generation of a run that has completed, as given by {@link Run}.
+		 */
+		public synchronized void complete(int run, double[] runPerformance) {
+			performance[run] = runPerformance;
+			completed[run] = true;
+		}
+		
+		public boolean isStopped() {
+			return stopped;
+		}
+		
+		public synchronized int getStoppedAtGeneration() {
+			return stoppedAtGeneration;
+		}
+		
+		/**
+		 * Returns the best performance in each generation of each run that was started. Completed runs give the
+		 * results recorded by {@link Run}, as when runs were performed serially. Runs abandoned by early stopping are
+		 * included with a performance of 0 for the generations they did not reach; this only affects results that
+		 * are never adopted.
+		 */
+		public synchronized Results getResults() {
+			ArrayList<double[]> runs = new ArrayList<double[]>(numRuns);
+			for (int r = 0; r < numRuns; r++) {
+				if (completed[r]) {
+					runs.add(performance[r]);
+				} else if (performance[r] != null) {
+					double[] p = performance[r].clone();
+					for (int g = 0; g < p.length; g++) {
+						if (Double.isNaN(p[g])) {
+							p[g] = 0;
+						}
+					}
+					runs.add(p);
+				}
+			}
+			return new Results(runs.toArray(new double[runs.size()][]), null);
+		}
+	}
+	
+	
 	private class Result implements Serializable {
 		private static final long serialVersionUID = 1L;
 		// Use median as it's better for distributions with outliers, and we're likely to have outliers.
@@ -699,14 +992,23 @@ public class ParameterTuner implements Serializable {
 		private int popSize;
 		private int maxGens;
 		private Properties props;
+		// The performance for each generation.
+		private double[] generationPerformance;
+		// Whether the runs were abandoned because the results were clearly worse than the best result at the time.
+		private boolean stoppedEarly;
 		
-		public Result(Properties props, Results r, int popSize, int maxGens) {
+		public Result(Properties props, Results r, int popSize, int maxGens, boolean stoppedEarly) {
 			this.props = props;
 			this.popSize = popSize;
 			this.maxGens = maxGens;
+			this.stoppedEarly = stoppedEarly;
 			Statistics s = new Statistics(r);
+			generationPerformance = new double[r.getItemCount()];
 			for (int g = 0; g < r.getItemCount(); g++) {
-				performance = getCroppedMean(s, g, 0.05);
+				generationPerformance[g] = getCroppedMean(s, g, 0.05);
+			}
+			for (int g = 0; g < r.getItemCount(); g++) {
+				performance = generationPerformance[g];
 				if (performance >= solvedPerformance) {
 					solvedByGeneration = g;
 					return;
@@ -726,6 +1028,12 @@ public class ParameterTuner implements Serializable {
 		public int maxGens() {
 			return maxGens;
 		}
+		public int generationCount() {
+			return generationPerformance.length;
+		}
+		public double performance(int generation) {
+			return generationPerformance[generation];
+		}
 		
 		public Properties getProps() {
 			return props;
@@ -744,6 +1052,7 @@ public class ParameterTuner implements Serializable {
 		
 		
 		public boolean betterThan(Result r) {
+			if (stoppedEarly) return false;
 			int solvedByEval = solvedByGeneration == -1 ? Integer.MAX_VALUE : solvedByGeneration * popSize;
 			int rSolvedByEval = r.solvedByGeneration == -1 ? Integer.MAX_VALUE : r.solvedByGeneration * r.popSize;
 			if (solvedByEval < rSolvedByEval) return true;
@@ -753,7 +1062,7 @@ public class ParameterTuner implements Serializable {
 		
 		@Override
 		public String toString() {
-			return "(" + nf.format(performance) + " : " + (solvedByGeneration == -1 ? "not solved" : "solved in " + solvedByGeneration + " gens") + ")";
+			return "(" + nf.format(performance) + " : " + (solvedByGeneration == -1 ? "not solved" : "solved in " + solvedByGeneration + " gens") + (stoppedEarly ? ", stopped early" : "") + ")";
 		}
 	}
 	
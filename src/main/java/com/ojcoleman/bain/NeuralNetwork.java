@@ -36,7 +36,16 @@ import com.ojcoleman.bain.synapse.spiking.Pfister2006SynapseCollection;
  * collections consisting of fewer than {@link #minimumSizeForGPU} neurons or synapses, use of a CPU-based execution
  * mode is forced as this is typically more performant than use of SIMD hardware; if using a CPU-based execution mode
  * then if the size is greater than or equal to {@link #minimumSizeForJTP} the JTP execution mode is used, otherwise the
- * SEQ execution mode is used.
+ * collection is executed directly in Java, bypassing Aparapi (see
+ * {@link com.ojcoleman.bain.base.ComponentCollection#setJavaExecutionThreads(int)}), using multiple threads if the
+ * size is greater than or equal to {@link #minimumSizeForParallelJava}.
+ * </p>
+ * <p>
+ * If both the neuron and synapse collections are executed directly in Java in a single thread and both support it (see
+ * {@link com.ojcoleman.bain.base.ComponentCollection#supportsDirectStep()}), then each simulation step is performed
+ * by invoking {@link com.ojcoleman.bain.base.ComponentCollection#stepDirect()} on the synapses and then the neurons,
+ * which avoids all kernel dispatch and buffer management overhead. This is typically the case for small networks. See
+ * {@link #setDirectStepEnabled(boolean)}.
  * </p>
  * 
  * @author Oliver J. Coleman
@@ -93,6 +102,79 @@ public class NeuralNetwork {
 		}
 	}
 
+	/**
+	 * When automatically selecting an execution mode and a collection is executed directly in Java, this is the minimum
+	 * number of components in the collection before multiple threads are used. Default is 16384.
+	 */
+	protected int minimumSizeForParallelJava = 16384;
+
+	/**
+	 * Get the minimum number of components in a collection before multiple threads are used when executing it directly
+	 * in Java, if using automatic mode selection.
+	 */
+	public int getMinimumSizeForParallelJava() {
+		return minimumSizeForParallelJava;
+	}
+
+	/**
+	 * Set the minimum number of components in a collection before multiple threads are used when executing it directly
+	 * in Java, if using automatic mode selection.
+	 */
+	public void setMinimumSizeForParallelJava(int minimumSizeForParallelJava) {
+		if (this.minimumSizeForParallelJava != minimumSizeForParallelJava) {
+			this.minimumSizeForParallelJava = minimumSizeForParallelJava;
+			selectExecutionModes();
+		}
+	}
+
+	/**
+	 * Whether to step the neuron and synapse collections directly when possible, see {@link #setDirectStepEnabled(boolean)}.
+	 * Default is true.
+	 */
+	protected boolean directStepEnabled = true;
+
+	/**
+	 * Returns whether the neuron and synapse collections are stepped directly when possible.
+	 */
+	public boolean isDirectStepEnabled() {
+		return directStepEnabled;
+	}
+
+	/**
+	 * Set whether the neuron and synapse collections are stepped directly (see
+	 * {@link com.ojcoleman.bain.base.ComponentCollection#stepDirect()}) when both are executed directly in Java in a
+	 * single thread and both support it.
+	 */
+	public void setDirectStepEnabled(boolean directStepEnabled) {
+		this.directStepEnabled = directStepEnabled;
+	}
+
+	/**
+	 * Whether to step the synapse collection in event-driven mode when possible, see
+	 * {@link #setEventDrivenStepEnabled(boolean)}. Default is false.
+	 */
+	protected boolean eventDrivenStepEnabled = false;
+
+	/**
+	 * Returns whether the synapse collection is stepped in event-driven mode when possible.
+	 */
+	public boolean isEventDrivenStepEnabled() {
+		return eventDrivenStepEnabled;
+	}
+
+	/**
+	 * Set whether the synapse collection is stepped in event-driven mode (see
+	 * {@link com.ojcoleman.bain.base.SynapseCollection#stepEventDriven()}) when it supports it and both the neuron and
+	 * synapse collections are executed directly in Java. In this mode only the synapses connected to neurons that
+	 * spiked are processed in each step, which for spiking networks with sparse activity, such as STDP experiments
+	 * using {@link com.ojcoleman.bain.neuron.spiking.FixedFrequencyNeuronCollection} or
+	 * {@link com.ojcoleman.bain.neuron.spiking.FixedProtocolNeuronCollection}, is far faster than updating every
+	 * synapse every step. The trajectories produced are the same as for normal stepping up to floating point rounding.
+	 */
+	public void setEventDrivenStepEnabled(boolean eventDrivenStepEnabled) {
+		this.eventDrivenStepEnabled = eventDrivenStepEnabled;
+	}
+
 	/**
 	 * The preferred execution mode, which will override an automatically selected mode if not null.
 	 */
@@ -190,16 +272,23 @@ public class NeuralNetwork {
 		ComponentCollection[] collections = new ComponentCollection[] { neurons, synapses };
 		// TODO below code doesn't work when minimumSizeForJTP > minimumSizeForGPU
 		for (ComponentCollection c : collections) {
+			c.setJavaExecutionThreads(0);
 			if (preferredExecutionMode != null) {
 				c.setExecutionMode(preferredExecutionMode);
 			} else if (c.getSize() < minimumSizeForJTP) {
 				c.setExecutionMode(Kernel.EXECUTION_MODE.SEQ);
+				c.setJavaExecutionThreads(c.getSize() < minimumSizeForParallelJava ? 1 : Runtime.getRuntime().availableProcessors());
 			} else if (c.getSize() < minimumSizeForGPU) {
 				c.setExecutionMode(Kernel.EXECUTION_MODE.JTP);
 			} else {
 				c.setExecutionMode(Kernel.EXECUTION_MODE.GPU);
 			}
 		}
+		// Adding synapse outputs directly to neuron inputs is a data race when synapses are executed in parallel, that is
+		// by multiple Java threads or via Aparapi in any mode other than SEQ, whether preferred or selected above.
+		if (synapses.getJavaExecutionThreads() > 1 || (synapses.getJavaExecutionThreads() == 0 && synapses.getExecutionMode() != Kernel.EXECUTION_MODE.SEQ)) {
+			synapses.setPostSortedAccumulation(true);
+		}
 
 		// SHARED BUFFERS NOT IMPLEMENTED IN APARAPI! See https://code.google.com/p/aparapi/issues/detail?id=56
 		// If trying for an OpenCL mode, do a test step to see what execution mode actually gets used.
@@ -274,8 +363,16 @@ public class NeuralNetwork {
 	public synchronized void step() {
 		// We step synapses first in case the neuron outputs have been modified, for example to provide external input
 		// to the network.
-		synapses.step();
-		neurons.step();
+		if (canStepEventDriven()) {
+			synapses.stepEventDriven();
+			stepNeuronsForEventDriven();
+		} else if (canStepDirect()) {
+			synapses.stepDirect();
+			neurons.stepDirect();
+		} else {
+			synapses.step();
+			neurons.step();
+		}
 		step++;
 	}
 
@@ -285,6 +382,23 @@ public class NeuralNetwork {
 	 * unnecessary buffer transfers between each step.
 	 */
 	public synchronized void run(int steps) {
+		if (canStepEventDriven() && !debug) {
+			for (int s = 0; s < steps; s++) {
+				synapses.stepEventDriven();
+				stepNeuronsForEventDriven();
+				step++;
+			}
+			return;
+		}
+		if (canStepDirect() && !debug) {
+			for (int s = 0; s < steps; s++) {
+				synapses.stepDirect();
+				neurons.stepDirect();
+				// Some neuron models depend on the current step.
+				step++;
+			}
+			return;
+		}
 		for (int s = 0; s < steps; s++) {
 			// We step synapses first in case the neuron outputs have been modified, for example to provide external
 			// input to the network.
@@ -296,6 +410,81 @@ public class NeuralNetwork {
 		}
 	}
 
+	private boolean canStepEventDriven() {
+		return eventDrivenStepEnabled && neurons.getJavaExecutionThreads() > 0 && synapses.getJavaExecutionThreads() > 0 && synapses.supportsEventDrivenStep();
+	}
+
+	/**
+	 * Returns true iff {@link #stepSinglePass(int[])} may be used: the neuron and synapse collections are stepped
+	 * directly (see {@link #setDirectStepEnabled(boolean)}) and both support single-pass stepping (see
+	 * {@link com.ojcoleman.bain.base.SynapseCollection#supportsSinglePassStep()} and
+	 * {@link com.ojcoleman.bain.base.NeuronCollection#supportsSinglePassStep()}), which is typically the case for
+	 * networks of rate-based neurons connected by fixed synapses.
+	 */
+	public boolean canStepSinglePass() {
+		return canStepDirect() && neurons.supportsSinglePassStep() && synapses.supportsSinglePassStep();
+	}
+
+	/**
+	 * Perform one simulation step in which each of the given neurons is activated once in the given order, see
+	 * {@link com.ojcoleman.bain.base.SynapseCollection#stepSinglePass(int[])}. For a feed-forward network with the
+	 * neurons given in topological order this propagates the outputs of the neurons not given (eg the input neurons)
+	 * through the network in a single pass, rather than in as many steps as the length of the longest path through it.
+	 * Should only be used if {@link #canStepSinglePass()} returns true.
+	 */
+	public synchronized void stepSinglePass(int[] neuronOrder) {
+		synapses.stepSinglePass(neuronOrder);
+		step++;
+	}
+
+	private void stepNeuronsForEventDriven() {
+		if (directStepEnabled && neurons.getJavaExecutionThreads() == 1 && neurons.supportsDirectStep()) {
+			neurons.stepDirect();
+		} else {
+			neurons.step();
+		}
+	}
+
+	private boolean canStepDirect() {
+		return directStepEnabled && neurons.getJavaExecutionThreads() == 1 && synapses.getJavaExecutionThreads() == 1 && neurons.supportsDirectStep() && synapses.supportsDirectStep();
+	}
+
+	/**
+	 * Save the current state of the simulation, so that it may later be restored with {@link #restoreState(State)}.
+	 * This allows one network to simulate several independent instances of itself, for example one for each of several
+	 * environments being evaluated in lock-step, without duplicating the configuration of the network.
+	 * 
+	 * @param state A State returned by a previous call to this method to be reused, or null to create a new one.
+	 * @return The saved state.
+	 */
+	public synchronized State saveState(State state) {
+		if (state == null) {
+			state = new State();
+		}
+		state.step = step;
+		state.neurons = neurons.saveState(state.neurons);
+		state.synapses = synapses.saveState(state.synapses);
+		return state;
+	}
+
+	/**
+	 * Restore the state of the simulation from a State produced by {@link #saveState(State)}.
+	 */
+	public synchronized void restoreState(State state) {
+		neurons.restoreState(state.neurons);
+		synapses.restoreState(state.synapses);
+		step = state.step;
+	}
+
+	/**
+	 * Holds the state of a simulation, see {@link NeuralNetwork#saveState(State)}.
+	 */
+	public static class State {
+		private long step;
+		private Object[] neurons;
+		private Object[] synapses;
+	}
+
 	/**
 	 * Returns the current simulation step number.
 	 */
@@ -1,8 +1,12 @@
 package com.ojcoleman.bain.base;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import com.aparapi.Kernel;
 import com.aparapi.Range;
@@ -121,6 +125,22 @@ public abstract class ComponentCollection extends Kernel {
 	 */
 	protected boolean inputsStale;
 
+	/**
+	 * The number of threads to use when executing the collection directly in Java rather than via Aparapi, or 0 to
+	 * execute via Aparapi. See {@link #setJavaExecutionThreads(int)}.
+	 */
+	private int javaExecutionThreads;
+
+	// The state of the current work item when executing directly in Java. When using multiple threads each thread
+	// uses its own (shallow) clone of this collection so that these are not shared.
+	private int javaWorkItemId;
+	private int javaWorkItemCount;
+	private int javaWorkItemPass;
+
+	// The clones used to execute this collection in multiple threads directly in Java, reused between steps until
+	// invalidated, see invalidateJavaWorkers().
+	private ComponentCollection[] javaWorkers;
+
 	/**
 	 * Get the total number of components in this collection.
 	 * 
@@ -152,6 +172,7 @@ public abstract class ComponentCollection extends Kernel {
 		}
 		this.sizePopulated = sizePopulated;
 		createExecuteRange();
+		invalidateJavaWorkers();
 	}
 
 	/**
@@ -177,6 +198,7 @@ public abstract class ComponentCollection extends Kernel {
 	 * hardware using put().
 	 */
 	public void init() {
+		invalidateJavaWorkers();
 		setExplicit(true);
 		outputsModified = false;
 		sizePower2 = Math.max(1, (2 << Utility.log2int(size - 1)));
@@ -202,12 +224,50 @@ public abstract class ComponentCollection extends Kernel {
 		if (outputsModified) {
 			put(outputs);
 		}
-		execute(executeRange);
+		if (javaExecutionThreads > 0) {
+			executeJava(getSizePopulated(), getPassCount());
+		} else {
+			execute(executeRange, getPassCount());
+		}
+		markStepped();
+	}
+
+	/**
+	 * Sets {@link #stateVariablesStale}, {@link #outputsStale} and {@link #inputsStale} to true to indicate that the
+	 * collection has been updated over a time step.
+	 */
+	protected void markStepped() {
 		stateVariablesStale = true;
 		outputsStale = true;
 		inputsStale = true;
 	}
 
+	/**
+	 * Returns true iff this collection supports {@link #stepDirect()}. This default implementation returns false.
+	 */
+	public boolean supportsDirectStep() {
+		return false;
+	}
+
+	/**
+	 * Update the model over one time step by executing it in a single loop over all the components in the calling
+	 * thread. This produces the same result as {@link #step()} when executing directly in Java with a single thread
+	 * (see {@link #setJavaExecutionThreads(int)}), but avoids the per-component invocation of {@link #run()} and the
+	 * buffer management performed by step(). It is used by {@link NeuralNetwork} to step small networks. This default
+	 * implementation throws an UnsupportedOperationException, see {@link #supportsDirectStep()}.
+	 */
+	public void stepDirect() {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support direct stepping.");
+	}
+
+	/**
+	 * Returns the number of passes of the kernel to execute in each {@link #step()}, see {@link #getWorkItemPass()}.
+	 * This default implementation returns 1.
+	 */
+	protected int getPassCount() {
+		return 1;
+	}
+
 	/**
 	 * Returns the output of the specified component for the last time step.
 	 */
@@ -356,6 +416,78 @@ public abstract class ComponentCollection extends Kernel {
 		return null;
 	}
 
+	/**
+	 * Adds the arrays holding the state of the components that may change as the collection is simulated to the given
+	 * list, see {@link #saveState(Object[])}. Configuration parameters and arrays belonging to other collections should
+	 * not be added. Sub-classes with additional state variables should override this method, invoke this super-method
+	 * and then add their own arrays. This implementation adds {@link #outputs}.
+	 */
+	protected void addStateArrays(List<Object> arrays) {
+		arrays.add(outputs);
+	}
+
+	/**
+	 * Copy the current state of the components into the given array, so that it may later be restored with
+	 * {@link #restoreState(Object[])}. This allows one collection to simulate several independent instances of the same
+	 * network, for example one for each of several environments being evaluated in lock-step.
+	 * 
+	 * @param state An array returned by a previous call to this method to be reused, or null to create a new one.
+	 * @return The array the state was copied into.
+	 */
+	public Object[] saveState(Object[] state) {
+		ensureOutputsAreFresh();
+		ensureInputsAreFresh();
+		ensureStateVariablesAreFresh();
+		List<Object> arrays = getStateArrays();
+		if (state == null || state.length != arrays.size()) {
+			state = new Object[arrays.size()];
+		}
+		for (int i = 0; i < state.length; i++) {
+			Object array = arrays.get(i);
+			int length = Array.getLength(array);
+			if (state[i] == null || state[i].getClass() != array.getClass() || Array.getLength(state[i]) != length) {
+				state[i] = Array.newInstance(array.getClass().getComponentType(), length);
+			}
+			System.arraycopy(array, 0, state[i], 0, length);
+		}
+		return state;
+	}
+
+	/**
+	 * Restore the state of the components from an array produced by {@link #saveState(Object[])}.
+	 */
+	public void restoreState(Object[] state) {
+		List<Object> arrays = getStateArrays();
+		if (state.length != arrays.size()) {
+			throw new IllegalArgumentException("The given state was not saved from this collection.");
+		}
+		for (int i = 0; i < state.length; i++) {
+			Object array = arrays.get(i);
+			System.arraycopy(state[i], 0, array, 0, Array.getLength(array));
+			if (array instanceof double[]) {
+				put((double[]) array);
+			} else if (array instanceof int[]) {
+				put((int[]) array);
+			} else if (array instanceof long[]) {
+				put((long[]) array);
+			} else if (array instanceof boolean[]) {
+				put((boolean[]) array);
+			} else if (array instanceof float[]) {
+				put((float[]) array);
+			}
+		}
+		outputsModified = true;
+		outputsStale = false;
+		inputsStale = false;
+		stateVariablesStale = false;
+	}
+
+	private List<Object> getStateArrays() {
+		List<Object> arrays = new ArrayList<Object>();
+		addStateArrays(arrays);
+		return arrays;
+	}
+
 	/**
 	 * Returns the lowest possible output value for components in this collection. The default implementation returns 0,
 	 * sub-classes should override this if necessary.
@@ -385,6 +517,152 @@ public abstract class ComponentCollection extends Kernel {
 		createExecuteRange();
 	}
 
+	/**
+	 * Set the number of threads to use to execute this collection directly in Java, rather than via Aparapi. This
+	 * avoids the overhead of Aparapi kernel dispatch and of the put() and get() buffer transfers, which are skipped
+	 * entirely. If threads is 1 then the components are executed sequentially in the calling thread, if greater than 1
+	 * then the components are partitioned into contiguous ranges that are executed in parallel in the common fork-join
+	 * pool. If threads is 0 then the collection is executed via Aparapi according to the execution mode.
+	 */
+	public void setJavaExecutionThreads(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("The number of threads for Java execution of a Bain ComponentCollection must be >= 0.");
+		}
+		javaExecutionThreads = threads;
+		invalidateJavaWorkers();
+	}
+
+	/**
+	 * Returns the number of threads used to execute this collection directly in Java, or 0 if it is executed via
+	 * Aparapi. See {@link #setJavaExecutionThreads(int)}.
+	 */
+	public int getJavaExecutionThreads() {
+		return javaExecutionThreads;
+	}
+
+	/**
+	 * Returns the index of the current work item (component) in the {@link #run()} method. This should be used in
+	 * place of the Aparapi getGlobalId() method so that the collection may be executed directly in Java, see
+	 * {@link #setJavaExecutionThreads(int)}.
+	 */
+	protected int getWorkItemId() {
+		return javaExecutionThreads > 0 ? javaWorkItemId : getGlobalId();
+	}
+
+	/**
+	 * Returns the total number of work items being executed in the {@link #run()} method. This should be used in place
+	 * of the Aparapi getGlobalSize() method, see {@link #getWorkItemId()}.
+	 */
+	protected int getWorkItemCount() {
+		return javaExecutionThreads > 0 ? javaWorkItemCount : getGlobalSize();
+	}
+
+	/**
+	 * Returns the current pass (see {@link #getPassCount()}) in the {@link #run()} method. This should be used in
+	 * place of the Aparapi getPassId() method, see {@link #getWorkItemId()}.
+	 */
+	protected int getWorkItemPass() {
+		return javaExecutionThreads > 0 ? javaWorkItemPass : getPassId();
+	}
+
+	private void executeJava(int workItemCount, int passCount) {
+		int chunkCount = Math.min(javaExecutionThreads, workItemCount);
+		if (chunkCount <= 1) {
+			for (int pass = 0; pass < passCount; pass++) {
+				runWorkItems(pass, 0, workItemCount, workItemCount);
+			}
+			return;
+		}
+		if (javaWorkers == null || javaWorkers.length != chunkCount) {
+			javaWorkers = new ComponentCollection[chunkCount];
+			for (int w = 0; w < chunkCount; w++) {
+				javaWorkers[w] = (ComponentCollection) clone();
+				javaWorkers[w].javaWorkers = null;
+			}
+		}
+		final ComponentCollection[] workers = javaWorkers;
+		for (int pass = 0; pass < passCount; pass++) {
+			final int p = pass;
+			// All work items must complete a pass before the next one starts.
+			IntStream.range(0, chunkCount).parallel().forEach(w -> {
+				workers[w].runWorkItems(p, (int) ((long) workItemCount * w / chunkCount), (int) ((long) workItemCount * (w + 1) / chunkCount), workItemCount);
+			});
+		}
+	}
+
+	/**
+	 * Discards the (shallow) clones of this collection used to execute it in multiple threads directly in Java, so that
+	 * they are recreated with the current field values on the next step. The clones are reused between steps, so this
+	 * must be invoked whenever a field used in {@link #run()} is assigned a new value (eg a new array) other than in
+	 * {@link #init()}, {@link #setSizePopulated(int)} or {@link #setJavaExecutionThreads(int)}, which invoke it.
+	 * Changes to the contents of arrays do not require it.
+	 */
+	protected void invalidateJavaWorkers() {
+		javaWorkers = null;
+	}
+
+	private void runWorkItems(int pass, int from, int to, int workItemCount) {
+		javaWorkItemPass = pass;
+		javaWorkItemCount = workItemCount;
+		for (int i = from; i < to; i++) {
+			javaWorkItemId = i;
+			run();
+		}
+	}
+
+	// Aparapi buffer transfers are not required when executing directly in Java.
+
+	@Override
+	public Kernel put(double[] array) {
+		return javaExecutionThreads > 0 ? this : super.put(array);
+	}
+
+	@Override
+	public Kernel put(float[] array) {
+		return javaExecutionThreads > 0 ? this : super.put(array);
+	}
+
+	@Override
+	public Kernel put(long[] array) {
+		return javaExecutionThreads > 0 ? this : super.put(array);
+	}
+
+	@Override
+	public Kernel put(int[] array) {
+		return javaExecutionThreads > 0 ? this : super.put(array);
+	}
+
+	@Override
+	public Kernel put(boolean[] array) {
+		return javaExecutionThreads > 0 ? this : super.put(array);
+	}
+
+	@Override
+	public Kernel get(double[] array) {
+		return javaExecutionThreads > 0 ? this : super.get(array);
+	}
+
+	@Override
+	public Kernel get(float[] array) {
+		return javaExecutionThreads > 0 ? this : super.get(array);
+	}
+
+	@Override
+	public Kernel get(long[] array) {
+		return javaExecutionThreads > 0 ? this : super.get(array);
+	}
+
+	@Override
+	public Kernel get(int[] array) {
+		return javaExecutionThreads > 0 ? this : super.get(array);
+	}
+
+	@Override
+	public Kernel get(boolean[] array) {
+		return javaExecutionThreads > 0 ? this : super.get(array);
+	}
+
+
 	private void createExecuteRange() {
 		executeRange = this.getExecutionMode() == Kernel.EXECUTION_MODE.SEQ ? Range.create(getSizePopulated(), 1) : Range.create(getSizePopulated());
 	}
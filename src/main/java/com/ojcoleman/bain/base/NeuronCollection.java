@@ -1,6 +1,7 @@
 package com.ojcoleman.bain.base;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * <p>
@@ -137,11 +138,30 @@ public abstract class NeuronCollection<C extends NeuronConfiguration> extends Co
 	 */
 	@Override
 	public void run() {
-		int neuronID = this.getGlobalId();
+		int neuronID = getWorkItemId();
 		inputs[neuronID] = 0;
 		spikings[neuronID] = outputs[neuronID] > 0;
 	}
 
+	/**
+	 * Returns true iff this collection supports {@link #stepDirect(int)}, which requires that the output of a neuron
+	 * depends only on its current input (and fixed parameters), as for most rate-based neuron models. This default
+	 * implementation returns false.
+	 */
+	public boolean supportsSinglePassStep() {
+		return false;
+	}
+
+	/**
+	 * Update the given neuron from its current input as {@link #stepDirect()} would, resetting its input. This is used
+	 * by {@link SynapseCollection#stepSinglePass(int[])} to activate the neurons of a feed-forward network in
+	 * topological order. This default implementation throws an UnsupportedOperationException, see
+	 * {@link #supportsSinglePassStep()}.
+	 */
+	public void stepDirect(int neuronID) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support single-pass stepping.");
+	}
+
 	@Override
 	public void ensureOutputsAreFresh() {
 		if (outputsStale) {
@@ -159,6 +179,16 @@ public abstract class NeuronCollection<C extends NeuronConfiguration> extends Co
 		}
 	}
 
+	/**
+	 * {@inheritDoc} This implementation also adds {@link #inputs} and {@link #spikings}.
+	 */
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(inputs);
+		arrays.add(spikings);
+	}
+
 	@Override
 	public NeuronConfiguration getComponentConfiguration(int componentIndex) {
 		return configs.get(componentConfigIndexes[componentIndex]);
@@ -1,6 +1,7 @@
 package com.ojcoleman.bain.base;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * <p>
@@ -13,6 +14,8 @@ import java.util.Arrays;
  * {@link #getConfigSingleton()}. Sub-classes will need to override the methods {@link #init()},{@link #reset()} and
  * {@link #ensureStateVariablesAreFresh()} if they use custom state variables. Sub-classes may wish/need to override the
  * methods: {@link #step()}, {@link #getStateVariableNames()}, {@link #getStateVariableValues(int)} and {@link #isNotUsed(int)}.
+ * Sub-classes whose state only changes in response to spikes, other than by decay which may be computed in closed form,
+ * may support event-driven stepping, see {@link #stepEventDriven()}.
  * </p>
  * 
  * @author Oliver J. Coleman
@@ -66,8 +69,70 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 	 */
 	protected boolean efficaciesModified;
 
+	/**
+	 * The kernel pass in which the synapse outputs are summed into the inputs of the post-synaptic neurons when
+	 * {@link #postSortedAccumulation} is enabled.
+	 */
+	protected static final int ACCUMULATION_PASS = 1;
+
+	/**
+	 * If true then rather than each synapse adding its output directly to the input of its post-synaptic neuron (which
+	 * is a data race when the kernel is executed in parallel), the outputs are summed in a second kernel pass in which
+	 * each work item sums the inputs for one or more neurons. See {@link #setPostSortedAccumulation(boolean)}.
+	 */
+	protected boolean postSortedAccumulation;
+
+	/**
+	 * Indexes of the synapses sorted by post-synaptic neuron (and then by synapse index). Only used if
+	 * {@link #postSortedAccumulation} is enabled.
+	 */
+	protected int[] postSortedSynapseIndexes;
+
+	/**
+	 * Row pointers into {@link #postSortedSynapseIndexes}: the synapses for neuron n are at indexes [postRowStart[n],
+	 * postRowStart[n+1]). Only used if {@link #postSortedAccumulation} is enabled.
+	 */
+	protected int[] postRowStart;
+
+	private boolean postSortedIndexesStale = true;
+
+	/**
+	 * Row pointers into {@link #preSortedSynapseIndexes}: the synapses for neuron n are at indexes [preRowStart[n],
+	 * preRowStart[n+1]). Only used for event-driven stepping, see {@link #stepEventDriven()}.
+	 */
+	protected int[] preRowStart;
+
+	/**
+	 * Indexes of the synapses sorted by pre-synaptic neuron (and then by synapse index). Only used for event-driven
+	 * stepping, see {@link #stepEventDriven()}.
+	 */
+	protected int[] preSortedSynapseIndexes;
+
+	private boolean preSortedIndexesStale = true;
+
+	/**
+	 * The number of event-driven steps performed since the state of all synapses was last brought up to date, see
+	 * {@link #synchronizeEventDrivenState()}.
+	 */
+	protected long eventDrivenStep;
+
+	/**
+	 * For each synapse, the value of {@link #eventDrivenStep} up to which the state of the synapse is up to date.
+	 */
+	protected long[] eventDrivenSynapseStep;
+
+	// The sum of the outputs of the synapses for each post-synaptic neuron, and the neuron outputs they were
+	// calculated from, maintained incrementally by stepEventDriven().
+	private double[] eventDrivenNeuronInputs;
+	private double[] eventDrivenNeuronOutputs;
+	private boolean eventDrivenOutputsValid;
+
 	@Override
 	public void init() {
+		// Bring any lagging state up to date before the arrays (and parameters) it depends on are reinitialised.
+		if (eventDrivenSynapseStep != null) {
+			synchronizeEventDrivenState();
+		}
 		super.init();
 		if (efficacy == null || efficacy.length != size) {
 			outputs = new double[size];
@@ -90,6 +155,13 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 		put(postIndexes);
 		preOrPostIndexesModified = false;
 		efficaciesModified = false;
+		postSortedIndexesStale = true;
+		preSortedIndexesStale = true;
+		if (eventDrivenSynapseStep == null || eventDrivenSynapseStep.length != size) {
+			eventDrivenSynapseStep = new long[size];
+		}
+		eventDrivenStep = 0;
+		eventDrivenOutputsValid = false;
 	}
 
 	/**
@@ -104,11 +176,15 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 		super.reset();
 		System.arraycopy(initialEfficacy, 0, efficacy, 0, efficacy.length);
 		efficaciesModified = true;
-
+		eventDrivenStep = 0;
+		Arrays.fill(eventDrivenSynapseStep, 0);
+		eventDrivenOutputsValid = false;
 	}
 
 	@Override
 	public void step() {
+		synchronizeEventDrivenState();
+		eventDrivenOutputsValid = false;
 		// At the moment Aparapi doesn't allow sharing buffers between kernels
 		// or allow kernels with multiple entry points in a way that is
 		// compatible with a framework such as this. Thus we must ensure that
@@ -127,21 +203,293 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 		if (efficaciesModified) {
 			put(efficacy);
 		}
+		if (postSortedAccumulation && postSortedIndexesStale) {
+			updatePostSortedIndexes();
+			put(postSortedSynapseIndexes);
+			put(postRowStart);
+		}
 		super.step();
 		outputsStale = true;
 		get(neuronInputs); // See note above.
 	}
 
+	@Override
+	protected int getPassCount() {
+		return postSortedAccumulation ? 2 : 1;
+	}
+
 	/**
 	 * Implements the basic infrastructure for processing a synapse by updating the values of {@link #outputs} and
 	 * {@link #neuronInputs}. Sub-classes may override this method, and if they modify the {@link #efficacy} they must
-	 * call the super-method <strong>after</strong> modifying it.
+	 * call the super-method <strong>after</strong> modifying it. Sub-classes that override this method must also handle
+	 * the {@link #ACCUMULATION_PASS} before doing anything else, see {@link #accumulateNeuronInputs()}, and only add
+	 * to {@link #neuronInputs} directly if {@link #postSortedAccumulation} is disabled.
 	 */
 	@Override
 	public void run() {
-		int synapseID = this.getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		outputs[synapseID] = neuronOutputs[preIndexes[synapseID]] * efficacy[synapseID];
-		neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+		if (!postSortedAccumulation) {
+			neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+		}
+	}
+
+	/**
+	 * Performs the {@link #ACCUMULATION_PASS} when {@link #postSortedAccumulation} is enabled: sums the
+	 * {@link #outputs} of the synapses for each post-synaptic neuron into {@link #neuronInputs}. Each work item
+	 * processes every n'th neuron, where n is the work item count. Outputs are summed in order of synapse index, so the
+	 * result is identical to that of adding them directly in sequential execution mode. Sub-classes that add synapse
+	 * outputs to something other than {@link #neuronInputs} should override this method.
+	 */
+	protected void accumulateNeuronInputs() {
+		int neuronCount = postRowStart.length - 1;
+		for (int neuronID = getWorkItemId(); neuronID < neuronCount; neuronID += getWorkItemCount()) {
+			double input = neuronInputs[neuronID];
+			for (int i = postRowStart[neuronID]; i < postRowStart[neuronID + 1]; i++) {
+				input += outputs[postSortedSynapseIndexes[i]];
+			}
+			neuronInputs[neuronID] = input;
+		}
+	}
+
+	/**
+	 * Enable or disable post-sorted accumulation of synapse outputs (see {@link #postSortedAccumulation}). This allows
+	 * the synapse kernel to be executed in parallel (e.g. in JTP mode) deterministically and without data races.
+	 */
+	public void setPostSortedAccumulation(boolean postSortedAccumulation) {
+		this.postSortedAccumulation = postSortedAccumulation;
+		postSortedIndexesStale = true;
+		invalidateJavaWorkers();
+	}
+
+	/**
+	 * Returns true iff post-sorted accumulation of synapse outputs is enabled, see
+	 * {@link #setPostSortedAccumulation(boolean)}.
+	 */
+	public boolean isPostSortedAccumulation() {
+		return postSortedAccumulation;
+	}
+
+	private void updatePostSortedIndexes() {
+		int neuronCount = neuronInputs.length;
+		if (postRowStart == null || postRowStart.length != neuronCount + 1) {
+			postRowStart = new int[neuronCount + 1];
+		}
+		if (postSortedSynapseIndexes == null || postSortedSynapseIndexes.length != Math.max(1, size)) {
+			postSortedSynapseIndexes = new int[Math.max(1, size)];
+		}
+		sortByNeuron(postIndexes, postRowStart, postSortedSynapseIndexes);
+		postSortedIndexesStale = false;
+		invalidateJavaWorkers();
+	}
+
+	private void updatePreSortedIndexes() {
+		int neuronCount = neuronInputs.length;
+		if (preRowStart == null || preRowStart.length != neuronCount + 1) {
+			preRowStart = new int[neuronCount + 1];
+		}
+		if (preSortedSynapseIndexes == null || preSortedSynapseIndexes.length != Math.max(1, size)) {
+			preSortedSynapseIndexes = new int[Math.max(1, size)];
+		}
+		sortByNeuron(preIndexes, preRowStart, preSortedSynapseIndexes);
+		preSortedIndexesStale = false;
+		invalidateJavaWorkers();
+	}
+
+	// Counting sort of the populated synapses by the given neuron indexes, which is stable so the synapses for each
+	// neuron remain in order of index.
+	private void sortByNeuron(int[] neuronIndexes, int[] rowStart, int[] sortedSynapseIndexes) {
+		int neuronCount = rowStart.length - 1;
+		int synapseCount = getSizePopulated();
+		Arrays.fill(rowStart, 0);
+		for (int s = 0; s < synapseCount; s++) {
+			rowStart[neuronIndexes[s] + 1]++;
+		}
+		for (int n = 0; n < neuronCount; n++) {
+			rowStart[n + 1] += rowStart[n];
+		}
+		int[] next = Arrays.copyOf(rowStart, neuronCount);
+		for (int s = 0; s < synapseCount; s++) {
+			sortedSynapseIndexes[next[neuronIndexes[s]]++] = s;
+		}
+	}
+
+	/**
+	 * Returns true iff this collection supports {@link #stepSinglePass(int[])}, which requires that the synapses are not
+	 * plastic and that their output is the product of the pre-synaptic neuron output and the efficacy, as in
+	 * {@link #run()}. This default implementation returns false.
+	 */
+	public boolean supportsSinglePassStep() {
+		return false;
+	}
+
+	/**
+	 * Activate each of the given neurons once in the given order: the outputs of the synapses to a neuron are computed
+	 * and summed into its input (in order of synapse index, as in {@link #step()}), and then the neuron is updated with
+	 * {@link NeuronCollection#stepDirect(int)}. Neurons not given, for example input neurons, are not updated and the
+	 * synapses to them are not processed. If the neurons are given in topological order (every neuron after all of its
+	 * pre-synaptic neurons) then this propagates the current neuron outputs through a feed-forward network in a single
+	 * pass, producing the same neuron outputs as stepping the network until it has settled while the outputs of the
+	 * neurons not given are held fixed. It is executed in the calling thread. Only supported if both this collection
+	 * and the neuron collection support it, see {@link #supportsSinglePassStep()} and
+	 * {@link NeuronCollection#supportsSinglePassStep()}.
+	 */
+	public void stepSinglePass(int[] neuronOrder) {
+		NeuronCollection<? extends ComponentConfiguration> neurons = network.getNeurons();
+		if (!supportsSinglePassStep() || !neurons.supportsSinglePassStep()) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " and " + neurons.getClass().getSimpleName() + " do not both support single-pass stepping.");
+		}
+		neurons.ensureInputsAreFresh();
+		neurons.ensureOutputsAreFresh();
+		if (postSortedIndexesStale) {
+			updatePostSortedIndexes();
+			if (postSortedAccumulation) {
+				put(postSortedSynapseIndexes);
+				put(postRowStart);
+			}
+		}
+		for (int n : neuronOrder) {
+			for (int i = postRowStart[n]; i < postRowStart[n + 1]; i++) {
+				int synapseID = postSortedSynapseIndexes[i];
+				outputs[synapseID] = neuronOutputs[preIndexes[synapseID]] * efficacy[synapseID];
+				neuronInputs[n] += outputs[synapseID];
+			}
+			neurons.stepDirect(n);
+		}
+		eventDrivenOutputsValid = false;
+		markStepped();
+		neurons.markStepped();
+	}
+
+	/**
+	 * Returns true iff this collection supports {@link #stepEventDriven()}. This default implementation returns false.
+	 */
+	public boolean supportsEventDrivenStep() {
+		return false;
+	}
+
+	/**
+	 * Update the model over one time step by processing only the synapses connected to a neuron that spiked in the
+	 * previous time step, and the outputs of the synapses whose pre-synaptic neuron output has changed. The state of a
+	 * synapse is brought up to date lazily, when either of its neurons next spike, by
+	 * {@link #updateSynapseEventDriven(int, long, boolean, boolean)}, or for all synapses by
+	 * {@link #synchronizeEventDrivenState()}. The sum of the outputs of the synapses for each neuron is maintained
+	 * incrementally, and added to the neuron inputs each step. This produces the same trajectories as {@link #step()}
+	 * up to floating point rounding, but when spikes are sparse it performs far less work. It is executed in the calling
+	 * thread, and so should only be used when the neuron collection is executed directly in Java. Only supported by
+	 * sub-classes that return true from {@link #supportsEventDrivenStep()}.
+	 */
+	public void stepEventDriven() {
+		if (!supportsEventDrivenStep()) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support event-driven stepping.");
+		}
+		network.getNeurons().ensureInputsAreFresh();
+		network.getNeurons().ensureOutputsAreFresh();
+		if (postSortedIndexesStale) {
+			updatePostSortedIndexes();
+			if (postSortedAccumulation) {
+				put(postSortedSynapseIndexes);
+				put(postRowStart);
+			}
+		}
+		if (preSortedIndexesStale) {
+			updatePreSortedIndexes();
+		}
+		int neuronCount = neuronInputs.length;
+		if (!eventDrivenOutputsValid) {
+			initEventDrivenOutputs();
+		}
+
+		long step = eventDrivenStep;
+		for (int n = 0; n < neuronCount; n++) {
+			if (neuronSpikings[n]) {
+				for (int i = preRowStart[n]; i < preRowStart[n + 1]; i++) {
+					updateSynapseForSpike(preSortedSynapseIndexes[i], step);
+				}
+				for (int i = postRowStart[n]; i < postRowStart[n + 1]; i++) {
+					updateSynapseForSpike(postSortedSynapseIndexes[i], step);
+				}
+			}
+			if (neuronOutputs[n] != eventDrivenNeuronOutputs[n]) {
+				eventDrivenNeuronOutputs[n] = neuronOutputs[n];
+				for (int i = preRowStart[n]; i < preRowStart[n + 1]; i++) {
+					updateOutputEventDriven(preSortedSynapseIndexes[i]);
+				}
+			}
+		}
+		for (int n = 0; n < neuronCount; n++) {
+			neuronInputs[n] += eventDrivenNeuronInputs[n];
+		}
+		eventDrivenStep++;
+		markStepped();
+	}
+
+	private void updateSynapseForSpike(int synapseID, long step) {
+		// Synapses connected to two spiking neurons (or to the same neuron twice) are only updated once.
+		if (eventDrivenSynapseStep[synapseID] <= step) {
+			updateSynapseEventDriven(synapseID, step + 1 - eventDrivenSynapseStep[synapseID], neuronSpikings[preIndexes[synapseID]], neuronSpikings[postIndexes[synapseID]]);
+			eventDrivenSynapseStep[synapseID] = step + 1;
+			updateOutputEventDriven(synapseID);
+		}
+	}
+
+	private void updateOutputEventDriven(int synapseID) {
+		double output = neuronOutputs[preIndexes[synapseID]] * efficacy[synapseID];
+		eventDrivenNeuronInputs[postIndexes[synapseID]] += output - outputs[synapseID];
+		outputs[synapseID] = output;
+	}
+
+	private void initEventDrivenOutputs() {
+		int neuronCount = neuronInputs.length;
+		if (eventDrivenNeuronInputs == null || eventDrivenNeuronInputs.length != neuronCount) {
+			eventDrivenNeuronInputs = new double[neuronCount];
+			eventDrivenNeuronOutputs = new double[neuronCount];
+		}
+		Arrays.fill(eventDrivenNeuronInputs, 0);
+		System.arraycopy(neuronOutputs, 0, eventDrivenNeuronOutputs, 0, neuronCount);
+		int synapseCount = getSizePopulated();
+		for (int s = 0; s < synapseCount; s++) {
+			outputs[s] = neuronOutputs[preIndexes[s]] * efficacy[s];
+			eventDrivenNeuronInputs[postIndexes[s]] += outputs[s];
+		}
+		eventDrivenOutputsValid = true;
+	}
+
+	/**
+	 * Update the state of a synapse over the given number of time steps, as {@link #run()} would, for use in
+	 * {@link #stepEventDriven()}. In all but the last of these steps neither the pre- nor post-synaptic neuron spiked;
+	 * in the last step they spiked as indicated by preSpiked and postSpiked (if both are false then the last step is
+	 * also one in which neither spiked). Implementations should update the {@link #efficacy} but not the
+	 * {@link #outputs} or {@link #neuronInputs}. This default implementation throws an UnsupportedOperationException.
+	 */
+	protected void updateSynapseEventDriven(int synapseID, long steps, boolean preSpiked, boolean postSpiked) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support event-driven stepping.");
+	}
+
+	/**
+	 * Bring the state of all synapses up to date after event-driven stepping (see {@link #stepEventDriven()}). This is
+	 * invoked by {@link #step()} and {@link #init()}; sub-classes supporting event-driven stepping should also invoke
+	 * it before their state variables are read, e.g. in {@link #ensureStateVariablesAreFresh()}.
+	 * 
+	 * @return true iff the state of any synapse was updated.
+	 */
+	protected boolean synchronizeEventDrivenState() {
+		if (eventDrivenStep == 0) {
+			return false;
+		}
+		int synapseCount = Math.min(getSizePopulated(), eventDrivenSynapseStep.length);
+		for (int s = 0; s < synapseCount; s++) {
+			if (eventDrivenSynapseStep[s] < eventDrivenStep) {
+				updateSynapseEventDriven(s, eventDrivenStep - eventDrivenSynapseStep[s], false, false);
+			}
+		}
+		eventDrivenStep = 0;
+		Arrays.fill(eventDrivenSynapseStep, 0);
+		return true;
 	}
 
 	@Override
@@ -199,6 +547,8 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 	public void setPreNeuron(int synapseIndex, int neuronIndex) {
 		preIndexes[synapseIndex] = neuronIndex;
 		preOrPostIndexesModified = true;
+		preSortedIndexesStale = true;
+		eventDrivenOutputsValid = false;
 	}
 
 	/**
@@ -220,6 +570,8 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 	public void setPostNeuron(int synapseIndex, int neuronIndex) {
 		postIndexes[synapseIndex] = neuronIndex;
 		preOrPostIndexesModified = true;
+		postSortedIndexesStale = true;
+		eventDrivenOutputsValid = false;
 	}
 
 	/**
@@ -245,6 +597,9 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 		preIndexes[synapseIndex] = preNeuronIndex;
 		postIndexes[synapseIndex] = postNeuronIndex;
 		preOrPostIndexesModified = true;
+		postSortedIndexesStale = true;
+		preSortedIndexesStale = true;
+		eventDrivenOutputsValid = false;
 	}
 
 	/**
@@ -289,6 +644,7 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 		initialEfficacy[synapseIndex] = newEfficacy;
 		stateVariablesStale = true;
 		efficaciesModified = true;
+		eventDrivenOutputsValid = false;
 	}
 
 	/**
@@ -316,9 +672,46 @@ public abstract class SynapseCollection<C extends SynapseConfiguration> extends
 	 */
 	public void setEfficaciesModified() {
 		efficaciesModified = true;
+		eventDrivenOutputsValid = false;
 		System.arraycopy(efficacy, 0, initialEfficacy, 0, efficacy.length);
 	}
 
+	/**
+	 * Returns true iff the efficacies of the synapses may change as the collection is simulated, in which case they are
+	 * included in the state saved by {@link #saveState(Object[])}. This default implementation returns true.
+	 */
+	protected boolean isPlastic() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc} This implementation also adds {@link #efficacy} if {@link #isPlastic()} returns true.
+	 */
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		if (isPlastic()) {
+			arrays.add(efficacy);
+		}
+	}
+
+	@Override
+	public Object[] saveState(Object[] state) {
+		// Bring the synapses up to date so that the event-driven bookkeeping need not be saved.
+		synchronizeEventDrivenState();
+		return super.saveState(state);
+	}
+
+	@Override
+	public void restoreState(Object[] state) {
+		synchronizeEventDrivenState();
+		super.restoreState(state);
+		if (isPlastic()) {
+			efficaciesModified = true;
+		}
+		eventDrivenOutputsValid = false;
+	}
+
 	@Override
 	public SynapseConfiguration getComponentConfiguration(int componentIndex) {
 		return configs.get(componentConfigIndexes[componentIndex]);
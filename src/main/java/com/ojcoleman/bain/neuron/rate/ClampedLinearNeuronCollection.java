@@ -20,13 +20,40 @@ public class ClampedLinearNeuronCollection extends NeuronCollectionWithBias {
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		outputs[neuronID] = Math.max(Math.min(inputs[neuronID] + bias[neuronID], 1), 0);
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == ClampedLinearNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			stepDirect(neuronID);
+		}
+		markStepped();
+	}
+
+	@Override
+	public boolean supportsSinglePassStep() {
+		return supportsDirectStep();
+	}
+
+	@Override
+	public void stepDirect(int neuronID) {
+		outputs[neuronID] = Math.max(Math.min(inputs[neuronID] + bias[neuronID], 1), 0);
+		inputs[neuronID] = 0;
+		spikings[neuronID] = outputs[neuronID] > 0;
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return null;
@@ -20,13 +20,40 @@ public class LinearNeuronCollection extends NeuronCollectionWithBias {
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		outputs[neuronID] = inputs[neuronID] + bias[neuronID];
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == LinearNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			stepDirect(neuronID);
+		}
+		markStepped();
+	}
+
+	@Override
+	public boolean supportsSinglePassStep() {
+		return supportsDirectStep();
+	}
+
+	@Override
+	public void stepDirect(int neuronID) {
+		outputs[neuronID] = inputs[neuronID] + bias[neuronID];
+		inputs[neuronID] = 0;
+		spikings[neuronID] = outputs[neuronID] > 0;
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return null;
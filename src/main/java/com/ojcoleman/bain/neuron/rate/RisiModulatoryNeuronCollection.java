@@ -3,6 +3,7 @@ package com.ojcoleman.bain.neuron.rate;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.List;
 
 import com.ojcoleman.bain.base.*;
 
@@ -92,7 +93,7 @@ public class RisiModulatoryNeuronCollection<C extends RisiModulatoryNeuronConfig
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		int configID = componentConfigIndexes[neuronID];
@@ -130,6 +131,13 @@ public class RisiModulatoryNeuronCollection<C extends RisiModulatoryNeuronConfig
 		super.ensureOutputsAreFresh();
 	}
 	
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(modInputs);
+		arrays.add(modActivations);
+	}
+
 	@Override
 	public void ensureStateVariablesAreFresh() {
 		super.ensureStateVariablesAreFresh();
@@ -46,7 +46,7 @@ public class SigmoidBipolarNeuronCollection<C extends SigmoidNeuronConfiguration
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		int configID = componentConfigIndexes[neuronID];
@@ -65,6 +65,34 @@ public class SigmoidBipolarNeuronCollection<C extends SigmoidNeuronConfiguration
 		return 1;
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == SigmoidBipolarNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			stepDirect(neuronID);
+		}
+		markStepped();
+	}
+
+	@Override
+	public boolean supportsSinglePassStep() {
+		return supportsDirectStep();
+	}
+
+	@Override
+	public void stepDirect(int neuronID) {
+		inputs[neuronID] += bias[neuronID];
+		outputs[neuronID] = 2.0 / (1.0 + Math.exp(-(inputs[neuronID] * configSlope[componentConfigIndexes[neuronID]]))) - 1.0;
+		inputs[neuronID] = 0;
+		spikings[neuronID] = outputs[neuronID] > 0;
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return new SigmoidNeuronConfiguration();
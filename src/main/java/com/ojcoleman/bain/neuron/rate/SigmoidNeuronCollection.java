@@ -46,7 +46,7 @@ public class SigmoidNeuronCollection extends NeuronCollectionWithBias<SigmoidNeu
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		int configID = componentConfigIndexes[neuronID];
@@ -55,6 +55,34 @@ public class SigmoidNeuronCollection extends NeuronCollectionWithBias<SigmoidNeu
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == SigmoidNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			stepDirect(neuronID);
+		}
+		markStepped();
+	}
+
+	@Override
+	public boolean supportsSinglePassStep() {
+		return supportsDirectStep();
+	}
+
+	@Override
+	public void stepDirect(int neuronID) {
+		inputs[neuronID] += bias[neuronID];
+		outputs[neuronID] = (1.0 / (1.0 + Math.exp(-(inputs[neuronID] * configSlope[componentConfigIndexes[neuronID]]))));
+		inputs[neuronID] = 0;
+		spikings[neuronID] = outputs[neuronID] > 0;
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return new SigmoidNeuronConfiguration();
@@ -3,6 +3,7 @@ package com.ojcoleman.bain.neuron.rate;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.List;
 
 import com.ojcoleman.bain.base.*;
 
@@ -85,7 +86,7 @@ public class SoltoggioModulatoryNeuronCollection<C extends SoltoggioModulatoryNe
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 
@@ -118,6 +119,13 @@ public class SoltoggioModulatoryNeuronCollection<C extends SoltoggioModulatoryNe
 		super.ensureOutputsAreFresh();
 	}
 	
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(modInputs);
+		arrays.add(modActivations);
+	}
+
 	@Override
 	public void ensureStateVariablesAreFresh() {
 		get(modInputs);
@@ -58,7 +58,7 @@ public class FixedFrequencyNeuronCollection extends NeuronCollection<FixedFreque
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		int configID = componentConfigIndexes[neuronID];
@@ -67,6 +67,25 @@ public class FixedFrequencyNeuronCollection extends NeuronCollection<FixedFreque
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == FixedFrequencyNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		long step = network.getStep();
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			int configID = componentConfigIndexes[neuronID];
+			outputs[neuronID] = (step % configSpikingPeriod[configID] == 0) ? configSpikePotential[configID] : configRestPotential[configID];
+			inputs[neuronID] = 0;
+			spikings[neuronID] = outputs[neuronID] > 0;
+		}
+		markStepped();
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return new FixedFrequencyNeuronConfiguration();
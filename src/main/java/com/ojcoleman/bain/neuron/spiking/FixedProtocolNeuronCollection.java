@@ -71,7 +71,7 @@ public class FixedProtocolNeuronCollection extends NeuronCollection<FixedProtoco
 
 	@Override
 	public void run() {
-		int neuronID = getGlobalId();
+		int neuronID = getWorkItemId();
 		if (neuronID >= size)
 			return;
 		int configID = componentConfigIndexes[neuronID];
@@ -80,6 +80,26 @@ public class FixedProtocolNeuronCollection extends NeuronCollection<FixedProtoco
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == FixedProtocolNeuronCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		long step = network.getStep();
+		int sizePopulated = getSizePopulated();
+		for (int neuronID = 0; neuronID < sizePopulated; neuronID++) {
+			int configID = componentConfigIndexes[neuronID];
+			int stepInProtocol = (int) (step % configSpikePatternPeriod[configID]);
+			outputs[neuronID] = configSpikeProtocol[configProtocolIndex[configID] + stepInProtocol] ? configSpikePotential[configID] : configRestPotential[configID];
+			inputs[neuronID] = 0;
+			spikings[neuronID] = outputs[neuronID] > 0;
+		}
+		markStepped();
+	}
+
 	@Override
 	public FixedProtocolNeuronConfiguration getConfigSingleton() {
 		return new FixedProtocolNeuronConfiguration();
@@ -27,12 +27,44 @@ public class FixedSynapseCollection extends SynapseCollection {
 
 	@Override
 	public void run() {
-		int synapseID = this.getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size)
 			return;
 		super.run();
 	}
 
+	@Override
+	public boolean supportsDirectStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == FixedSynapseCollection.class;
+	}
+
+	@Override
+	public void stepDirect() {
+		int sizePopulated = getSizePopulated();
+		for (int synapseID = 0; synapseID < sizePopulated; synapseID++) {
+			outputs[synapseID] = neuronOutputs[preIndexes[synapseID]] * efficacy[synapseID];
+			neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+		}
+		markStepped();
+	}
+
+	@Override
+	public boolean supportsSinglePassStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == FixedSynapseCollection.class;
+	}
+
+	@Override
+	protected boolean isPlastic() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() != FixedSynapseCollection.class;
+	}
+
 	@Override
 	public ComponentConfiguration getConfigSingleton() {
 		return null;
@@ -59,13 +59,19 @@ public class Niv2002SynapseCollection<C extends Niv2002SynapseConfiguration> ext
 
 	@Override
 	public void run() {
-		int synapseID = this.getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size)
 			return;
 
 		int configID = componentConfigIndexes[synapseID];
 		outputs[synapseID] = neuronOutputs[preIndexes[synapseID]] * efficacy[synapseID];
-		neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+		if (!postSortedAccumulation) {
+			neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+		}
 
 		// Update synapse weight via plasticity rule.
 		double delta = n[configID] * (
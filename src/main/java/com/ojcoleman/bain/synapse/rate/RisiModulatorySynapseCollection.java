@@ -85,7 +85,11 @@ public class RisiModulatorySynapseCollection extends Niv2002SynapseCollection<Ri
 
 	@Override
 	public void run() {
-		int synapseID = this.getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size) {
 			return;
 		}
@@ -99,11 +103,15 @@ public class RisiModulatorySynapseCollection extends Niv2002SynapseCollection<Ri
 		//out += "o" + nf.format(outputs[synapseID]) + "\t";
 		
 		if (modulatory[configID]) {
-			neuronModInputs[postIndexes[synapseID]] += outputs[synapseID];
+			if (!postSortedAccumulation) {
+				neuronModInputs[postIndexes[synapseID]] += outputs[synapseID];
+			}
 			//out += "m" + nf.format(neuronModInputs[postIndexes[synapseID]]) + "\t";
 			// Modulatory synapses are not plastic.
 		} else {
-			neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+			if (!postSortedAccumulation) {
+				neuronInputs[postIndexes[synapseID]] += outputs[synapseID];
+			}
 			
 			//out += "i" + nf.format(neuronInputs[postIndexes[synapseID]]) + "\t";
 			
@@ -128,6 +136,28 @@ public class RisiModulatorySynapseCollection extends Niv2002SynapseCollection<Ri
 		// done.
 	}
 	
+	/**
+	 * {@inheritDoc} The outputs of modulatory synapses are summed into the modulatory inputs of the neurons.
+	 */
+	@Override
+	protected void accumulateNeuronInputs() {
+		int neuronCount = postRowStart.length - 1;
+		for (int neuronID = getWorkItemId(); neuronID < neuronCount; neuronID += getWorkItemCount()) {
+			double input = neuronInputs[neuronID];
+			double modInput = neuronModInputs[neuronID];
+			for (int i = postRowStart[neuronID]; i < postRowStart[neuronID + 1]; i++) {
+				int synapseID = postSortedSynapseIndexes[i];
+				if (modulatory[componentConfigIndexes[synapseID]]) {
+					modInput += outputs[synapseID];
+				} else {
+					input += outputs[synapseID];
+				}
+			}
+			neuronInputs[neuronID] = input;
+			neuronModInputs[neuronID] = modInput;
+		}
+	}
+
 	@Override
 	public boolean isNotUsed(int synapseIndex) {
 		return initialEfficacy[synapseIndex] == 0 && n[componentConfigIndexes[synapseIndex]] == 0;
@@ -70,7 +70,11 @@ public class SoltoggioModulatorySynapseCollection extends Niv2002SynapseCollecti
 
 	@Override
 	public void run() {
-		int synapseID = this.getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size) {
 			return;
 		}
@@ -83,11 +87,15 @@ public class SoltoggioModulatorySynapseCollection extends Niv2002SynapseCollecti
 		
 		// If the pre-synaptic neuron is modulatory then add its output to the modulatory activation level of the post-synaptic neuron...
 		if (neuronModulatory[preNeuronID]) {
-			neuronModInputs[postNeuronID] += outputs[synapseID];
+			if (!postSortedAccumulation) {
+				neuronModInputs[postNeuronID] += outputs[synapseID];
+			}
 		} else { 
 			// ...otherwise add its output to the regular activation level of the post-synaptic neuron and then apply the weight update rule.
 			// (only connections coming from regular neurons are plastic).
-			neuronInputs[postNeuronID] += outputs[synapseID];
+			if (!postSortedAccumulation) {
+				neuronInputs[postNeuronID] += outputs[synapseID];
+			}
 		
 			if (n[configID] != 0) {
 				// Update synapse weight via plasticity rule.
@@ -103,6 +111,29 @@ public class SoltoggioModulatorySynapseCollection extends Niv2002SynapseCollecti
 		}
 	}
 	
+	/**
+	 * {@inheritDoc} The outputs of synapses from modulatory neurons are summed into the modulatory inputs of the
+	 * neurons.
+	 */
+	@Override
+	protected void accumulateNeuronInputs() {
+		int neuronCount = postRowStart.length - 1;
+		for (int neuronID = getWorkItemId(); neuronID < neuronCount; neuronID += getWorkItemCount()) {
+			double input = neuronInputs[neuronID];
+			double modInput = neuronModInputs[neuronID];
+			for (int i = postRowStart[neuronID]; i < postRowStart[neuronID + 1]; i++) {
+				int synapseID = postSortedSynapseIndexes[i];
+				if (neuronModulatory[preIndexes[synapseID]]) {
+					modInput += outputs[synapseID];
+				} else {
+					input += outputs[synapseID];
+				}
+			}
+			neuronInputs[neuronID] = input;
+			neuronModInputs[neuronID] = modInput;
+		}
+	}
+
 	@Override
 	public boolean isNotUsed(int synapseIndex) {
 		assert n[componentConfigIndexes[synapseIndex]] == ((Niv2002SynapseConfiguration) getComponentConfiguration(synapseIndex)).n;
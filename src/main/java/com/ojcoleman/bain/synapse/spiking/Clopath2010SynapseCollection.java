@@ -1,5 +1,7 @@
 package com.ojcoleman.bain.synapse.spiking;
 
+import java.util.List;
+
 import com.ojcoleman.bain.base.ComponentCollection;
 import com.ojcoleman.bain.base.ComponentConfiguration;
 import com.ojcoleman.bain.base.NeuronConfiguration;
@@ -100,7 +102,11 @@ public class Clopath2010SynapseCollection extends SynapseCollection<Clopath2010S
 
 	@Override
 	public void run() {
-		int synapseID = getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size)
 			return;
 		int configID = componentConfigIndexes[synapseID];
@@ -157,6 +163,14 @@ public class Clopath2010SynapseCollection extends SynapseCollection<Clopath2010S
 		return configSingleton;
 	}
 
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(uNeg);
+		arrays.add(uPos);
+		arrays.add(x);
+	}
+
 	@Override
 	public void ensureStateVariablesAreFresh() {
 		if (stateVariablesStale) {
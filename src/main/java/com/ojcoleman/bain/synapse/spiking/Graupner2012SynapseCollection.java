@@ -1,5 +1,7 @@
 package com.ojcoleman.bain.synapse.spiking;
 
+import java.util.List;
+
 import com.ojcoleman.bain.base.ComponentCollection;
 import com.ojcoleman.bain.base.ComponentConfiguration;
 import com.ojcoleman.bain.base.SynapseCollection;
@@ -134,7 +136,11 @@ public class Graupner2012SynapseCollection extends SynapseCollection<Graupner201
 
 	@Override
 	public void run() {
-		int synapseID = getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size)
 			return;
 		int configID = componentConfigIndexes[synapseID];
@@ -224,6 +230,16 @@ public class Graupner2012SynapseCollection extends SynapseCollection<Graupner201
 		return configSingleton;
 	}
 
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(c);
+		arrays.add(p);
+		arrays.add(preDelayCount);
+		arrays.add(preSpikedLastTimeStep);
+		arrays.add(postSpikedLastTimeStep);
+	}
+
 	@Override
 	public void ensureStateVariablesAreFresh() {
 		if (stateVariablesStale) {
@@ -1,6 +1,7 @@
 package com.ojcoleman.bain.synapse.spiking;
 
 import java.util.Arrays;
+import java.util.List;
 
 import com.ojcoleman.bain.base.ComponentCollection;
 import com.ojcoleman.bain.base.SynapseCollection;
@@ -23,6 +24,9 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 	// in kernel.
 	double[] tPDecayMult, tXDecayMult, tNDecayMult, tYDecayMult, a2N, a2P, a3N, a3P;
 
+	// Natural log of the per-step trace decay factors, for closed-form decay over multiple steps in event-driven mode.
+	double[] tPDecayLog, tXDecayLog, tNDecayLog, tYDecayLog;
+
 	public Pfister2006SynapseCollection(int size) {
 		this.size = size;
 		init();
@@ -47,6 +51,11 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 			a2P = new double[configs.size()];
 			a3N = new double[configs.size()];
 			a3P = new double[configs.size()];
+
+			tPDecayLog = new double[configs.size()];
+			tXDecayLog = new double[configs.size()];
+			tNDecayLog = new double[configs.size()];
+			tYDecayLog = new double[configs.size()];
 		}
 
 		if (network != null) {
@@ -60,6 +69,10 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 				a2P[c] = config.a2P;
 				a3N[c] = config.a3N;
 				a3P[c] = config.a3P;
+				tPDecayLog[c] = Math.log1p(-tPDecayMult[c]);
+				tXDecayLog[c] = Math.log1p(-tXDecayMult[c]);
+				tNDecayLog[c] = Math.log1p(-tNDecayMult[c]);
+				tYDecayLog[c] = Math.log1p(-tYDecayMult[c]);
 			}
 		}
 
@@ -94,7 +107,11 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 
 	@Override
 	public void run() {
-		int synapseID = getGlobalId();
+		if (getWorkItemPass() == ACCUMULATION_PASS) {
+			accumulateNeuronInputs();
+			return;
+		}
+		int synapseID = getWorkItemId();
 		if (synapseID >= size)
 			return;
 		int configID = componentConfigIndexes[synapseID];
@@ -132,6 +149,60 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 		super.run();
 	}
 
+	@Override
+	public boolean supportsEventDrivenStep() {
+		// Sub-classes may change the model implemented in run().
+		return getClass() == Pfister2006SynapseCollection.class;
+	}
+
+	@Override
+	protected void updateSynapseEventDriven(int synapseID, long steps, boolean preSpiked, boolean postSpiked) {
+		int configID = componentConfigIndexes[synapseID];
+
+		// Trace decays over all the steps, in closed form. The efficacy only changes when a spike occurs.
+		if (r1[synapseID] != 0)
+			r1[synapseID] *= Math.exp(tPDecayLog[configID] * steps);
+		if (r2[synapseID] != 0)
+			r2[synapseID] *= Math.exp(tXDecayLog[configID] * steps);
+		if (o1[synapseID] != 0)
+			o1[synapseID] *= Math.exp(tNDecayLog[configID] * steps);
+		if (o2[synapseID] != 0)
+			o2[synapseID] *= Math.exp(tYDecayLog[configID] * steps);
+
+		// The rest is as for run().
+		double r2p = r2[synapseID];
+		double o2p = o2[synapseID];
+
+		if (preSpiked) {
+			r1[synapseID] = 1;
+			r2[synapseID] = 1;
+		}
+		if (postSpiked) {
+			o1[synapseID] = 1;
+			o2[synapseID] = 1;
+		}
+
+		if (preSpiked) {
+			efficacy[synapseID] -= o1[synapseID] * (a2N[configID] + a3N[configID] * r2p);
+		}
+		if (postSpiked) {
+			efficacy[synapseID] += r1[synapseID] * (a2P[configID] + a3P[configID] * o2p);
+		}
+	}
+
+	@Override
+	public void step() {
+		// Make sure the traces and efficacies updated by event-driven stepping are transferred to the kernel.
+		if (synchronizeEventDrivenState()) {
+			put(r1);
+			put(r2);
+			put(o1);
+			put(o2);
+			put(efficacy);
+		}
+		super.step();
+	}
+
 	@Override
 	public boolean isNotUsed(int synapseIndex) {
 		int configID = componentConfigIndexes[synapseIndex];
@@ -151,8 +222,18 @@ public class Pfister2006SynapseCollection extends SynapseCollection<Pfister2006S
 		return values;
 	}
 
+	@Override
+	protected void addStateArrays(List<Object> arrays) {
+		super.addStateArrays(arrays);
+		arrays.add(r1);
+		arrays.add(r2);
+		arrays.add(o1);
+		arrays.add(o2);
+	}
+
 	@Override
 	public void ensureStateVariablesAreFresh() {
+		synchronizeEventDrivenState();
 		if (stateVariablesStale) {
 			get(r1).get(r2).get(o1).get(o2);
 		}
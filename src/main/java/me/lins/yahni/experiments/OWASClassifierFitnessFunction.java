@@ -70,6 +70,11 @@ public class OWASClassifierFitnessFunction
     private final List<List<double[]>> outputData = new ArrayList<>();
     private final List<double[]> balancedInput = new ArrayList<>();
     private final List<double[]> balancedOutput = new ArrayList<>();
+    // balancedInput and balancedOutput packed into flat arrays for Activator.nextBatch(..).
+    private double[] balancedInputFlat;
+    private double[] balancedOutputFlat;
+    private int inputStride;
+    private int outputStride;
     
     public OWASClassifierFitnessFunction() {
     }
@@ -140,6 +145,15 @@ public class OWASClassifierFitnessFunction
         
         balanceData(inputData, outputData);
         
+        inputStride = inputCols.length;
+        outputStride = outputCols.length;
+        balancedInputFlat = new double[balancedInput.size() * inputStride];
+        balancedOutputFlat = new double[balancedOutput.size() * outputStride];
+        for (var n = 0; n < balancedInput.size(); n++) {
+            System.arraycopy(balancedInput.get(n), 0, balancedInputFlat, n * inputStride, inputStride);
+            System.arraycopy(balancedOutput.get(n), 0, balancedOutputFlat, n * outputStride, outputStride);
+        }
+        
         LOGGER.info("OWASClassifierFitnessFunction initialized.");
     }
     
@@ -281,12 +295,21 @@ public class OWASClassifierFitnessFunction
                 double avgerr = 0;
                 int correct = 0;
                 
-                for(var n = 0; n < balancedInput.size(); n++) {
-                    double[] result = activator.next(balancedInput.get(n));
-                    double[] reference = balancedOutput.get(n);
-                    avgerr += aggDiff(result, reference);
-                    if(Arrays.stream(result).sum() > 0) {
-                        if (getIndexOfLargest(result) == getIndexOfLargest(reference))
+                // Activate the network for all samples in one call, then score them in a single pass.
+                int sampleCount = balancedInput.size();
+                double[] results = new double[sampleCount * outputStride];
+                activator.nextBatch(balancedInputFlat, inputStride, results, outputStride, sampleCount);
+                for(var n = 0; n < sampleCount; n++) {
+                    int r = n * outputStride;
+                    double err = 0;
+                    double sum = 0;
+                    for (var o = 0; o < outputStride; o++) {
+                        err += Math.abs(results[r + o] - balancedOutputFlat[r + o]);
+                        sum += results[r + o];
+                    }
+                    avgerr += err / outputStride;
+                    if(sum > 0) {
+                        if (getIndexOfLargest(results, r, outputStride) == getIndexOfLargest(balancedOutputFlat, r, outputStride))
                             correct++;
                     }
                 }
@@ -307,16 +330,28 @@ public class OWASClassifierFitnessFunction
     }
     
     public static int getIndexOfLargest(double[] array) {
-        if (array == null || array.length == 0) {
+        if (array == null) {
+            return -1; // null or empty
+        }
+        return getIndexOfLargest(array, 0, array.length);
+    }
+
+    /**
+     * As for {@link #getIndexOfLargest(double[])} for the <code>length</code>
+     * values in the given array starting at <code>offset</code>. The returned
+     * index is relative to <code>offset</code>.
+     */
+    public static int getIndexOfLargest(double[] array, int offset, int length) {
+        if (array == null || length == 0) {
             return -1; // null or empty
         }
         int largest = -1;
-        for (int i = 0; i < array.length; i++) {
+        for (int i = 0; i < length; i++) {
             if (largest < 0) {
                 largest = i;
-            } else if ((array[i] == array[largest]) && (i + 1 == array.length)) {
+            } else if ((array[offset + i] == array[offset + largest]) && (i + 1 == length)) {
                 return -2; // Array has two identical outputs, not possible with OWAS
-            } else if (array[i] > array[largest]) {
+            } else if (array[offset + i] > array[offset + largest]) {
                 largest = i;
             }
         }
@@ -392,17 +427,6 @@ public class OWASClassifierFitnessFunction
         } 
     }
     
-    private double aggDiff(double[] a, double[] b) {
-        assert a.length == b.length;
-        
-        double err = 0;
-        for(var n = 0; n < a.length; n++) {
-            double diff = a[n] - b[n];
-            err += Math.abs(diff);
-        }
-        return err / a.length;
-    }
-
     @Override
     public boolean endRun() {
         return endRun;
@@ -22,7 +22,6 @@ package org.jgapcustomised;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.TreeMap;
 
@@ -175,14 +174,15 @@ public class Chromosome extends EvaluationData implements Comparable, Serializab
      * <code>null</code> if none match
      */
     public Allele findMatchingGene(Allele alleleToMatch) {
-        Iterator iter = m_alleles.iterator();
-        while (iter.hasNext()) {
-            Allele allele = (Allele) iter.next();
-            if (allele.equals(alleleToMatch)) {
-                return allele;
-            }
-        }
-        return null;
+        return m_material.getPackedAlleles().find(alleleToMatch.getInnovationId());
+    }
+
+    /**
+     * @return packed alleles, sorted by innovation ID
+     * @see ChromosomeMaterial#getPackedAlleles()
+     */
+    public PackedAlleles getPackedAlleles() {
+        return m_material.getPackedAlleles();
     }
 
     /**
@@ -415,6 +415,24 @@ public class Chromosome extends EvaluationData implements Comparable, Serializab
         return m_material;
     }
 
+    /**
+     * Returns a copy of this Chromosome that is not affected by subsequent
+     * changes to this Chromosome, for use when this Chromosome is to be
+     * persisted or logged from another thread. The alleles, parent IDs, fitness
+     * and performance values are copied. The copy refers to the same species
+     * but is not added to it.
+     */
+    public Chromosome snapshot() {
+        ChromosomeMaterial material = m_material.clone(null);
+        material.setSecondaryParentId(getSecondaryParentId());
+        Chromosome copy = new Chromosome(material, m_id, m_fitnessValue.length, 0);
+        System.arraycopy(m_fitnessValue, 0, copy.m_fitnessValue, 0, m_fitnessValue.length);
+        copy.m_overallFitnessValue = m_overallFitnessValue;
+        copy.m_performanceValue.putAll(m_performanceValue);
+        copy.m_specie = m_specie;
+        return copy;
+    }
+
     public Object clone() {
         try {
             return super.clone();
@@ -47,6 +47,8 @@ public class ChromosomeMaterial implements Comparable, Serializable {
     private Long secondaryParentId = null;
     private SortedSet<Allele> m_alleles = null;
     private boolean shouldMutate = true;
+    // Snapshot of m_alleles created on demand, see getPackedAlleles().
+    private transient volatile PackedAlleles packedAlleles;
 
     public boolean pruned;
 
@@ -124,8 +126,16 @@ public class ChromosomeMaterial implements Comparable, Serializable {
         // -------------------------------------------------------------------
         List<Allele> copyOfAlleles = new ArrayList<>(m_alleles.size());
 
-        for (Allele orig : m_alleles) {
-            copyOfAlleles.add(orig.cloneAllele());
+        // Iterate over the packed alleles if available, but don't create them as this material may still be modified.
+        PackedAlleles packed = packedAlleles;
+        if (packed != null) {
+            for (int i = 0; i < packed.size(); i++) {
+                copyOfAlleles.add(packed.getAllele(i).cloneAllele());
+            }
+        } else {
+            for (Allele orig : m_alleles) {
+                copyOfAlleles.add(orig.cloneAllele());
+            }
         }
 
         // Now construct a new Chromosome with the copies of the genes and return it.
@@ -156,6 +166,27 @@ public class ChromosomeMaterial implements Comparable, Serializable {
         return m_alleles;
     }
     
+    /**
+     * Returns a snapshot of the alleles in primitive arrays, which is faster to
+     * iterate over and search than {@link #getAlleles()}. The snapshot is
+     * created when first requested and then reused, so the alleles must not be
+     * modified (via {@link #getAlleles()} or by setting allele values) after
+     * this has been called; genetic operators should only modify newly
+     * created (eg cloned) material. Material that belongs to a
+     * {@link Chromosome} is never modified.
+     *
+     * @return packed alleles, sorted by innovation ID
+     */
+    public PackedAlleles getPackedAlleles() {
+        PackedAlleles packed = packedAlleles;
+        if (packed == null) {
+            packed = new PackedAlleles(m_alleles);
+            assert packed.isSortedByInnovationId() : "Alleles of ChromosomeMaterial not sorted by innovation ID.";
+            packedAlleles = packed;
+        }
+        return packed;
+    }
+
     public Set<ConnectionAllele> getConnectionAlleles() {
         return m_alleles.stream()
                 .filter(allele -> allele instanceof ConnectionAllele)
@@ -469,57 +500,36 @@ public class ChromosomeMaterial implements Comparable, Serializable {
         boolean useValues = speciationParms.specieCompatMismatchUseValues();
         double disjointCountOrValueSum = 0, excessCountOrValueSum = 0, commonCount = 0;
         double weightDifference = 0;
-        int maxSize = Math.max(this.getAlleles().size(), target.getAlleles().size());
-
-        if (m_alleles.isEmpty() || target.m_alleles.isEmpty()) {
-            if (log) {
-                System.err.println("empty");
-            }
-
-            ChromosomeMaterial m = m_alleles.isEmpty() ? target : this;
-            for (Allele a : m.getAlleles()) {
-                excessCountOrValueSum += getMismatchValue(a, useValues);
-            }
-        } else {
-            Iterator<Allele> thisIter = m_alleles.iterator(), targetIter = target.m_alleles.iterator();
-            Allele thisCurrent = thisIter.next(), targetCurrent = targetIter.next();
-            long thisMaxInnoID = this.getMaxInnovationID(), targetMaxInnoID = target.getMaxInnovationID();
-            // Iterate through this and target alleles counting up common and disjoint genes as we go.
-            do {
-                if (thisCurrent.getInnovationId() == targetCurrent.getInnovationId()) {
-                    commonCount++;
-                    weightDifference += thisCurrent.distance(targetCurrent);
-                    thisCurrent = thisIter.hasNext() ? thisIter.next() : null;
-                    targetCurrent = targetIter.hasNext() ? targetIter.next() : null;
-                } else {
-                    Allele a = thisCurrent.getInnovationId() < targetCurrent.getInnovationId() ? thisCurrent : targetCurrent;
-                    disjointCountOrValueSum += getMismatchValue(a, useValues);
-
-                    if (thisCurrent.getInnovationId() < targetCurrent.getInnovationId()) {
-                        thisCurrent = thisIter.hasNext() ? thisIter.next() : null;
-                    } else {
-                        targetCurrent = targetIter.hasNext() ? targetIter.next() : null;
-                    }
-                }
-            } while (thisCurrent != null && targetCurrent != null);
-
-            // If the last gene pulled from this set of genes is out of the range of innovation IDs of the target, add it to excess.
-            if (thisCurrent != null && thisCurrent.getInnovationId() > targetMaxInnoID) {
-                excessCountOrValueSum += getMismatchValue(thisCurrent, useValues);
-            }
-            // If the last gene pulled from the target set of genes is out of the range of innovation IDs of this set of genes, add it to excess.
-            if (targetCurrent != null && targetCurrent.getInnovationId() > thisMaxInnoID) {
-                excessCountOrValueSum += getMismatchValue(targetCurrent, useValues);
-            }
-
-            // Iterate over and count up any remaining excess genes.
-            while (thisIter.hasNext()) {
-                excessCountOrValueSum += getMismatchValue(thisIter.next(), useValues);
-            }
-            while (targetIter.hasNext()) {
-                excessCountOrValueSum += getMismatchValue(targetIter.next(), useValues);
+        PackedAlleles thisAlleles = getPackedAlleles(), targetAlleles = target.getPackedAlleles();
+        int thisSize = thisAlleles.size(), targetSize = targetAlleles.size();
+        int maxSize = Math.max(thisSize, targetSize);
+
+        // Iterate through this and target alleles counting up common and disjoint genes as we go. The distance value
+        // of a mismatched allele is either a constant value (1) or the stored value of the allele (eg the connection
+        // weight or neuron bias).
+        int t = 0, g = 0;
+        while (t < thisSize && g < targetSize) {
+            long thisId = thisAlleles.getInnovationId(t), targetId = targetAlleles.getInnovationId(g);
+            if (thisId == targetId) {
+                commonCount++;
+                weightDifference += Math.abs(thisAlleles.getValue(t) - targetAlleles.getValue(g));
+                t++;
+                g++;
+            } else if (thisId < targetId) {
+                disjointCountOrValueSum += useValues ? thisAlleles.getValue(t) : 1;
+                t++;
+            } else {
+                disjointCountOrValueSum += useValues ? targetAlleles.getValue(g) : 1;
+                g++;
             }
         }
+        // Any remaining genes are out of the range of innovation IDs of the other set of genes, count them as excess.
+        for (; t < thisSize; t++) {
+            excessCountOrValueSum += useValues ? thisAlleles.getValue(t) : 1;
+        }
+        for (; g < targetSize; g++) {
+            excessCountOrValueSum += useValues ? targetAlleles.getValue(g) : 1;
+        }
 
         if (speciationParms.specieCompatNormalise()) {
             excessCountOrValueSum /= maxSize;
@@ -547,12 +557,6 @@ public class ChromosomeMaterial implements Comparable, Serializable {
         return result2;
     }
 
-    // Distance value of a mismatched allele as determined by whether we're using a constant value (1), 
-    // or the stored value of the allele (eg the connection weight or neuron bias).
-    private double getMismatchValue(Allele a, boolean useValues) {
-        return useValues ? a.getValue() : 1;
-    }
-
     /**
      * for hibernate
      *
@@ -560,6 +564,7 @@ public class ChromosomeMaterial implements Comparable, Serializable {
      */
     public void setAlleles(SortedSet<Allele> aAlleles) {
         m_alleles = aAlleles;
+        packedAlleles = null;
     }
 
     /**
@@ -20,12 +20,18 @@
  */
 package org.jgapcustomised;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.jgapcustomised.event.GeneticEvent;
 
@@ -33,7 +39,9 @@ import org.apache.log4j.Logger;
 
 import com.anji.neat.Evolver;
 import com.anji.neat.SpeciationStrategyOriginal;
+import com.anji.persistence.ChromosomeCodec;
 import com.anji.util.Properties;
+import com.ojcoleman.ahni.hyperneat.Checkpointable;
 import com.ojcoleman.ahni.util.ArrayUtil;
 
 /**
@@ -51,7 +59,7 @@ import com.ojcoleman.ahni.util.ArrayUtil;
  * <li>added <code>addChromosome*()</code> methods</li>
  * </ul>
  */
-public class Genotype implements Serializable {
+public class Genotype implements Serializable, Checkpointable {
 
     private static final Logger logger = Logger.getLogger(Genotype.class);
 
@@ -456,7 +464,7 @@ public class Genotype implements Serializable {
             
             // TODO
             if (offspring.isEmpty()) {
-                offspring.add(bestPerforming.getMaterial());
+                offspring.add(bestPerforming.cloneMaterial());
             }
 
             // Execute Mutation Operators.
@@ -549,6 +557,94 @@ public class Genotype implements Serializable {
         return generation;
     }
 
+    /**
+     * Write the state of this Genotype to a checkpoint: the population, the
+     * species and the chromosomes they refer to, and the statistics from the
+     * last generation. This should only be called between generations.
+     *
+     * @see com.ojcoleman.ahni.hyperneat.Checkpoint
+     */
+    @Override
+    public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(generation);
+        out.writeInt(zeroPerformanceCount);
+        out.writeInt(zeroFitnessCount);
+        out.writeInt(maxSpeciesSize);
+        out.writeInt(minSpeciesSize);
+        out.writeLong(Species.getNextID());
+
+        // Each chromosome referred to by the population, species or this genotype is written once.
+        Map<Long, Chromosome> all = new LinkedHashMap<>();
+        for (Chromosome c : m_chromosomes) {
+            all.put(c.getId(), c);
+        }
+        for (Species s : m_species) {
+            for (Chromosome c : s.getCheckpointReferences()) {
+                all.put(c.getId(), c);
+            }
+        }
+        for (Chromosome c : new Chromosome[]{fittest, bestPerforming, previousFittest, previousBestPerforming}) {
+            if (c != null) {
+                all.put(c.getId(), c);
+            }
+        }
+        out.writeInt(all.size());
+        for (Chromosome c : all.values()) {
+            ChromosomeCodec.write(out, c);
+        }
+
+        out.writeInt(m_chromosomes.size());
+        for (Chromosome c : m_chromosomes) {
+            out.writeLong(c.getId());
+        }
+        out.writeInt(m_species.size());
+        for (Species s : m_species) {
+            s.writeCheckpoint(out);
+        }
+        for (Chromosome c : new Chromosome[]{fittest, bestPerforming, previousFittest, previousBestPerforming}) {
+            out.writeLong(c == null ? ChromosomeCodec.NO_ID : c.getId());
+        }
+    }
+
+    /**
+     * Replace the state of this Genotype with the state written by
+     * {@link #writeCheckpoint(DataOutputStream)}.
+     */
+    @Override
+    public synchronized void readCheckpoint(DataInputStream in) throws IOException {
+        generation = in.readInt();
+        zeroPerformanceCount = in.readInt();
+        zeroFitnessCount = in.readInt();
+        maxSpeciesSize = in.readInt();
+        minSpeciesSize = in.readInt();
+        Species.ensureNextIDAtLeast(in.readLong());
+
+        int count = in.readInt();
+        Map<Long, Chromosome> all = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            Chromosome c = ChromosomeCodec.read(in, m_activeConfiguration.getObjectiveCount(), m_activeConfiguration.getNoveltyObjectiveCount());
+            all.put(c.getId(), c);
+        }
+
+        for (Chromosome c : m_chromosomes) {
+            c.resetSpecie();
+        }
+        int popSize = in.readInt();
+        m_chromosomes = new ArrayList<>(popSize);
+        for (int i = 0; i < popSize; i++) {
+            m_chromosomes.add(all.get(in.readLong()));
+        }
+        int speciesCount = in.readInt();
+        m_species = new ArrayList<>(speciesCount);
+        for (int i = 0; i < speciesCount; i++) {
+            m_species.add(Species.readCheckpoint(in, m_specParms, all));
+        }
+        fittest = all.get(in.readLong());
+        bestPerforming = all.get(in.readLong());
+        previousFittest = all.get(in.readLong());
+        previousBestPerforming = all.get(in.readLong());
+    }
+
     /**
      * @return <code>String</code> representation of this <code>Genotype</code>
      * instance.
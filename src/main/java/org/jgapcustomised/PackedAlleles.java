@@ -0,0 +1,144 @@
+package org.jgapcustomised;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.anji.neat.ConnectionAllele;
+import com.anji.neat.NeuronAllele;
+
+/**
+ * An immutable snapshot of the alleles of a {@link ChromosomeMaterial} in primitive arrays sorted by innovation ID:
+ * the innovation IDs, values and kind (neuron, connection or other) of each allele, and the alleles themselves. This
+ * allows operations that only read the alleles, such as computing the compatibility distance between Chromosomes,
+ * looking up alleles by innovation ID and transcription, to avoid iterating over the tree-based
+ * {@link ChromosomeMaterial#getAlleles()} set and unboxing innovation IDs.
+ *
+ * @see ChromosomeMaterial#getPackedAlleles()
+ */
+public final class PackedAlleles {
+
+    /**
+     * Kind of an allele that is neither a {@link NeuronAllele} nor a {@link ConnectionAllele}.
+     */
+    public static final byte KIND_OTHER = 0;
+    /**
+     * Kind of a {@link NeuronAllele}.
+     */
+    public static final byte KIND_NEURON = 1;
+    /**
+     * Kind of a {@link ConnectionAllele}.
+     */
+    public static final byte KIND_CONNECTION = 2;
+
+    private final long[] innovationIds;
+    private final double[] values;
+    private final byte[] kinds;
+    private final Allele[] alleles;
+    private final int neuronCount, connectionCount;
+
+    /**
+     * @param sortedAlleles The alleles, in order of increasing innovation ID.
+     */
+    PackedAlleles(Collection<Allele> sortedAlleles) {
+        int size = sortedAlleles.size();
+        innovationIds = new long[size];
+        values = new double[size];
+        kinds = new byte[size];
+        alleles = new Allele[size];
+        int i = 0, neurons = 0, connections = 0;
+        for (Allele allele : sortedAlleles) {
+            alleles[i] = allele;
+            innovationIds[i] = allele.getInnovationId();
+            values[i] = allele.getValue();
+            if (allele instanceof NeuronAllele) {
+                kinds[i] = KIND_NEURON;
+                neurons++;
+            } else if (allele instanceof ConnectionAllele) {
+                kinds[i] = KIND_CONNECTION;
+                connections++;
+            } else {
+                kinds[i] = KIND_OTHER;
+            }
+            i++;
+        }
+        neuronCount = neurons;
+        connectionCount = connections;
+    }
+
+    /**
+     * @return the number of alleles.
+     */
+    public int size() {
+        return alleles.length;
+    }
+
+    /**
+     * @return the innovation ID of the allele at the given index.
+     */
+    public long getInnovationId(int index) {
+        return innovationIds[index];
+    }
+
+    /**
+     * @return the value of the allele at the given index, as it was when this snapshot was created.
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the kind of the allele at the given index, one of {@link #KIND_NEURON}, {@link #KIND_CONNECTION} or
+     *         {@link #KIND_OTHER}.
+     */
+    public byte getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return the allele at the given index.
+     */
+    public Allele getAllele(int index) {
+        return alleles[index];
+    }
+
+    /**
+     * @return the number of {@link NeuronAllele}s.
+     */
+    public int getNeuronCount() {
+        return neuronCount;
+    }
+
+    /**
+     * @return the number of {@link ConnectionAllele}s.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return the index of the allele with the given innovation ID, or a negative value if there is no such allele.
+     */
+    public int indexOf(long innovationId) {
+        return Arrays.binarySearch(innovationIds, innovationId);
+    }
+
+    /**
+     * @return the allele with the given innovation ID, or null if there is no such allele.
+     */
+    public Allele find(long innovationId) {
+        int index = indexOf(innovationId);
+        return index >= 0 ? alleles[index] : null;
+    }
+
+    /**
+     * @return true iff the innovation IDs are strictly increasing, as required by {@link #indexOf(long)}.
+     */
+    boolean isSortedByInnovationId() {
+        for (int i = 1; i < innovationIds.length; i++) {
+            if (innovationIds[i - 1] >= innovationIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
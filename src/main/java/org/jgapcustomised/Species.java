@@ -19,6 +19,9 @@
  */
 package org.jgapcustomised;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -26,6 +29,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+
+import com.anji.persistence.ChromosomeCodec;
 
 /**
  * Species are reproductively isolated segments of a population. They are used
@@ -116,6 +122,12 @@ public class Species {
         //return getFittest().equals(other.getFittest());
     }
 
+    /**
+     * Used to restore a species from a checkpoint.
+     */
+    private Species() {
+    }
+
     /**
      * Create new species defined by given representative material.
      *
@@ -614,4 +626,98 @@ public class Species {
         }
         return toRemove;
     }
+
+    /**
+     * @return the chromosomes referred to by this species (its members and
+     * best performing chromosomes), which must be available when the species
+     * is restored from a checkpoint.
+     */
+    List<Chromosome> getCheckpointReferences() {
+        List<Chromosome> refs = new ArrayList<>(chromosomes);
+        if (bestPerforming != null) {
+            refs.add(bestPerforming);
+        }
+        if (previousBestPerforming != null) {
+            refs.add(previousBestPerforming);
+        }
+        return refs;
+    }
+
+    /**
+     * Write the state of this species to a checkpoint. Chromosomes are
+     * written by ID, see {@link Genotype#writeCheckpoint(DataOutputStream)}.
+     */
+    void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeLong(id);
+        out.writeInt(age);
+        out.writeInt(stagnantGenerationsCount);
+        out.writeDouble(bestPerformanceEver);
+        out.writeInt(eliteCount);
+        out.writeInt(originalSize);
+        out.writeInt(previousOriginalSize);
+        out.writeDouble(newProportionalSize);
+        out.writeDouble(averageFitness);
+        out.writeBoolean(containsBestPerforming);
+        ChromosomeCodec.writeMaterial(out, representative);
+        synchronized (chromosomes) {
+            out.writeInt(chromosomes.size());
+            for (Chromosome c : chromosomes) {
+                out.writeLong(c.getId());
+            }
+        }
+        out.writeLong(bestPerforming == null ? ChromosomeCodec.NO_ID : bestPerforming.getId());
+        out.writeLong(previousBestPerforming == null ? ChromosomeCodec.NO_ID : previousBestPerforming.getId());
+    }
+
+    /**
+     * Restore a species written by {@link #writeCheckpoint(DataOutputStream)}.
+     * The member chromosomes are looked up in the given map and have their
+     * species set to the restored species.
+     */
+    static Species readCheckpoint(DataInputStream in, SpeciationParms speciationParms, Map<Long, Chromosome> chromosomesById) throws IOException {
+        Species s = new Species();
+        s.speciationParms = speciationParms;
+        s.id = in.readLong();
+        s.age = in.readInt();
+        s.stagnantGenerationsCount = in.readInt();
+        s.bestPerformanceEver = in.readDouble();
+        s.eliteCount = in.readInt();
+        s.originalSize = in.readInt();
+        s.previousOriginalSize = in.readInt();
+        s.newProportionalSize = in.readDouble();
+        s.averageFitness = in.readDouble();
+        s.containsBestPerforming = in.readBoolean();
+        s.representative = ChromosomeCodec.readMaterial(in);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            Chromosome c = chromosomesById.get(in.readLong());
+            s.chromosomes.add(c);
+            c.setSpecie(s);
+        }
+        s.bestPerforming = chromosomesById.get(in.readLong());
+        s.previousBestPerforming = chromosomesById.get(in.readLong());
+        return s;
+    }
+
+    /**
+     * @return the ID that will be given to the next species created.
+     */
+    static long getNextID() {
+        synchronized (ID_TAG) {
+            return idCount;
+        }
+    }
+
+    /**
+     * Ensure that the ID given to the next species created is at least the
+     * given ID, used when restoring from a checkpoint. The counter is shared by
+     * all runs in this JVM, so it is never moved backwards; otherwise resuming
+     * one run could cause IDs already given to species of other concurrent runs
+     * to be reused.
+     */
+    static void ensureNextIDAtLeast(long nextId) {
+        synchronized (ID_TAG) {
+            idCount = Math.max(idCount, nextId);
+        }
+    }
 }
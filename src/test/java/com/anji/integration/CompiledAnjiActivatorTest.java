@@ -0,0 +1,119 @@
+package com.anji.integration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.anji.nn.AnjiNet;
+import com.anji.nn.CacheNeuronConnection;
+import com.anji.nn.CompiledAnjiNet;
+import com.anji.nn.Neuron;
+import com.anji.nn.NeuronConnection;
+import com.anji.nn.activationfunction.ActivationFunction;
+
+/**
+ * Checks that {@link CompiledAnjiActivator} produces exactly the same outputs
+ * as {@link AnjiActivator} for the same recurrent networks.
+ */
+public class CompiledAnjiActivatorTest {
+
+    private static final int NETWORK_COUNT = 50;
+    private static final int INPUT_COUNT = 4;
+    private static final int HIDDEN_COUNT = 8;
+    private static final int OUTPUT_COUNT = 3;
+    private static final double CONNECTION_PROBABILITY = 0.4;
+    private static final int STEPS = 20;
+
+    @Test
+    public void compiledMatchesInterpreted() {
+        for (int cycles = 1; cycles <= 3; cycles++) {
+            for (int i = 0; i < NETWORK_COUNT; i++) {
+                long seed = i * 31 + cycles;
+                // An activator attaches its input pattern to the input neurons, so each activator gets its own copy
+                // of the network built from the same seed.
+                AnjiNet net = newRecurrentNet(seed);
+                assertTrue(net.isRecurrent());
+                assertTrue(CompiledAnjiNet.canCompile(net));
+
+                AnjiActivator interpreted = new AnjiActivator(net, cycles);
+                CompiledAnjiActivator compiled = new CompiledAnjiActivator(newRecurrentNet(seed), cycles);
+
+                Random inputRandom = new Random(seed);
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int step = 0; step < STEPS; step++) {
+                        double[] input = new double[INPUT_COUNT];
+                        for (int in = 0; in < INPUT_COUNT; in++) {
+                            input[in] = inputRandom.nextDouble() * 2 - 1;
+                        }
+                        String message = "network " + seed + ", cycles " + cycles + ", pass " + pass + ", step " + step;
+                        assertArrayEquals(message, interpreted.next(input), compiled.next(input), 0);
+                    }
+                    interpreted.reset();
+                    compiled.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a random network in which connections from a neuron to itself or
+     * to an earlier non-input neuron are recurrent.
+     */
+    private static AnjiNet newRecurrentNet(long seed) {
+        Random random = new Random(seed);
+        ActivationFunction[] functions = ActivationFunction.values();
+
+        List<Neuron> inputNeurons = new ArrayList<>();
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            inputNeurons.add(newNeuron(ActivationFunction.LinearActivationFunction, 0, inputNeurons.size()));
+        }
+        List<Neuron> nonInputNeurons = new ArrayList<>();
+        for (int i = 0; i < HIDDEN_COUNT; i++) {
+            ActivationFunction function = functions[random.nextInt(functions.length)];
+            nonInputNeurons.add(newNeuron(function, random.nextGaussian(), INPUT_COUNT + i));
+        }
+        List<Neuron> outputNeurons = new ArrayList<>();
+        for (int i = 0; i < OUTPUT_COUNT; i++) {
+            Neuron n = newNeuron(ActivationFunction.SigmoidActivationFunction, random.nextGaussian(), INPUT_COUNT + HIDDEN_COUNT + i);
+            outputNeurons.add(n);
+            nonInputNeurons.add(n);
+        }
+
+        List<CacheNeuronConnection> recurrentConns = new ArrayList<>();
+        for (int dest = 0; dest < nonInputNeurons.size(); dest++) {
+            for (Neuron src : inputNeurons) {
+                if (random.nextDouble() < CONNECTION_PROBABILITY) {
+                    nonInputNeurons.get(dest).addIncomingConnection(new NeuronConnection(src, random.nextGaussian()));
+                }
+            }
+            for (int src = 0; src < nonInputNeurons.size(); src++) {
+                if (random.nextDouble() < CONNECTION_PROBABILITY) {
+                    NeuronConnection conn;
+                    if (src >= dest) {
+                        CacheNeuronConnection cacheConn = new CacheNeuronConnection(nonInputNeurons.get(src), random.nextGaussian());
+                        recurrentConns.add(cacheConn);
+                        conn = cacheConn;
+                    } else {
+                        conn = new NeuronConnection(nonInputNeurons.get(src), random.nextGaussian());
+                    }
+                    nonInputNeurons.get(dest).addIncomingConnection(conn);
+                }
+            }
+        }
+
+        List<Neuron> allNeurons = new ArrayList<>(inputNeurons);
+        allNeurons.addAll(nonInputNeurons);
+        return new AnjiNet(allNeurons, inputNeurons, outputNeurons, recurrentConns, "network " + seed);
+    }
+
+    private static Neuron newNeuron(ActivationFunction function, double bias, long id) {
+        Neuron n = new Neuron(function, bias);
+        n.setId(id);
+        return n;
+    }
+}
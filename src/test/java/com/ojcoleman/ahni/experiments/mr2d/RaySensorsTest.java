@@ -0,0 +1,151 @@
+package com.ojcoleman.ahni.experiments.mr2d;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.dyn4j.collision.narrowphase.Gjk;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.RaycastResult;
+import org.dyn4j.dynamics.World;
+import org.dyn4j.geometry.Circle;
+import org.dyn4j.geometry.MassType;
+import org.dyn4j.geometry.Ray;
+import org.dyn4j.geometry.Rectangle;
+import org.dyn4j.geometry.Vector2;
+import org.junit.Test;
+
+/**
+ * Checks that {@link RaySensors} produces the same sensor data as casting each sensor ray with a Dyn4J world raycast,
+ * as {@link Dyn4JEnvironment#getSensorData()} used to, for the same walls and objects.
+ */
+public class RaySensorsTest {
+	private static final int SENSOR_COUNT = 15;
+	private static final double VIEW_ANGLE = Math.PI * 0.75;
+	private static final int ENVIRONMENT_COUNT = 20;
+	private static final int OBJECT_COUNT = 12;
+	private static final int STEPS = 50;
+	// Distances are computed with different (but equivalent) arithmetic, so allow for rounding differences.
+	private static final double RANGE_TOLERANCE = 1e-12;
+
+	@Test
+	public void matchesWorldRaycast() {
+		for (int e = 0; e < ENVIRONMENT_COUNT; e++) {
+			Random random = new Random(e);
+			World world = new World();
+			// Dyn4J raycasts against polygons (the walls) iteratively and by default stops up to about 1e-4 short of
+			// the surface; RaySensors computes the exact intersection, so let the raycast converge fully.
+			Gjk gjk = new Gjk();
+			gjk.setRaycastEpsilon(1e-20);
+			gjk.setMaxRaycastIterations(1000);
+			world.setRaycastDetector(gjk);
+			RaySensors sensors = new RaySensors(SENSOR_COUNT, VIEW_ANGLE, 100);
+			addWall(world, sensors, -0.1, 0, 0, 1);
+			addWall(world, sensors, 0, 1, 1, 1.1);
+			addWall(world, sensors, 1, 1, 1.1, 0);
+			addWall(world, sensors, 1, 0, 0, -0.1);
+
+			Body agent = addCircle(world, random.nextDouble(), random.nextDouble(), 0.05, 0);
+			List<Body> staticBodies = new ArrayList<Body>();
+			List<Body> dynamicBodies = new ArrayList<Body>();
+			for (int i = 0; i < OBJECT_COUNT; i++) {
+				double x = random.nextDouble(), y = random.nextDouble(), radius = 0.01 + random.nextDouble() * 0.1;
+				double colour = random.nextInt(5) * 0.25;
+				Body body = addCircle(world, x, y, radius, colour);
+				if (random.nextBoolean()) {
+					sensors.addStatic(x, y, radius, colour);
+					staticBodies.add(body);
+				} else {
+					sensors.addDynamic(x, y, radius, colour);
+					dynamicBodies.add(body);
+				}
+			}
+			sensors.buildIndex();
+
+			double[][] expected = new double[2][SENSOR_COUNT];
+			double[][] actual = new double[2][SENSOR_COUNT];
+			for (int step = 0; step < STEPS; step++) {
+				String message = "environment " + e + ", step " + step;
+				// Sometimes keep the agent still, so that the cached static hits are reused.
+				if (random.nextInt(3) != 0) {
+					agent.getTransform().setTranslation(random.nextDouble(), random.nextDouble());
+					agent.getTransform().setRotation(random.nextDouble() * Math.PI * 2);
+				}
+				if (random.nextBoolean() && !dynamicBodies.isEmpty()) {
+					int i = random.nextInt(dynamicBodies.size());
+					double x = random.nextDouble(), y = random.nextDouble();
+					dynamicBodies.get(i).getTransform().setTranslation(x, y);
+					sensors.setDynamicPosition(i, x, y);
+				}
+				if (random.nextInt(10) == 0) {
+					int i = random.nextInt(staticBodies.size() + dynamicBodies.size());
+					if (i < staticBodies.size()) {
+						world.removeBody(staticBodies.get(i));
+						sensors.removeStatic(i);
+					} else {
+						world.removeBody(dynamicBodies.get(i - staticBodies.size()));
+						sensors.removeDynamic(i - staticBodies.size());
+					}
+				}
+
+				worldRaycast(world, agent, expected);
+				sensors.cast(agent.getTransform().getTranslationX(), agent.getTransform().getTranslationY(), agent.getTransform().getRotationAngle(), actual);
+				assertArrayEquals(message, expected[0], actual[0], RANGE_TOLERANCE);
+				assertArrayEquals(message, expected[1], actual[1], 0);
+			}
+		}
+	}
+
+	private static void addWall(World world, RaySensors sensors, double x1, double y1, double x2, double y2) {
+		Body body = new Body(1);
+		body.addFixture(new Rectangle(Math.abs(x2 - x1), Math.abs(y2 - y1)));
+		body.setMass(MassType.INFINITE);
+		body.translate((x2 + x1) / 2, (y2 + y1) / 2);
+		world.addBody(body);
+		sensors.addBox(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+	}
+
+	private static Body addCircle(World world, double x, double y, double radius, double colour) {
+		Body body = new Body(1);
+		body.addFixture(new Circle(radius));
+		body.setMass(MassType.INFINITE);
+		body.getTransform().setTranslation(x, y);
+		body.setUserData(colour);
+		world.addBody(body);
+		return body;
+	}
+
+	/**
+	 * The sensing previously done in {@link Dyn4JEnvironment#getSensorData()}: one world raycast per sensor.
+	 */
+	private static void worldRaycast(World world, Body agent, double[][] sensorData) {
+		// Bodies were moved directly rather than by stepping the world, so bring the broadphase up to date.
+		for (int i = 0; i < world.getBodyCount(); i++) {
+			world.getBroadphaseDetector().update(world.getBody(i));
+		}
+		List<RaycastResult> results = new ArrayList<RaycastResult>();
+		double rotation = agent.getTransform().getRotationAngle();
+		Vector2 location = agent.getTransform().getTranslation();
+		double rayAngle = rotation - VIEW_ANGLE / 2 + Math.PI / 2;
+		double rayAngleDelta = VIEW_ANGLE / (SENSOR_COUNT - 1);
+		Ray ray = new Ray(location, rayAngle);
+		for (int si = 0; si < SENSOR_COUNT; si++) {
+			results.clear();
+			world.raycast(ray, 100, true, false, results);
+			if (results.isEmpty()) {
+				sensorData[0][si] = 10;
+				sensorData[1][si] = -1;
+			} else if (results.get(0).getBody().getUserData() == null) {
+				sensorData[0][si] = results.get(0).getRaycast().getDistance();
+				sensorData[1][si] = -1;
+			} else {
+				sensorData[0][si] = results.get(0).getRaycast().getDistance();
+				sensorData[1][si] = (Double) results.get(0).getBody().getUserData();
+			}
+			rayAngle += rayAngleDelta;
+			ray.setDirection(rayAngle);
+		}
+	}
+}
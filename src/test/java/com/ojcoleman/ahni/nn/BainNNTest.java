@@ -0,0 +1,99 @@
+package com.ojcoleman.ahni.nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ojcoleman.bain.NeuralNetwork;
+import com.ojcoleman.bain.base.NeuronCollection;
+import com.ojcoleman.bain.base.SynapseCollection;
+import com.ojcoleman.bain.neuron.rate.NeuronCollectionWithBias;
+
+/**
+ * Checks that non-layered feed-forward {@link BainNN}s produce exactly the same outputs when activated in a single
+ * topological pass as when the whole network is stepped once per layer.
+ */
+public class BainNNTest {
+	private static final String[] NEURON_MODELS = { "com.ojcoleman.bain.neuron.rate.SigmoidNeuronCollection", "com.ojcoleman.bain.neuron.rate.SigmoidBipolarNeuronCollection", "com.ojcoleman.bain.neuron.rate.LinearNeuronCollection", "com.ojcoleman.bain.neuron.rate.ClampedLinearNeuronCollection" };
+	private static final String SYNAPSE_MODEL = "com.ojcoleman.bain.synapse.rate.FixedSynapseCollection";
+	private static final int NETWORK_COUNT = 20;
+	private static final int INPUT_COUNT = 5;
+	private static final int OUTPUT_COUNT = 3;
+	private static final int NEURON_COUNT = 40;
+	private static final int SYNAPSE_COUNT = 150;
+	private static final int STEPS = 10;
+
+	@Test
+	public void singlePassMatchesMultiStep() throws Exception {
+		for (String neuronModel : NEURON_MODELS) {
+			for (int postSorted = 0; postSorted < 2; postSorted++) {
+				for (int i = 0; i < NETWORK_COUNT; i++) {
+					BainNN singlePass = newFeedForwardNet(neuronModel, postSorted == 1, i);
+					BainNN multiStep = newFeedForwardNet(neuronModel, postSorted == 1, i);
+					multiStep.setSinglePassEnabled(false);
+					assertEquals(BainNN.Topology.FEED_FORWARD_NONLAYERED, singlePass.getTopology());
+					assertTrue(singlePass.getNeuralNetwork().canStepSinglePass());
+
+					Random inputRandom = new Random(i);
+					for (int step = 0; step < STEPS; step++) {
+						double[] input = new double[INPUT_COUNT];
+						for (int in = 0; in < INPUT_COUNT; in++) {
+							input[in] = inputRandom.nextDouble() * 2 - 1;
+						}
+						String message = neuronModel + ", post-sorted " + (postSorted == 1) + ", network " + i + ", step " + step;
+						assertArrayEquals(message, multiStep.next(input), singlePass.next(input), 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a random feed-forward network with the input neurons first and the output neurons last, in which the
+	 * other neuron indexes are shuffled so that index order is not a topological order.
+	 */
+	private static BainNN newFeedForwardNet(String neuronModel, boolean postSorted, long seed) throws Exception {
+		Random random = new Random(seed);
+		// Topological rank of each neuron index; inputs keep their index and outputs stay in the last indexes.
+		int[] rank = new int[NEURON_COUNT];
+		for (int n = 0; n < NEURON_COUNT; n++) {
+			rank[n] = n;
+		}
+		for (int n = NEURON_COUNT - 1; n > INPUT_COUNT; n--) {
+			int m = INPUT_COUNT + random.nextInt(n - INPUT_COUNT + 1);
+			int t = rank[n];
+			rank[n] = rank[m];
+			rank[m] = t;
+		}
+		int[] neuronAtRank = new int[NEURON_COUNT];
+		for (int n = 0; n < NEURON_COUNT; n++) {
+			neuronAtRank[rank[n]] = n;
+		}
+
+		List<int[]> connections = new ArrayList<int[]>();
+		while (connections.size() < SYNAPSE_COUNT) {
+			int preRank = random.nextInt(NEURON_COUNT - 1);
+			int postRank = Math.max(INPUT_COUNT, preRank + 1) + random.nextInt(NEURON_COUNT - Math.max(INPUT_COUNT, preRank + 1));
+			connections.add(new int[] { neuronAtRank[preRank], neuronAtRank[postRank] });
+		}
+
+		NeuronCollection neurons = BainNN.createNeuronCollection(neuronModel, NEURON_COUNT, true, false, false);
+		for (int n = 0; n < NEURON_COUNT; n++) {
+			((NeuronCollectionWithBias) neurons).setBias(n, random.nextGaussian());
+		}
+		SynapseCollection synapses = BainNN.createSynapseCollection(SYNAPSE_MODEL, SYNAPSE_COUNT, false, false, -5, 5);
+		for (int s = 0; s < SYNAPSE_COUNT; s++) {
+			synapses.setPreAndPostNeurons(s, connections.get(s)[0], connections.get(s)[1]);
+			synapses.setEfficacy(s, random.nextGaussian());
+		}
+		synapses.setPostSortedAccumulation(postSorted);
+		NeuralNetwork nn = new NeuralNetwork(1000, neurons, synapses, null);
+		return new BainNN(nn, new int[] { INPUT_COUNT }, new int[] { OUTPUT_COUNT }, 0, BainNN.Topology.FEED_FORWARD_NONLAYERED, "network " + seed);
+	}
+}